@@ -0,0 +1,90 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.benchmarks;
+
+import org.organicdesign.fp.collections.ImMap;
+import org.organicdesign.fp.collections.ImMapTrans;
+import org.organicdesign.fp.collections.PersistentHashMap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ JMH measures time, not space, so this prints roughly how many bytes of heap each entry of a
+ PersistentHashMap, a PersistentChampMap (PersistentHashMap.emptyChamp()), and a java.util.HashMap
+ takes up, not counting the keys and values themselves.  It measures the used heap after a full
+ GC with and without the map, so run it on an otherwise idle JVM, e.g.:
+
+ java -XX:+UseSerialGC -cp target/benchmarks.jar org.organicdesign.fp.benchmarks.HashMapFootprint
+ */
+public class HashMapFootprint {
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static ImMap<Integer,Integer> build(ImMapTrans<Integer,Integer> empty,
+                                                Integer[] keys) {
+        ImMapTrans<Integer,Integer> m = empty.asTransient();
+        for (Integer k : keys) {
+            m = m.assoc(k, k);
+        }
+        return m.persistent();
+    }
+
+    private static double bytesPerEntry(String layout, Integer[] keys) {
+        long before = usedHeap();
+        Object map;
+        if ("champ".equals(layout)) {
+            map = build(PersistentHashMap.emptyChamp(), keys);
+        } else if ("hamt".equals(layout)) {
+            map = build(PersistentHashMap.empty(), keys);
+        } else {
+            Map<Integer,Integer> m = new HashMap<>();
+            for (Integer k : keys) {
+                m.put(k, k);
+            }
+            map = m;
+        }
+        long after = usedHeap();
+        // Keep the map reachable until after the measurement.
+        if (map.hashCode() == 42) {
+            System.out.println();
+        }
+        return (after - before) / (double) keys.length;
+    }
+
+    public static void main(String[] args) {
+        for (int size : new int[] { 1000, 100000, 1000000, 5000000 }) {
+            // Create the keys up front so that they aren't counted.
+            Integer[] keys = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = i * 0x9E3779B1;
+            }
+            for (String layout : new String[] { "hamt", "champ", "ju" }) {
+                // GC timing makes any one measurement noisy, so take the smallest of several.
+                double best = Double.MAX_VALUE;
+                for (int i = 0; i < 5; i++) {
+                    best = Math.min(best, bytesPerEntry(layout, keys));
+                }
+                System.out.printf("%8d entries %-6s %6.1f bytes/entry%n", size, layout, best);
+            }
+        }
+    }
+}
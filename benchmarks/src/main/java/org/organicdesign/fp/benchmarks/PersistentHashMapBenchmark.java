@@ -0,0 +1,277 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.organicdesign.fp.collections.Equator;
+import org.organicdesign.fp.collections.ImMap;
+import org.organicdesign.fp.collections.ImMapTrans;
+import org.organicdesign.fp.collections.PersistentHashMap;
+import org.organicdesign.fp.collections.UnmodMap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.StreamSupport;
+
+/**
+ PersistentHashMap assoc/without/entry/iterate, both with the default Equator and with a custom
+ one, compared with java.util.HashMap and java.util.stream.  The layout param switches between
+ PersistentHashMap's own trie and the CHAMP layout from PersistentHashMap.emptyChamp().  For the
+ heap used by each layout, see {@link HashMapFootprint}.  Methods prefixed with "ju" or "stream"
+ are the baselines.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersistentHashMapBenchmark {
+
+    /**
+     Behaves exactly like the default equator, but is a different object so that the map has to
+     call through the interface.
+     */
+    static final Equator<String> STRING_EQUATOR = new Equator<String>() {
+        @Override public int hash(String s) { return (s == null) ? 0 : s.hashCode(); }
+
+        @Override public boolean eq(String o1, String o2) {
+            return (o1 == null) ? (o2 == null) : o1.equals(o2);
+        }
+    };
+
+    @Param({"32", "1000", "100000"})
+    public int size;
+
+    /** "default" uses the built-in Equator, "custom" passes STRING_EQUATOR to the map. */
+    @Param({"default", "custom"})
+    public String equator;
+
+    /** "hamt" is a plain PersistentHashMap, "champ" is a PersistentChampMap. */
+    @Param({"hamt", "champ"})
+    public String layout;
+
+    private String[] keys;
+    private String[] lookups;
+    private ImMapTrans<String,Integer> emptyMap;
+    private ImMap<String,Integer> map;
+    private Map<String,Integer> hashMap;
+    // Equal to map, one shares all but one path with it, the other shares nothing.
+    private ImMap<String,Integer> derivedMap;
+    private ImMap<String,Integer> rebuiltMap;
+    private Map<String,Integer> otherHashMap;
+    // The hamt layout again, with a copy that differs in one key, for union() and intersect().
+    private PersistentHashMap<String,Integer> hamtMap;
+    private PersistentHashMap<String,Integer> hamtDerived;
+
+    @Setup
+    public void setup() {
+        keys = new String[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = "key" + i;
+        }
+
+        // Half the lookups hit, half miss, in a random (but repeatable) order.
+        Random rnd = new Random(size);
+        lookups = new String[size];
+        for (int i = 0; i < size; i++) {
+            lookups[i] = rnd.nextBoolean() ? keys[rnd.nextInt(size)]
+                                           : "miss" + rnd.nextInt(size);
+        }
+
+        Equator<String> eq = "custom".equals(equator) ? STRING_EQUATOR : null;
+        emptyMap = "champ".equals(layout) ? PersistentHashMap.emptyChamp(eq)
+                                          : PersistentHashMap.empty(eq);
+        ImMap<String,Integer> m = emptyMap;
+        hashMap = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            m = m.assoc(keys[i], i);
+            hashMap.put(keys[i], i);
+        }
+        map = m;
+        derivedMap = map.assoc(keys[0], -1).assoc(keys[0], 0);
+
+        ImMap<String,Integer> r = emptyMap;
+        for (int i = size - 1; i >= 0; i--) {
+            r = r.assoc(keys[i], i);
+        }
+        rebuiltMap = r;
+        otherHashMap = new HashMap<>(hashMap);
+
+        PersistentHashMap<String,Integer> h = PersistentHashMap.empty(eq);
+        for (int i = 0; i < size; i++) {
+            h = h.assoc(keys[i], i);
+        }
+        hamtMap = h;
+        hamtDerived = h.assoc("extra", -1);
+    }
+
+    @Benchmark
+    public ImMap<String,Integer> assoc() {
+        ImMap<String,Integer> m = emptyMap;
+        for (int i = 0; i < keys.length; i++) {
+            m = m.assoc(keys[i], i);
+        }
+        return m;
+    }
+
+    @Benchmark
+    public ImMap<String,Integer> assocTransient() {
+        ImMap<String,Integer> m = emptyMap.asTransient();
+        for (int i = 0; i < keys.length; i++) {
+            m = m.assoc(keys[i], i);
+        }
+        return m;
+    }
+
+    @Benchmark
+    public Map<String,Integer> juPut() {
+        Map<String,Integer> m = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            m.put(keys[i], i);
+        }
+        return m;
+    }
+
+    @Benchmark
+    public ImMap<String,Integer> without() {
+        ImMap<String,Integer> m = map;
+        for (String k : keys) {
+            m = m.without(k);
+        }
+        return m;
+    }
+
+    /** The fair comparison for an immutable remove is copy-on-write, so copy once, then remove. */
+    @Benchmark
+    public Map<String,Integer> juCopyAndRemove() {
+        Map<String,Integer> m = new HashMap<>(hashMap);
+        for (String k : keys) {
+            m.remove(k);
+        }
+        return m;
+    }
+
+    @Benchmark
+    public int entry() {
+        int found = 0;
+        for (String k : lookups) {
+            if (map.entry(k).isSome()) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public long get() {
+        long sum = 0;
+        for (String k : lookups) {
+            Integer v = map.get(k);
+            if (v != null) {
+                sum += v;
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long juGet() {
+        long sum = 0;
+        for (String k : lookups) {
+            Integer v = hashMap.get(k);
+            if (v != null) {
+                sum += v;
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long iterate() {
+        long sum = 0;
+        for (UnmodMap.UnEntry<String,Integer> e : map) {
+            sum += e.getValue();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long juIterate() {
+        long sum = 0;
+        for (Map.Entry<String,Integer> e : hashMap.entrySet()) {
+            sum += e.getValue();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long streamIterate() {
+        return hashMap.entrySet().stream().mapToLong(Map.Entry::getValue).sum();
+    }
+
+    @Benchmark
+    public long parallelIterate() {
+        return StreamSupport.stream(map.spliterator(), true).mapToLong(Map.Entry::getValue).sum();
+    }
+
+    @Benchmark
+    public long streamParallelIterate() {
+        return hashMap.entrySet().parallelStream().mapToLong(Map.Entry::getValue).sum();
+    }
+
+    @Benchmark
+    public long parallelFold() {
+        return map.parallelFold(0L, (sum, e) -> sum + e.getValue(), Long::sum);
+    }
+
+    @Benchmark
+    public boolean equalsDerived() { return map.equals(derivedMap); }
+
+    @Benchmark
+    public boolean equalsRebuilt() { return map.equals(rebuiltMap); }
+
+    @Benchmark
+    public boolean juEquals() { return hashMap.equals(otherHashMap); }
+
+    /**
+     Everything but one path is shared, so this should take about the same time at every size.
+     The baseline is juPutAll.
+     */
+    @Benchmark
+    public int unionDerived() { return hamtMap.union(hamtDerived).size(); }
+
+    @Benchmark
+    public int intersectDerived() { return hamtMap.intersect(hamtDerived).size(); }
+
+    @Benchmark
+    public int juPutAll() {
+        Map<String,Integer> m = new HashMap<>(hashMap);
+        m.putAll(otherHashMap);
+        return m.size();
+    }
+}
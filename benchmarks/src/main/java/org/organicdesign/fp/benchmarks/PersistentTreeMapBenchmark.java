@@ -0,0 +1,233 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.organicdesign.fp.collections.ImSortedMap;
+import org.organicdesign.fp.collections.PersistentTreeMap;
+import org.organicdesign.fp.collections.UnmodMap;
+import org.organicdesign.fp.collections.UnmodSortedIterator;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ PersistentTreeMap assoc/entry/subMap/tailMap compared with java.util.TreeMap and
+ java.util.stream.  Methods prefixed with "ju" or "stream" are the baselines.  TreeMap.subMap()
+ returns a live view, so the baselines copy the view to make the comparison fair.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersistentTreeMapBenchmark {
+
+    @Param({"32", "1000", "100000"})
+    public int size;
+
+    private Integer[] keys;
+    private Integer[] lookups;
+    private PersistentTreeMap<Integer,Integer> map;
+    private TreeMap<Integer,Integer> treeMap;
+    private int from;
+    private int to;
+
+    @Setup
+    public void setup() {
+        // Even keys only, so that half the random lookups miss.
+        Random rnd = new Random(size);
+        keys = new Integer[size];
+        lookups = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = rnd.nextInt(size) * 2;
+            lookups[i] = rnd.nextInt(size * 2);
+        }
+
+        PersistentTreeMap<Integer,Integer> m = PersistentTreeMap.empty();
+        treeMap = new TreeMap<>();
+        for (Integer k : keys) {
+            m = m.assoc(k, k);
+            treeMap.put(k, k);
+        }
+        map = m;
+
+        // The middle half of the key range.
+        from = size / 2;
+        to = from + size;
+    }
+
+    @Benchmark
+    public ImSortedMap<Integer,Integer> assoc() {
+        ImSortedMap<Integer,Integer> m = PersistentTreeMap.empty();
+        for (Integer k : keys) {
+            m = m.assoc(k, k);
+        }
+        return m;
+    }
+
+    @Benchmark
+    public ImSortedMap<Integer,Integer> assocTransient() {
+        PersistentTreeMap.TransientTreeMap<Integer,Integer> m =
+                PersistentTreeMap.<Integer,Integer>empty().asTransient();
+        for (Integer k : keys) {
+            m.assoc(k, k);
+        }
+        return m.persistent();
+    }
+
+    /** Rebuilds the whole map from its own (sorted) entries. */
+    @Benchmark
+    public ImSortedMap<Integer,Integer> ofSorted() {
+        return PersistentTreeMap.ofSorted(Comparator.<Integer>naturalOrder(), map);
+    }
+
+    @Benchmark
+    public SortedMap<Integer,Integer> juPut() {
+        TreeMap<Integer,Integer> m = new TreeMap<>();
+        for (Integer k : keys) {
+            m.put(k, k);
+        }
+        return m;
+    }
+
+    @Benchmark
+    public int entry() {
+        int found = 0;
+        for (Integer k : lookups) {
+            if (map.entry(k).isSome()) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int juGet() {
+        int found = 0;
+        for (Integer k : lookups) {
+            if (treeMap.get(k) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public ImSortedMap<Integer,Integer> subMap() { return map.subMap(from, to); }
+
+    @Benchmark
+    public SortedMap<Integer,Integer> juSubMapCopy() { return new TreeMap<>(treeMap.subMap(from, to)); }
+
+    @Benchmark
+    public ImSortedMap<Integer,Integer> tailMap() { return map.tailMap(from); }
+
+    @Benchmark
+    public SortedMap<Integer,Integer> juTailMapCopy() { return new TreeMap<>(treeMap.tailMap(from)); }
+
+    @Benchmark
+    public ImSortedMap<Integer,Integer> headMap() { return map.headMap(to); }
+
+    @Benchmark
+    public SortedMap<Integer,Integer> juHeadMapCopy() { return new TreeMap<>(treeMap.headMap(to)); }
+
+    @Benchmark
+    public long subMapSum() {
+        long sum = 0;
+        for (Map.Entry<Integer,Integer> e : map.subMap(from, to)) {
+            sum += e.getValue();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long streamSubMapSum() {
+        return treeMap.subMap(from, to).values().stream().mapToLong(Integer::longValue).sum();
+    }
+
+    @Benchmark
+    public long descendingSum() {
+        long sum = 0;
+        UnmodSortedIterator<UnmodMap.UnEntry<Integer,Integer>> iter = map.descendingIterator();
+        while (iter.hasNext()) {
+            sum += iter.next().getValue();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long juDescendingSum() {
+        long sum = 0;
+        for (Integer v : treeMap.descendingMap().values()) {
+            sum += v;
+        }
+        return sum;
+    }
+
+    /** The ten entries at or before "to", latest first. */
+    @Benchmark
+    public long latestTen() {
+        long sum = 0;
+        UnmodSortedIterator<UnmodMap.UnEntry<Integer,Integer>> iter = map.iteratorFrom(to, false);
+        for (int i = 0; (i < 10) && iter.hasNext(); i++) {
+            sum += iter.next().getValue();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long juLatestTen() {
+        long sum = 0;
+        Iterator<Integer> iter = treeMap.headMap(to, true).descendingMap().values().iterator();
+        for (int i = 0; (i < 10) && iter.hasNext(); i++) {
+            sum += iter.next();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int median() { return map.select(map.size() / 2).getKey(); }
+
+    @Benchmark
+    public int juMedian() {
+        Iterator<Integer> iter = treeMap.keySet().iterator();
+        for (int i = treeMap.size() / 2; i > 0; i--) {
+            iter.next();
+        }
+        return iter.next();
+    }
+
+    @Benchmark
+    public int rank() { return map.rank(from); }
+
+    @Benchmark
+    public int juRank() { return treeMap.headMap(from).size(); }
+}
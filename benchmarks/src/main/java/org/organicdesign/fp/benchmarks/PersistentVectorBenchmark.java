@@ -0,0 +1,234 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.organicdesign.fp.collections.ImList;
+import org.organicdesign.fp.collections.PersistentIntVector;
+import org.organicdesign.fp.collections.PersistentVector;
+import org.organicdesign.fp.xform.Xform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ PersistentVector append/get/replace/iterate compared with java.util.ArrayList and
+ java.util.stream.  Methods prefixed with "ju" or "stream" are the baselines.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersistentVectorBenchmark {
+
+    @Param({"32", "1000", "100000"})
+    public int size;
+
+    private ImList<Integer> vec;
+    private PersistentIntVector intVec;
+    private List<Integer> arrayList;
+    private int[] indices;
+
+    @Setup
+    public void setup() {
+        ImList<Integer> v = PersistentVector.empty();
+        arrayList = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            v = v.append(i);
+            arrayList.add(i);
+        }
+        vec = v;
+        int[] ints = new int[size];
+        for (int i = 0; i < size; i++) {
+            ints[i] = i;
+        }
+        intVec = PersistentIntVector.of(ints);
+
+        // Random access order, the same every run.
+        Random rnd = new Random(size);
+        indices = new int[size];
+        for (int i = 0; i < size; i++) {
+            indices[i] = rnd.nextInt(size);
+        }
+    }
+
+    @Benchmark
+    public ImList<Integer> append() {
+        ImList<Integer> v = PersistentVector.empty();
+        for (int i = 0; i < size; i++) {
+            v = v.append(i);
+        }
+        return v;
+    }
+
+    @Benchmark
+    public List<Integer> juAppend() {
+        List<Integer> l = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            l.add(i);
+        }
+        return l;
+    }
+
+    @Benchmark
+    public long get() {
+        long sum = 0;
+        for (int idx : indices) {
+            sum += vec.get(idx);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long juGet() {
+        long sum = 0;
+        for (int idx : indices) {
+            sum += arrayList.get(idx);
+        }
+        return sum;
+    }
+
+    /** The same as get(), but from int[] leaves, without unboxing. */
+    @Benchmark
+    public long getInt() {
+        long sum = 0;
+        for (int idx : indices) {
+            sum += intVec.getInt(idx);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public ImList<Integer> replace() {
+        ImList<Integer> v = vec;
+        for (int idx : indices) {
+            v = v.replace(idx, -idx);
+        }
+        return v;
+    }
+
+    /** The fair comparison for an immutable replace is copy-on-write, so copy once, then set. */
+    @Benchmark
+    public List<Integer> juCopyAndSet() {
+        List<Integer> l = new ArrayList<>(arrayList);
+        for (int idx : indices) {
+            l.set(idx, -idx);
+        }
+        return l;
+    }
+
+    @Benchmark
+    public long iterate() {
+        long sum = 0;
+        for (Integer i : vec) {
+            sum += i;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long juIterate() {
+        long sum = 0;
+        for (Integer i : arrayList) {
+            sum += i;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long forEachChunk() {
+        long[] sum = new long[] { 0 };
+        ((PersistentVector<Integer>) vec).forEachChunk((chunk, from, to) -> {
+            for (int i = from; i < to; i++) {
+                sum[0] += (Integer) chunk[i];
+            }
+            return true;
+        });
+        return sum[0];
+    }
+
+    @Benchmark
+    public long foldLeft() {
+        return vec.foldLeft(0L, (sum, i) -> sum + i);
+    }
+
+    /** Like foldLeft(), but over int[] leaves with no boxing (the int sum can overflow). */
+    @Benchmark
+    public int foldLeftInt() { return intVec.foldLeftInt(0, (sum, i) -> sum + i); }
+
+    @Benchmark
+    public long streamReduce() {
+        return arrayList.stream().reduce(0L, (sum, i) -> sum + i, (a, b) -> a + b);
+    }
+
+    /** A single dropLast() should cost about the same no matter the size. */
+    @Benchmark
+    public ImList<Integer> dropLast() { return vec.dropLast(); }
+
+    /** How we used to do dropLast(): O(n). */
+    @Benchmark
+    public ImList<Integer> xformTakeSizeMinusOne() {
+        return Xform.of(vec).take(vec.size() - 1).toImList();
+    }
+
+    /** The immutable java.util equivalent is a copy. */
+    @Benchmark
+    public List<Integer> juCopyWithoutLast() {
+        return new ArrayList<>(arrayList.subList(0, arrayList.size() - 1));
+    }
+
+    /** Use the whole vector as a stack. */
+    @Benchmark
+    public ImList<Integer> dropLastAll() {
+        ImList<Integer> v = vec;
+        while (v.size() > 0) {
+            v = v.dropLast();
+        }
+        return v;
+    }
+
+    @Benchmark
+    public List<Integer> juRemoveLastAll() {
+        List<Integer> l = new ArrayList<>(arrayList);
+        while (l.size() > 0) {
+            l.remove(l.size() - 1);
+        }
+        return l;
+    }
+
+    @Benchmark
+    public long parallelSum() {
+        return vec.stream().parallel().mapToLong(Integer::longValue).sum();
+    }
+
+    @Benchmark
+    public long juParallelSum() {
+        return arrayList.stream().parallel().mapToLong(Integer::longValue).sum();
+    }
+}
@@ -0,0 +1,117 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.organicdesign.fp.collections.ImList;
+import org.organicdesign.fp.collections.ImMap;
+import org.organicdesign.fp.collections.ImSet;
+import org.organicdesign.fp.collections.ImSortedMap;
+import org.organicdesign.fp.collections.ImSortedSet;
+import org.organicdesign.fp.collections.PersistentHashMap;
+import org.organicdesign.fp.collections.PersistentHashSet;
+import org.organicdesign.fp.collections.PersistentTreeMap;
+import org.organicdesign.fp.collections.PersistentTreeSet;
+import org.organicdesign.fp.collections.PersistentVector;
+import org.organicdesign.fp.tuple.Tuple2;
+import org.organicdesign.fp.xform.Xform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ The Transformable.toIm___() realizers, which build through a transient collection and make it
+ persistent once at the end, compared with folding the same items into the persistent collection
+ one put() or assoc() at a time (the methods prefixed with "fold"), which is what they used to do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RealizerBenchmark {
+
+    @Param({"32", "1000", "100000"})
+    public int size;
+
+    private Xform<Integer> items;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(size);
+        List<Integer> al = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            al.add(rnd.nextInt(size * 2));
+        }
+        items = Xform.of(al);
+    }
+
+    @Benchmark
+    public ImList<Integer> toImList() { return items.toImList(); }
+
+    @Benchmark
+    public ImList<Integer> foldImList() {
+        return items.foldLeft(PersistentVector.empty(), PersistentVector::append);
+    }
+
+    @Benchmark
+    public ImSet<Integer> toImSet() { return items.toImSet(); }
+
+    @Benchmark
+    public ImSet<Integer> foldImSet() {
+        return items.foldLeft(PersistentHashSet.empty(), PersistentHashSet::put);
+    }
+
+    @Benchmark
+    public ImMap<Integer,Integer> toImMap() { return items.toImMap(i -> Tuple2.of(i, i)); }
+
+    @Benchmark
+    public ImMap<Integer,Integer> foldImMap() {
+        return items.foldLeft(PersistentHashMap.empty(), (m, i) -> m.assoc(i, i));
+    }
+
+    @Benchmark
+    public ImSortedSet<Integer> toImSortedSet() {
+        return items.toImSortedSet(Integer::compare);
+    }
+
+    @Benchmark
+    public ImSortedSet<Integer> foldImSortedSet() {
+        return items.foldLeft(PersistentTreeSet.ofComp(Integer::compare), PersistentTreeSet::put);
+    }
+
+    @Benchmark
+    public ImSortedMap<Integer,Integer> toImSortedMap() {
+        return items.toImSortedMap(Integer::compare, i -> Tuple2.of(i, i));
+    }
+
+    @Benchmark
+    public ImSortedMap<Integer,Integer> foldImSortedMap() {
+        return items.foldLeft(PersistentTreeMap.empty(Integer::compare), (m, i) -> m.assoc(i, i));
+    }
+}
@@ -0,0 +1,247 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.organicdesign.fp.collections.ImSet;
+import org.organicdesign.fp.collections.ImSortedSet;
+import org.organicdesign.fp.collections.PersistentHashSet;
+import org.organicdesign.fp.collections.PersistentTreeSet;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ PersistentHashSet and PersistentTreeSet put/contains/iterate compared with java.util.HashSet,
+ java.util.TreeSet and java.util.stream.  Methods prefixed with "ju" or "stream" are the baselines.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SetBenchmark {
+
+    @Param({"32", "1000", "100000"})
+    public int size;
+
+    private Integer[] items;
+    private Integer[] lookups;
+    private ImSet<Integer> hashSet;
+    // Half overlaps hashSet
+    private ImSet<Integer> otherHashSet;
+    // hashSet with a few changes, so it shares most of its trie with hashSet
+    private ImSet<Integer> derivedHashSet;
+    private ImSortedSet<Integer> treeSet;
+    private Set<Integer> juHashSet;
+    private Set<Integer> juOtherHashSet;
+    private SortedSet<Integer> juTreeSet;
+
+    @Setup
+    public void setup() {
+        // Even numbers only, so that half the random lookups miss.
+        Random rnd = new Random(size);
+        items = new Integer[size];
+        lookups = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            items[i] = rnd.nextInt(size) * 2;
+            lookups[i] = rnd.nextInt(size * 2);
+        }
+        hashSet = hashPut();
+        treeSet = treePut();
+        juHashSet = juHashAdd();
+        juTreeSet = juTreeAdd();
+
+        ImSet<Integer> other = PersistentHashSet.empty();
+        for (Integer i : lookups) {
+            other = other.put(i);
+        }
+        otherHashSet = other;
+        juOtherHashSet = new HashSet<>(other);
+        ImSet<Integer> derived = hashSet;
+        for (int i = 0; i < 10; i++) {
+            derived = derived.put(-i - 1);
+        }
+        derivedHashSet = derived;
+    }
+
+    @Benchmark
+    public ImSet<Integer> hashPut() {
+        ImSet<Integer> s = PersistentHashSet.empty();
+        for (Integer i : items) {
+            s = s.put(i);
+        }
+        return s;
+    }
+
+    @Benchmark
+    public Set<Integer> juHashAdd() {
+        Set<Integer> s = new HashSet<>();
+        for (Integer i : items) {
+            s.add(i);
+        }
+        return s;
+    }
+
+    @Benchmark
+    public Set<Integer> streamToSet() {
+        return java.util.Arrays.stream(items).collect(Collectors.toSet());
+    }
+
+    @Benchmark
+    public int hashContains() {
+        int found = 0;
+        for (Integer i : lookups) {
+            if (hashSet.contains(i)) { found++; }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int juHashContains() {
+        int found = 0;
+        for (Integer i : lookups) {
+            if (juHashSet.contains(i)) { found++; }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public long hashIterate() {
+        long sum = 0;
+        for (Integer i : hashSet) {
+            sum += i;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long juHashIterate() {
+        long sum = 0;
+        for (Integer i : juHashSet) {
+            sum += i;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public ImSortedSet<Integer> treePut() {
+        ImSortedSet<Integer> s = PersistentTreeSet.empty();
+        for (Integer i : items) {
+            s = s.put(i);
+        }
+        return s;
+    }
+
+    @Benchmark
+    public SortedSet<Integer> juTreeAdd() {
+        SortedSet<Integer> s = new TreeSet<>();
+        for (Integer i : items) {
+            s.add(i);
+        }
+        return s;
+    }
+
+    @Benchmark
+    public int treeContains() {
+        int found = 0;
+        for (Integer i : lookups) {
+            if (treeSet.contains(i)) { found++; }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int juTreeContains() {
+        int found = 0;
+        for (Integer i : lookups) {
+            if (juTreeSet.contains(i)) { found++; }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public long treeIterate() {
+        long sum = 0;
+        for (Integer i : treeSet) {
+            sum += i;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long juTreeIterate() {
+        long sum = 0;
+        for (Integer i : juTreeSet) {
+            sum += i;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public ImSet<Integer> hashUnion() { return hashSet.union(otherHashSet); }
+
+    @Benchmark
+    public ImSet<Integer> hashUnionDerived() { return hashSet.union(derivedHashSet); }
+
+    @Benchmark
+    public Set<Integer> juHashUnion() {
+        Set<Integer> s = new HashSet<>(juHashSet);
+        s.addAll(juOtherHashSet);
+        return s;
+    }
+
+    @Benchmark
+    public ImSet<Integer> hashIntersect() { return hashSet.intersect(otherHashSet); }
+
+    /** The way to intersect before there was an intersect() method. */
+    @Benchmark
+    public ImSet<Integer> hashIntersectFilter() {
+        return hashSet.filter(otherHashSet::contains).toImSet();
+    }
+
+    @Benchmark
+    public Set<Integer> juHashIntersect() {
+        Set<Integer> s = new HashSet<>(juHashSet);
+        s.retainAll(juOtherHashSet);
+        return s;
+    }
+
+    @Benchmark
+    public ImSet<Integer> hashDifference() { return hashSet.difference(otherHashSet); }
+
+    @Benchmark
+    public Set<Integer> juHashDifference() {
+        Set<Integer> s = new HashSet<>(juHashSet);
+        s.removeAll(juOtherHashSet);
+        return s;
+    }
+}
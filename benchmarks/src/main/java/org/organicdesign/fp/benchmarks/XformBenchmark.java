@@ -0,0 +1,326 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.organicdesign.fp.collections.ImList;
+import org.organicdesign.fp.collections.ImMap;
+import org.organicdesign.fp.collections.PersistentHashMap;
+import org.organicdesign.fp.collections.PersistentVector;
+import org.organicdesign.fp.collections.RangeOfInt;
+import org.organicdesign.fp.xform.IntXform;
+import org.organicdesign.fp.xform.Xform;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ Xform map/filter/flatMap/take/drop chains compared with the equivalent java.util.stream
+ pipelines and a hand-written java.util loop.  Methods prefixed with "ju" or "stream" are the
+ baselines.  The source is either an ArrayList or a PersistentVector holding the same items.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class XformBenchmark {
+
+    @Param({"32", "1000", "100000"})
+    public int size;
+
+    @Param({"ArrayList", "PersistentVector"})
+    public String source;
+
+    private List<Integer> items;
+    private RangeOfInt range;
+    private Xform.Plan<Integer> sixStagePlan;
+
+    @Setup
+    public void setup() {
+        List<Integer> al = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            al.add(i);
+        }
+        items = "PersistentVector".equals(source) ? PersistentVector.ofIter(al) : al;
+        range = RangeOfInt.of(0, size);
+        sixStagePlan = Xform.of(items)
+                            .map(i -> i * 3)
+                            .filter(i -> (i & 1) == 0)
+                            .map(i -> i + 1)
+                            .filter(i -> i % 5 != 0)
+                            .map(i -> i - 1)
+                            .filter(i -> i > 10)
+                            .compile();
+    }
+
+    @Benchmark
+    public long mapFilter() {
+        return Xform.of(items)
+                    .map(i -> i * 3)
+                    .filter(i -> (i & 1) == 0)
+                    .foldLeft(0L, (sum, i) -> sum + i);
+    }
+
+    /** Six stages, which Xform fuses into three ops, then into the reducer. */
+    @Benchmark
+    public long sixStages() {
+        return Xform.of(items)
+                    .map(i -> i * 3)
+                    .filter(i -> (i & 1) == 0)
+                    .map(i -> i + 1)
+                    .filter(i -> i % 5 != 0)
+                    .map(i -> i - 1)
+                    .filter(i -> i > 10)
+                    .foldLeft(0L, (sum, i) -> sum + i);
+    }
+
+    /** sixStages(), compiled once in setup(). */
+    @Benchmark
+    public long compiledSixStages() {
+        return sixStagePlan.run(items, 0L, (sum, i) -> sum + i);
+    }
+
+    @Benchmark
+    public long streamSixStages() {
+        return items.stream()
+                    .map(i -> i * 3)
+                    .filter(i -> (i & 1) == 0)
+                    .map(i -> i + 1)
+                    .filter(i -> i % 5 != 0)
+                    .map(i -> i - 1)
+                    .filter(i -> i > 10)
+                    .reduce(0L, (sum, i) -> sum + i, (a, b) -> a + b);
+    }
+
+    /** The same as mapFilter(), but pulling the results through an iterator. */
+    @Benchmark
+    public long iterateMapFilter() {
+        long sum = 0;
+        for (Integer i : Xform.of(items)
+                              .map(i -> i * 3)
+                              .filter(i -> (i & 1) == 0)) {
+            sum += i;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long streamIterateMapFilter() {
+        long sum = 0;
+        Iterator<Integer> iter = items.stream()
+                                      .map(i -> i * 3)
+                                      .filter(i -> (i & 1) == 0)
+                                      .iterator();
+        while (iter.hasNext()) {
+            sum += iter.next();
+        }
+        return sum;
+    }
+
+    /** The same as mapFilter(), but folding chunks of the source on all cores. */
+    @Benchmark
+    public long mapFilterParallel() {
+        return Xform.of(items)
+                    .map(i -> i * 3)
+                    .filter(i -> (i & 1) == 0)
+                    .foldLeftParallel(0L, (sum, i) -> sum + i, Long::sum);
+    }
+
+    @Benchmark
+    public long parallelStreamMapFilter() {
+        return items.parallelStream()
+                    .map(i -> i * 3)
+                    .filter(i -> (i & 1) == 0)
+                    .reduce(0L, (sum, i) -> sum + i, (a, b) -> a + b);
+    }
+
+    /** The same as mapFilter(), but unboxing once at the start. */
+    @Benchmark
+    public long mapToIntFilter() {
+        return Xform.of(items)
+                    .mapToInt(i -> i * 3)
+                    .filter(i -> (i & 1) == 0)
+                    .sum();
+    }
+
+    /** The same as mapFilter(), but with a RangeOfInt source, so nothing is ever boxed. */
+    @Benchmark
+    public long intXformMapFilter() {
+        return IntXform.of(range)
+                       .map(i -> i * 3)
+                       .filter(i -> (i & 1) == 0)
+                       .sum();
+    }
+
+    @Benchmark
+    public long streamMapToIntFilter() {
+        return items.stream()
+                    .mapToInt(i -> i * 3)
+                    .filter(i -> (i & 1) == 0)
+                    .asLongStream()
+                    .sum();
+    }
+
+    @Benchmark
+    public long streamMapFilter() {
+        return items.stream()
+                    .map(i -> i * 3)
+                    .filter(i -> (i & 1) == 0)
+                    .reduce(0L, (sum, i) -> sum + i, (a, b) -> a + b);
+    }
+
+    @Benchmark
+    public long juMapFilter() {
+        long sum = 0;
+        for (Integer i : items) {
+            int j = i * 3;
+            if ((j & 1) == 0) {
+                sum += j;
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long flatMap() {
+        return Xform.of(items)
+                    .flatMap(i -> Arrays.asList(i, -i))
+                    .foldLeft(0L, (sum, i) -> sum + Math.abs(i));
+    }
+
+    @Benchmark
+    public long streamFlatMap() {
+        return items.stream()
+                    .flatMap(i -> Arrays.asList(i, -i).stream())
+                    .reduce(0L, (sum, i) -> sum + Math.abs(i), (a, b) -> a + b);
+    }
+
+    @Benchmark
+    public long dropTake() {
+        return Xform.of(items)
+                    .drop(size / 4)
+                    .take(size / 2)
+                    .foldLeft(0L, (sum, i) -> sum + i);
+    }
+
+    /** The last page of 20 items, after a map that the skipped items shouldn't need. */
+    @Benchmark
+    public long mapLastPage() {
+        return Xform.of(items)
+                    .map(i -> i + 1)
+                    .drop(size - 20)
+                    .take(20)
+                    .foldLeft(0L, (sum, i) -> sum + i);
+    }
+
+    @Benchmark
+    public long streamMapLastPage() {
+        return items.stream()
+                    .map(i -> i + 1)
+                    .skip(size - 20)
+                    .limit(20)
+                    .reduce(0L, (sum, i) -> sum + i, (a, b) -> a + b);
+    }
+
+    /** Stops at the item half way through. */
+    @Benchmark
+    public boolean foldLeftTerminate() {
+        int target = size / 2;
+        return Xform.of(items)
+                    .map(i -> i + 1)
+                    .foldLeft(Boolean.FALSE, (found, i) -> i == target, found -> found);
+    }
+
+    @Benchmark
+    public boolean streamAnyMatch() {
+        int target = size / 2;
+        return items.stream()
+                    .map(i -> i + 1)
+                    .anyMatch(i -> i == target);
+    }
+
+    @Benchmark
+    public ImMap<Integer,ImList<Integer>> groupBy() {
+        return Xform.of(items).groupBy(i -> i & 63);
+    }
+
+    /** What groupBy() replaces: a persistent assoc (and append) for every item. */
+    @Benchmark
+    public ImMap<Integer,ImList<Integer>> foldLeftGroupBy() {
+        return Xform.of(items)
+                    .foldLeft(PersistentHashMap.<Integer,ImList<Integer>>empty(),
+                              (m, i) -> m.assoc(i & 63,
+                                                m.getOrElse(i & 63, PersistentVector.empty())
+                                                 .append(i)));
+    }
+
+    @Benchmark
+    public Map<Integer,List<Integer>> streamGroupingBy() {
+        return items.stream().collect(Collectors.groupingBy(i -> i & 63));
+    }
+
+    @Benchmark
+    public ImMap<Integer,Long> countBy() {
+        return Xform.of(items).countBy(i -> i & 63);
+    }
+
+    @Benchmark
+    public Map<Integer,Long> streamCountingBy() {
+        return items.stream().collect(Collectors.groupingBy(i -> i & 63, Collectors.counting()));
+    }
+
+    @Benchmark
+    public long streamSkipLimit() {
+        return items.stream()
+                    .skip(size / 4)
+                    .limit(size / 2)
+                    .reduce(0L, (sum, i) -> sum + i, (a, b) -> a + b);
+    }
+
+    @Benchmark
+    public ImList<Integer> mapFilterTakeToImList() {
+        return Xform.of(items)
+                    .map(i -> i * 3)
+                    .filter(i -> (i & 1) == 0)
+                    .take(size / 4)
+                    .toImList();
+    }
+
+    @Benchmark
+    public List<Integer> streamMapFilterLimitToList() {
+        return items.stream()
+                    .map(i -> i * 3)
+                    .filter(i -> (i & 1) == 0)
+                    .limit(size / 4)
+                    .collect(Collectors.toList());
+    }
+}
@@ -36,6 +36,7 @@ import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
+import java.util.Spliterator;
 
 /**
  A dumping ground for utility functions that aren't useful enough to belong in StaticImports.
@@ -330,6 +331,8 @@ public class FunctionUtils {
             @Override public UnmodListIterator<T> listIterator() {
                 return unmodListIterator(inner.listIterator());
             }
+            // inner.get() could be O(n) (e.g. LinkedList) so don't use the index-based default.
+            @Override public Spliterator<T> spliterator() { return inner.spliterator(); }
             @Override public UnmodSortedIterator<T> iterator() {
                 Iterator<T> iter = inner.iterator();
                 return new UnmodSortedIterator<T>() {
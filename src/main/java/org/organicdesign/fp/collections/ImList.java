@@ -89,33 +89,33 @@ public interface ImList<E> extends UnmodList<E> {
 //            return inner.get(index + offset);
 //        }
 //    }
-//
-//    /**
-//     This default implementation is at least O(n) slow.
-//     Inserts a new item at the specified index, shifting that item and subsequent items up/right.
-//     @param i the zero-based index to insert at
-//     @param val the value to insert
-//     @return a new ImList with the additional item.
-//     */
-//    default ImList<E> insert(int i, E val) {
-//        if (i == size()) { return append(val); }
-//
-//        if ( (i > size()) || (i < 0) ) {
-//            throw new IllegalArgumentException("Can't insert outside the possible bounds");
-//        }
-//
-//        UnmodIterator<E> iter = iterator();
-//        ImList<E> v = PersistentVector.empty();
-//        int j = 0;
-//        for (; j < i; j++) {
-//            v = v.append(iter.next());
-//        }
-//        v = v.append(val);
-//        for (; j < size(); j++) {
-//            v = v.append(iter.next());
-//        }
-//        return v;
-//    }
+
+    /**
+     Inserts a new item at the specified index, shifting that item and subsequent items up/right.
+     @param i the zero-based index to insert at
+     @param val the value to insert
+     @return a new ImList with the additional item.  This default implementation is O(n).
+     RrbTree overrides it with an O(log n) version.
+     */
+    default ImList<E> insert(int i, E val) {
+        if (i == size()) { return append(val); }
+
+        if ( (i > size()) || (i < 0) ) {
+            throw new IllegalArgumentException("Can't insert outside the possible bounds");
+        }
+
+        UnmodIterator<E> iter = iterator();
+        PersistentVector.TransientVector<E> v = PersistentVector.emptyTransient();
+        int j = 0;
+        for (; j < i; j++) {
+            v.append(iter.next());
+        }
+        v.append(val);
+        for (; j < size(); j++) {
+            v.append(iter.next());
+        }
+        return v.persistent();
+    }
 
     /**
      Adds one item to the end of the ImList.
@@ -176,6 +176,51 @@ public interface ImList<E> extends UnmodList<E> {
 //     */
 //    default E get(Number n) { return get(n.intValue()); }
 
+    /**
+     Returns a new ImList without the last item.  PersistentVector and RrbTree do this in
+     O(log32 n) time by sharing everything else with this list.  This default implementation is
+     O(n).
+     @return a new ImList, one item shorter than this one.
+     @throws IllegalStateException if this list is empty.
+     */
+    default ImList<E> dropLast() {
+        if (size() == 0) {
+            throw new IllegalStateException("Can't pop empty vector");
+        }
+        UnmodIterator<E> iter = iterator();
+        PersistentVector.TransientVector<E> v = PersistentVector.emptyTransient();
+        for (int j = size() - 1; j > 0; j--) {
+            v.append(iter.next());
+        }
+        return v.persistent();
+    }
+
+    /**
+     Returns a new ImList without the item at the given index, shifting all subsequent items
+     down/left.  This is not called remove() because java.util.List.remove(int) returns the removed
+     item.  Removing the last item is the same as dropLast().  RrbTree does this in O(log n) time
+     for any index.  Otherwise this default implementation is O(n).
+     @param idx the zero-based index of the item to remove
+     @return a new ImList without the item at that index.
+     */
+    default ImList<E> without(int idx) {
+        if ( (idx < 0) || (idx >= size()) ) {
+            throw new IndexOutOfBoundsException("Index: " + idx + " Size: " + size());
+        }
+        if (idx == size() - 1) {
+            return dropLast();
+        }
+        UnmodIterator<E> iter = iterator();
+        PersistentVector.TransientVector<E> v = PersistentVector.emptyTransient();
+        for (int j = 0; j < size(); j++) {
+            E item = iter.next();
+            if (j != idx) {
+                v.append(item);
+            }
+        }
+        return v.persistent();
+    }
+
     /**
      * Returns the item at this index.
      * @param i the zero-based index to get from the vector.
@@ -1,6 +1,7 @@
 package org.organicdesign.fp.collections;
 
 import org.organicdesign.fp.Option;
+import org.organicdesign.fp.function.Function2;
 
 import java.util.Map;
 
@@ -41,6 +42,23 @@ public interface ImMap<K,V> extends UnmodMap<K,V> {
         return entry.isSome() ? entry.get().getValue() : notFound;
     }
 
+    /**
+     Reduces the entries of this map, possibly in several threads at once.  Each thread starts its
+     share of the entries from identity and reduces them with the reducer.  The combiner then merges
+     those partial results.  So identity must be an identity for the combiner, neither function may
+     modify its arguments, and the result must not depend on the order of the entries.  The default
+     implementation is just a sequential foldLeft() that never calls the combiner.
+
+     @param identity the starting value for each partial result (e.g. 0 for a sum).
+     @param reducer combines a partial result with one entry.
+     @param combiner combines two partial results.
+     @return the combination of all the partial results.
+     */
+    default <R> R parallelFold(R identity, Function2<R,? super UnEntry<K,V>,R> reducer,
+                               Function2<R,R,R> combiner) {
+        return foldLeft(identity, reducer);
+    }
+
 //    @Override default UnmodCollection<V> values() { return map(e -> e.getValue()).toImSet(); }
 
 //    @Override default UnmodIterator<UnEntry<K,V>> iterator() { return seq().iterator(); }
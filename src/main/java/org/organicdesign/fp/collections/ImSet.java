@@ -45,6 +45,23 @@ public interface ImSet<E> extends UnmodSet<E> {
         return ret;
     }
 
+    /**
+     Returns a set of the items in this set which are also in the given iterable.  The default
+     implementation is this.difference(this.difference(iter)), which only needs without().
+     */
+    default ImSet<E> intersect(Iterable<? extends E> iter) {
+        if (iter == null) { return difference(this); }
+        return difference(difference(iter));
+    }
+
+    /** Returns a set of the items in this set which are not in the given iterable. */
+    default ImSet<E> difference(Iterable<? extends E> iter) {
+        if (iter == null) { return this; }
+        ImSet<E> ret = this;
+        for (E e : iter) { ret = ret.without(e); }
+        return ret;
+    }
+
 //    /** {@inheritDoc} */
 //    @Override UnmodIterator<E> iterator();
 
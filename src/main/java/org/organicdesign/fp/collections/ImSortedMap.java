@@ -15,6 +15,10 @@ package org.organicdesign.fp.collections;
 
 import org.organicdesign.fp.Option;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 
 /** An immutable sorted map. */
@@ -55,6 +59,68 @@ public interface ImSortedMap<K,V> extends UnmodSortedMap<K,V> {
     @Override
     UnmodSortedIterator<UnEntry<K, V>> iterator();
 
+    /**
+     Returns an iterator over the UnEntries of this map from the largest key to the smallest.
+     @return an Iterator.
+     */
+    default UnmodSortedIterator<UnEntry<K,V>> descendingIterator() {
+        return descendingMap().iterator();
+    }
+
+    /**
+     Returns this map in reverse order.  Its comparator is the reverse of this map's and its
+     sub-maps go from higher keys to lower ones.  The default implementation copies it into a new
+     PersistentTreeMap in O(n), but PersistentTreeMap returns an O(1) view.
+     */
+    default ImSortedMap<K,V> descendingMap() {
+        List<UnEntry<K,V>> entries = new ArrayList<>(size());
+        for (UnEntry<K,V> entry : this) {
+            entries.add(entry);
+        }
+        Collections.reverse(entries);
+        return PersistentTreeMap.ofSorted(Collections.reverseOrder(comparator()), entries);
+    }
+
+    /**
+     Returns the entry at the given position in key order (0 is the smallest key).  The default
+     implementation iterates, so it's O(index).  PersistentTreeMap does this in O(log n).
+     @throws IndexOutOfBoundsException if index is negative or not less than size().
+     */
+    default UnEntry<K,V> select(int index) {
+        if ( (index < 0) || (index >= size()) ) {
+            throw new IndexOutOfBoundsException("Expected an index between 0 and " + (size() - 1) +
+                                                " but found: " + index);
+        }
+        UnmodSortedIterator<UnEntry<K,V>> iter = iterator();
+        for (int i = 0; i < index; i++) {
+            iter.next();
+        }
+        return iter.next();
+    }
+
+    /**
+     Returns the number of keys in this map which come before the given key (whether or not the
+     key is in the map).  The default implementation iterates, so it's O(n).  PersistentTreeMap
+     does this in O(log n).
+     */
+    default int rank(K key) {
+        Comparator<? super K> comp = comparator();
+        int r = 0;
+        for (UnEntry<K,V> entry : this) {
+            @SuppressWarnings("unchecked")
+            int c = (comp == null) ? ((Comparable<K>) entry.getKey()).compareTo(key)
+                                   : comp.compare(entry.getKey(), key);
+            if (c >= 0) {
+                break;
+            }
+            r++;
+        }
+        return r;
+    }
+
+    /** Returns the position of the given key in this map's ordering, or -1 if it's not present. */
+    default int indexOf(K key) { return containsKey(key) ? rank(key) : -1; }
+
     /** Returns a view of the keys contained in this map. */
     @Override default ImSortedSet<K> keySet() { return PersistentTreeSet.ofMap(this); }
 
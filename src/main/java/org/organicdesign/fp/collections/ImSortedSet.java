@@ -13,6 +13,7 @@
 // limitations under the License.
 package org.organicdesign.fp.collections;
 
+import java.util.Collections;
 import java.util.Comparator;
 
 /** An immutable sorted set interface */
@@ -47,6 +48,17 @@ public interface ImSortedSet<E> extends ImSet<E>, UnmodSortedSet<E> {
      */
     @Override UnmodSortedIterator<E> iterator();
 
+    /** Iterates over contents from the largest to the smallest. */
+    default UnmodSortedIterator<E> descendingIterator() { return descendingSet().iterator(); }
+
+    /**
+     Returns this set in reverse order.  The default implementation copies it into a new
+     PersistentTreeSet, but PersistentTreeSet returns an O(1) view.
+     */
+    default ImSortedSet<E> descendingSet() {
+        return PersistentTreeSet.ofComp(Collections.reverseOrder(comparator()), this);
+    }
+
 //    /**
 //     * This method goes against Josh Bloch's Item 25: "Prefer Lists to Arrays", but is provided for
 //     * backwards compatibility in some performance-critical situations.
@@ -76,4 +88,18 @@ public interface ImSortedSet<E> extends ImSet<E>, UnmodSortedSet<E> {
         }
         return ret;
     }
+
+    /** {@inheritDoc} */
+    @Override default ImSortedSet<E> intersect(Iterable<? extends E> iter) {
+        if (iter == null) { return difference(this); }
+        return difference(difference(iter));
+    }
+
+    /** {@inheritDoc} */
+    @Override default ImSortedSet<E> difference(Iterable<? extends E> iter) {
+        if (iter == null) { return this; }
+        ImSortedSet<E> ret = this;
+        for (E e : iter) { ret = ret.without(e); }
+        return ret;
+    }
 }
@@ -0,0 +1,772 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.collections;
+
+import org.organicdesign.fp.Option;
+import org.organicdesign.fp.tuple.Tuple2;
+
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ An immutable hash map using the Compressed Hash-Array Mapped Prefix-tree (CHAMP) encoding
+ described by Steindorfer and Vinju.  It behaves exactly like {@link PersistentHashMap} (same
+ Equator, null key, and transient support) but lays out its nodes differently:
+
+ - Every node has two bitmaps: one for the entries stored right in the node and one for its
+   sub-nodes.  PersistentHashMap uses one bitmap and marks sub-nodes with a null key.
+ - The entries come first in the node's array and the sub-nodes are stored after them (in
+   reverse order) so that iteration can copy the entries out in one pass without type checks.
+ - There are no 32-slot ArrayNodes, so sparse regions of a big map take much less memory.
+ - Removing an entry always inlines a sub-node that is down to one entry back into its parent.
+   Every set of entries therefore has exactly one shape, which lets equals() compare two of these
+   maps node by node.
+
+ Use this (through {@link PersistentHashMap#emptyChamp()}) for big maps that are iterated or
+ compared more often than they are changed.
+
+ This class is thread-safe (immutable).
+ */
+public final class PersistentChampMap<K,V> implements ImMapTrans<K,V> {
+
+    // Each level of the trie uses the next 5 bits of the hash to pick one of 32 slots.
+    private static final int BITS = 5;
+    private static final int HASH_BITS = 32;
+    // 7 levels of BitmapNodes use up the 32 bits of the hash (the last level gets only 2), then a
+    // CollisionNode.
+    private static final int MAX_DEPTH = 8;
+
+    // Tells the caller whether an assoc() or without() changed the number of entries.
+    private static final class Box {
+        boolean changed;
+    }
+
+    private static int mask(int hash, int shift) { return (hash >>> shift) & 0x01f; }
+
+    private static int bitpos(int hash, int shift) { return 1 << mask(hash, shift); }
+
+    // A method call is slow, but it keeps the cast localized.
+    @SuppressWarnings("unchecked")
+    private static <K,V> BitmapNode<K,V> emptyNode() { return (BitmapNode<K,V>) BitmapNode.EMPTY; }
+
+    private static final PersistentChampMap<Object,Object> EMPTY =
+            new PersistentChampMap<>(null, 0, emptyNode(), false, null);
+
+    @SuppressWarnings("unchecked")
+    public static <K,V> PersistentChampMap<K,V> empty() { return (PersistentChampMap<K,V>) EMPTY; }
+
+    public static <K,V> PersistentChampMap<K,V> empty(Equator<K> eq) {
+        return new PersistentChampMap<>(eq, 0, emptyNode(), false, null);
+    }
+
+    /**
+     Returns a new PersistentChampMap of the given keys and their paired values, skipping any null
+     Entries.
+     */
+    public static <K,V> PersistentChampMap<K,V> ofEq(Equator<K> eq, Iterable<Map.Entry<K,V>> es) {
+        if (es == null) { return empty(eq); }
+        TransientChampMap<K,V> map = PersistentChampMap.<K,V>empty(eq).asTransient();
+        for (Map.Entry<K,V> entry : es) {
+            if (entry != null) {
+                map = map.assoc(entry.getKey(), entry.getValue());
+            }
+        }
+        return map.persistent();
+    }
+
+    /**
+     Returns a new PersistentChampMap of the given keys and their paired values.  In the case of a
+     duplicate key, later values in the input list overwrite the earlier ones.  Null k/v pairs will
+     be silently ignored.
+     */
+    public static <K,V> PersistentChampMap<K,V> of(Iterable<Map.Entry<K,V>> kvPairs) {
+        return ofEq(null, kvPairs);
+    }
+
+    // ========================================= Instance =========================================
+    private final Equator<K> equator;
+    private final int count;
+    private final Node<K,V> root;
+    private final boolean hasNull;
+    private final V nullValue;
+    // Lazily computed by hashCode(), 0 means "not computed yet."
+    private int hash;
+
+    private PersistentChampMap(Equator<K> eq, int count, Node<K,V> root, boolean hasNull,
+                               V nullValue) {
+        this.equator = (eq == null) ? Equator.defaultEquator() : eq;
+        this.count = count;
+        this.root = root;
+        this.hasNull = hasNull;
+        this.nullValue = nullValue;
+    }
+
+    /** {@inheritDoc} */
+    @Override public Equator<K> equator() { return equator; }
+
+    @Override public PersistentChampMap<K,V> assoc(K key, V val) {
+        if (key == null) {
+            if (hasNull && (val == nullValue)) { return this; }
+            return new PersistentChampMap<>(equator, hasNull ? count : count + 1, root, true, val);
+        }
+        Box added = new Box();
+        Node<K,V> newRoot = root.assoc(equator, null, key, val, equator.hash(key), 0, added);
+        if (newRoot == root) { return this; }
+        return new PersistentChampMap<>(equator, added.changed ? count + 1 : count, newRoot,
+                                        hasNull, nullValue);
+    }
+
+    @Override public PersistentChampMap<K,V> without(K key) {
+        if (key == null) {
+            return hasNull ? new PersistentChampMap<>(equator, count - 1, root, false, null) : this;
+        }
+        Box removed = new Box();
+        Node<K,V> newRoot = root.without(equator, null, key, equator.hash(key), 0, removed);
+        if (newRoot == root) { return this; }
+        return new PersistentChampMap<>(equator, count - 1, newRoot, hasNull, nullValue);
+    }
+
+    @Override public TransientChampMap<K,V> asTransient() { return new TransientChampMap<>(this); }
+
+    @Override public final PersistentChampMap<K,V> persistent() { return this; }
+
+    @Override public Option<UnEntry<K,V>> entry(K key) {
+        if (key == null) {
+            return hasNull ? Option.of(Tuple2.of(null, nullValue)) : Option.none();
+        }
+        return Option.someOrNullNoneOf(root.findEntry(equator, key, equator.hash(key), 0));
+    }
+
+    /**
+     Returns the value associated with the given key, or notFound if there isn't one.  Unlike
+     entry(), this doesn't allocate anything, so get() and containsKey() are built on it.
+     */
+    @Override public V getOrElse(K key, V notFound) {
+        if (key == null) {
+            return hasNull ? nullValue : notFound;
+        }
+        return root.find(equator, key, equator.hash(key), 0, notFound);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override public V get(Object key) { return getOrElse((K) key, null); }
+
+    @SuppressWarnings("unchecked")
+    @Override public boolean containsKey(Object key) {
+        return getOrElse((K) key, notFound()) != NOT_FOUND;
+    }
+
+    /** {@inheritDoc} */
+    @Override public int size() { return count; }
+
+    @Override public UnmodIterator<UnEntry<K,V>> iterator() {
+        return new NodeIter<>(root, hasNull, nullValue);
+    }
+
+    /**
+     This is compatible with java.util.Map, so it ignores the Equator when comparing with other
+     kinds of maps.  When the other map is a PersistentChampMap with the same Equator, this compares
+     the hash codes (if both have been computed) and then the two tries node by node, skipping any
+     sub-tries they share.  That works because a CHAMP trie of a given set of keys always has the
+     same shape.
+     */
+    @SuppressWarnings("unchecked")
+    @Override public boolean equals(Object other) {
+        if (other == this) { return true; }
+        if ( !(other instanceof Map) ) { return false; }
+
+        Map<?,?> that = (Map<?,?>) other;
+        if (that.size() != size()) { return false; }
+
+        if (other instanceof PersistentChampMap) {
+            PersistentChampMap<K,?> pcm = (PersistentChampMap<K,?>) other;
+            if ( (hash != 0) && (pcm.hash != 0) && (hash != pcm.hash) ) { return false; }
+            if (equator.equals(pcm.equator)) {
+                return (hasNull == pcm.hasNull) &&
+                       (!hasNull || Objects.equals(nullValue, pcm.nullValue)) &&
+                       nodesEqual(equator, root, pcm.root);
+            }
+        }
+
+        try {
+            for (Entry<K,V> e : this) {
+                K key = e.getKey();
+                V value = e.getValue();
+                if (value == null) {
+                    if (!(that.get(key)==null && that.containsKey(key))) {
+                        return false;
+                    }
+                } else {
+                    if (!value.equals(that.get(key))) {
+                        return false;
+                    }
+                }
+            }
+        } catch (ClassCastException unused) {
+            return false;
+        } catch (NullPointerException unused) {
+            return false;
+        }
+        return true;
+    }
+
+    /** This is O(n) the first time, then O(1) because it's cached. */
+    @Override public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = UnmodIterable.hashCode(this);
+            hash = h;
+        }
+        return h;
+    }
+
+    /** {@inheritDoc} */
+    @Override public String toString() { return UnmodIterable.toString("PersistentChampMap", this); }
+
+    // Lets getOrElse() tell a missing key from one mapped to null.
+    private static final Object NOT_FOUND = new Object();
+
+    @SuppressWarnings("unchecked")
+    private static <V> V notFound() { return (V) NOT_FOUND; }
+
+    private static <K> boolean nodesEqual(Equator<K> eq, Node<K,?> a, Node<K,?> b) {
+        if (a == b) { return true; }
+        if ( (a instanceof CollisionNode) || (b instanceof CollisionNode) ) {
+            // Same entries, but not necessarily in the same order.
+            if ( !(a instanceof CollisionNode) || !(b instanceof CollisionNode) ||
+                 (a.payloadArity() != b.payloadArity()) ) {
+                return false;
+            }
+            for (int i = 0; i < a.payloadArity(); i++) {
+                Object v = ((CollisionNode<K,?>) b).find(eq, a.keyAt(i), 0, HASH_BITS, notFound());
+                if ( (v == NOT_FOUND) || !Objects.equals(a.valAt(i), v) ) { return false; }
+            }
+            return true;
+        }
+        BitmapNode<K,?> x = (BitmapNode<K,?>) a;
+        BitmapNode<K,?> y = (BitmapNode<K,?>) b;
+        if ( (x.dataMap != y.dataMap) || (x.nodeMap != y.nodeMap) ) { return false; }
+        for (int i = 0; i < x.payloadArity(); i++) {
+            if ( !eq.eq(x.keyAt(i), y.keyAt(i)) || !Objects.equals(x.valAt(i), y.valAt(i)) ) {
+                return false;
+            }
+        }
+        for (int i = 0; i < x.nodeArity(); i++) {
+            if ( !nodesEqual(eq, x.nodeAt(i), y.nodeAt(i)) ) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     This works like {@link PersistentHashMap}'s transient: it changes nodes it created in place and
+     copies all others.  Only the thread that called asTransient() can use it, and only until
+     persistent() is called.
+     */
+    public static final class TransientChampMap<K,V> implements ImMapTrans<K,V> {
+        private final AtomicReference<Thread> edit;
+        private final Equator<K> equator;
+        private Node<K,V> root;
+        private int count;
+        private boolean hasNull;
+        private V nullValue;
+        private final Box leafFlag = new Box();
+
+        TransientChampMap(PersistentChampMap<K,V> m) {
+            edit = new AtomicReference<>(Thread.currentThread());
+            equator = m.equator;
+            root = m.root;
+            count = m.count;
+            hasNull = m.hasNull;
+            nullValue = m.nullValue;
+        }
+
+        @Override public Equator<K> equator() { return equator; }
+
+        @Override public TransientChampMap<K,V> assoc(K key, V val) {
+            ensureEditable();
+            if (key == null) {
+                nullValue = val;
+                if (!hasNull) {
+                    count++;
+                    hasNull = true;
+                }
+                return this;
+            }
+            leafFlag.changed = false;
+            root = root.assoc(equator, edit, key, val, equator.hash(key), 0, leafFlag);
+            if (leafFlag.changed) { count++; }
+            return this;
+        }
+
+        @Override public TransientChampMap<K,V> without(K key) {
+            ensureEditable();
+            if (key == null) {
+                if (hasNull) {
+                    hasNull = false;
+                    nullValue = null;
+                    count--;
+                }
+                return this;
+            }
+            leafFlag.changed = false;
+            root = root.without(equator, edit, key, equator.hash(key), 0, leafFlag);
+            if (leafFlag.changed) { count--; }
+            return this;
+        }
+
+        @Override public TransientChampMap<K,V> asTransient() { return this; }
+
+        @Override public PersistentChampMap<K,V> persistent() {
+            ensureEditable();
+            edit.set(null);
+            return new PersistentChampMap<>(equator, count, root, hasNull, nullValue);
+        }
+
+        @Override public Option<UnEntry<K,V>> entry(K key) {
+            ensureEditable();
+            if (key == null) {
+                return hasNull ? Option.of(Tuple2.of(null, nullValue)) : Option.none();
+            }
+            return Option.someOrNullNoneOf(root.findEntry(equator, key, equator.hash(key), 0));
+        }
+
+        // Same as the persistent version above.
+        @Override public V getOrElse(K key, V notFound) {
+            ensureEditable();
+            if (key == null) {
+                return hasNull ? nullValue : notFound;
+            }
+            return root.find(equator, key, equator.hash(key), 0, notFound);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override public V get(Object key) { return getOrElse((K) key, null); }
+
+        @SuppressWarnings("unchecked")
+        @Override public boolean containsKey(Object key) {
+            return getOrElse((K) key, notFound()) != NOT_FOUND;
+        }
+
+        @Override public int size() {
+            ensureEditable();
+            return count;
+        }
+
+        @Override public UnmodIterator<UnEntry<K,V>> iterator() {
+            ensureEditable();
+            return new NodeIter<>(root, hasNull, nullValue);
+        }
+
+        void ensureEditable() {
+            if (edit.get() == null) {
+                throw new IllegalAccessError("Transient used after persistent! call");
+            }
+        }
+    }
+
+    private static abstract class Node<K,V> {
+        abstract V find(Equator<K> eq, K key, int hash, int shift, V notFound);
+
+        /** Returns the stored entry for the given key, or null if there isn't one. */
+        abstract UnEntry<K,V> findEntry(Equator<K> eq, K key, int hash, int shift);
+
+        /**
+         Returns a node with the given entry (this node if nothing changed).  Sets added.changed
+         if the key was not already present.  Nodes owned by edit may be changed in place.
+         */
+        abstract Node<K,V> assoc(Equator<K> eq, AtomicReference<Thread> edit, K key, V val,
+                                 int hash, int shift, Box added);
+
+        /**
+         Returns a node without the given key (this node if it wasn't there).  Sets
+         removed.changed if the key was present.  Nodes owned by edit may be changed in place.
+         */
+        abstract Node<K,V> without(Equator<K> eq, AtomicReference<Thread> edit, K key, int hash,
+                                   int shift, Box removed);
+
+        abstract int payloadArity();
+
+        abstract int nodeArity();
+
+        abstract K keyAt(int i);
+
+        abstract V valAt(int i);
+
+        abstract Node<K,V> nodeAt(int i);
+    }
+
+    private static final class BitmapNode<K,V> extends Node<K,V> {
+        static final BitmapNode<Object,Object> EMPTY = new BitmapNode<>(null, 0, 0, new Object[0]);
+
+        // Only the transient that owns this node (if any) can change these fields.
+        private final AtomicReference<Thread> edit;
+        private int dataMap;
+        private int nodeMap;
+        // Key/value pairs in the order of their bits in dataMap, then sub-nodes in reverse order of
+        // their bits in nodeMap (the first sub-node is the last item).
+        private Object[] content;
+
+        private BitmapNode(AtomicReference<Thread> edit, int dataMap, int nodeMap,
+                           Object[] content) {
+            this.edit = edit;
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.content = content;
+        }
+
+        private int dataIndex(int bit) { return Integer.bitCount(dataMap & (bit - 1)); }
+
+        private int nodeIndex(int bit) { return Integer.bitCount(nodeMap & (bit - 1)); }
+
+        @Override int payloadArity() { return Integer.bitCount(dataMap); }
+
+        @Override int nodeArity() { return Integer.bitCount(nodeMap); }
+
+        @SuppressWarnings("unchecked")
+        @Override K keyAt(int i) { return (K) content[2 * i]; }
+
+        @SuppressWarnings("unchecked")
+        @Override V valAt(int i) { return (V) content[2 * i + 1]; }
+
+        @SuppressWarnings("unchecked")
+        @Override Node<K,V> nodeAt(int i) { return (Node<K,V>) content[content.length - 1 - i]; }
+
+        @Override V find(Equator<K> eq, K key, int hash, int shift, V notFound) {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int idx = dataIndex(bit);
+                return eq.eq(key, keyAt(idx)) ? valAt(idx) : notFound;
+            }
+            if ((nodeMap & bit) != 0) {
+                return nodeAt(nodeIndex(bit)).find(eq, key, hash, shift + BITS, notFound);
+            }
+            return notFound;
+        }
+
+        @Override UnEntry<K,V> findEntry(Equator<K> eq, K key, int hash, int shift) {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int idx = dataIndex(bit);
+                K k = keyAt(idx);
+                return eq.eq(key, k) ? Tuple2.of(k, valAt(idx)) : null;
+            }
+            if ((nodeMap & bit) != 0) {
+                return nodeAt(nodeIndex(bit)).findEntry(eq, key, hash, shift + BITS);
+            }
+            return null;
+        }
+
+        @Override Node<K,V> assoc(Equator<K> eq, AtomicReference<Thread> e, K key, V val,
+                                  int hash, int shift, Box added) {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int idx = dataIndex(bit);
+                K k = keyAt(idx);
+                if (eq.eq(key, k)) {
+                    return (valAt(idx) == val) ? this : setValue(e, idx, val);
+                }
+                added.changed = true;
+                Node<K,V> sub = mergeTwo(e, k, valAt(idx), eq.hash(k), key, val, hash,
+                                         shift + BITS);
+                return dataToNode(e, bit, idx, sub);
+            }
+            if ((nodeMap & bit) != 0) {
+                int idx = nodeIndex(bit);
+                Node<K,V> sub = nodeAt(idx);
+                Node<K,V> newSub = sub.assoc(eq, e, key, val, hash, shift + BITS, added);
+                return (newSub == sub) ? this : setNode(e, idx, newSub);
+            }
+            added.changed = true;
+            return insertData(e, bit, key, val);
+        }
+
+        @Override Node<K,V> without(Equator<K> eq, AtomicReference<Thread> e, K key, int hash,
+                                    int shift, Box removed) {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int idx = dataIndex(bit);
+                if ( !eq.eq(key, keyAt(idx)) ) { return this; }
+                removed.changed = true;
+                return removeData(e, bit, idx);
+            }
+            if ((nodeMap & bit) != 0) {
+                int idx = nodeIndex(bit);
+                Node<K,V> sub = nodeAt(idx);
+                Node<K,V> newSub = sub.without(eq, e, key, hash, shift + BITS, removed);
+                // Keep the trie canonical: a sub-node never holds just one entry.  A transient
+                // may have changed sub in place, so check this even if newSub == sub.
+                if ( (newSub.nodeArity() == 0) && (newSub.payloadArity() == 1) ) {
+                    return nodeToData(e, bit, idx, newSub.keyAt(0), newSub.valAt(0));
+                }
+                return (newSub == sub) ? this : setNode(e, idx, newSub);
+            }
+            return this;
+        }
+
+        private boolean isEditable(AtomicReference<Thread> e) { return (e != null) && (edit == e); }
+
+        private BitmapNode<K,V> with(AtomicReference<Thread> e, int newDataMap, int newNodeMap,
+                                     Object[] newContent) {
+            if (isEditable(e)) {
+                dataMap = newDataMap;
+                nodeMap = newNodeMap;
+                content = newContent;
+                return this;
+            }
+            return new BitmapNode<>(e, newDataMap, newNodeMap, newContent);
+        }
+
+        private BitmapNode<K,V> setValue(AtomicReference<Thread> e, int idx, V val) {
+            if (isEditable(e)) {
+                content[2 * idx + 1] = val;
+                return this;
+            }
+            Object[] c = content.clone();
+            c[2 * idx + 1] = val;
+            return new BitmapNode<>(e, dataMap, nodeMap, c);
+        }
+
+        private BitmapNode<K,V> setNode(AtomicReference<Thread> e, int idx, Node<K,V> node) {
+            int pos = content.length - 1 - idx;
+            if (isEditable(e)) {
+                content[pos] = node;
+                return this;
+            }
+            Object[] c = content.clone();
+            c[pos] = node;
+            return new BitmapNode<>(e, dataMap, nodeMap, c);
+        }
+
+        private BitmapNode<K,V> insertData(AtomicReference<Thread> e, int bit, K key, V val) {
+            int idx = 2 * dataIndex(bit);
+            Object[] c = new Object[content.length + 2];
+            System.arraycopy(content, 0, c, 0, idx);
+            c[idx] = key;
+            c[idx + 1] = val;
+            System.arraycopy(content, idx, c, idx + 2, content.length - idx);
+            return with(e, dataMap | bit, nodeMap, c);
+        }
+
+        private BitmapNode<K,V> removeData(AtomicReference<Thread> e, int bit, int dataIdx) {
+            int idx = 2 * dataIdx;
+            Object[] c = new Object[content.length - 2];
+            System.arraycopy(content, 0, c, 0, idx);
+            System.arraycopy(content, idx + 2, c, idx, content.length - idx - 2);
+            return with(e, dataMap ^ bit, nodeMap, c);
+        }
+
+        // Replaces the entry at dataIdx with a sub-node (that holds it and a new entry).
+        private BitmapNode<K,V> dataToNode(AtomicReference<Thread> e, int bit, int dataIdx,
+                                           Node<K,V> sub) {
+            int oldIdx = 2 * dataIdx;
+            int newIdx = content.length - 2 - nodeIndex(bit);
+            Object[] c = new Object[content.length - 1];
+            System.arraycopy(content, 0, c, 0, oldIdx);
+            System.arraycopy(content, oldIdx + 2, c, oldIdx, newIdx - oldIdx);
+            c[newIdx] = sub;
+            System.arraycopy(content, newIdx + 2, c, newIdx + 1, content.length - newIdx - 2);
+            return with(e, dataMap ^ bit, nodeMap | bit, c);
+        }
+
+        // Replaces the sub-node at nodeIdx with the single entry it holds.
+        private BitmapNode<K,V> nodeToData(AtomicReference<Thread> e, int bit, int nodeIdx, K key,
+                                           V val) {
+            int oldIdx = content.length - 1 - nodeIdx;
+            int newIdx = 2 * dataIndex(bit);
+            Object[] c = new Object[content.length + 1];
+            System.arraycopy(content, 0, c, 0, newIdx);
+            c[newIdx] = key;
+            c[newIdx + 1] = val;
+            System.arraycopy(content, newIdx, c, newIdx + 2, oldIdx - newIdx);
+            System.arraycopy(content, oldIdx + 1, c, oldIdx + 2, content.length - oldIdx - 1);
+            return with(e, dataMap | bit, nodeMap ^ bit, c);
+        }
+    }
+
+    /** Returns a node holding two entries whose hashes matched up to the given shift. */
+    private static <K,V> Node<K,V> mergeTwo(AtomicReference<Thread> edit, K k1, V v1, int h1,
+                                            K k2, V v2, int h2, int shift) {
+        if (shift >= HASH_BITS) {
+            return new CollisionNode<>(edit, new Object[] { k1, v1, k2, v2 });
+        }
+        int m1 = mask(h1, shift);
+        int m2 = mask(h2, shift);
+        if (m1 != m2) {
+            Object[] content = (m1 < m2) ? new Object[] { k1, v1, k2, v2 }
+                                         : new Object[] { k2, v2, k1, v1 };
+            return new BitmapNode<>(edit, (1 << m1) | (1 << m2), 0, content);
+        }
+        return new BitmapNode<>(edit, 0, 1 << m1,
+                                new Object[] { mergeTwo(edit, k1, v1, h1, k2, v2, h2,
+                                                        shift + BITS) });
+    }
+
+    /** Holds all the entries whose keys have exactly the same hash code, in no particular order. */
+    private static final class CollisionNode<K,V> extends Node<K,V> {
+        private final AtomicReference<Thread> edit;
+        private Object[] content;
+
+        private CollisionNode(AtomicReference<Thread> edit, Object[] content) {
+            this.edit = edit;
+            this.content = content;
+        }
+
+        @Override int payloadArity() { return content.length >> 1; }
+
+        @Override int nodeArity() { return 0; }
+
+        @SuppressWarnings("unchecked")
+        @Override K keyAt(int i) { return (K) content[2 * i]; }
+
+        @SuppressWarnings("unchecked")
+        @Override V valAt(int i) { return (V) content[2 * i + 1]; }
+
+        @Override Node<K,V> nodeAt(int i) {
+            throw new IndexOutOfBoundsException("A CollisionNode has no sub-nodes");
+        }
+
+        private int indexOf(Equator<K> eq, K key) {
+            for (int i = 0; i < content.length; i += 2) {
+                if (eq.eq(key, keyAt(i >> 1))) { return i; }
+            }
+            return -1;
+        }
+
+        @Override V find(Equator<K> eq, K key, int hash, int shift, V notFound) {
+            int idx = indexOf(eq, key);
+            return (idx < 0) ? notFound : valAt(idx >> 1);
+        }
+
+        @Override UnEntry<K,V> findEntry(Equator<K> eq, K key, int hash, int shift) {
+            int idx = indexOf(eq, key);
+            return (idx < 0) ? null : Tuple2.of(keyAt(idx >> 1), valAt(idx >> 1));
+        }
+
+        @Override Node<K,V> assoc(Equator<K> eq, AtomicReference<Thread> e, K key, V val,
+                                  int hash, int shift, Box added) {
+            int idx = indexOf(eq, key);
+            boolean editable = (e != null) && (edit == e);
+            if (idx >= 0) {
+                if (content[idx + 1] == val) { return this; }
+                if (editable) {
+                    content[idx + 1] = val;
+                    return this;
+                }
+                Object[] c = content.clone();
+                c[idx + 1] = val;
+                return new CollisionNode<>(e, c);
+            }
+            added.changed = true;
+            Object[] c = new Object[content.length + 2];
+            System.arraycopy(content, 0, c, 0, content.length);
+            c[content.length] = key;
+            c[content.length + 1] = val;
+            if (editable) {
+                content = c;
+                return this;
+            }
+            return new CollisionNode<>(e, c);
+        }
+
+        @Override Node<K,V> without(Equator<K> eq, AtomicReference<Thread> e, K key, int hash,
+                                    int shift, Box removed) {
+            int idx = indexOf(eq, key);
+            if (idx < 0) { return this; }
+            removed.changed = true;
+            Object[] c = new Object[content.length - 2];
+            System.arraycopy(content, 0, c, 0, idx);
+            System.arraycopy(content, idx + 2, c, idx, content.length - idx - 2);
+            if ( (e != null) && (edit == e) ) {
+                content = c;
+                return this;
+            }
+            return new CollisionNode<>(e, c);
+        }
+    }
+
+    /**
+     Walks the trie depth-first.  All the entries of a node come before any of its sub-nodes, so
+     this just reads through each node's entries, then pushes its sub-nodes on a small stack.
+     */
+    private static final class NodeIter<K,V> implements UnmodIterator<UnEntry<K,V>> {
+        @SuppressWarnings("unchecked")
+        private final Node<K,V>[] nodes = (Node<K,V>[]) new Node<?,?>[MAX_DEPTH];
+        private final int[] nodeCursors = new int[MAX_DEPTH];
+        private int depth = -1;
+
+        private Node<K,V> payloadNode;
+        private int payloadCursor = 0;
+        private int payloadLength;
+
+        private boolean nullPending;
+        private final V nullValue;
+
+        private NodeIter(Node<K,V> root, boolean hasNull, V nullValue) {
+            if (root.nodeArity() > 0) {
+                depth = 0;
+                nodes[0] = root;
+            }
+            payloadNode = root;
+            payloadLength = root.payloadArity();
+            nullPending = hasNull;
+            this.nullValue = nullValue;
+        }
+
+        @Override public boolean hasNext() {
+            return nullPending || (payloadCursor < payloadLength) || nextPayloadNode();
+        }
+
+        @Override public UnEntry<K,V> next() {
+            if (nullPending) {
+                nullPending = false;
+                return Tuple2.of(null, nullValue);
+            }
+            if ( (payloadCursor >= payloadLength) && !nextPayloadNode() ) {
+                throw new NoSuchElementException();
+            }
+            int i = payloadCursor++;
+            return Tuple2.of(payloadNode.keyAt(i), payloadNode.valAt(i));
+        }
+
+        // Finds the next node with entries in it and makes it the payloadNode.
+        private boolean nextPayloadNode() {
+            while (depth >= 0) {
+                Node<K,V> node = nodes[depth];
+                int cursor = nodeCursors[depth];
+                if (cursor < node.nodeArity()) {
+                    nodeCursors[depth] = cursor + 1;
+                    Node<K,V> child = node.nodeAt(cursor);
+                    if (child.nodeArity() > 0) {
+                        depth++;
+                        nodes[depth] = child;
+                        nodeCursors[depth] = 0;
+                    }
+                    if (child.payloadArity() > 0) {
+                        payloadNode = child;
+                        payloadCursor = 0;
+                        payloadLength = child.payloadArity();
+                        return true;
+                    }
+                } else {
+                    nodes[depth] = null;
+                    depth--;
+                }
+            }
+            return false;
+        }
+    }
+}
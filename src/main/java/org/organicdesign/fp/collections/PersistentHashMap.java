@@ -12,13 +12,23 @@ package org.organicdesign.fp.collections;
 
 import org.organicdesign.fp.FunctionUtils;
 import org.organicdesign.fp.Option;
+import org.organicdesign.fp.function.Function0;
+import org.organicdesign.fp.function.Function2;
 import org.organicdesign.fp.tuple.Tuple2;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import static org.organicdesign.fp.FunctionUtils.emptyUnmodIterator;
 
@@ -52,6 +62,12 @@ public class PersistentHashMap<K,V> implements ImMapTrans<K,V> {
 //        return init;
 //    }
 
+    /**
+     A value that can't be in any map, passed as notFound to getOrElse() by containsKey() so that
+     a key mapped to null still counts as present.
+     */
+    private static final Object NOT_FOUND = new Object();
+
     // TODO: Replace with Mutable.Ref, or make methods return Tuple2.
     private static class Box {
         public Object val;
@@ -99,6 +115,18 @@ public class PersistentHashMap<K,V> implements ImMapTrans<K,V> {
         return new PersistentHashMap<>(e, 0, null, false, null);
     }
 
+    /**
+     Returns an empty map that stores its entries with the compressed CHAMP node layout instead of
+     the one used by this class.  It iterates and compares faster and takes less memory, especially
+     when big.  See {@link PersistentChampMap}.
+     */
+    public static <K,V> PersistentChampMap<K,V> emptyChamp() { return PersistentChampMap.empty(); }
+
+    /** Like {@link #emptyChamp()}, but with the given Equator. */
+    public static <K,V> PersistentChampMap<K,V> emptyChamp(Equator<K> e) {
+        return PersistentChampMap.empty(e);
+    }
+
 //    final private static Object NOT_FOUND = new Object();
 
 //    /** Returns a new PersistentHashMap of the given keys and their paired values. */
@@ -152,6 +180,9 @@ public class PersistentHashMap<K,V> implements ImMapTrans<K,V> {
     private final INode<K,V> root;
     private final boolean hasNull;
     private final V nullValue;
+    // Lazily computed by hashCode().  Like String.hash, 0 means "not computed yet" and it's safe
+    // for two threads to compute it at once because they'll get the same answer.
+    private int hash;
 
     private PersistentHashMap(Equator<K> eq, int count, INode<K,V> root, boolean hasNull,
                               V nullValue) {
@@ -198,14 +229,38 @@ public class PersistentHashMap<K,V> implements ImMapTrans<K,V> {
         return Option.someOrNullNoneOf(entry);
     }
 
+    /**
+     Returns the value associated with the given key, or notFound if there isn't one.  Unlike
+     entry(), this doesn't allocate anything, so get() and containsKey() are built on it.
+     */
+    @Override public V getOrElse(K key, V notFound) {
+        if (key == null) {
+            return hasNull ? nullValue : notFound;
+        }
+        return (root == null) ? notFound : root.findVal(0, equator.hash(key), key, notFound);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override public V get(Object key) { return getOrElse((K) key, null); }
+
+    @SuppressWarnings("unchecked")
+    @Override public boolean containsKey(Object key) {
+        return getOrElse((K) key, (V) NOT_FOUND) != NOT_FOUND;
+    }
+
     /**
      This is compatible with java.util.Map but that means it wrongly allows comparisons with
      SortedMaps, which are necessarily not commutative.  It also ignores the Equator.  As always,
      for meaningful equals, define an equator.
 
+     When the other map is a PersistentHashMap with the same Equator, this compares the hash codes
+     (if both have been computed) and then walks the two hash tries together, skipping any
+     sub-tries they share.
+
      @param other the other (hopefully unsorted) map to compare to.
      @return true if these maps contain the same elements, regardless of order.
      */
+    @SuppressWarnings("unchecked")
     @Override public boolean equals(Object other) {
         if (other == this) { return true; }
         if ( !(other instanceof Map) ) { return false; }
@@ -213,8 +268,14 @@ public class PersistentHashMap<K,V> implements ImMapTrans<K,V> {
         Map<?,?> that = (Map<?,?>) other;
         if (that.size() != size()) { return false; }
 
+        if (other instanceof PersistentHashMap) {
+            PersistentHashMap<K,?> phm = (PersistentHashMap<K,?>) other;
+            if ( (hash != 0) && (phm.hash != 0) && (hash != phm.hash) ) { return false; }
+            if (equator.equals(phm.equator)) { return trieEquals(phm, true); }
+        }
+
         try {
-            for (Entry<K,V> e : entrySet()) {
+            for (Entry<K,V> e : this) {
                 K key = e.getKey();
                 V value = e.getValue();
                 if (value == null) {
@@ -236,7 +297,207 @@ public class PersistentHashMap<K,V> implements ImMapTrans<K,V> {
         return true;
     }
 
-    @Override public int hashCode() { return UnmodIterable.hashCode(this); }
+    /** This is O(n) the first time, then O(1) because it's cached. */
+    @Override public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = UnmodIterable.hashCode(this);
+            hash = h;
+        }
+        return h;
+    }
+
+    /**
+     True if the other map (which must have the same size and Equator as this one) has the same
+     keys as this map, and (if compareValues) the same values.  Nodes which are the same object in
+     both maps are skipped.
+     */
+    boolean trieEquals(PersistentHashMap<K,?> that, boolean compareValues) {
+        if (hasNull != that.hasNull) { return false; }
+        if ( hasNull && compareValues && !Objects.equals(nullValue, that.nullValue) ) {
+            return false;
+        }
+        if (root == that.root) { return true; }
+        if ( (root == null) || (that.root == null) ) {
+            return isEmptyNode(root) && isEmptyNode(that.root);
+        }
+        return nodesEqual(equator, root, that.root, 0, compareValues);
+    }
+
+    /**
+     True for null or a BitmapIndexedNode with nothing in it.  without() no longer leaves those
+     behind, but treat one like an empty slot anyway.
+     */
+    private static boolean isEmptyNode(Object node) {
+        return (node == null) ||
+               ( (node instanceof BitmapIndexedNode) && (((BitmapIndexedNode<?,?>) node).bitmap == 0) );
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> boolean nodesEqual(Equator<K> eq, INode<K,?> a, INode<K,?> b, int shift,
+                                          boolean compareValues) {
+        if (a == b) { return true; }
+        if ( (a instanceof HashCollisionNode) || (b instanceof HashCollisionNode) ) {
+            if (a.entryCount() != b.entryCount()) { return false; }
+            for (UnmodIterator<? extends UnEntry<K,?>> iter = a.iterator(); iter.hasNext(); ) {
+                UnEntry<K,?> entry = iter.next();
+                if ( !hasEntry(eq, (INode<K,Object>) b, shift, entry.getKey(), entry.getValue(),
+                               compareValues) ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        Object[] as = slots(a);
+        Object[] bs = slots(b);
+        for (int i = 0; i < 64; i += 2) {
+            K ka = k(as, i);
+            K kb = k(bs, i);
+            Object va = ( (ka == null) && isEmptyNode(as[i + 1]) ) ? null : as[i + 1];
+            Object vb = ( (kb == null) && isEmptyNode(bs[i + 1]) ) ? null : bs[i + 1];
+            if ( (ka == kb) && (va == vb) ) {
+                // Both empty, or the same entry or node.
+                continue;
+            }
+            if ( ((ka == null) && (va == null)) || ((kb == null) && (vb == null)) ) {
+                return false;
+            }
+            if ( (ka != null) && (kb != null) ) {
+                if ( !eq.eq(ka, kb) || (compareValues && !Objects.equals(va, vb)) ) {
+                    return false;
+                }
+            } else if ( (ka == null) && (kb == null) ) {
+                if ( !nodesEqual(eq, (INode<K,?>) va, (INode<K,?>) vb, shift + 5,
+                                 compareValues) ) {
+                    return false;
+                }
+            } else {
+                // An entry on one side and a node on the other, which must have only that entry.
+                INode<K,Object> node = (INode<K,Object>) ((ka == null) ? va : vb);
+                K key = (ka == null) ? kb : ka;
+                Object val = (ka == null) ? vb : va;
+                if ( (node.entryCount() != 1) ||
+                     !hasEntry(eq, node, shift + 5, key, val, compareValues) ) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static <K> boolean hasEntry(Equator<K> eq, INode<K,Object> node, int shift, K key,
+                                        Object val, boolean compareValues) {
+        Object found = node.findVal(shift, eq.hash(key), key, NOT_FOUND);
+        return (found != NOT_FOUND) && ( !compareValues || Objects.equals(val, found) );
+    }
+
+    /**
+     Returns a DISTINCT, IMMUTABLE spliterator which splits along the nodes of the hash trie: first
+     between the children of the root, then between the children of those children, and so on.
+     The top-level spliterator is SIZED, but since the nodes don't know how many entries they hold,
+     the sizes of split-off pieces are only estimates.
+     */
+    @Override public Spliterator<UnEntry<K,V>> spliterator() {
+        List<Object> items = new ArrayList<>(2);
+        if (hasNull) {
+            items.add(Tuple2.of(null, nullValue));
+        }
+        if (root != null) {
+            items.add(root);
+        }
+        return new NodeSpliterator<>(items.toArray(), 0, items.size(), count, true);
+    }
+
+    /**
+     Holds a range of an array of items, each of which is either an INode or an entry.  Splits by
+     dividing that range in half.  When only one node is left, it is replaced by its children.
+     */
+    private static final class NodeSpliterator<K,V> implements Spliterator<UnEntry<K,V>> {
+        private Object[] items;
+        private int idx;
+        private int end;
+        private long est;
+        private boolean sized;
+        // Iterator over the node we took most recently from items, if any.
+        private Iterator<UnEntry<K,V>> current;
+
+        private NodeSpliterator(Object[] items, int from, int to, long est, boolean sized) {
+            this.items = items; idx = from; end = to; this.est = est; this.sized = sized;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override public boolean tryAdvance(Consumer<? super UnEntry<K,V>> action) {
+            if (action == null) { throw new NullPointerException("action"); }
+            while (true) {
+                if (current != null) {
+                    if (current.hasNext()) {
+                        if (est > 0) { est--; }
+                        action.accept(current.next());
+                        return true;
+                    }
+                    current = null;
+                }
+                if (idx >= end) {
+                    return false;
+                }
+                Object item = items[idx++];
+                if (item instanceof INode) {
+                    current = ((INode<K,V>) item).iterator();
+                } else {
+                    if (est > 0) { est--; }
+                    action.accept((UnEntry<K,V>) item);
+                    return true;
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override public void forEachRemaining(Consumer<? super UnEntry<K,V>> action) {
+            if (action == null) { throw new NullPointerException("action"); }
+            if (current != null) {
+                current.forEachRemaining(action);
+                current = null;
+            }
+            for (int i = idx; i < end; i++) {
+                Object item = items[i];
+                if (item instanceof INode) {
+                    ((INode<K,V>) item).iterator().forEachRemaining(action);
+                } else {
+                    action.accept((UnEntry<K,V>) item);
+                }
+            }
+            idx = end;
+            est = 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override public Spliterator<UnEntry<K,V>> trySplit() {
+            // Descend through lone nodes until there is something to divide.
+            while ( (current == null) && (end - idx == 1) && (items[idx] instanceof INode) ) {
+                List<Object> kids = new ArrayList<>();
+                ((INode<K,V>) items[idx]).addChildrenTo(kids);
+                items = kids.toArray();
+                idx = 0;
+                end = items.length;
+            }
+            int lo = idx;
+            int mid = (lo + end) >>> 1;
+            if (mid <= lo) {
+                return null;
+            }
+            idx = mid;
+            est >>>= 1;
+            sized = false;
+            return new NodeSpliterator<>(items, lo, mid, est, false);
+        }
+
+        @Override public long estimateSize() { return est; }
+
+        @Override public int characteristics() {
+            return sized ? Spliterator.SIZED | Spliterator.DISTINCT | Spliterator.IMMUTABLE
+                         : Spliterator.DISTINCT | Spliterator.IMMUTABLE;
+        }
+    }
 
     // This is cut and pasted exactly to the Transient version of this class below.
     @Override public UnmodIterator<UnEntry<K,V>> iterator() {
@@ -283,20 +544,26 @@ public class PersistentHashMap<K,V> implements ImMapTrans<K,V> {
 //        return init;
 //    }
 
-//    public <R> R fold(long n, final Function2<R,R,R> combinef, final Function3<R,K,V,R> reducef,
-//                      Function1<Function0<R>,R> fjinvoke, final Function1<Function0,R> fjtask,
-//                      final Function1<R,Object> fjfork, final Function1<Object,R> fjjoin){
-//        //we are ignoring n for now
-//        Function0<R> top = () -> {
-//            R ret = combinef.apply(null,null);
-//            if(root != null)
-//                ret = combinef.apply(ret, root.fold(combinef, reducef, fjtask, fjfork, fjjoin));
-//            return hasNull ? combinef.apply(ret, reducef.apply(combinef.apply(null,null), null,
-//                                            nullValue))
-//                           : ret;
-//        };
-//        return fjinvoke.apply(top);
-//    }
+    /**
+     {@inheritDoc}
+
+     This implementation reduces the sub-trees of each ArrayNode (the wide nodes near the root of a
+     big map) as separate tasks in the common ForkJoinPool.  Smaller nodes are reduced
+     sequentially by whichever thread gets to them.  The entry with the null key (if any) is
+     reduced separately and combined last.
+     */
+    @Override public <R> R parallelFold(R identity,
+                                        Function2<R,? super UnEntry<K,V>,R> reducer,
+                                        Function2<R,R,R> combiner) {
+        R ret = identity;
+        if (root != null) {
+            ret = ForkJoinPool.commonPool()
+                              .invoke(ForkJoinTask.adapt(() -> root.fold(identity, reducer,
+                                                                         combiner)));
+        }
+        return hasNull ? combiner.apply(ret, reducer.apply(identity, Tuple2.of(null, nullValue)))
+                       : ret;
+    }
 
 //    @SuppressWarnings("unchecked")
 //    @Override public Sequence<UnEntry<K,V>> seq() {
@@ -323,6 +590,151 @@ public class PersistentHashMap<K,V> implements ImMapTrans<K,V> {
         return new PersistentHashMap<>(equator, count - 1, newroot, hasNull, nullValue);
     }
 
+    /**
+     Returns a map of all the keys in this map and the other one.  Where a key is in both, the
+     resolver is passed the value from this map, then the value from the other map, and its result
+     goes into the new map.  If the other map is a PersistentHashMap with the same Equator, this
+     walks both hash tries together and reuses any sub-tree that's only in one of them instead of
+     adding its entries one at a time.
+
+     @param other the map to merge with this one.
+     @param resolver combines the values of a key found in both maps.
+     @return a new map (or this map if nothing changed).
+     */
+    public PersistentHashMap<K,V> merge(UnmodMap<K,? extends V> other,
+                                        Function2<? super V,? super V,? extends V> resolver) {
+        if (resolver == null) {
+            throw new IllegalArgumentException("Can't merge with a null resolver (use union())");
+        }
+        return mergeOp(other, MergeOp.UNION, resolver);
+    }
+
+    /**
+     Returns a map of all the keys in this map and the other one.  Where a key is in both, the
+     value from the other map wins (like assoc()).  Sub-tries which are the same object in both
+     maps (because one was derived from the other) are reused without looking inside them.
+     See {@link #merge(UnmodMap, Function2)}.
+     */
+    public PersistentHashMap<K,V> union(UnmodMap<K,? extends V> other) {
+        return mergeOp(other, MergeOp.UNION, null);
+    }
+
+    /**
+     Returns a map of the entries in this map whose keys are also in the other map.  This works
+     structurally like {@link #merge(UnmodMap, Function2)}.
+     */
+    public PersistentHashMap<K,V> intersect(UnmodMap<K,?> other) {
+        return mergeOp(other, MergeOp.INTERSECT, null);
+    }
+
+    /**
+     Returns a map of the entries in this map whose keys are not in the other map.  This works
+     structurally like {@link #merge(UnmodMap, Function2)}.
+     */
+    public PersistentHashMap<K,V> difference(UnmodMap<K,?> other) {
+        return mergeOp(other, MergeOp.DIFFERENCE, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private PersistentHashMap<K,V> mergeOp(UnmodMap<K,?> o, MergeOp op,
+                                           Function2<? super V,? super V,? extends V> resolver) {
+        if (o == null) {
+            // Like an empty map (and ImSet.intersect(null)).
+            return (op == MergeOp.INTERSECT) ? empty(equator) : this;
+        }
+        if (o == this) {
+            if (op == MergeOp.DIFFERENCE) {
+                return empty(equator);
+            }
+            if (resolver == null) {
+                return this;
+            }
+        }
+        if ( !(o instanceof PersistentHashMap) ||
+             !equator.equals(((PersistentHashMap) o).equator) ) {
+            return mergeEntries(o, op, resolver);
+        }
+        PersistentHashMap<K,V> other = (PersistentHashMap<K,V>) o;
+
+        Merger<K,V> merger = new Merger<>(equator, op, resolver);
+        INode<K,V> newRoot;
+        if (root == null) {
+            newRoot = (op == MergeOp.UNION) ? other.root : null;
+        } else if (other.root == null) {
+            newRoot = (op == MergeOp.INTERSECT) ? null : root;
+        } else {
+            newRoot = merger.merge(root, other.root, 0);
+        }
+
+        boolean newHasNull;
+        V newNullValue = null;
+        if (op == MergeOp.UNION) {
+            newHasNull = hasNull || other.hasNull;
+            if (hasNull && other.hasNull) {
+                newNullValue = merger.resolve(nullValue, other.nullValue);
+            } else if (newHasNull) {
+                newNullValue = hasNull ? nullValue : other.nullValue;
+            }
+        } else {
+            newHasNull = hasNull && ((op == MergeOp.INTERSECT) == other.hasNull);
+            if (newHasNull) { newNullValue = nullValue; }
+        }
+
+        int thisCount = count - (hasNull ? 1 : 0);
+        int newCount;
+        if (root == null) {
+            newCount = (op == MergeOp.UNION) ? other.count - (other.hasNull ? 1 : 0) : 0;
+        } else if (other.root == null) {
+            newCount = (op == MergeOp.INTERSECT) ? 0 : thisCount;
+        } else {
+            newCount = (op == MergeOp.UNION) ? thisCount + merger.tally :
+                       (op == MergeOp.INTERSECT) ? thisCount - merger.tally :
+                       merger.tally;
+        }
+        newCount += newHasNull ? 1 : 0;
+
+        if ( (newRoot == root) && (newHasNull == hasNull) && (newNullValue == nullValue) ) {
+            return this;
+        }
+        if ( (newRoot == other.root) && (newHasNull == other.hasNull) &&
+             (newNullValue == other.nullValue) ) {
+            return other;
+        }
+        return new PersistentHashMap<>(equator, newCount, newRoot, newHasNull, newNullValue);
+    }
+
+    /** The one-entry-at-a-time version of mergeOp() for other kinds of maps. */
+    @SuppressWarnings("unchecked")
+    private PersistentHashMap<K,V> mergeEntries(UnmodMap<K,?> other, MergeOp op,
+                                                Function2<? super V,? super V,? extends V> resolver) {
+        if (op == MergeOp.INTERSECT) {
+            TransientHashMap<K,V> ret = PersistentHashMap.<K,V>empty(equator).asTransient();
+            for (UnEntry<K,V> entry : this) {
+                if (other.containsKey(entry.getKey())) {
+                    ret.assoc(entry.getKey(), entry.getValue());
+                }
+            }
+            return ret.persistent();
+        }
+        TransientHashMap<K,V> ret = asTransient();
+        for (UnEntry<K,?> entry : other) {
+            K key = entry.getKey();
+            if (op == MergeOp.DIFFERENCE) {
+                ret.without(key);
+            } else {
+                V val = (V) entry.getValue();
+                if (resolver != null) {
+                    V old = ret.getOrElse(key, (V) NOT_FOUND);
+                    if (old != NOT_FOUND) {
+                        val = resolver.apply(old, val);
+                    }
+                }
+                ret.assoc(key, val);
+            }
+        }
+        return ret.persistent();
+    }
+
     static final class TransientHashMap<K,V> implements ImMapTrans<K,V> {
         private AtomicReference<Thread> edit;
         private final Equator<K> equator;
@@ -384,6 +796,23 @@ public class PersistentHashMap<K,V> implements ImMapTrans<K,V> {
             return Option.someOrNullNoneOf(entry);
         }
 
+        // Same as the persistent version above.
+        @Override public V getOrElse(K key, V notFound) {
+            ensureEditable();
+            if (key == null) {
+                return hasNull ? nullValue : notFound;
+            }
+            return (root == null) ? notFound : root.findVal(0, equator.hash(key), key, notFound);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override public V get(Object key) { return getOrElse((K) key, null); }
+
+        @SuppressWarnings("unchecked")
+        @Override public boolean containsKey(Object key) {
+            return getOrElse((K) key, (V) NOT_FOUND) != NOT_FOUND;
+        }
+
 //        @Override
 //        @SuppressWarnings("unchecked")
 //        public Sequence<UnEntry<K,V>> seq() {
@@ -463,7 +892,8 @@ public class PersistentHashMap<K,V> implements ImMapTrans<K,V> {
 
         UnEntry<K,V> find(int shift, int hash, K key);
 
-//        V findVal(int shift, int hash, K key, V notFound);
+        /** Like find(), but returns the value (or notFound) without allocating an entry. */
+        V findVal(int shift, int hash, K key, V notFound);
 
 //        Sequence<UnmodMap.UnEntry<K,V>> nodeSeq();
 
@@ -475,11 +905,23 @@ public class PersistentHashMap<K,V> implements ImMapTrans<K,V> {
 
 //        <R> R kvreduce(Function3<R,K,V,R> f, R init);
 
-//        <R> R fold(Function2<R,R,R> combinef, Function3<R,K,V,R> reducef,
-//                   final Function1<Function0,R> fjtask,
-//                   final Function1<R,Object> fjfork, final Function1<Object,R> fjjoin);
+        /**
+         Reduces the entries in this node and its sub-nodes, starting each sub-node from identity
+         and combining the results.
+         */
+        <R> R fold(R identity, Function2<R,? super UnEntry<K,V>,R> reducer,
+                   Function2<R,R,R> combiner);
 
         UnmodIterator<UnEntry<K,V>> iterator();
+
+        /**
+         Adds this node's sub-nodes and the entries stored directly in it to the given list so
+         that a spliterator can divide them up.
+         */
+        void addChildrenTo(List<Object> kids);
+
+        /** Counts the entries in this node and its sub-nodes in O(n) time (nodes don't cache it). */
+        int entryCount();
     }
 
     final static class ArrayNode<K,V> implements INode<K,V>, UnmodIterable<UnEntry<K,V>> {
@@ -536,13 +978,13 @@ public class PersistentHashMap<K,V> implements ImMapTrans<K,V> {
             return node.find(shift + 5, hash, key);
         }
 
-//        @Override public V findVal(int shift, int hash, K key, V notFound){
-//            int idx = mask(hash, shift);
-//            INode<K,V> node = array[idx];
-//            if(node == null)
-//                return notFound;
-//            return node.findVal(shift + 5, hash, key, notFound);
-//        }
+        @Override public V findVal(int shift, int hash, K key, V notFound){
+            int idx = mask(hash, shift);
+            INode<K,V> node = array[idx];
+            if(node == null)
+                return notFound;
+            return node.findVal(shift + 5, hash, key, notFound);
+        }
 
 //        @Override public Sequence<UnmodMap.UnEntry<K,V>> nodeSeq(){ return Seq.create(array); }
 
@@ -550,6 +992,24 @@ public class PersistentHashMap<K,V> implements ImMapTrans<K,V> {
             return new Iter<>(array);
         }
 
+        @Override public void addChildrenTo(List<Object> kids) {
+            for (INode<K,V> node : array) {
+                if (node != null) {
+                    kids.add(node);
+                }
+            }
+        }
+
+        @Override public int entryCount() {
+            int ret = 0;
+            for (INode<K,V> node : array) {
+                if (node != null) {
+                    ret += node.entryCount();
+                }
+            }
+            return ret;
+        }
+
 //        @Override public <R> R kvreduce(Function3<R,K,V,R> f, R init){
 //            for(INode<K,V> node : array){
 //                if(node != null){
@@ -560,47 +1020,38 @@ public class PersistentHashMap<K,V> implements ImMapTrans<K,V> {
 //            }
 //            return init;
 //        }
-//        @Override public <R> R fold(Function2<R,R,R> combinef, Function3<R,K,V,R> reducef,
-//                                    final Function1<Function0,R> fjtask,
-//                                    final Function1<R,Object> fjfork,
-//                                    final Function1<Object,R> fjjoin){
-//            List<Callable<R>> tasks = new ArrayList<>();
-//            for(final INode<K,V> node : array){
-//                if(node != null){
-//                    tasks.add(() -> node.fold(combinef, reducef, fjtask, fjfork, fjjoin));
-//                }
-//            }
-//
-//            return foldTasks(tasks,combinef,fjtask,fjfork,fjjoin);
-//        }
+        @Override public <R> R fold(R identity, Function2<R,? super UnEntry<K,V>,R> reducer,
+                                    Function2<R,R,R> combiner) {
+            List<Function0<R>> tasks = new ArrayList<>();
+            for (final INode<K,V> node : array) {
+                if (node != null) {
+                    tasks.add(() -> node.fold(identity, reducer, combiner));
+                }
+            }
+            return foldTasks(tasks, identity, combiner);
+        }
 
-//        static private <R> R foldTasks(List<Callable<R>> tasks, final Function2<R,R,R> combinef,
-//                                       final Function1<Function0,R> fjtask,
-//                                       final Function1<R,Object> fjfork,
-//                                       final Function1<Object,R> fjjoin) {
-//
-//            if(tasks.isEmpty())
-//                return combinef.apply(null,null);
-//
-//            if(tasks.size() == 1){
-//                try {
-//                    return tasks.get(0).call();
-//                } catch (RuntimeException re) {
-//                    throw re;
-//                } catch (Exception e) {
-//                    throw new RuntimeException(e);
-//                }
-//            }
-//
-//            List<Callable<R>> t1 = tasks.subList(0,tasks.size()/2);
-//            final List<Callable<R>> t2 = tasks.subList(tasks.size()/2, tasks.size());
-//
-//            Object forked = fjfork.apply(fjtask.apply(() -> foldTasks(t2, combinef, fjtask,
-//                                         fjfork, fjjoin)));
-//
-//            return combinef.apply(foldTasks(t1, combinef, fjtask, fjfork, fjjoin),
-//                                  fjjoin.apply(forked));
-//        }
+        /**
+         Runs the second half of the tasks in a forked ForkJoinTask while running the first half
+         in this thread, then combines the results.
+         */
+        static private <R> R foldTasks(List<Function0<R>> tasks, R identity,
+                                       Function2<R,R,R> combiner) {
+            if (tasks.isEmpty()) {
+                return identity;
+            }
+            if (tasks.size() == 1) {
+                return tasks.get(0).apply();
+            }
+
+            List<Function0<R>> t1 = tasks.subList(0, tasks.size() / 2);
+            final List<Function0<R>> t2 = tasks.subList(tasks.size() / 2, tasks.size());
+
+            ForkJoinTask<R> forked =
+                    ForkJoinTask.adapt((Callable<R>) () -> foldTasks(t2, identity, combiner)).fork();
+
+            return combiner.apply(foldTasks(t1, identity, combiner), forked.join());
+        }
 
 
         private ArrayNode<K,V> ensureEditable(AtomicReference<Thread> edit){
@@ -819,9 +1270,12 @@ public class PersistentHashMap<K,V> implements ImMapTrans<K,V> {
                     return null;
                 return new BitmapIndexedNode<>(equator, null, bitmap ^ bit, removePair(array, idx));
             }
-            if(equator.eq(key, keyOrNull))
-                // TODO: collapse
+            if(equator.eq(key, keyOrNull)) {
+                // Don't leave an empty node behind, so that equal tries have the same shape.
+                if (bitmap == bit)
+                    return null;
                 return new BitmapIndexedNode<>(equator, null, bitmap ^ bit, removePair(array, idx));
+            }
             return this;
         }
 
@@ -839,22 +1293,22 @@ public class PersistentHashMap<K,V> implements ImMapTrans<K,V> {
             return null;
         }
 
-//        @Override public V findVal(int shift, int hash, K key, V notFound) {
-//            int bit = bitpos(hash, shift);
-//            if ((bitmap & bit) == 0) {
-//                return notFound;
-//            }
-//            int idx = index(bit);
-//            K keyOrNull = k(array, 2 * idx);
-//            if (keyOrNull == null) {
-//                INode<K,V> n = iNode(array, 2 * idx + 1);
-//                return n.findVal(shift + 5, hash, key, notFound);
-//            }
-//            if (equator.eq(key, keyOrNull)) {
-//                return v(array, 2 * idx + 1);
-//            }
-//            return notFound;
-//        }
+        @Override public V findVal(int shift, int hash, K key, V notFound) {
+            int bit = bitpos(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return notFound;
+            }
+            int idx = index(bit);
+            K keyOrNull = k(array, 2 * idx);
+            if (keyOrNull == null) {
+                INode<K,V> n = iNode(array, 2 * idx + 1);
+                return n.findVal(shift + 5, hash, key, notFound);
+            }
+            if (equator.eq(key, keyOrNull)) {
+                return v(array, 2 * idx + 1);
+            }
+            return notFound;
+        }
 
 //        @Override public Sequence<UnEntry<K,V>> nodeSeq() { return NodeSeq.create(array); }
 
@@ -862,16 +1316,28 @@ public class PersistentHashMap<K,V> implements ImMapTrans<K,V> {
             return new NodeIter<>(array);
         }
 
+        @Override public void addChildrenTo(List<Object> kids) { addPairsTo(array, kids); }
+
+        @Override public int entryCount() {
+            int ret = 0;
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i] != null) {
+                    ret++;
+                } else if (array[i + 1] != null) {
+                    ret += ((INode) array[i + 1]).entryCount();
+                }
+            }
+            return ret;
+        }
+
 //        @Override public <R> R kvreduce(Function3<R,K,V,R> f, R init){
 //            return doKvreduce(array, f, init);
 //        }
 
-//        @Override public <R> R fold(Function2<R,R,R> combinef, Function3<R,K,V,R> reducef,
-//                                    final Function1<Function0,R> fjtask,
-//                                    final Function1<R,Object> fjfork,
-//                                    final Function1<Object,R> fjjoin){
-//            return doKvreduce(array, reducef, combinef.apply(null, null));
-//        }
+        @Override public <R> R fold(R identity, Function2<R,? super UnEntry<K,V>,R> reducer,
+                                    Function2<R,R,R> combiner) {
+            return foldPairs(array, identity, reducer, combiner);
+        }
 
         private BitmapIndexedNode<K,V> ensureEditable(AtomicReference<Thread> edit){
             if(this.edit == edit)
@@ -995,7 +1461,8 @@ public class PersistentHashMap<K,V> implements ImMapTrans<K,V> {
             }
             if(equator.eq(key, keyOrNull)) {
                 removedLeaf.val = removedLeaf;
-                // TODO: collapse
+                if (bitmap == bit)
+                    return null;
                 return editAndRemovePair(edit, bit, idx);
             }
             return this;
@@ -1059,30 +1526,32 @@ public class PersistentHashMap<K,V> implements ImMapTrans<K,V> {
             return null;
         }
 
-//        @Override public V findVal(int shift, int hash, K key, V notFound){
-//            int idx = findIndex(key);
-//            if(idx < 0)
-//                return notFound;
-//            if (equator.eq(key, k(array, idx))) {
-//                return v(array, idx + 1);
-//            }
-//            return notFound;
-//        }
+        @Override public V findVal(int shift, int hash, K key, V notFound){
+            int idx = findIndex(key);
+            if(idx < 0)
+                return notFound;
+            if (equator.eq(key, k(array, idx))) {
+                return v(array, idx + 1);
+            }
+            return notFound;
+        }
 
 //        @Override public Sequence<UnEntry<K,V>> nodeSeq() { return NodeSeq.create(array); }
 
         @Override public UnmodIterator<UnEntry<K,V>> iterator() { return new NodeIter<>(array); }
 
+        @Override public void addChildrenTo(List<Object> kids) { addPairsTo(array, kids); }
+
+        @Override public int entryCount() { return count; }
+
 //        @Override public <R> R kvreduce(Function3<R,K,V,R> f, R init){
 //            return doKvreduce(array, f, init);
 //        }
 
-//        @Override public <R> R fold(Function2<R,R,R> combinef, Function3<R,K,V,R> reducef,
-//                                    final Function1<Function0,R> fjtask,
-//                                    final Function1<R,Object> fjfork,
-//                                    final Function1<Object,R> fjjoin){
-//            return doKvreduce(array, reducef, combinef.apply(null, null));
-//        }
+        @Override public <R> R fold(R identity, Function2<R,? super UnEntry<K,V>,R> reducer,
+                                    Function2<R,R,R> combiner) {
+            return foldPairs(array, identity, reducer, combiner);
+        }
 
         public int findIndex(K key){
             for (int i = 0; i < 2*count; i+=2) {
@@ -1170,6 +1639,299 @@ public class PersistentHashMap<K,V> implements ImMapTrans<K,V> {
         }
     }
 
+    /**
+     Returns the contents of an ArrayNode or BitmapIndexedNode as 32 key/value or null/node
+     pairs, one for each hash slot at this level.
+     */
+    private static Object[] slots(INode<?,?> node) {
+        Object[] ret = new Object[64];
+        if (node instanceof ArrayNode) {
+            INode<?,?>[] array = ((ArrayNode<?,?>) node).array;
+            for (int i = 0; i < 32; i++) {
+                ret[2 * i + 1] = array[i];
+            }
+        } else {
+            BitmapIndexedNode<?,?> bin = (BitmapIndexedNode<?,?>) node;
+            int j = 0;
+            for (int i = 0; i < 32; i++) {
+                if ( ((bin.bitmap >>> i) & 1) != 0 ) {
+                    ret[2 * i] = bin.array[j];
+                    ret[2 * i + 1] = bin.array[j + 1];
+                    j += 2;
+                }
+            }
+        }
+        return ret;
+    }
+
+    private enum MergeOp { UNION, INTERSECT, DIFFERENCE }
+
+    /**
+     Walks two hash tries that use the same Equator side by side, 32 hash slots at a time.  A slot
+     that's empty on one side just takes the other side's node or entry, and a sub-trie that's the
+     same object on both sides is taken (or dropped) whole, so only the parts of the tries that
+     differ get rebuilt.  All the nodes it makes are persistent.  The size of the result is tallied
+     only from the parts that differ too, so a shared sub-trie is never counted (or even looked
+     into).
+     */
+    private static final class Merger<K,V> {
+        private final Equator<K> equator;
+        private final MergeOp op;
+        private final Function2<? super V,? super V,? extends V> resolver;
+        /**
+         For UNION, the number of entries added to the first trie, for INTERSECT, the number dropped
+         from it, and for DIFFERENCE, the number kept from it.  Taking a shared sub-trie whole
+         (or dropping it whole for DIFFERENCE) leaves this unchanged.
+         */
+        int tally = 0;
+
+        private Merger(Equator<K> eq, MergeOp o, Function2<? super V,? super V,? extends V> r) {
+            equator = eq; op = o; resolver = r;
+        }
+
+        V resolve(V a, V b) { return (resolver == null) ? b : resolver.apply(a, b); }
+
+        /** Merges two non-null nodes at the given level, returning null if the result is empty. */
+        INode<K,V> merge(INode<K,V> a, INode<K,V> b, int shift) {
+            // The same values are on both sides, so unless a resolver has to see them,
+            // there's no need to look inside.
+            if ( (a == b) && (resolver == null) ) {
+                return (op == MergeOp.DIFFERENCE) ? null : a;
+            }
+            // Collisions are rare and small, so just do them an entry at a time.
+            if ( (a instanceof HashCollisionNode) || (b instanceof HashCollisionNode) ) {
+                return mergeSlowly(a, b, shift);
+            }
+            Object[] as = slots(a);
+            Object[] bs = slots(b);
+            Object[] out = new Object[64];
+            for (int i = 0; i < 64; i += 2) {
+                mergeSlot(as, bs, out, i, shift + 5);
+            }
+            return build(a, as, b, bs, out, shift);
+        }
+
+        /**
+         Merges the key/value or null/node pair at index i of as and bs (which are at the
+         parent's level) into out.
+         */
+        @SuppressWarnings("unchecked")
+        private void mergeSlot(Object[] as, Object[] bs, Object[] out, int i, int shift) {
+            K ka = k(as, i);
+            K kb = k(bs, i);
+            Object va = as[i + 1];
+            Object vb = bs[i + 1];
+            if ( (ka == null) && (va == null) ) {
+                if ( (op == MergeOp.UNION) && ((kb != null) || (vb != null)) ) {
+                    tally += count(kb, vb);
+                    out[i] = kb;
+                    out[i + 1] = vb;
+                }
+                return;
+            }
+            if ( (kb == null) && (vb == null) ) {
+                if (op != MergeOp.INTERSECT) {
+                    out[i] = ka;
+                    out[i + 1] = va;
+                }
+                if (op != MergeOp.UNION) {
+                    tally += count(ka, va);
+                }
+                return;
+            }
+
+            if (ka == null) {
+                INode<K,V> na = (INode<K,V>) va;
+                if (kb == null) {
+                    out[i + 1] = merge(na, (INode<K,V>) vb, shift);
+                    return;
+                }
+                // A node in a and an entry in b
+                int hash = equator.hash(kb);
+                Object found = na.findVal(shift, hash, kb, (V) NOT_FOUND);
+                if (found == NOT_FOUND) {
+                    if (op == MergeOp.UNION) {
+                        tally++;
+                        out[i + 1] = na.assoc(shift, hash, kb, (V) vb, new Box(null));
+                    } else {
+                        tally += na.entryCount();
+                        if (op == MergeOp.DIFFERENCE) {
+                            out[i + 1] = na;
+                        }
+                    }
+                    return;
+                }
+                if (op == MergeOp.UNION) {
+                    out[i + 1] = na.assoc(shift, hash, kb, resolve((V) found, (V) vb),
+                                          new Box(null));
+                    return;
+                }
+                tally += na.entryCount() - 1;
+                if (op == MergeOp.INTERSECT) {
+                    UnEntry<K,V> entry = na.find(shift, hash, kb);
+                    out[i] = entry.getKey();
+                    out[i + 1] = entry.getValue();
+                } else {
+                    out[i + 1] = na.without(shift, hash, kb);
+                }
+                return;
+            }
+
+            if (kb == null) {
+                // An entry in a and a node in b
+                INode<K,V> nb = (INode<K,V>) vb;
+                int hash = equator.hash(ka);
+                Object found = nb.findVal(shift, hash, ka, (V) NOT_FOUND);
+                if (found == NOT_FOUND) {
+                    if (op == MergeOp.UNION) {
+                        tally += nb.entryCount();
+                        out[i + 1] = nb.assoc(shift, hash, ka, (V) va, new Box(null));
+                    } else {
+                        tally++;
+                        if (op == MergeOp.DIFFERENCE) {
+                            out[i] = ka;
+                            out[i + 1] = va;
+                        }
+                    }
+                    return;
+                }
+                if (op == MergeOp.UNION) {
+                    tally += nb.entryCount() - 1;
+                    out[i + 1] = nb.assoc(shift, hash, ka, resolve((V) va, (V) found),
+                                          new Box(null));
+                } else if (op == MergeOp.INTERSECT) {
+                    out[i] = ka;
+                    out[i + 1] = va;
+                }
+                return;
+            }
+
+            // An entry on each side
+            if (equator.eq(ka, kb)) {
+                if (op == MergeOp.UNION) {
+                    out[i] = ka;
+                    out[i + 1] = resolve((V) va, (V) vb);
+                } else if (op == MergeOp.INTERSECT) {
+                    out[i] = ka;
+                    out[i + 1] = va;
+                }
+            } else {
+                tally++;
+                if (op == MergeOp.UNION) {
+                    out[i + 1] = createNode(equator, shift, ka, (V) va, equator.hash(kb), kb,
+                                            (V) vb);
+                } else if (op == MergeOp.DIFFERENCE) {
+                    out[i] = ka;
+                    out[i + 1] = va;
+                }
+            }
+        }
+
+        /** The number of entries in a key/value or null/node pair. */
+        @SuppressWarnings("unchecked")
+        private int count(Object key, Object val) {
+            return (key != null) ? 1 : ((INode<K,V>) val).entryCount();
+        }
+
+        /** Merges two nodes (at least one of them a HashCollisionNode) an entry at a time. */
+        @SuppressWarnings("unchecked")
+        private INode<K,V> mergeSlowly(INode<K,V> a, INode<K,V> b, int shift) {
+            Box box = new Box(null);
+            if (op == MergeOp.INTERSECT) {
+                INode<K,V> ret = null;
+                for (UnmodIterator<UnEntry<K,V>> iter = a.iterator(); iter.hasNext(); ) {
+                    UnEntry<K,V> entry = iter.next();
+                    int hash = equator.hash(entry.getKey());
+                    if (b.findVal(shift, hash, entry.getKey(), (V) NOT_FOUND) != NOT_FOUND) {
+                        ret = ((ret == null) ? BitmapIndexedNode.<K,V>empty(equator) : ret)
+                                .assoc(shift, hash, entry.getKey(), entry.getValue(), box);
+                    } else {
+                        tally++;
+                    }
+                }
+                return ret;
+            }
+            INode<K,V> ret = a;
+            int kept = (op == MergeOp.DIFFERENCE) ? a.entryCount() : 0;
+            for (UnmodIterator<UnEntry<K,V>> iter = b.iterator(); iter.hasNext(); ) {
+                UnEntry<K,V> entry = iter.next();
+                K key = entry.getKey();
+                int hash = equator.hash(key);
+                Object found = ret.findVal(shift, hash, key, (V) NOT_FOUND);
+                if (op == MergeOp.DIFFERENCE) {
+                    if (found != NOT_FOUND) {
+                        kept--;
+                        ret = ret.without(shift, hash, key);
+                        if (ret == null) {
+                            return null;
+                        }
+                    }
+                } else {
+                    if (found == NOT_FOUND) {
+                        tally++;
+                    }
+                    V val = (found == NOT_FOUND) ? entry.getValue()
+                                                 : resolve((V) found, entry.getValue());
+                    ret = ret.assoc(shift, hash, key, val, box);
+                }
+            }
+            tally += kept;
+            return ret;
+        }
+
+        /**
+         Makes a node out of the 32 key/value or null/node pairs in out.  Returns a or b instead if
+         it would be identical.
+         */
+        @SuppressWarnings("unchecked")
+        private INode<K,V> build(INode<K,V> a, Object[] as, INode<K,V> b, Object[] bs,
+                                 Object[] out, int shift) {
+            if (sameSlots(out, as)) { return a; }
+            if (sameSlots(out, bs)) { return b; }
+            int n = 0;
+            int bitmap = 0;
+            for (int i = 0; i < 32; i++) {
+                if ( (out[2 * i] != null) || (out[2 * i + 1] != null) ) {
+                    n++;
+                    bitmap |= 1 << i;
+                }
+            }
+            if (n == 0) {
+                return null;
+            }
+            if (n > 16) {
+                INode<K,V>[] nodes = (INode<K,V>[]) new INode<?,?>[32];
+                for (int i = 0; i < 32; i++) {
+                    K key = k(out, 2 * i);
+                    if (key != null) {
+                        nodes[i] = BitmapIndexedNode.<K,V>empty(equator)
+                                .assoc(shift + 5, equator.hash(key), key, v(out, 2 * i + 1),
+                                       new Box(null));
+                    } else {
+                        nodes[i] = iNode(out, 2 * i + 1);
+                    }
+                }
+                return new ArrayNode<>(equator, null, n, nodes);
+            }
+            Object[] array = new Object[2 * n];
+            int j = 0;
+            for (int i = 0; i < 64; i += 2) {
+                if ( (out[i] != null) || (out[i + 1] != null) ) {
+                    array[j++] = out[i];
+                    array[j++] = out[i + 1];
+                }
+            }
+            return new BitmapIndexedNode<>(equator, null, bitmap, array);
+        }
+
+        private static boolean sameSlots(Object[] x, Object[] y) {
+            for (int i = 0; i < x.length; i++) {
+                if (x[i] != y[i]) { return false; }
+            }
+            return true;
+        }
+    }
+
 /*
 public static void main(String[] args){
     try
@@ -1313,6 +2075,42 @@ public static void main(String[] args){
         return 1 << mask(hash, shift);
     }
 
+    /**
+     Reduces the key/value-or-node array of a BitmapIndexedNode or HashCollisionNode in this thread.
+     Each sub-node is folded from identity and its result combined, so that an ArrayNode further
+     down can still fork.
+     */
+    private static <K,V,R> R foldPairs(Object[] array, R identity,
+                                       Function2<R,? super UnEntry<K,V>,R> reducer,
+                                       Function2<R,R,R> combiner) {
+        R ret = identity;
+        for (int i = 0; i < array.length; i += 2) {
+            if (array[i] != null) {
+                ret = reducer.apply(ret, Tuple2.of(k(array, i), v(array, i + 1)));
+            } else {
+                INode<K,V> node = iNode(array, i + 1);
+                if (node != null) {
+                    ret = combiner.apply(ret, node.fold(identity, reducer, combiner));
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     For the key/value-or-node arrays of BitmapIndexedNode and HashCollisionNode: adds an entry for
+     each key and the node for each null key (skipping empty slots) to the given list.
+     */
+    private static void addPairsTo(Object[] array, List<Object> kids) {
+        for (int i = 0; i < array.length; i += 2) {
+            if (array[i] != null) {
+                kids.add(Tuple2.of(array[i], array[i + 1]));
+            } else if (array[i + 1] != null) {
+                kids.add(array[i + 1]);
+            }
+        }
+    }
+
     static final class NodeIter<K,V> implements UnmodIterator<UnEntry<K,V>> {
         private static final UnEntry ABSENCE = new UnEntry() {
             @Override public Object getKey() {
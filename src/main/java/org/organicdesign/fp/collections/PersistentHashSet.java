@@ -14,6 +14,8 @@
 package org.organicdesign.fp.collections;
 
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
 
 /**
  A wrapper that turns a PersistentTreeMap into a set.
@@ -35,6 +37,14 @@ public class PersistentHashSet<E> implements ImSet<E> {
         return new PersistentHashSet<>(PersistentHashMap.empty(eq));
     }
 
+    /**
+     Returns an empty set backed by a {@link PersistentChampMap} (see
+     {@link PersistentHashMap#emptyChamp()}) instead of a PersistentHashMap.
+     */
+    public static <E> PersistentHashSet<E> emptyChamp(Equator<E> eq) {
+        return ofMap(PersistentHashMap.<E,E>emptyChamp(eq));
+    }
+
     /**
      Returns a new PersistentHashSet of the values.  The vararg version of this method is
      {@link org.organicdesign.fp.StaticImports#set(Object...)}   If the input contains duplicate
@@ -67,6 +77,8 @@ public class PersistentHashSet<E> implements ImSet<E> {
     }
 
     private final ImMapTrans<E,E> impl;
+    // Lazily computed by hashCode(), 0 means "not computed yet."
+    private int hash;
 
     private PersistentHashSet(ImMapTrans<E,E> i) { impl = i; }
 
@@ -87,6 +99,9 @@ public class PersistentHashSet<E> implements ImSet<E> {
     /**
      This is compatible with java.util.Map but that means it wrongly allows comparisons with SortedMaps, which are
      necessarily not commutative.
+     Another PersistentHashSet with the same Equator is compared by cached hash code (if both are
+     computed), then by walking both hash tries together, skipping any sub-tries they share.
+
      @param other the other (hopefully unsorted) map to compare to.
      @return true if these maps contain the same elements, regardless of order.
      */
@@ -95,10 +110,27 @@ public class PersistentHashSet<E> implements ImSet<E> {
         if ( !(other instanceof Set) ) { return false; }
         Set that = (Set) other;
         if (that.size() != size()) { return false; }
+        if (other instanceof PersistentHashSet) {
+            PersistentHashSet<?> phs = (PersistentHashSet<?>) other;
+            if ( (hash != 0) && (phs.hash != 0) && (hash != phs.hash) ) { return false; }
+            @SuppressWarnings("unchecked")
+            PersistentHashMap<E,E> m = sameKindOfMap((Iterable<E>) other);
+            if (m != null) {
+                return ((PersistentHashMap<E,E>) impl).trieEquals(m, false);
+            }
+        }
         return containsAll(that);
     }
 
-    @Override public int hashCode() { return UnmodIterable.hashCode(this); }
+    /** This is O(n) the first time, then O(1) because it's cached. */
+    @Override public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = UnmodIterable.hashCode(this);
+            hash = h;
+        }
+        return h;
+    }
 
     @Override public String toString() { return UnmodIterable.toString("PersistentHashSet", this); }
 
@@ -114,6 +146,117 @@ public class PersistentHashSet<E> implements ImSet<E> {
 
     @Override public int size() { return impl.size(); }
 
+    /**
+     Returns a set of the items in this set and the given iterable.  If the iterable is a
+     PersistentHashSet with the same Equator, this merges the two hash tries, reusing any
+     sub-tries which are only in one of them or are shared by both (see
+     {@link PersistentHashMap#union(UnmodMap)}).  Otherwise it adds the items one at a time.
+     */
+    @Override public PersistentHashSet<E> union(Iterable<? extends E> iter) {
+        if (iter == null) { return this; }
+        PersistentHashMap<E,E> other = sameKindOfMap(iter);
+        if (other != null) {
+            return withImpl(((PersistentHashMap<E,E>) impl).union(other), iter);
+        }
+        TransientHashSet<E> ret = asTransient();
+        for (E e : iter) {
+            if (!ret.contains(e)) { ret.put(e); }
+        }
+        return ret.persistent();
+    }
+
+    /**
+     Returns a set of the items in this set which are also in the given iterable.  This is a
+     structural merge if the iterable is a PersistentHashSet with the same Equator (see
+     {@link #union(Iterable)}).
+     */
+    @Override public PersistentHashSet<E> intersect(Iterable<? extends E> iter) {
+        if (iter == null) { return empty(equator()); }
+        PersistentHashMap<E,E> other = sameKindOfMap(iter);
+        if (other != null) {
+            return withImpl(((PersistentHashMap<E,E>) impl).intersect(other), iter);
+        }
+        TransientHashSet<E> ret = PersistentHashSet.empty(equator()).asTransient();
+        for (E e : iter) {
+            if (contains(e)) { ret.put(e); }
+        }
+        return ret.persistent();
+    }
+
+    /**
+     Returns a set of the items in this set which are not in the given iterable.  This is a
+     structural merge if the iterable is a PersistentHashSet with the same Equator (see
+     {@link #union(Iterable)}).
+     */
+    @Override public PersistentHashSet<E> difference(Iterable<? extends E> iter) {
+        if (iter == null) { return this; }
+        PersistentHashMap<E,E> other = sameKindOfMap(iter);
+        if (other != null) {
+            return withImpl(((PersistentHashMap<E,E>) impl).difference(other), iter);
+        }
+        TransientHashSet<E> ret = asTransient();
+        for (E e : iter) { ret.without(e); }
+        return ret.persistent();
+    }
+
+    /**
+     If this set and the given iterable are both PersistentHashSets backed by PersistentHashMaps
+     with the same Equator, returns the other set's map, otherwise null.
+     */
+    @SuppressWarnings("unchecked")
+    private PersistentHashMap<E,E> sameKindOfMap(Iterable<? extends E> iter) {
+        if ( (impl instanceof PersistentHashMap) && (iter instanceof PersistentHashSet) ) {
+            ImMapTrans<?,?> other = ((PersistentHashSet<?>) iter).impl;
+            if ( (other instanceof PersistentHashMap) && equator().equals(other.equator()) ) {
+                return (PersistentHashMap<E,E>) other;
+            }
+        }
+        return null;
+    }
+
+    /** Returns this set or the other one if either has the given map, otherwise a new set. */
+    @SuppressWarnings("unchecked")
+    private PersistentHashSet<E> withImpl(ImMapTrans<E,E> m, Iterable<? extends E> other) {
+        if (m == impl) { return this; }
+        // Safe because the other set is immutable.
+        if (m == ((PersistentHashSet<E>) other).impl) { return (PersistentHashSet<E>) other; }
+        return new PersistentHashSet<>(m);
+    }
+
+    /**
+     Splits along the nodes of the underlying hash map.
+     See {@link PersistentHashMap#spliterator()}
+     */
+    @Override public Spliterator<E> spliterator() { return new KeySpliterator<>(impl.spliterator()); }
+
+    /** Presents the keys of a spliterator of map entries. */
+    private static final class KeySpliterator<E> implements Spliterator<E> {
+        private final Spliterator<UnmodMap.UnEntry<E,E>> entries;
+
+        private KeySpliterator(Spliterator<UnmodMap.UnEntry<E,E>> entries) {
+            this.entries = entries;
+        }
+
+        @Override public boolean tryAdvance(Consumer<? super E> action) {
+            return entries.tryAdvance(e -> action.accept(e.getKey()));
+        }
+
+        @Override public void forEachRemaining(Consumer<? super E> action) {
+            entries.forEachRemaining(e -> action.accept(e.getKey()));
+        }
+
+        @Override public Spliterator<E> trySplit() {
+            Spliterator<UnmodMap.UnEntry<E,E>> prefix = entries.trySplit();
+            return (prefix == null) ? null : new KeySpliterator<>(prefix);
+        }
+
+        @Override public long estimateSize() { return entries.estimateSize(); }
+
+        @Override public int characteristics() {
+            return entries.characteristics() | Spliterator.DISTINCT;
+        }
+    }
+
     private TransientHashSet<E> asTransient() {
         return new TransientHashSet<>(impl.asTransient());
     }
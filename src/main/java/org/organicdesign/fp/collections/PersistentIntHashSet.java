@@ -0,0 +1,367 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.collections;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.IntBinaryOperator;
+
+/**
+ An immutable hash set of primitive ints.  It uses the same CHAMP node layout as
+ {@link PersistentLongHashMap}, keeping the items of each node in an int[], so they are never boxed.
+ Items are hashed with the MurmurHash3 finalizer (fmix32), which is reversible, so two different
+ items never have the same hash and there are no collision nodes.  Use containsInt(), putInt(),
+ withoutInt(), and foldLeftInt() to avoid boxing.  The ImSet&lt;Integer&gt; methods box the items
+ and don't allow null.
+
+ There is no transient version of this class.  Build big sets with {@link #of(int...)}.
+
+ This class is thread-safe (immutable).
+ */
+public final class PersistentIntHashSet implements ImSet<Integer> {
+
+    // Each level of the trie uses the next 5 bits of the hash to pick one of 32 slots.
+    private static final int BITS = 5;
+    // 7 levels use up all 32 bits of the hash (the last level only gets 2).
+    private static final int MAX_DEPTH = 7;
+
+    /**
+     The finalizer from MurmurHash3 (fmix32), for the same reason as in PersistentLongHashMap: the
+     trie reads the low bits first, so every bit of the item has to reach them.  Each step is
+     reversible, so distinct items still get distinct hashes.
+     */
+    private static int spread(int item) {
+        int h = item;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static int bitpos(int hash, int shift) { return 1 << ((hash >>> shift) & 0x01f); }
+
+    private static final int[] NO_ITEMS = new int[0];
+    private static final Node[] NO_NODES = new Node[0];
+
+    public static final PersistentIntHashSet EMPTY =
+            new PersistentIntHashSet(0, new Node(0, 0, NO_ITEMS, NO_NODES));
+
+    /** Returns the empty PersistentIntHashSet (there only needs to be one) */
+    public static PersistentIntHashSet empty() { return EMPTY; }
+
+    /** Returns a new set of the given items.  Duplicates are ignored. */
+    public static PersistentIntHashSet of(int... items) {
+        PersistentIntHashSet ret = EMPTY;
+        if (items != null) {
+            for (int item : items) {
+                ret = ret.putInt(item);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     Returns a new set of the given items.  Duplicates are ignored.
+     @throws IllegalArgumentException if any item is null.
+     */
+    public static PersistentIntHashSet ofIter(Iterable<Integer> items) {
+        PersistentIntHashSet ret = EMPTY;
+        for (Integer item : items) {
+            ret = ret.put(item);
+        }
+        return ret;
+    }
+
+    // ========================================= Instance =========================================
+    private final int count;
+    private final Node root;
+    // Lazily computed by hashCode(), 0 means "not computed yet."
+    private int hash;
+
+    private PersistentIntHashSet(int count, Node root) {
+        this.count = count;
+        this.root = root;
+    }
+
+    /** Returns true if this set contains the given item. */
+    public boolean containsInt(int item) { return root.contains(item, spread(item), 0); }
+
+    /** Returns a new set with the given item added (or this set if it's already here). */
+    public PersistentIntHashSet putInt(int item) {
+        Node newRoot = root.put(item, spread(item), 0);
+        return (newRoot == root) ? this : new PersistentIntHashSet(count + 1, newRoot);
+    }
+
+    /** Returns a new set without the given item (or this set if it wasn't here). */
+    public PersistentIntHashSet withoutInt(int item) {
+        Node newRoot = root.without(item, spread(item), 0);
+        return (newRoot == root) ? this : new PersistentIntHashSet(count - 1, newRoot);
+    }
+
+    /**
+     Applies the function to each item (in no particular order), accumulating the result in u.
+     This never boxes.
+     @param u the starting value (e.g. 0 for a sum).
+     @param fun combines the result so far with the next item.
+     */
+    public int foldLeftInt(int u, IntBinaryOperator fun) { return root.fold(u, fun); }
+
+    /** {@inheritDoc} */
+    @Override public int size() { return count; }
+
+    // ======================================= Boxing API =======================================
+
+    @Override public boolean contains(Object o) {
+        return (o instanceof Integer) && containsInt((Integer) o);
+    }
+
+    /**
+     {@inheritDoc}
+     @throws IllegalArgumentException if the item is null.
+     */
+    @Override public PersistentIntHashSet put(Integer item) {
+        if (item == null) { throw new IllegalArgumentException("Can't have a null item"); }
+        return putInt(item);
+    }
+
+    /** {@inheritDoc} */
+    @Override public PersistentIntHashSet without(Integer item) {
+        return (item == null) ? this : withoutInt(item);
+    }
+
+    @Override public UnmodIterator<Integer> iterator() { return new NodeIter(root); }
+
+    /**
+     Compatible with java.util.Set.  When the other set is also a PersistentIntHashSet, this
+     compares the two tries node by node (a trie of the same items always has the same shape),
+     skipping any sub-tries they share.
+     */
+    @Override public boolean equals(Object other) {
+        if (this == other) { return true; }
+        if ( !(other instanceof Set) ) { return false; }
+        Set<?> that = (Set<?>) other;
+        if (that.size() != count) { return false; }
+        if (other instanceof PersistentIntHashSet) {
+            PersistentIntHashSet pihs = (PersistentIntHashSet) other;
+            if ( (hash != 0) && (pihs.hash != 0) && (hash != pihs.hash) ) { return false; }
+            return nodesEqual(root, pihs.root);
+        }
+        try {
+            return that.containsAll(this);
+        } catch (ClassCastException unused) {
+            return false;
+        }
+    }
+
+    private static boolean nodesEqual(Node a, Node b) {
+        if (a == b) { return true; }
+        if ( (a.dataMap != b.dataMap) || (a.nodeMap != b.nodeMap) ||
+             !Arrays.equals(a.items, b.items) ) {
+            return false;
+        }
+        for (int i = 0; i < a.nodes.length; i++) {
+            if ( !nodesEqual(a.nodes[i], b.nodes[i]) ) { return false; }
+        }
+        return true;
+    }
+
+    /** This is O(n) the first time, then O(1) because it's cached.  Compatible with Set. */
+    @Override public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            // Integer.hashCode(i) is just i.
+            h = foldLeftInt(0, (sum, i) -> sum + i);
+            hash = h;
+        }
+        return h;
+    }
+
+    /** {@inheritDoc} */
+    @Override public String toString() {
+        return UnmodIterable.toString("PersistentIntHashSet", this);
+    }
+
+    /**
+     Items whose hashes end here are in items, in the order of their bits in dataMap.  Sub-nodes
+     are in nodes, in the order of their bits in nodeMap.  Nodes never change.
+     */
+    private static final class Node {
+        private final int dataMap;
+        private final int nodeMap;
+        private final int[] items;
+        private final Node[] nodes;
+
+        private Node(int dataMap, int nodeMap, int[] items, Node[] nodes) {
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.items = items;
+            this.nodes = nodes;
+        }
+
+        private int dataIndex(int bit) { return Integer.bitCount(dataMap & (bit - 1)); }
+
+        private int nodeIndex(int bit) { return Integer.bitCount(nodeMap & (bit - 1)); }
+
+        private boolean contains(int item, int hash, int shift) {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0) {
+                return items[dataIndex(bit)] == item;
+            }
+            return ((nodeMap & bit) != 0) &&
+                   nodes[nodeIndex(bit)].contains(item, hash, shift + BITS);
+        }
+
+        private Node put(int item, int hash, int shift) {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int idx = dataIndex(bit);
+                if (items[idx] == item) { return this; }
+                Node sub = mergeTwo(items[idx], item, hash, shift + BITS);
+                return new Node(dataMap ^ bit, nodeMap | bit, removeItem(items, idx),
+                                insertNode(nodes, nodeIndex(bit), sub));
+            }
+            if ((nodeMap & bit) != 0) {
+                int idx = nodeIndex(bit);
+                Node newSub = nodes[idx].put(item, hash, shift + BITS);
+                if (newSub == nodes[idx]) { return this; }
+                Node[] newNodes = nodes.clone();
+                newNodes[idx] = newSub;
+                return new Node(dataMap, nodeMap, items, newNodes);
+            }
+            return new Node(dataMap | bit, nodeMap, insertItem(items, dataIndex(bit), item), nodes);
+        }
+
+        private Node without(int item, int hash, int shift) {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int idx = dataIndex(bit);
+                if (items[idx] != item) { return this; }
+                return new Node(dataMap ^ bit, nodeMap, removeItem(items, idx), nodes);
+            }
+            if ((nodeMap & bit) != 0) {
+                int idx = nodeIndex(bit);
+                Node newSub = nodes[idx].without(item, hash, shift + BITS);
+                if (newSub == nodes[idx]) { return this; }
+                // Keep the trie canonical: a sub-node never holds just one item.
+                if ( (newSub.nodeMap == 0) && (newSub.items.length == 1) ) {
+                    return new Node(dataMap | bit, nodeMap ^ bit,
+                                    insertItem(items, dataIndex(bit), newSub.items[0]),
+                                    removeNode(nodes, idx));
+                }
+                Node[] newNodes = nodes.clone();
+                newNodes[idx] = newSub;
+                return new Node(dataMap, nodeMap, items, newNodes);
+            }
+            return this;
+        }
+
+        private int fold(int u, IntBinaryOperator fun) {
+            for (int item : items) {
+                u = fun.applyAsInt(u, item);
+            }
+            for (Node node : nodes) {
+                u = node.fold(u, fun);
+            }
+            return u;
+        }
+    }
+
+    /** Returns a node holding two items whose hashes matched up to the given shift. */
+    private static Node mergeTwo(int i1, int i2, int h2, int shift) {
+        int b1 = bitpos(spread(i1), shift);
+        int b2 = bitpos(h2, shift);
+        if (b1 != b2) {
+            // Unsigned because 1 << 31 is negative.
+            int[] items = (Integer.compareUnsigned(b1, b2) < 0) ? new int[] { i1, i2 }
+                                                                : new int[] { i2, i1 };
+            return new Node(b1 | b2, 0, items, NO_NODES);
+        }
+        return new Node(0, b1, NO_ITEMS, new Node[] { mergeTwo(i1, i2, h2, shift + BITS) });
+    }
+
+    private static int[] insertItem(int[] array, int idx, int item) {
+        int[] ret = new int[array.length + 1];
+        System.arraycopy(array, 0, ret, 0, idx);
+        ret[idx] = item;
+        System.arraycopy(array, idx, ret, idx + 1, array.length - idx);
+        return ret;
+    }
+
+    private static int[] removeItem(int[] array, int idx) {
+        int[] ret = new int[array.length - 1];
+        System.arraycopy(array, 0, ret, 0, idx);
+        System.arraycopy(array, idx + 1, ret, idx, ret.length - idx);
+        return ret;
+    }
+
+    private static Node[] insertNode(Node[] array, int idx, Node node) {
+        Node[] ret = new Node[array.length + 1];
+        System.arraycopy(array, 0, ret, 0, idx);
+        ret[idx] = node;
+        System.arraycopy(array, idx, ret, idx + 1, array.length - idx);
+        return ret;
+    }
+
+    private static Node[] removeNode(Node[] array, int idx) {
+        Node[] ret = new Node[array.length - 1];
+        System.arraycopy(array, 0, ret, 0, idx);
+        System.arraycopy(array, idx + 1, ret, idx, ret.length - idx);
+        return ret;
+    }
+
+    /** Walks the trie depth-first: the items of each node, then its sub-nodes. */
+    private static final class NodeIter implements UnmodIterator<Integer> {
+        private final Node[] stack = new Node[MAX_DEPTH + 1];
+        private final int[] cursors = new int[MAX_DEPTH + 1];
+        private int depth = 0;
+        private Node current;
+        private int idx = 0;
+
+        private NodeIter(Node root) {
+            stack[0] = root;
+            current = root;
+        }
+
+        @Override public boolean hasNext() {
+            while (idx >= current.items.length) {
+                // Find the next sub-node with items in it.
+                if (depth < 0) { return false; }
+                Node node = stack[depth];
+                int cursor = cursors[depth];
+                if (cursor < node.nodes.length) {
+                    cursors[depth] = cursor + 1;
+                    Node child = node.nodes[cursor];
+                    depth++;
+                    stack[depth] = child;
+                    cursors[depth] = 0;
+                    current = child;
+                    idx = 0;
+                } else {
+                    stack[depth] = null;
+                    depth--;
+                }
+            }
+            return true;
+        }
+
+        @Override public Integer next() {
+            if (!hasNext()) { throw new NoSuchElementException(); }
+            return current.items[idx++];
+        }
+    }
+}
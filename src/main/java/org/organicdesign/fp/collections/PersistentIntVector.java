@@ -0,0 +1,291 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.collections;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntBinaryOperator;
+
+import static org.organicdesign.fp.collections.PrimitiveVectorTrie.LOW_BITS;
+import static org.organicdesign.fp.collections.PrimitiveVectorTrie.MAX_NODE_LENGTH;
+import static org.organicdesign.fp.collections.PrimitiveVectorTrie.NODE_LENGTH_POW_2;
+
+/**
+ A {@link PersistentVector} of primitive ints.  It has the same shape (a tree of up to 32-way
+ branches with a separate tail) but the leaves are int[] instead of Object[], so it takes about a
+ fifth of the memory of a PersistentVector&lt;Integer&gt; and scanning it doesn't chase a pointer
+ per item.  Use getInt(), appendInt(), replaceInt(), containsInt(), and foldLeftInt() to
+ avoid boxing.  The ImList&lt;Integer&gt; methods box (and unbox) each item.
+
+ There is no transient version of this class.  Build big vectors with
+ {@link #of(int...)} which builds the tree directly from the array in O(n).
+
+ This class is thread-safe (immutable).
+ */
+public final class PersistentIntVector implements ImList<Integer> {
+
+    private static final int[] EMPTY_LEAF = new int[0];
+
+    public static final PersistentIntVector EMPTY =
+            new PersistentIntVector(0, NODE_LENGTH_POW_2, new Object[MAX_NODE_LENGTH],
+                                     EMPTY_LEAF);
+
+    /** Returns the empty PersistentIntVector (there only needs to be one) */
+    public static PersistentIntVector empty() { return EMPTY; }
+
+    /** Returns a new vector of the given items (the array is copied). */
+    public static PersistentIntVector of(int... items) {
+        if ( (items == null) || (items.length == 0) ) { return EMPTY; }
+        int size = items.length;
+        int tailLen = ((size - 1) & LOW_BITS) + 1;
+        int treeLen = size - tailLen;
+
+        // Build the full leaves, then the branches above them.
+        Object[] leaves = new Object[treeLen >>> NODE_LENGTH_POW_2];
+        for (int i = 0; i < leaves.length; i++) {
+            int[] leaf = new int[MAX_NODE_LENGTH];
+            System.arraycopy(items, i << NODE_LENGTH_POW_2, leaf, 0, MAX_NODE_LENGTH);
+            leaves[i] = leaf;
+        }
+        Object[] root = PrimitiveVectorTrie.buildRoot(leaves);
+        int shift = PrimitiveVectorTrie.rootShift(leaves.length);
+
+        int[] tail = new int[tailLen];
+        System.arraycopy(items, treeLen, tail, 0, tailLen);
+        return new PersistentIntVector(size, shift, root, tail);
+    }
+
+    /** Returns a new vector of the given items, which must not contain nulls. */
+    public static PersistentIntVector ofIter(Iterable<Integer> items) {
+        int[] buf = new int[MAX_NODE_LENGTH];
+        int n = 0;
+        for (Integer item : items) {
+            if (n == buf.length) {
+                int[] bigger = new int[n << 1];
+                System.arraycopy(buf, 0, bigger, 0, n);
+                buf = bigger;
+            }
+            buf[n++] = item;
+        }
+        int[] trimmed = new int[n];
+        System.arraycopy(buf, 0, trimmed, 0, n);
+        return of(trimmed);
+    }
+
+    // The number of items in this Vector.
+    private final int size;
+    private final int shift;
+    // Branches are Object[] holding Object[] or (at the bottom) int[] leaves.
+    private final Object[] root;
+    private final int[] tail;
+    // Lazily computed by hashCode(), 0 means "not computed yet."
+    private int hash;
+
+    private PersistentIntVector(int size, int shift, Object[] root, int[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    // The index of the first item in the tail.
+    private int tailoff() { return PrimitiveVectorTrie.tailoff(size); }
+
+    private IndexOutOfBoundsException indexEx(int i) {
+        return new IndexOutOfBoundsException("Expected an index between 0 and " + (size - 1) +
+                                             " but found: " + i);
+    }
+
+    /** Returns the leaf array holding the given index. */
+    private int[] leafFor(int i) {
+        if ( (i < 0) || (i >= size) ) { throw indexEx(i); }
+        if (i >= tailoff()) { return tail; }
+        return (int[]) PrimitiveVectorTrie.leafFor(root, shift, i);
+    }
+
+    /** Returns the item at the given index without boxing it. */
+    public int getInt(int i) { return leafFor(i)[i & LOW_BITS]; }
+
+    /** Boxes the item at the given index.  Use getInt() to avoid that. */
+    @Override public Integer get(int i) { return getInt(i); }
+
+    /** {@inheritDoc} */
+    @Override public int size() { return size; }
+
+    /** Returns a new vector with the given item added at the end. */
+    public PersistentIntVector appendInt(int val) {
+        if (size - tailoff() < MAX_NODE_LENGTH) {
+            int[] newTail = new int[tail.length + 1];
+            System.arraycopy(tail, 0, newTail, 0, tail.length);
+            newTail[tail.length] = val;
+            return new PersistentIntVector(size + 1, shift, root, newTail);
+        }
+        // Full tail, push it into the tree.
+        Object[] newRoot;
+        int newShift = shift;
+        if (PrimitiveVectorTrie.rootOverflows(size, shift)) {
+            newRoot = new Object[MAX_NODE_LENGTH];
+            newRoot[0] = root;
+            newRoot[1] = PrimitiveVectorTrie.newPath(shift, tail);
+            newShift += NODE_LENGTH_POW_2;
+        } else {
+            newRoot = PrimitiveVectorTrie.pushTail(size, shift, root, tail);
+        }
+        return new PersistentIntVector(size + 1, newShift, newRoot, new int[] { val });
+    }
+
+    /** Boxing version of {@link #appendInt(int)}.  The item must not be null. */
+    @Override public PersistentIntVector append(Integer val) { return appendInt(val); }
+
+    /** {@inheritDoc} */
+    @Override public PersistentIntVector concat(Iterable<? extends Integer> items) {
+        PersistentIntVector ret = this;
+        for (Integer item : items) {
+            ret = ret.appendInt(item);
+        }
+        return ret;
+    }
+
+    /** Returns a new vector with the item at the given index replaced. */
+    public PersistentIntVector replaceInt(int i, int val) {
+        if (i == size) { return appendInt(val); }
+        if ( (i < 0) || (i > size) ) { throw indexEx(i); }
+        int[] leaf = leafFor(i).clone();
+        leaf[i & LOW_BITS] = val;
+        if (i >= tailoff()) {
+            return new PersistentIntVector(size, shift, root, leaf);
+        }
+        Object[] newRoot = (Object[]) PrimitiveVectorTrie.replaceLeaf(shift, root, i, leaf);
+        return new PersistentIntVector(size, shift, newRoot, tail);
+    }
+
+    /** Boxing version of {@link #replaceInt(int, int)}.  The item must not be null. */
+    @Override public PersistentIntVector replace(int i, Integer val) { return replaceInt(i, val); }
+
+    /**
+     Returns a new vector without the last item in O(log32 n) time.
+     @throws IllegalStateException if this vector is empty.
+     */
+    @Override public PersistentIntVector dropLast() {
+        if (size == 0) { throw new IllegalStateException("Can't pop empty vector"); }
+        if (size == 1) { return EMPTY; }
+        if (size - tailoff() > 1) {
+            int[] newTail = new int[tail.length - 1];
+            System.arraycopy(tail, 0, newTail, 0, newTail.length);
+            return new PersistentIntVector(size - 1, shift, root, newTail);
+        }
+        int[] newTail = leafFor(size - 2);
+        Object[] newRoot = PrimitiveVectorTrie.popTail(size, shift, root);
+        int newShift = shift;
+        if (newRoot == null) {
+            newRoot = new Object[MAX_NODE_LENGTH];
+        }
+        if ( (shift > NODE_LENGTH_POW_2) && (newRoot[1] == null) ) {
+            newRoot = (Object[]) newRoot[0];
+            newShift -= NODE_LENGTH_POW_2;
+        }
+        return new PersistentIntVector(size - 1, newShift, newRoot, newTail);
+    }
+
+    /** Returns true if this vector contains the given item.  O(n), but without boxing. */
+    public boolean containsInt(int item) { return indexOfInt(item) >= 0; }
+
+    /** Returns the index of the first occurrence of the given item, or -1 if it isn't here. */
+    public int indexOfInt(int item) {
+        for (int base = 0; base < size; base += MAX_NODE_LENGTH) {
+            int[] leaf = leafFor(base);
+            for (int j = 0; j < leaf.length; j++) {
+                if (leaf[j] == item) { return base + j; }
+            }
+        }
+        return -1;
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("deprecation")
+    @Override public boolean contains(Object o) {
+        return (o instanceof Integer) && containsInt((Integer) o);
+    }
+
+    /** {@inheritDoc} */
+    @Override public int indexOf(Object o) {
+        return (o instanceof Integer) ? indexOfInt((Integer) o) : -1;
+    }
+
+    /**
+     Applies the function to each item in order, accumulating the result in u.  This reads the
+     leaves of the tree directly and never boxes.
+     @param u the starting value (e.g. 0 for a sum).
+     @param fun combines the result so far with the next item.
+     */
+    public int foldLeftInt(int u, IntBinaryOperator fun) {
+        for (int base = 0; base < size; base += MAX_NODE_LENGTH) {
+            int[] leaf = leafFor(base);
+            for (int item : leaf) {
+                u = fun.applyAsInt(u, item);
+            }
+        }
+        return u;
+    }
+
+    /** Returns a new array of the items in this vector. */
+    public int[] toIntArray() {
+        int[] ret = new int[size];
+        for (int base = 0; base < size; base += MAX_NODE_LENGTH) {
+            int[] leaf = leafFor(base);
+            System.arraycopy(leaf, 0, ret, base, leaf.length);
+        }
+        return ret;
+    }
+
+    /** This is O(n) the first time, then O(1) because it's cached.  Compatible with List. */
+    @Override public int hashCode() {
+        int ret = hash;
+        if (ret == 0) {
+            ret = 1;
+            for (int base = 0; base < size; base += MAX_NODE_LENGTH) {
+                for (int item : leafFor(base)) {
+                    ret = 31 * ret + Integer.hashCode(item);
+                }
+            }
+            hash = ret;
+        }
+        return ret;
+    }
+
+    /** Compatible with java.util.List (and so with a PersistentVector of the same Integers). */
+    @Override public boolean equals(Object other) {
+        if (this == other) { return true; }
+        if ( !(other instanceof List) ) { return false; }
+        List<?> that = (List<?>) other;
+        if (size != that.size()) { return false; }
+        if (other instanceof PersistentIntVector) {
+            PersistentIntVector vec = (PersistentIntVector) other;
+            if ( (hash != 0) && (vec.hash != 0) && (hash != vec.hash) ) { return false; }
+            for (int base = 0; base < size; base += MAX_NODE_LENGTH) {
+                int[] a = leafFor(base);
+                int[] b = vec.leafFor(base);
+                if ( (a != b) && !Arrays.equals(a, b) ) { return false; }
+            }
+            return true;
+        }
+        return UnmodSortedIterable.equals(this, UnmodSortedIterable.castFromList(that));
+    }
+
+    /** {@inheritDoc} */
+    @Override public String toString() {
+        return UnmodIterable.toString("PersistentIntVector", this);
+    }
+}
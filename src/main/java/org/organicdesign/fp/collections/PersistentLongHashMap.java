@@ -0,0 +1,421 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.collections;
+
+import org.organicdesign.fp.Option;
+import org.organicdesign.fp.tuple.Tuple2;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ An immutable hash map with primitive long keys.  It uses the same CHAMP node layout as
+ {@link PersistentChampMap} but keeps the keys of each node in a long[], so they are never boxed
+ and sit next to each other in memory.  The keys are hashed with the MurmurHash3 finalizer
+ (fmix64), which is reversible, so two different keys never have the same hash and there are no
+ collision nodes.  Use getLong(), getOrElseLong(), containsLong(), assocLong(), and withoutLong()
+ to avoid boxing.  The ImMap&lt;Long,V&gt; methods box the keys and don't allow a null key.
+
+ There is no transient version of this class.
+
+ This class is thread-safe (immutable).
+ */
+public final class PersistentLongHashMap<V> implements ImMap<Long,V> {
+
+    // Each level of the trie uses the next 5 bits of the hash to pick one of 32 slots.
+    private static final int BITS = 5;
+    // 13 levels use up all 64 bits of the hash.
+    private static final int MAX_DEPTH = 13;
+
+    /**
+     The finalizer from MurmurHash3 (fmix64).  The trie reads the low bits first, so every bit of the
+     key has to reach them, or keys that only differ in their high bits (like multiples of a big
+     power of two) would all share one long path.  Each step is reversible, so distinct keys still
+     get distinct hashes.
+     */
+    private static long spread(long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static int bitpos(long hash, int shift) { return 1 << ((int) (hash >>> shift) & 0x01f); }
+
+    // Lets getOrElse() tell a missing key from one mapped to null.
+    private static final Object NOT_FOUND = new Object();
+
+    private static final long[] NO_KEYS = new long[0];
+    private static final Object[] NO_VALS = new Object[0];
+    @SuppressWarnings("rawtypes")
+    private static final Node[] NO_NODES = new Node[0];
+
+    @SuppressWarnings("unchecked")
+    private static final PersistentLongHashMap<Object> EMPTY =
+            new PersistentLongHashMap<>(0, new Node<>(0, 0, NO_KEYS, NO_VALS, NO_NODES));
+
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentLongHashMap<V> empty() { return (PersistentLongHashMap<V>) EMPTY; }
+
+    /**
+     Returns a new PersistentLongHashMap of the given keys and their paired values, skipping any
+     null Entries.  In the case of a duplicate key, later values overwrite earlier ones.
+     @throws IllegalArgumentException if any key is null.
+     */
+    public static <V> PersistentLongHashMap<V> of(Iterable<Map.Entry<Long,V>> kvPairs) {
+        PersistentLongHashMap<V> ret = empty();
+        if (kvPairs != null) {
+            for (Map.Entry<Long,V> entry : kvPairs) {
+                if (entry != null) {
+                    ret = ret.assoc(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return ret;
+    }
+
+    // ========================================= Instance =========================================
+    private final int count;
+    private final Node<V> root;
+    // Lazily computed by hashCode(), 0 means "not computed yet."
+    private int hash;
+
+    private PersistentLongHashMap(int count, Node<V> root) {
+        this.count = count;
+        this.root = root;
+    }
+
+    /** Returns the value for the given key, or notFound if there isn't one. */
+    public V getOrElseLong(long key, V notFound) {
+        return root.find(key, spread(key), 0, notFound);
+    }
+
+    /** Returns the value for the given key, or null if there isn't one. */
+    public V getLong(long key) { return getOrElseLong(key, null); }
+
+    @SuppressWarnings("unchecked")
+    public boolean containsLong(long key) {
+        return getOrElseLong(key, (V) NOT_FOUND) != NOT_FOUND;
+    }
+
+    /** Returns a new map with the given key/value added (or this map if it's already there). */
+    public PersistentLongHashMap<V> assocLong(long key, V val) {
+        boolean[] added = new boolean[1];
+        Node<V> newRoot = root.assoc(key, val, spread(key), 0, added);
+        return (newRoot == root) ? this
+                                 : new PersistentLongHashMap<>(added[0] ? count + 1 : count,
+                                                               newRoot);
+    }
+
+    /** Returns a new map without the given key (or this map if it wasn't there). */
+    public PersistentLongHashMap<V> withoutLong(long key) {
+        Node<V> newRoot = root.without(key, spread(key), 0);
+        return (newRoot == root) ? this : new PersistentLongHashMap<>(count - 1, newRoot);
+    }
+
+    /** {@inheritDoc} */
+    @Override public int size() { return count; }
+
+    // ======================================= Boxing API =======================================
+
+    /**
+     {@inheritDoc}
+     @throws IllegalArgumentException if the key is null.
+     */
+    @Override public PersistentLongHashMap<V> assoc(Long key, V val) {
+        if (key == null) { throw new IllegalArgumentException("Can't have a null key"); }
+        return assocLong(key.longValue(), val);
+    }
+
+    /** {@inheritDoc} */
+    @Override public PersistentLongHashMap<V> without(Long key) {
+        return (key == null) ? this : withoutLong(key.longValue());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override public Option<UnEntry<Long,V>> entry(Long key) {
+        if (key == null) { return Option.none(); }
+        V v = getOrElseLong(key.longValue(), (V) NOT_FOUND);
+        return (v == NOT_FOUND) ? Option.none() : Option.of(Tuple2.of(key, v));
+    }
+
+    @Override public V getOrElse(Long key, V notFound) {
+        return (key == null) ? notFound : getOrElseLong(key.longValue(), notFound);
+    }
+
+    @Override public V get(Object key) {
+        return (key instanceof Long) ? getOrElseLong((Long) key, null) : null;
+    }
+
+    @Override public boolean containsKey(Object key) {
+        return (key instanceof Long) && containsLong((Long) key);
+    }
+
+    /** Returns a new set of the keys in this map. */
+    @Override public ImSet<Long> keySet() { return map(UnEntry::getKey).toImSet(); }
+
+    @Override public UnmodIterator<UnEntry<Long,V>> iterator() { return new NodeIter<>(root); }
+
+    /**
+     Compatible with java.util.Map.  When the other map is also a PersistentLongHashMap, this
+     compares the two tries node by node (a trie of the same keys always has the same shape),
+     skipping any sub-tries they share.
+     */
+    @Override public boolean equals(Object other) {
+        if (this == other) { return true; }
+        if ( !(other instanceof Map) ) { return false; }
+        Map<?,?> that = (Map<?,?>) other;
+        if (that.size() != count) { return false; }
+        if (other instanceof PersistentLongHashMap) {
+            PersistentLongHashMap<?> plhm = (PersistentLongHashMap<?>) other;
+            if ( (hash != 0) && (plhm.hash != 0) && (hash != plhm.hash) ) { return false; }
+            return nodesEqual(root, plhm.root);
+        }
+        try {
+            for (UnEntry<Long,V> e : this) {
+                Object thatVal = that.get(e.getKey());
+                if ( !Objects.equals(e.getValue(), thatVal) ||
+                     ((thatVal == null) && !that.containsKey(e.getKey())) ) {
+                    return false;
+                }
+            }
+        } catch (ClassCastException unused) {
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean nodesEqual(Node<?> a, Node<?> b) {
+        if (a == b) { return true; }
+        if ( (a.dataMap != b.dataMap) || (a.nodeMap != b.nodeMap) ||
+             !Arrays.equals(a.keys, b.keys) ) {
+            return false;
+        }
+        for (int i = 0; i < a.vals.length; i++) {
+            if ( !Objects.equals(a.vals[i], b.vals[i]) ) { return false; }
+        }
+        for (int i = 0; i < a.nodes.length; i++) {
+            if ( !nodesEqual(a.nodes[i], b.nodes[i]) ) { return false; }
+        }
+        return true;
+    }
+
+    /** This is O(n) the first time, then O(1) because it's cached.  Compatible with Map. */
+    @Override public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = UnmodIterable.hashCode(this);
+            hash = h;
+        }
+        return h;
+    }
+
+    /** {@inheritDoc} */
+    @Override public String toString() {
+        return UnmodIterable.toString("PersistentLongHashMap", this);
+    }
+
+    /**
+     Entries whose hashes end here are in keys/vals, in the order of their bits in dataMap.
+     Sub-nodes are in nodes, in the order of their bits in nodeMap.  Nodes never change.
+     */
+    private static final class Node<V> {
+        private final int dataMap;
+        private final int nodeMap;
+        private final long[] keys;
+        private final Object[] vals;
+        private final Node<V>[] nodes;
+
+        private Node(int dataMap, int nodeMap, long[] keys, Object[] vals, Node<V>[] nodes) {
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.keys = keys;
+            this.vals = vals;
+            this.nodes = nodes;
+        }
+
+        @SuppressWarnings("unchecked")
+        private V val(int i) { return (V) vals[i]; }
+
+        private int dataIndex(int bit) { return Integer.bitCount(dataMap & (bit - 1)); }
+
+        private int nodeIndex(int bit) { return Integer.bitCount(nodeMap & (bit - 1)); }
+
+        private V find(long key, long hash, int shift, V notFound) {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int idx = dataIndex(bit);
+                return (keys[idx] == key) ? val(idx) : notFound;
+            }
+            if ((nodeMap & bit) != 0) {
+                return nodes[nodeIndex(bit)].find(key, hash, shift + BITS, notFound);
+            }
+            return notFound;
+        }
+
+        private Node<V> assoc(long key, V val, long hash, int shift, boolean[] added) {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int idx = dataIndex(bit);
+                if (keys[idx] == key) {
+                    if (vals[idx] == val) { return this; }
+                    Object[] newVals = vals.clone();
+                    newVals[idx] = val;
+                    return new Node<>(dataMap, nodeMap, keys, newVals, nodes);
+                }
+                added[0] = true;
+                Node<V> sub = mergeTwo(keys[idx], val(idx), key, val, hash, shift + BITS);
+                return new Node<>(dataMap ^ bit, nodeMap | bit, removeKey(keys, idx),
+                                  remove(vals, idx), insert(nodes, nodeIndex(bit), sub));
+            }
+            if ((nodeMap & bit) != 0) {
+                int idx = nodeIndex(bit);
+                Node<V> newSub = nodes[idx].assoc(key, val, hash, shift + BITS, added);
+                if (newSub == nodes[idx]) { return this; }
+                Node<V>[] newNodes = nodes.clone();
+                newNodes[idx] = newSub;
+                return new Node<>(dataMap, nodeMap, keys, vals, newNodes);
+            }
+            added[0] = true;
+            int idx = dataIndex(bit);
+            return new Node<>(dataMap | bit, nodeMap, insertKey(keys, idx, key),
+                              insert(vals, idx, val), nodes);
+        }
+
+        private Node<V> without(long key, long hash, int shift) {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int idx = dataIndex(bit);
+                if (keys[idx] != key) { return this; }
+                return new Node<>(dataMap ^ bit, nodeMap, removeKey(keys, idx), remove(vals, idx),
+                                  nodes);
+            }
+            if ((nodeMap & bit) != 0) {
+                int idx = nodeIndex(bit);
+                Node<V> newSub = nodes[idx].without(key, hash, shift + BITS);
+                if (newSub == nodes[idx]) { return this; }
+                // Keep the trie canonical: a sub-node never holds just one entry.
+                if ( (newSub.nodeMap == 0) && (newSub.keys.length == 1) ) {
+                    int dataIdx = dataIndex(bit);
+                    return new Node<>(dataMap | bit, nodeMap ^ bit,
+                                      insertKey(keys, dataIdx, newSub.keys[0]),
+                                      insert(vals, dataIdx, newSub.vals[0]), remove(nodes, idx));
+                }
+                Node<V>[] newNodes = nodes.clone();
+                newNodes[idx] = newSub;
+                return new Node<>(dataMap, nodeMap, keys, vals, newNodes);
+            }
+            return this;
+        }
+    }
+
+    /** Returns a node holding two entries whose hashes matched up to the given shift. */
+    @SuppressWarnings("unchecked")
+    private static <V> Node<V> mergeTwo(long k1, V v1, long k2, V v2, long h2, int shift) {
+        long h1 = spread(k1);
+        int b1 = bitpos(h1, shift);
+        int b2 = bitpos(h2, shift);
+        if (b1 != b2) {
+            // Unsigned because 1 << 31 is negative.
+            return (Integer.compareUnsigned(b1, b2) < 0)
+                   ? new Node<>(b1 | b2, 0, new long[] { k1, k2 }, new Object[] { v1, v2 },
+                                NO_NODES)
+                   : new Node<>(b1 | b2, 0, new long[] { k2, k1 }, new Object[] { v2, v1 },
+                                NO_NODES);
+        }
+        Node<V>[] nodes = nodeArray(1);
+        nodes[0] = mergeTwo(k1, v1, k2, v2, h2, shift + BITS);
+        return new Node<>(0, b1, NO_KEYS, NO_VALS, nodes);
+    }
+
+    // Java can't make an array of a generic type directly.
+    @SuppressWarnings("unchecked")
+    private static <V> Node<V>[] nodeArray(int size) { return (Node<V>[]) new Node<?>[size]; }
+
+    private static long[] insertKey(long[] array, int idx, long item) {
+        long[] ret = new long[array.length + 1];
+        System.arraycopy(array, 0, ret, 0, idx);
+        ret[idx] = item;
+        System.arraycopy(array, idx, ret, idx + 1, array.length - idx);
+        return ret;
+    }
+
+    private static long[] removeKey(long[] array, int idx) {
+        long[] ret = new long[array.length - 1];
+        System.arraycopy(array, 0, ret, 0, idx);
+        System.arraycopy(array, idx + 1, ret, idx, ret.length - idx);
+        return ret;
+    }
+
+    private static <T> T[] insert(T[] array, int idx, T item) {
+        T[] ret = Arrays.copyOf(array, array.length + 1);
+        System.arraycopy(array, idx, ret, idx + 1, array.length - idx);
+        ret[idx] = item;
+        return ret;
+    }
+
+    private static <T> T[] remove(T[] array, int idx) {
+        T[] ret = Arrays.copyOf(array, array.length - 1);
+        System.arraycopy(array, idx + 1, ret, idx, ret.length - idx);
+        return ret;
+    }
+
+    /** Walks the trie depth-first: the entries of each node, then its sub-nodes. */
+    private static final class NodeIter<V> implements UnmodIterator<UnEntry<Long,V>> {
+        private final Node<V>[] stack = nodeArray(MAX_DEPTH + 1);
+        private final int[] cursors = new int[MAX_DEPTH + 1];
+        private int depth = 0;
+        private Node<V> current;
+        private int idx = 0;
+
+        private NodeIter(Node<V> root) {
+            stack[0] = root;
+            current = root;
+        }
+
+        @Override public boolean hasNext() {
+            while (idx >= current.keys.length) {
+                // Find the next sub-node with entries in it.
+                if (depth < 0) { return false; }
+                Node<V> node = stack[depth];
+                int cursor = cursors[depth];
+                if (cursor < node.nodes.length) {
+                    cursors[depth] = cursor + 1;
+                    Node<V> child = node.nodes[cursor];
+                    depth++;
+                    stack[depth] = child;
+                    cursors[depth] = 0;
+                    current = child;
+                    idx = 0;
+                } else {
+                    stack[depth] = null;
+                    depth--;
+                }
+            }
+            return true;
+        }
+
+        @Override public UnEntry<Long,V> next() {
+            if (!hasNext()) { throw new NoSuchElementException(); }
+            int i = idx++;
+            return Tuple2.of(current.keys[i], current.val(i));
+        }
+    }
+}
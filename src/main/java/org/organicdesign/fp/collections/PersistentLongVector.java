@@ -0,0 +1,291 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.collections;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongBinaryOperator;
+
+import static org.organicdesign.fp.collections.PrimitiveVectorTrie.LOW_BITS;
+import static org.organicdesign.fp.collections.PrimitiveVectorTrie.MAX_NODE_LENGTH;
+import static org.organicdesign.fp.collections.PrimitiveVectorTrie.NODE_LENGTH_POW_2;
+
+/**
+ A {@link PersistentVector} of primitive longs.  It has the same shape (a tree of up to 32-way
+ branches with a separate tail) but the leaves are long[] instead of Object[], so it takes less than
+ half the memory of a PersistentVector&lt;Long&gt; and scanning it doesn't chase a pointer
+ per item.  Use getLong(), appendLong(), replaceLong(), containsLong(), and foldLeftLong() to
+ avoid boxing.  The ImList&lt;Long&gt; methods box (and unbox) each item.
+
+ There is no transient version of this class.  Build big vectors with
+ {@link #of(long...)} which builds the tree directly from the array in O(n).
+
+ This class is thread-safe (immutable).
+ */
+public final class PersistentLongVector implements ImList<Long> {
+
+    private static final long[] EMPTY_LEAF = new long[0];
+
+    public static final PersistentLongVector EMPTY =
+            new PersistentLongVector(0, NODE_LENGTH_POW_2, new Object[MAX_NODE_LENGTH],
+                                     EMPTY_LEAF);
+
+    /** Returns the empty PersistentLongVector (there only needs to be one) */
+    public static PersistentLongVector empty() { return EMPTY; }
+
+    /** Returns a new vector of the given items (the array is copied). */
+    public static PersistentLongVector of(long... items) {
+        if ( (items == null) || (items.length == 0) ) { return EMPTY; }
+        int size = items.length;
+        int tailLen = ((size - 1) & LOW_BITS) + 1;
+        int treeLen = size - tailLen;
+
+        // Build the full leaves, then the branches above them.
+        Object[] leaves = new Object[treeLen >>> NODE_LENGTH_POW_2];
+        for (int i = 0; i < leaves.length; i++) {
+            long[] leaf = new long[MAX_NODE_LENGTH];
+            System.arraycopy(items, i << NODE_LENGTH_POW_2, leaf, 0, MAX_NODE_LENGTH);
+            leaves[i] = leaf;
+        }
+        Object[] root = PrimitiveVectorTrie.buildRoot(leaves);
+        int shift = PrimitiveVectorTrie.rootShift(leaves.length);
+
+        long[] tail = new long[tailLen];
+        System.arraycopy(items, treeLen, tail, 0, tailLen);
+        return new PersistentLongVector(size, shift, root, tail);
+    }
+
+    /** Returns a new vector of the given items, which must not contain nulls. */
+    public static PersistentLongVector ofIter(Iterable<Long> items) {
+        long[] buf = new long[MAX_NODE_LENGTH];
+        int n = 0;
+        for (Long item : items) {
+            if (n == buf.length) {
+                long[] bigger = new long[n << 1];
+                System.arraycopy(buf, 0, bigger, 0, n);
+                buf = bigger;
+            }
+            buf[n++] = item;
+        }
+        long[] trimmed = new long[n];
+        System.arraycopy(buf, 0, trimmed, 0, n);
+        return of(trimmed);
+    }
+
+    // The number of items in this Vector.
+    private final int size;
+    private final int shift;
+    // Branches are Object[] holding Object[] or (at the bottom) long[] leaves.
+    private final Object[] root;
+    private final long[] tail;
+    // Lazily computed by hashCode(), 0 means "not computed yet."
+    private int hash;
+
+    private PersistentLongVector(int size, int shift, Object[] root, long[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    // The index of the first item in the tail.
+    private int tailoff() { return PrimitiveVectorTrie.tailoff(size); }
+
+    private IndexOutOfBoundsException indexEx(int i) {
+        return new IndexOutOfBoundsException("Expected an index between 0 and " + (size - 1) +
+                                             " but found: " + i);
+    }
+
+    /** Returns the leaf array holding the given index. */
+    private long[] leafFor(int i) {
+        if ( (i < 0) || (i >= size) ) { throw indexEx(i); }
+        if (i >= tailoff()) { return tail; }
+        return (long[]) PrimitiveVectorTrie.leafFor(root, shift, i);
+    }
+
+    /** Returns the item at the given index without boxing it. */
+    public long getLong(int i) { return leafFor(i)[i & LOW_BITS]; }
+
+    /** Boxes the item at the given index.  Use getLong() to avoid that. */
+    @Override public Long get(int i) { return getLong(i); }
+
+    /** {@inheritDoc} */
+    @Override public int size() { return size; }
+
+    /** Returns a new vector with the given item added at the end. */
+    public PersistentLongVector appendLong(long val) {
+        if (size - tailoff() < MAX_NODE_LENGTH) {
+            long[] newTail = new long[tail.length + 1];
+            System.arraycopy(tail, 0, newTail, 0, tail.length);
+            newTail[tail.length] = val;
+            return new PersistentLongVector(size + 1, shift, root, newTail);
+        }
+        // Full tail, push it into the tree.
+        Object[] newRoot;
+        int newShift = shift;
+        if (PrimitiveVectorTrie.rootOverflows(size, shift)) {
+            newRoot = new Object[MAX_NODE_LENGTH];
+            newRoot[0] = root;
+            newRoot[1] = PrimitiveVectorTrie.newPath(shift, tail);
+            newShift += NODE_LENGTH_POW_2;
+        } else {
+            newRoot = PrimitiveVectorTrie.pushTail(size, shift, root, tail);
+        }
+        return new PersistentLongVector(size + 1, newShift, newRoot, new long[] { val });
+    }
+
+    /** Boxing version of {@link #appendLong(long)}.  The item must not be null. */
+    @Override public PersistentLongVector append(Long val) { return appendLong(val); }
+
+    /** {@inheritDoc} */
+    @Override public PersistentLongVector concat(Iterable<? extends Long> items) {
+        PersistentLongVector ret = this;
+        for (Long item : items) {
+            ret = ret.appendLong(item);
+        }
+        return ret;
+    }
+
+    /** Returns a new vector with the item at the given index replaced. */
+    public PersistentLongVector replaceLong(int i, long val) {
+        if (i == size) { return appendLong(val); }
+        if ( (i < 0) || (i > size) ) { throw indexEx(i); }
+        long[] leaf = leafFor(i).clone();
+        leaf[i & LOW_BITS] = val;
+        if (i >= tailoff()) {
+            return new PersistentLongVector(size, shift, root, leaf);
+        }
+        Object[] newRoot = (Object[]) PrimitiveVectorTrie.replaceLeaf(shift, root, i, leaf);
+        return new PersistentLongVector(size, shift, newRoot, tail);
+    }
+
+    /** Boxing version of {@link #replaceLong(int, long)}.  The item must not be null. */
+    @Override public PersistentLongVector replace(int i, Long val) { return replaceLong(i, val); }
+
+    /**
+     Returns a new vector without the last item in O(log32 n) time.
+     @throws IllegalStateException if this vector is empty.
+     */
+    @Override public PersistentLongVector dropLast() {
+        if (size == 0) { throw new IllegalStateException("Can't pop empty vector"); }
+        if (size == 1) { return EMPTY; }
+        if (size - tailoff() > 1) {
+            long[] newTail = new long[tail.length - 1];
+            System.arraycopy(tail, 0, newTail, 0, newTail.length);
+            return new PersistentLongVector(size - 1, shift, root, newTail);
+        }
+        long[] newTail = leafFor(size - 2);
+        Object[] newRoot = PrimitiveVectorTrie.popTail(size, shift, root);
+        int newShift = shift;
+        if (newRoot == null) {
+            newRoot = new Object[MAX_NODE_LENGTH];
+        }
+        if ( (shift > NODE_LENGTH_POW_2) && (newRoot[1] == null) ) {
+            newRoot = (Object[]) newRoot[0];
+            newShift -= NODE_LENGTH_POW_2;
+        }
+        return new PersistentLongVector(size - 1, newShift, newRoot, newTail);
+    }
+
+    /** Returns true if this vector contains the given item.  O(n), but without boxing. */
+    public boolean containsLong(long item) { return indexOfLong(item) >= 0; }
+
+    /** Returns the index of the first occurrence of the given item, or -1 if it isn't here. */
+    public int indexOfLong(long item) {
+        for (int base = 0; base < size; base += MAX_NODE_LENGTH) {
+            long[] leaf = leafFor(base);
+            for (int j = 0; j < leaf.length; j++) {
+                if (leaf[j] == item) { return base + j; }
+            }
+        }
+        return -1;
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("deprecation")
+    @Override public boolean contains(Object o) {
+        return (o instanceof Long) && containsLong((Long) o);
+    }
+
+    /** {@inheritDoc} */
+    @Override public int indexOf(Object o) {
+        return (o instanceof Long) ? indexOfLong((Long) o) : -1;
+    }
+
+    /**
+     Applies the function to each item in order, accumulating the result in u.  This reads the
+     leaves of the tree directly and never boxes.
+     @param u the starting value (e.g. 0 for a sum).
+     @param fun combines the result so far with the next item.
+     */
+    public long foldLeftLong(long u, LongBinaryOperator fun) {
+        for (int base = 0; base < size; base += MAX_NODE_LENGTH) {
+            long[] leaf = leafFor(base);
+            for (long item : leaf) {
+                u = fun.applyAsLong(u, item);
+            }
+        }
+        return u;
+    }
+
+    /** Returns a new array of the items in this vector. */
+    public long[] toLongArray() {
+        long[] ret = new long[size];
+        for (int base = 0; base < size; base += MAX_NODE_LENGTH) {
+            long[] leaf = leafFor(base);
+            System.arraycopy(leaf, 0, ret, base, leaf.length);
+        }
+        return ret;
+    }
+
+    /** This is O(n) the first time, then O(1) because it's cached.  Compatible with List. */
+    @Override public int hashCode() {
+        int ret = hash;
+        if (ret == 0) {
+            ret = 1;
+            for (int base = 0; base < size; base += MAX_NODE_LENGTH) {
+                for (long item : leafFor(base)) {
+                    ret = 31 * ret + Long.hashCode(item);
+                }
+            }
+            hash = ret;
+        }
+        return ret;
+    }
+
+    /** Compatible with java.util.List (and so with a PersistentVector of the same Longs). */
+    @Override public boolean equals(Object other) {
+        if (this == other) { return true; }
+        if ( !(other instanceof List) ) { return false; }
+        List<?> that = (List<?>) other;
+        if (size != that.size()) { return false; }
+        if (other instanceof PersistentLongVector) {
+            PersistentLongVector vec = (PersistentLongVector) other;
+            if ( (hash != 0) && (vec.hash != 0) && (hash != vec.hash) ) { return false; }
+            for (int base = 0; base < size; base += MAX_NODE_LENGTH) {
+                long[] a = leafFor(base);
+                long[] b = vec.leafFor(base);
+                if ( (a != b) && !Arrays.equals(a, b) ) { return false; }
+            }
+            return true;
+        }
+        return UnmodSortedIterable.equals(this, UnmodSortedIterable.castFromList(that));
+    }
+
+    /** {@inheritDoc} */
+    @Override public String toString() {
+        return UnmodIterable.toString("PersistentLongVector", this);
+    }
+}
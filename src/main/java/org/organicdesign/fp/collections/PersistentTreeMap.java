@@ -9,14 +9,19 @@
 package org.organicdesign.fp.collections;
 
 import org.organicdesign.fp.Option;
+import org.organicdesign.fp.tuple.Tuple2;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.SortedMap;
-import java.util.Stack;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  Persistent Red Black Tree. Note that instances of this class are constant values
@@ -39,9 +44,14 @@ public class PersistentTreeMap<K,V> implements ImSortedMap<K,V> {
         public Box(E val) { this.val = val; }
     }
 
+    /** Passed as notFound to getOrElse() by containsKey() so that null values still count. */
+    private static final Object NOT_FOUND = new Object();
+
     private final Comparator<? super K> comp;
     private final Node<K,V> tree;
     private final int size;
+    // Lazily computed by hashCode(), 0 means "not computed yet."
+    private int hash;
 
     /**
      Be extremely careful with this because it uses the default comparator, which only works for items that implement
@@ -81,13 +91,13 @@ public class PersistentTreeMap<K,V> implements ImSortedMap<K,V> {
     public static <K extends Comparable<K>,V> PersistentTreeMap<K,V>
     of(Iterable<Map.Entry<K,V>> es) {
         if (es == null) { return empty(); }
-        PersistentTreeMap<K,V> map = new PersistentTreeMap<>(Equator.defaultComparator(), null, 0);
+        TransientTreeMap<K,V> map = PersistentTreeMap.<K,V>empty().asTransient();
         for (Map.Entry<K,V> entry : es) {
             if (entry != null) {
-                map = map.assoc(entry.getKey(), entry.getValue());
+                map.assoc(entry.getKey(), entry.getValue());
             }
         }
-        return map;
+        return map.persistent();
     }
 
     /**
@@ -107,13 +117,82 @@ public class PersistentTreeMap<K,V> implements ImSortedMap<K,V> {
     public static <K,V> PersistentTreeMap<K,V>
     ofComp(Comparator<? super K> comp, Iterable<Map.Entry<K,V>> kvPairs) {
         if (kvPairs == null) { return new PersistentTreeMap<>(comp, null, 0); }
-        PersistentTreeMap<K,V> map = new PersistentTreeMap<>(comp, null, 0);
+        TransientTreeMap<K,V> map = new PersistentTreeMap<K,V>(comp, null, 0).asTransient();
         for (Map.Entry<K,V> entry : kvPairs) {
             if (entry != null) {
-                map = map.assoc(entry.getKey(), entry.getValue());
+                map.assoc(entry.getKey(), entry.getValue());
+            }
+        }
+        return map.persistent();
+    }
+
+    /**
+     Builds a balanced PersistentTreeMap in O(n) time from key/value pairs that are already sorted
+     by the given comparator.  This is the fastest way to make a big map.
+
+     @param comp A comparator (on the keys) that defines the sort order inside the new map.  This
+     becomes a permanent part of the map and all sub-maps or appended maps derived from it.
+
+     @param sortedPairs Key/value pairs in ascending order of their keys according to comp.  Where
+     two adjacent keys are equal, the later value overwrites the earlier one.  Null entries are
+     silently ignored.
+
+     @return a new PersistentTreeMap of the specified comparator and the given key/value pairs
+     @throws IllegalArgumentException if the keys are not in ascending order.
+     */
+    public static <K,V> PersistentTreeMap<K,V>
+    ofSorted(Comparator<? super K> comp, Iterable<? extends Map.Entry<K,V>> sortedPairs) {
+        if (sortedPairs == null) { return new PersistentTreeMap<>(comp, null, 0); }
+        List<Map.Entry<K,V>> entries = new ArrayList<>();
+        for (Map.Entry<K,V> entry : sortedPairs) {
+            if (entry == null) { continue; }
+            int last = entries.size() - 1;
+            if (last >= 0) {
+                int c = comp.compare(entries.get(last).getKey(), entry.getKey());
+                if (c > 0) {
+                    throw new IllegalArgumentException("Keys must be in ascending order, but " +
+                                                       entry.getKey() + " came after " +
+                                                       entries.get(last).getKey());
+                }
+                if (c == 0) {
+                    entries.set(last, entry);
+                    continue;
+                }
             }
+            entries.add(entry);
         }
-        return map;
+        return new PersistentTreeMap<>(comp, buildFromSorted(entries), entries.size());
+    }
+
+    /**
+     Returns a balanced tree of the given entries which must be sorted without duplicate keys.
+     Like java.util.TreeMap.buildFromSorted(), all nodes are black except those on the lowest level
+     when it isn't full, which are red.
+     */
+    private static <K,V> Node<K,V> buildFromSorted(List<? extends Map.Entry<K,V>> entries) {
+        return entries.isEmpty() ? null
+                                 : buildFromSorted(entries, 0, entries.size() - 1, 0,
+                                                   computeRedLevel(entries.size()));
+    }
+
+    private static <K,V> Node<K,V> buildFromSorted(List<? extends Map.Entry<K,V>> entries,
+                                                   int lo, int hi, int level, int redLevel) {
+        if (hi < lo) { return null; }
+        int mid = (lo + hi) >>> 1;
+        Node<K,V> left = buildFromSorted(entries, lo, mid - 1, level + 1, redLevel);
+        Node<K,V> right = buildFromSorted(entries, mid + 1, hi, level + 1, redLevel);
+        Map.Entry<K,V> entry = entries.get(mid);
+        return (level == redLevel) ? red(entry.getKey(), entry.getValue(), left, right)
+                                   : black(entry.getKey(), entry.getValue(), left, right);
+    }
+
+    /** The level of the tree (root = 0) which is only full in a complete tree. */
+    private static int computeRedLevel(int size) {
+        int level = 0;
+        for (int m = size - 1; m >= 0; m = m / 2 - 1) {
+            level++;
+        }
+        return level;
     }
 
     /**
@@ -134,8 +213,20 @@ public class PersistentTreeMap<K,V> implements ImSortedMap<K,V> {
         return ret;
     }
 
-    /** This is correct, but O(n). */
-    @Override public int hashCode() { return (size() == 0) ? 0 : UnmodIterable.hashCode(entrySet()); }
+    /**
+     This is O(n) the first time, then O(1) because it's cached.  Compatible with java.util.Map
+     (the sum of key.hashCode() ^ value.hashCode() for every entry).
+     */
+    @Override public int hashCode() {
+        int ret = hash;
+        if ( (ret == 0) && (size > 0) ) {
+            for (UnEntry<K,V> e : this) {
+                ret += Objects.hashCode(e.getKey()) ^ Objects.hashCode(e.getValue());
+            }
+            hash = ret;
+        }
+        return ret;
+    }
 
     public static final Equator<SortedMap> EQUATOR = new Equator<SortedMap>() {
         @Override
@@ -169,6 +260,13 @@ public class PersistentTreeMap<K,V> implements ImSortedMap<K,V> {
 
         if (size != that.size()) { return false; }
 
+        if (other instanceof PersistentTreeMap) {
+            PersistentTreeMap<?,?> ptm = (PersistentTreeMap<?,?>) other;
+            // Different versions of a map often share their tree, and then only the order matters.
+            if (tree == ptm.tree) { return true; }
+            if ( (hash != 0) && (ptm.hash != 0) && (hash != ptm.hash) ) { return false; }
+        }
+
         // Yay, this makes sense, and we can compare these with O(n) efficiency while still maintaining compatibility
         // with java.util.Map.
         if (other instanceof SortedMap) {
@@ -205,59 +303,33 @@ public class PersistentTreeMap<K,V> implements ImSortedMap<K,V> {
 //    /** Returns a view of the keys contained in this map. */
 //    @Override public ImSet<K> keySet() { return PersistentTreeSet.ofMap(this); }
 
-    /** {@inheritDoc} */
-    @Override public ImSortedMap<K,V> subMap(K fromKey, K toKey) {
-        int diff = comp.compare(fromKey, toKey);
+    /**
+     {@inheritDoc}
 
-        if (diff > 0) {
+     This takes O(log n) time because it splits the tree at fromKey and toKey instead of copying
+     entries.  The new map shares all but O(log n) nodes with this one.
+     */
+    @Override public PersistentTreeMap<K,V> subMap(K fromKey, K toKey) {
+        if (comp.compare(fromKey, toKey) > 0) {
             throw new IllegalArgumentException("fromKey is greater than toKey");
         }
-        UnEntry<K,V> last = last();
-        K lastKey = last.getKey();
-        int compFromKeyLastKey = comp.compare(fromKey, lastKey);
-
-        // If no intersect, return empty. We aren't checking the toKey vs. the firstKey() because that's a single pass
-        // through the iterator loop which is probably as cheap as checking here.
-        if ( (diff == 0) || (compFromKeyLastKey > 0) )  {
-            return new PersistentTreeMap<>(comp, null, 0);
-        }
-        // If map is entirely contained, just return it.
-        if ( (comp.compare(fromKey, firstKey()) <= 0) &&
-                    (comp.compare(toKey, lastKey) > 0) ) {
-            return this;
-        }
-        // Don't iterate through entire map for only the last item.
-        if (compFromKeyLastKey == 0) {
-            return ofComp(comp, Collections.singletonList(last));
-        }
-
-        ImSortedMap<K,V> ret = new PersistentTreeMap<>(comp, null, 0);
-        UnmodIterator<UnEntry<K,V>> iter = this.iterator();
-        while (iter.hasNext()) {
-            UnEntry<K,V> next = iter.next();
-            K key = next.getKey();
-            if (comp.compare(toKey, key) <= 0) {
-                break;
-            }
-            if (comp.compare(fromKey, key) > 0) {
-                continue;
-            }
-            ret = ret.assoc(key, next.getValue());
-        }
-        return ret;
+        Node<K,V> t = tailTree(fromKey, true);
+        return withTree(split(t, blackHeight(t), toKey).left);
     }
 
     /** Returns a string describing the first few items in this map (for debugging). */
-    @Override public String toString() {
-        StringBuilder sB = new StringBuilder("PersistentTreeMap(");
+    @Override public String toString() { return entriesToString("PersistentTreeMap", this); }
+
+    private static <K,V> String entriesToString(String name, ImSortedMap<K,V> map) {
+        StringBuilder sB = new StringBuilder(name).append("(");
         int i = 0;
-        for (UnEntry<K,V> entry : this) {
+        for (UnEntry<K,V> entry : map) {
             if (i > 0) { sB.append(","); }
             if (i > 4) { break; }
             sB.append("UnEntry(").append(entry.getKey()).append(",").append(entry.getValue()).append(")");
             i++;
         }
-        if (i < size()) {
+        if (i < map.size()) {
             sB.append("...");
         }
         return sB.append(")").toString();
@@ -300,37 +372,190 @@ public class PersistentTreeMap<K,V> implements ImSortedMap<K,V> {
         return Option.of(t);
     }
 
-    /** {@inheritDoc} */
-    @Override public ImSortedMap<K,V> tailMap(K fromKey) {
-        UnEntry<K,V> last = last();
-        K lastKey = last.getKey();
-        int compFromKeyLastKey = comp.compare(fromKey, lastKey);
-
-        // If no intersect, return empty. We aren't checking the toKey vs. the firstKey() because that's a single pass
-        // through the iterator loop which is probably as cheap as checking here.
-        if (compFromKeyLastKey > 0) {
-            return new PersistentTreeMap<>(comp, null, 0);
-        }
-        // If map is entirely contained, just return it.
-        if (comp.compare(fromKey, firstKey()) <= 0) {
+    /**
+     {@inheritDoc}
+
+     This takes O(log n) time because it splits the tree instead of copying entries.
+     */
+    @Override public PersistentTreeMap<K,V> tailMap(K fromKey) {
+        return withTree(tailTree(fromKey, true));
+    }
+
+    /**
+     {@inheritDoc}
+
+     This takes O(log n) time because it splits the tree instead of copying entries.
+     */
+    @Override public PersistentTreeMap<K,V> headMap(K toKey) {
+        return withTree(headTree(toKey, false));
+    }
+
+    /** Returns a tree of the entries with keys greater than (or equal to) the given key. */
+    private Node<K,V> tailTree(K fromKey, boolean inclusive) {
+        Split<K,V> parts = split(tree, blackHeight(tree), fromKey);
+        return ( !inclusive || (parts.match == null) )
+               ? parts.right
+               : join(null, 0, parts.match, parts.right, parts.rightHeight);
+    }
+
+    /** Returns a tree of the entries with keys less than (or equal to) the given key. */
+    private Node<K,V> headTree(K toKey, boolean inclusive) {
+        Split<K,V> parts = split(tree, blackHeight(tree), toKey);
+        return ( !inclusive || (parts.match == null) )
+               ? parts.left
+               : join(parts.left, parts.leftHeight, parts.match, null, 0);
+    }
+
+    /** Returns this map if the given tree has all its entries, otherwise a new map of the tree. */
+    private PersistentTreeMap<K,V> withTree(Node<K,V> t) {
+        int n = nodeCount(t);
+        if (n == size) {
             return this;
         }
-        // Don't iterate through entire map for only the last item.
-        if (compFromKeyLastKey == 0) {
-            return ofComp(comp, Collections.singletonList(last));
+        return new PersistentTreeMap<>(comp, (t == null) ? null : t.blacken(), n);
+    }
+
+    /** The result of split(): two trees, their black heights, and the node matching the key. */
+    private static final class Split<K,V> {
+        Node<K,V> left;
+        int leftHeight;
+        Node<K,V> match;
+        Node<K,V> right;
+        int rightHeight;
+    }
+
+    /**
+     Splits the given tree into a tree of the keys less than the given key, and a tree of the keys
+     greater than it.  Each one shares most of its nodes with the original, but its root may be red
+     (with a red child), so blacken() it before using it as the tree of a map.  This is the "split"
+     from Blelloch, Ferizovic and Sun's "Just Join for Parallel Ordered Sets".
+
+     The black heights are passed down instead of being measured at each level, so that each join()
+     takes time proportional to the difference in heights.  Those differences add up to O(log n).
+
+     @param t the tree to split
+     @param h the black height of t
+     @param key where to split it
+     @return the left tree, the node matching the key (or null), the right tree, and their black
+     heights.
+     */
+    private Split<K,V> split(Node<K,V> t, int h, K key) {
+        if (t == null) {
+            return new Split<>();
+        }
+        // Both children have the same black height.
+        int childHeight = (t instanceof Red) ? h : h - 1;
+        int c = comp.compare(key, t.key);
+        if (c == 0) {
+            Split<K,V> ret = new Split<>();
+            ret.left = t.left();
+            ret.leftHeight = childHeight;
+            ret.match = t;
+            ret.right = t.right();
+            ret.rightHeight = childHeight;
+            return ret;
+        }
+        if (c < 0) {
+            Split<K,V> ret = split(t.left(), childHeight, key);
+            int joined = joinHeight(ret.right, ret.rightHeight, t.right(), childHeight);
+            ret.right = join(ret.right, ret.rightHeight, t, t.right(), childHeight);
+            ret.rightHeight = joined;
+            return ret;
         }
+        Split<K,V> ret = split(t.right(), childHeight, key);
+        int joined = joinHeight(t.left(), childHeight, ret.left, ret.leftHeight);
+        ret.left = join(t.left(), childHeight, t, ret.left, ret.leftHeight);
+        ret.leftHeight = joined;
+        return ret;
+    }
 
-        ImSortedMap<K,V> ret = new PersistentTreeMap<>(comp, null, 0);
-        UnmodIterator<UnEntry<K,V>> iter = this.iterator();
-        while (iter.hasNext()) {
-            UnEntry<K,V> next = iter.next();
-            K key = next.getKey();
-            if (comp.compare(fromKey, key) > 0) {
-                continue;
+    /**
+     The number of black nodes on any path from this node to a leaf (including this node).  This
+     walks the left spine, so split() only calls it once, on the whole tree.
+     */
+    private static int blackHeight(Node<?,?> t) {
+        int h = 0;
+        while (t != null) {
+            if (t instanceof Black) {
+                h++;
             }
-            ret = ret.assoc(key, next.getValue());
+            t = t.left();
         }
-        return ret;
+        return h;
+    }
+
+    /** The black height of what join() returns for trees of the given black heights. */
+    private static int joinHeight(Node<?,?> left, int hl, Node<?,?> right, int hr) {
+        // join() blackens its arguments first.
+        if (left instanceof Red) { hl++; }
+        if (right instanceof Red) { hr++; }
+        return (hl == hr) ? hl + 1 : Math.max(hl, hr);
+    }
+
+    /**
+     Returns a tree of all the keys in left, then the key and value of the middle node, then all the
+     keys in right.  Every key in left must be less than middle.key, and every key in right greater.
+     Its black height is joinHeight(left, hl, right, hr).  Like split(), its root may be red with a
+     red child, so blacken() it before using it as the tree of a map.  Takes O(|hl - hr|) time.
+
+     @param hl the black height of left
+     @param hr the black height of right
+     */
+    private static <K,V> Node<K,V> join(Node<K,V> left, int hl, Node<K,V> middle,
+                                        Node<K,V> right, int hr) {
+        if (left instanceof Red) {
+            left = left.blacken();
+            hl++;
+        }
+        if (right instanceof Red) {
+            right = right.blacken();
+            hr++;
+        }
+        if (hl > hr) {
+            return joinRight(left, hl, middle, right, hr);
+        }
+        if (hr > hl) {
+            return joinLeft(left, hl, middle, right, hr);
+        }
+        return black(middle.key, middle.val(), left, right);
+    }
+
+    /**
+     Walks down the right side of left (which is taller) to a black node as tall as right, and puts
+     the middle key there as a red node.  Red-red violations are fixed on the way back up.
+     */
+    private static <K,V> Node<K,V> joinRight(Node<K,V> left, int hl, Node<K,V> middle,
+                                             Node<K,V> right, int hr) {
+        boolean leftIsBlack = !(left instanceof Red);
+        if ( (hl == hr) && leftIsBlack ) {
+            return red(middle.key, middle.val(), left, right);
+        }
+        Node<K,V> newRight = joinRight(left.right(), leftIsBlack ? hl - 1 : hl, middle, right, hr);
+        if ( leftIsBlack && (newRight instanceof Red) && (newRight.right() instanceof Red) ) {
+            // Rotate left
+            return red(newRight.key, newRight.val(),
+                       black(left.key, left.val(), left.left(), newRight.left()),
+                       newRight.right().blacken());
+        }
+        return left.replace(left.key, left.val(), left.left(), newRight);
+    }
+
+    /** The mirror image of joinRight(). */
+    private static <K,V> Node<K,V> joinLeft(Node<K,V> left, int hl, Node<K,V> middle,
+                                            Node<K,V> right, int hr) {
+        boolean rightIsBlack = !(right instanceof Red);
+        if ( (hl == hr) && rightIsBlack ) {
+            return red(middle.key, middle.val(), left, right);
+        }
+        Node<K,V> newLeft = joinLeft(left, hl, middle, right.left(),
+                                     rightIsBlack ? hr - 1 : hr);
+        if ( rightIsBlack && (newLeft instanceof Red) && (newLeft.left() instanceof Red) ) {
+            // Rotate right
+            return red(newLeft.key, newLeft.val(),
+                       newLeft.left().blacken(),
+                       black(right.key, right.val(), newLeft.right(), right.right()));
+        }
+        return right.replace(right.key, right.val(), newLeft, right.right());
     }
 
 //    /** {@inheritDoc} */
@@ -375,21 +600,31 @@ public class PersistentTreeMap<K,V> implements ImSortedMap<K,V> {
      */
     @Override public Comparator<? super K> comparator() { return (comp == Equator.DEFAULT_COMPARATOR) ? null : comp; }
 
-//    /** Returns true if the map contains the given key. */
-//    @SuppressWarnings("unchecked")
-//    @Override public boolean containsKey(Object key) {
-//        return entryAt((K) key) != null;
-//    }
+    /** Returns true if the map contains the given key. */
+    @SuppressWarnings("unchecked")
+    @Override public boolean containsKey(Object key) {
+        return getOrElse((K) key, (V) NOT_FOUND) != NOT_FOUND;
+    }
 
-//    /** Returns the value associated with the given key. */
-//    @SuppressWarnings("unchecked")
-//    @Override
-//    public V get(Object key) {
-//        if (key == null) { return null; }
-//        Entry<K,V> entry = entryAt((K) key);
-//        if (entry == null) { return null; }
-//        return entry.getValue();
-//    }
+    /** Returns the value associated with the given key, or null if the key is not found. */
+    @SuppressWarnings("unchecked")
+    @Override public V get(Object key) { return getOrElse((K) key, null); }
+
+    /**
+     Returns the value associated with the given key, or notFound if the key is not found.  Unlike
+     entry(), this doesn't allocate anything.
+     */
+    @Override public V getOrElse(K key, V notFound) {
+        Node<K,V> t = tree;
+        while (t != null) {
+            int c = comp.compare(key, t.key);
+            if (c == 0) {
+                return t.val();
+            }
+            t = (c < 0) ? t.left() : t.right();
+        }
+        return notFound;
+    }
 
 // public PersistentTreeMap<K,V> assocEx(K key, V val) {
 // Inherits default implementation of assocEx from IPersistentMap
@@ -411,6 +646,12 @@ public class PersistentTreeMap<K,V> implements ImSortedMap<K,V> {
         return new PersistentTreeMap<>(comp, t.blacken(), size + 1);
     }
 
+    /**
+     Returns a TransientTreeMap for making a lot of changes to a copy of this map quickly.  This map
+     is not affected.
+     */
+    public TransientTreeMap<K,V> asTransient() { return new TransientTreeMap<>(this); }
+
     /** {@inheritDoc} */
     @Override public PersistentTreeMap<K,V> without(K key) {
         Box<Node<K,V>> found = new Box<>(null);
@@ -492,7 +733,43 @@ public class PersistentTreeMap<K,V> implements ImSortedMap<K,V> {
     @Override
     public UnmodSortedIterator<UnEntry<K,V>> iterator() { return new NodeIterator<>(tree, true); }
 
-//    public NodeIterator<K,V> reverseIterator() { return new NodeIterator<>(tree, false); }
+    /** Returns an iterator over the UnEntries of this map from the largest key to the smallest. */
+    @Override public UnmodSortedIterator<UnEntry<K,V>> descendingIterator() {
+        return new NodeIterator<>(tree, false);
+    }
+
+    /**
+     Returns an iterator which starts at the given key (or at the next key in the direction of
+     iteration if the given key is not in this map) without visiting the keys before it.  This
+     takes O(log n) time to find the starting point, so it's a quick way to get the last few
+     entries or the entries after a given key.
+
+     @param key where to start
+     @param ascending true to iterate toward larger keys, false to iterate toward smaller ones.
+     */
+    public UnmodSortedIterator<UnEntry<K,V>> iteratorFrom(K key, boolean ascending) {
+        NodeIterator<K,V> iter = new NodeIterator<>(null, ascending, size);
+        Node<K,V> t = tree;
+        while (t != null) {
+            int c = comp.compare(key, t.key);
+            if (c == 0) {
+                iter.stack[iter.top++] = t;
+                break;
+            } else if (ascending ? (c < 0) : (c > 0)) {
+                iter.stack[iter.top++] = t;
+                t = ascending ? t.left() : t.right();
+            } else {
+                t = ascending ? t.right() : t.left();
+            }
+        }
+        return iter;
+    }
+
+    /**
+     Returns a view of this map in reverse order.  It takes O(1) time to make and all operations on
+     it are as fast as on this map.
+     */
+    @Override public ImSortedMap<K,V> descendingMap() { return new DescendingMap<>(this); }
 
     /** Returns the first key in this map or throws a NoSuchElementException if the map is empty. */
     @Override public K firstKey() {
@@ -509,6 +786,62 @@ public class PersistentTreeMap<K,V> implements ImSortedMap<K,V> {
         return max.getKey();
     }
 
+    /**
+     Returns the entry at the given position in key order (0 is the smallest key) in O(log n) time.
+     This is select() instead of get(int) because Map.get(Object) would take an Integer key.
+     @throws IndexOutOfBoundsException if index is negative or not less than size().
+     */
+    @Override public UnEntry<K,V> select(int index) {
+        if ( (index < 0) || (index >= size) ) {
+            throw new IndexOutOfBoundsException("Expected an index between 0 and " + (size - 1) +
+                                                " but found: " + index);
+        }
+        Node<K,V> t = tree;
+        while (true) {
+            int leftCount = nodeCount(t.left());
+            if (index < leftCount) {
+                t = t.left();
+            } else if (index == leftCount) {
+                return t;
+            } else {
+                index -= leftCount + 1;
+                t = t.right();
+            }
+        }
+    }
+
+    /**
+     Returns the number of keys in this map which come before the given key (whether or not the
+     key is in the map) in O(log n) time.  For percentiles, rank(key) / size() is the fraction of
+     keys less than the given one.
+     */
+    @Override public int rank(K key) {
+        int r = 0;
+        Node<K,V> t = tree;
+        while (t != null) {
+            int c = comp.compare(key, t.key);
+            if (c == 0) {
+                return r + nodeCount(t.left());
+            } else if (c < 0) {
+                t = t.left();
+            } else {
+                r += nodeCount(t.left()) + 1;
+                t = t.right();
+            }
+        }
+        return r;
+    }
+
+    /**
+     Returns the position of the given key in this map's ordering, or -1 if it's not present in
+     O(log n) time.
+     */
+    @Override public int indexOf(K key) {
+        // The key is present if it's the one at its own rank.
+        int r = rank(key);
+        return ( (r < size()) && (comp.compare(key, select(r).getKey()) == 0) ) ? r : -1;
+    }
+
     /** Returns the last key/value pair in this map, or null if the map is empty. */
     public UnEntry<K,V> last() {
         Node<K,V> t = tree;
@@ -566,6 +899,8 @@ public class PersistentTreeMap<K,V> implements ImSortedMap<K,V> {
 //        return null; // t; // t is always null
 //    }
 
+    private static int nodeCount(Node<?,?> t) { return (t == null) ? 0 : t.count(); }
+
     private Node<K,V> add(Node<K,V> t, K key, V val, Box<Node<K,V>> found) {
         if (t == null) {
             if (val == null)
@@ -766,6 +1101,9 @@ public class PersistentTreeMap<K,V> implements ImSortedMap<K,V> {
 
         Node<K,V> right() { return null; }
 
+        /** The number of nodes in the sub-tree rooted at this node (including this one). */
+        int count() { return 1; }
+
         abstract Node<K,V> addLeft(Node<K,V> ins);
 
         abstract Node<K,V> addRight(Node<K,V> ins);
@@ -876,12 +1214,17 @@ public class PersistentTreeMap<K,V> implements ImSortedMap<K,V> {
 
         final Node<K,V> right;
 
+        final int count;
+
         public BlackBranch(K key, Node<K,V> left, Node<K,V> right) {
             super(key);
             this.left = left;
             this.right = right;
+            count = 1 + nodeCount(left) + nodeCount(right);
         }
 
+        @Override int count() { return count; }
+
         @Override
         public Node<K,V> left() { return left; }
 
@@ -985,12 +1328,17 @@ public class PersistentTreeMap<K,V> implements ImSortedMap<K,V> {
 
         final Node<K,V> right;
 
+        final int count;
+
         public RedBranch(K key, Node<K,V> left, Node<K,V> right) {
             super(key);
             this.left = left;
             this.right = right;
+            count = 1 + nodeCount(left) + nodeCount(right);
         }
 
+        @Override int count() { return count; }
+
         @Override public Node<K,V> left() { return left; }
 
         @Override public Node<K,V> right() { return right; }
@@ -1112,28 +1460,432 @@ public class PersistentTreeMap<K,V> implements ImSortedMap<K,V> {
 //        }
 //    }
 
+    /**
+     A mutable version of PersistentTreeMap for making many changes at once.  Get one from
+     {@link PersistentTreeMap#asTransient()}, make all your changes, then call {@link #persistent()}
+     to get an immutable PersistentTreeMap.  The methods that change this map return it (this) so
+     that you can chain them, or use them as a foldLeft() function.
+
+     Changes are written to a buffer instead of the tree.  When you call persistent(), the buffer is
+     sorted and applied.  If there are only a few changes compared to the size of the map, they are
+     assoc'ed one at a time.  Otherwise the buffer is merged with the entries of the tree and a new
+     balanced tree is built from them in one pass.  So building a map of n items this way takes
+     O(n log n) time for the sort (O(n) if the keys arrive in order) instead of allocating a new
+     path through the tree for every key.
+
+     Looking something up (or calling size()) doesn't apply the buffer.  The first time, it sorts
+     the buffer into a java.util.TreeMap of the latest change to each key.  From then on, changes go
+     into that TreeMap and lookups check it, then the tree, in O(log m + log n) for m changes and n
+     entries in the tree.  To keep size() current, each change after that also looks its key up in
+     the tree the first time it sees it, which is O(log n).
+
+     Like the other transients, a TransientTreeMap is owned by the thread that created it.  Using
+     it from any other thread, or after calling persistent(), throws an IllegalAccessError.
+     */
+    public static final class TransientTreeMap<K,V> {
+        // Marks a removal in the buffer of changes.
+        private static final Object REMOVED = new Object();
+
+        /**
+         One buffered change.  Like a series of assoc() calls, several changes to equal keys keep
+         the first key object and the last value.  After a removal, the next assoc() starts over
+         with its own key object.
+         */
+        private static final class Change<K> {
+            final K key;
+            // The new value, or REMOVED.
+            Object val;
+            // The key was removed first, so this key object replaces the one in the map.
+            final boolean replacesKey;
+            // Only takes effect if the key isn't already in the map.
+            boolean ifAbsent;
+
+            Change(K k, Object v, boolean replaces, boolean absent) {
+                key = k; val = v; replacesKey = replaces; ifAbsent = absent;
+            }
+        }
+
+        private final AtomicReference<Thread> edit;
+        private final Comparator<? super K> comp;
+        private PersistentTreeMap<K,V> map;
+        // Changes in the order they were made, until the first lookup.
+        private final List<Change<K>> changes = new ArrayList<>();
+        // After the first lookup, the combined change to each key, and the resulting size.
+        private TreeMap<K,Change<K>> index = null;
+        private int size;
+
+        private TransientTreeMap(PersistentTreeMap<K,V> m) {
+            edit = new AtomicReference<>(Thread.currentThread());
+            comp = m.comp;
+            map = m;
+        }
+
+        private void ensureEditable() {
+            Thread owner = edit.get();
+            if (owner == null) {
+                throw new IllegalAccessError("Transient used after persistent! call");
+            }
+            if (owner != Thread.currentThread()) {
+                throw new IllegalAccessError("Transient used by non-owner thread");
+            }
+        }
+
+        /** Moves the buffered changes into the index so that lookups can use it. */
+        private void ensureIndex() {
+            if (index == null) {
+                index = new TreeMap<>(comp);
+                size = map.size();
+            }
+            for (Change<K> change : changes) {
+                record(change.key, change.val, change.ifAbsent);
+            }
+            changes.clear();
+        }
+
+        /** Puts one change in the index, keeping size current. */
+        private void record(K key, Object val, boolean ifAbsent) {
+            Change<K> prev = index.get(key);
+            if (prev == null) {
+                if (map.containsKey(key)) {
+                    if (ifAbsent) { return; }
+                    index.put(key, new Change<>(key, val, false, false));
+                    if (val == REMOVED) { size--; }
+                } else if (val != REMOVED) {
+                    index.put(key, new Change<>(key, val, false, false));
+                    size++;
+                }
+            } else if (prev.val == REMOVED) {
+                if (val != REMOVED) {
+                    // Remove first so that the index holds the new key object.
+                    index.remove(key);
+                    index.put(key, new Change<>(key, val, true, false));
+                    size++;
+                }
+            } else if (val == REMOVED) {
+                prev.val = REMOVED;
+                size--;
+            } else if (!ifAbsent) {
+                prev.val = val;
+            }
+        }
+
+        /** Applies the buffered (or indexed) changes to map. */
+        private void flush() {
+            if (index != null) {
+                apply(index.values());
+                index.clear();
+                return;
+            }
+            if (changes.isEmpty()) { return; }
+            // List.sort() is stable, so changes to equal keys stay in order.  Combine each run of
+            // them into its first Change.
+            changes.sort((a, b) -> comp.compare(a.key, b.key));
+            int j = 0;
+            for (int i = 0; i < changes.size(); i++) {
+                Change<K> change = changes.get(i);
+                if ( (j == 0) || (comp.compare(changes.get(j - 1).key, change.key) != 0) ) {
+                    changes.set(j++, change);
+                    continue;
+                }
+                Change<K> prev = changes.get(j - 1);
+                if (change.val == REMOVED) {
+                    prev.val = REMOVED;
+                    prev.ifAbsent = false;
+                } else if (prev.val == REMOVED) {
+                    changes.set(j - 1, new Change<>(change.key, change.val, true, false));
+                } else if (!change.ifAbsent) {
+                    // Whether or not the first change took effect, the key is there now.
+                    prev.val = change.val;
+                    prev.ifAbsent = false;
+                }
+            }
+            apply(changes.subList(0, j));
+            changes.clear();
+        }
+
+        /** Applies changes which are sorted by key, with at most one per key. */
+        @SuppressWarnings("unchecked")
+        private void apply(Collection<Change<K>> sorted) {
+            int n = map.size();
+            int m = sorted.size();
+            // m changes one at a time cost about m log n.  Rebuilding costs about n + m.
+            if ((long) m * (32 - Integer.numberOfLeadingZeros(n)) < n) {
+                for (Change<K> change : sorted) {
+                    if (change.val == REMOVED) {
+                        map = map.without(change.key);
+                    } else if (change.replacesKey) {
+                        map = map.without(change.key).assoc(change.key, (V) change.val);
+                    } else if ( !change.ifAbsent || !map.containsKey(change.key) ) {
+                        map = map.assoc(change.key, (V) change.val);
+                    }
+                }
+                return;
+            }
+
+            List<Map.Entry<K,V>> merged = new ArrayList<>(n + m);
+            UnmodIterator<UnEntry<K,V>> iter = map.iterator();
+            UnEntry<K,V> current = iter.hasNext() ? iter.next() : null;
+            for (Change<K> change : sorted) {
+                // Keep any existing entries before this key.
+                int c = -1;
+                while ( (current != null) &&
+                        ((c = comp.compare(current.getKey(), change.key)) < 0) ) {
+                    merged.add(current);
+                    current = iter.hasNext() ? iter.next() : null;
+                }
+                K key = change.key;
+                if ( (current != null) && (c == 0) ) {
+                    if (change.ifAbsent) {
+                        continue;
+                    }
+                    // Like assoc(), keep the original key object.
+                    if (!change.replacesKey) {
+                        key = current.getKey();
+                    }
+                    current = iter.hasNext() ? iter.next() : null;
+                }
+                if (change.val != REMOVED) {
+                    merged.add(Tuple2.of(key, (V) change.val));
+                }
+            }
+            while (current != null) {
+                merged.add(current);
+                current = iter.hasNext() ? iter.next() : null;
+            }
+            map = new PersistentTreeMap<>(comp, buildFromSorted(merged), merged.size());
+        }
+
+        /** Returns the number of key/value mappings in this map. */
+        public int size() {
+            ensureEditable();
+            ensureIndex();
+            return size;
+        }
+
+        /**
+         Returns a PersistentTreeMap with the contents of this transient and makes this transient
+         unusable.
+         */
+        public PersistentTreeMap<K,V> persistent() {
+            ensureEditable();
+            flush();
+            edit.set(null);
+            return map;
+        }
+
+        /**
+         Adds or replaces the value for the given key.
+         @return this map (after it has been modified).
+         */
+        public TransientTreeMap<K,V> assoc(K key, V val) {
+            ensureEditable();
+            if (index == null) {
+                changes.add(new Change<>(key, val, false, false));
+            } else {
+                record(key, val, false);
+            }
+            return this;
+        }
+
+        /**
+         Adds the given key/value pair if the key isn't already here, otherwise leaves this map
+         alone (like PersistentTreeSet.put()).
+         */
+        void assocIfAbsent(K key, V val) {
+            ensureEditable();
+            if (index == null) {
+                changes.add(new Change<>(key, val, false, true));
+            } else {
+                record(key, val, true);
+            }
+        }
+
+        /**
+         Adds or replaces the key/value pair in the given entry.
+         @return this map (after it has been modified).
+         */
+        public TransientTreeMap<K,V> assoc(Map.Entry<K,V> entry) {
+            return assoc(entry.getKey(), entry.getValue());
+        }
+
+        /**
+         Removes the given key (if it is present).
+         @return this map (after it has been modified).
+         */
+        public TransientTreeMap<K,V> without(K key) {
+            ensureEditable();
+            if (index == null) {
+                changes.add(new Change<>(key, REMOVED, false, false));
+            } else {
+                record(key, REMOVED, false);
+            }
+            return this;
+        }
+
+        /** Returns the value associated with the given key, or notFound if the key is absent. */
+        @SuppressWarnings("unchecked")
+        public V getOrElse(K key, V notFound) {
+            ensureEditable();
+            ensureIndex();
+            Change<K> change = index.get(key);
+            if (change != null) {
+                return (change.val == REMOVED) ? notFound : (V) change.val;
+            }
+            return map.getOrElse(key, notFound);
+        }
+
+        /** Returns the value associated with the given key, or null if the key is absent. */
+        public V get(K key) { return getOrElse(key, null); }
+
+        /** Returns true if this map contains the given key. */
+        public boolean containsKey(K key) {
+            ensureEditable();
+            ensureIndex();
+            Change<K> change = index.get(key);
+            if (change != null) {
+                return change.val != REMOVED;
+            }
+            return map.containsKey(key);
+        }
+    } // end class TransientTreeMap
+
+    /**
+     A reverse-order view of a PersistentTreeMap.  Its comparator is the reverse of the parent map's
+     and all its operations go straight to the parent with the directions swapped.
+     */
+    private static final class DescendingMap<K,V> implements ImSortedMap<K,V> {
+        private final PersistentTreeMap<K,V> parent;
+
+        private DescendingMap(PersistentTreeMap<K,V> p) { parent = p; }
+
+        private ImSortedMap<K,V> wrap(PersistentTreeMap<K,V> m) {
+            return (m == parent) ? this : new DescendingMap<>(m);
+        }
+
+        @Override public Comparator<? super K> comparator() {
+            return Collections.reverseOrder(parent.comp);
+        }
+
+        @Override public int size() { return parent.size(); }
+
+        @Override public Option<UnEntry<K,V>> entry(K key) { return parent.entry(key); }
+
+        @SuppressWarnings("SuspiciousMethodCalls")
+        @Override public boolean containsKey(Object key) { return parent.containsKey(key); }
+
+        @SuppressWarnings("SuspiciousMethodCalls")
+        @Override public V get(Object key) { return parent.get(key); }
+
+        @Override public V getOrElse(K key, V notFound) { return parent.getOrElse(key, notFound); }
+
+        @Override public UnmodSortedIterator<UnEntry<K,V>> iterator() {
+            return parent.descendingIterator();
+        }
+
+        @Override public UnmodSortedIterator<UnEntry<K,V>> descendingIterator() {
+            return parent.iterator();
+        }
+
+        @Override public ImSortedMap<K,V> descendingMap() { return parent; }
+
+        @Override public UnEntry<K,V> select(int index) {
+            if ( (index < 0) || (index >= size()) ) {
+                throw new IndexOutOfBoundsException("Expected an index between 0 and " +
+                                                    (size() - 1) + " but found: " + index);
+            }
+            return parent.select(size() - 1 - index);
+        }
+
+        @Override public int rank(K key) {
+            // Everything after the key (and the key itself) in the parent comes before it here.
+            int i = parent.indexOf(key);
+            return (i < 0) ? size() - parent.rank(key)
+                           : size() - 1 - i;
+        }
+
+        @Override public int indexOf(K key) {
+            int i = parent.indexOf(key);
+            return (i < 0) ? -1 : size() - 1 - i;
+        }
+
+        @Override public K firstKey() { return parent.lastKey(); }
+
+        @Override public K lastKey() { return parent.firstKey(); }
+
+        @Override public ImSortedMap<K,V> assoc(K key, V val) { return wrap(parent.assoc(key, val)); }
+
+        @Override public ImSortedMap<K,V> without(K key) { return wrap(parent.without(key)); }
+
+        /** Returns the entries with keys from fromKey (inclusive) down to toKey (exclusive). */
+        @Override public ImSortedMap<K,V> subMap(K fromKey, K toKey) {
+            if (parent.comp.compare(fromKey, toKey) < 0) {
+                throw new IllegalArgumentException("fromKey is less than toKey in a descending map");
+            }
+            Node<K,V> t = parent.headTree(fromKey, true);
+            return wrap(parent.withTree(parent.split(t, blackHeight(t), toKey).right));
+        }
+
+        /** Returns the entries with keys from fromKey (inclusive) down to the smallest key. */
+        @Override public ImSortedMap<K,V> tailMap(K fromKey) {
+            return wrap(parent.withTree(parent.headTree(fromKey, true)));
+        }
+
+        /** Returns the entries with keys from the largest key down to toKey (exclusive). */
+        @Override public ImSortedMap<K,V> headMap(K toKey) {
+            return wrap(parent.withTree(parent.tailTree(toKey, false)));
+        }
+
+        @Override public int hashCode() { return parent.hashCode(); }
+
+        @SuppressWarnings("unchecked")
+        @Override public boolean equals(Object other) {
+            if (this == other) { return true; }
+            if ( !(other instanceof Map) ) { return false; }
+            if (size() != ((Map) other).size()) { return false; }
+            if (other instanceof SortedMap) {
+                return UnmodSortedIterable.equals(this, UnmodSortedIterable.castFromSortedMap((SortedMap) other));
+            }
+            // Unordered comparison is the same as for the parent.
+            return parent.equals(other);
+        }
+
+        @Override public String toString() {
+            return entriesToString("PersistentTreeMap.DescendingMap", this);
+        }
+    }
+
     private static class NodeIterator<K, V> implements UnmodSortedIterator<UnEntry<K,V>> {
-        private Stack<Node<K,V>> stack = new Stack<>();
+        // An unsynchronized stack of the nodes still to visit.  A red-black tree of n nodes is at
+        // most 2 * log2(n + 1) tall, so this never needs to grow.
+        private final Node<K,V>[] stack;
+        private int top = 0;
         private final boolean asc;
 
         NodeIterator(Node<K,V> t, boolean asc) {
+            this(t, asc, nodeCount(t));
+        }
+
+        @SuppressWarnings("unchecked")
+        NodeIterator(Node<K,V> t, boolean asc, int size) {
+            int depth = 32 - Integer.numberOfLeadingZeros(size);
+            stack = (Node<K,V>[]) new Node<?,?>[(2 * depth) + 1];
             this.asc = asc;
             push(t);
         }
 
         private void push(Node<K,V> t) {
             while (t != null) {
-                stack.push(t);
+                stack[top++] = t;
                 t = asc ? t.left() : t.right();
             }
         }
 
-        @Override public boolean hasNext() {
-            return !stack.isEmpty();
-        }
+        @Override public boolean hasNext() { return top > 0; }
 
         @Override public UnmodMap.UnEntry<K,V> next() {
-            Node<K,V> t = stack.pop();
+            if (top < 1) { throw new NoSuchElementException(); }
+            Node<K,V> t = stack[--top];
+            stack[top] = null;
             push(asc ? t.right() : t.left());
             return t;
         }
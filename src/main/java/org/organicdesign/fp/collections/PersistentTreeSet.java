@@ -40,6 +40,8 @@ public class PersistentTreeSet<E> implements ImSortedSet<E> {
     static public <T extends Comparable<T>> PersistentTreeSet<T> empty() { return EMPTY; }
 
     private final ImSortedMap<E,?> impl;
+    // Lazily computed by hashCode(), 0 means "not computed yet."
+    private int hash;
 
 //    static public <T> PersistentTreeSet<T> create(ISeq<T> items) {
 //        PersistentTreeSet<T> ret = emptyTreeSet();
@@ -80,21 +82,22 @@ public class PersistentTreeSet<E> implements ImSortedSet<E> {
                                                   Iterable<T> elements) {
         PersistentTreeSet<T> ret = new PersistentTreeSet<>(PersistentTreeMap.empty(comp));
         if (elements == null) { return ret; }
+        TransientTreeSet<T> trans = ret.asTransient();
         for (T element : elements) {
-            ret = ret.put(element);
+            trans.put(element);
         }
-        return ret;
+        return trans.persistent();
     }
 
     /** Returns a new PersistentTreeSet of the given comparable items. */
     public static <T extends Comparable<T>> PersistentTreeSet<T> of(Iterable<T> items) {
         // empty() uses default comparator
         if (items == null) { return empty(); }
-        PersistentTreeSet<T> ret = empty();
+        TransientTreeSet<T> ret = PersistentTreeSet.<T>empty().asTransient();
         for (T item : items) {
-            ret = ret.put(item);
+            ret.put(item);
         }
-        return ret;
+        return ret.persistent();
     }
 
     /**
@@ -121,9 +124,59 @@ public class PersistentTreeSet<E> implements ImSortedSet<E> {
 
     /** {@inheritDoc} */
     @Override
-    public UnmodSortedIterator<E> iterator() {
+    public UnmodSortedIterator<E> iterator() { return keys(impl.iterator()); }
+
+    /** {@inheritDoc} */
+    @Override
+    public UnmodSortedIterator<E> descendingIterator() { return keys(impl.descendingIterator()); }
+
+    /**
+     Returns the item at the given position (0 is the first) in O(log n) time.
+     @throws IndexOutOfBoundsException if index is negative or not less than size().
+     */
+    public E get(int index) { return impl.select(index).getKey(); }
+
+    /** Returns the position of the given item in this set, or -1 if it's not present. */
+    public int indexOf(E item) { return impl.indexOf(item); }
+
+    /**
+     Returns the number of items in this set which come before the given one (whether or not it's
+     in the set).
+     */
+    public int rank(E item) { return impl.rank(item); }
+
+    /**
+     Returns a view of this set as an UnmodList for positional access.  get() and indexOf() on it
+     are O(log n).
+     */
+    public UnmodList<E> asList() {
+        final PersistentTreeSet<E> parent = this;
+        return new UnmodList<E>() {
+            @Override public E get(int index) { return parent.get(index); }
+            @Override public int size() { return parent.size(); }
+            @SuppressWarnings("unchecked")
+            @Override public int indexOf(Object o) {
+                try {
+                    return parent.indexOf((E) o);
+                } catch (ClassCastException ignore) {
+                    return -1;
+                }
+            }
+            @Override public int lastIndexOf(Object o) { return indexOf(o); }
+            @SuppressWarnings({"SuspiciousMethodCalls", "deprecation"})
+            @Override public boolean contains(Object o) { return parent.contains(o); }
+            @Override public UnmodSortedIterator<E> iterator() { return parent.iterator(); }
+        };
+    }
+
+    /** Returns a reverse-order view of this set in O(1) time. */
+    @Override public PersistentTreeSet<E> descendingSet() {
+        return new PersistentTreeSet<>(impl.descendingMap());
+    }
+
+    private static <E> UnmodSortedIterator<E>
+    keys(UnmodSortedIterator<? extends UnmodMap.UnEntry<E,?>> iter) {
         return new UnmodSortedIterator<E>() {
-            UnmodSortedIterator<? extends UnmodMap.UnEntry<E,?>> iter = impl.iterator();
             @Override public boolean hasNext() { return iter.hasNext(); }
             @Override public E next() {
                 UnmodMap.UnEntry<E,?> e = iter.next();
@@ -144,6 +197,11 @@ public class PersistentTreeSet<E> implements ImSortedSet<E> {
         SortedSet that = ((SortedSet) other);
 
         if (size() != that.size()) { return false; }
+        if (other instanceof PersistentTreeSet) {
+            PersistentTreeSet<?> pts = (PersistentTreeSet<?>) other;
+            if (impl == pts.impl) { return true; }
+            if ( (hash != 0) && (pts.hash != 0) && (hash != pts.hash) ) { return false; }
+        }
         return UnmodSortedIterable.equals(this, UnmodSortedIterable.castFromSortedSet(that));
     }
 
@@ -158,8 +216,15 @@ public class PersistentTreeSet<E> implements ImSortedSet<E> {
      */
     @Override public E first() { return impl.firstKey(); }
 
-    /** {@inheritDoc} */
-    @Override public int hashCode() { return (size() == 0) ? 0 : UnmodIterable.hashCode(this); }
+    /** This is O(n) the first time, then O(1) because it's cached. */
+    @Override public int hashCode() {
+        int ret = hash;
+        if ( (ret == 0) && (size() > 0) ) {
+            ret = UnmodIterable.hashCode(this);
+            hash = ret;
+        }
+        return ret;
+    }
 
     /** {@inheritDoc} */
     @Override public Option<E> head() { return size() > 0 ? Option.of(impl.firstKey()) : Option.none(); }
@@ -182,6 +247,67 @@ public class PersistentTreeSet<E> implements ImSortedSet<E> {
     /** The size of this set. */
     @Override public int size() { return impl.size(); }
 
+    /**
+     Returns a TransientTreeSet for adding or removing a lot of items from a copy of this set
+     quickly.  This set is not affected.
+     */
+    @SuppressWarnings("unchecked")
+    public TransientTreeSet<E> asTransient() {
+        if (impl instanceof PersistentTreeMap) {
+            return new TransientTreeSet<>(((PersistentTreeMap<E,Object>) impl).asTransient());
+        }
+        Comparator<? super E> comp = impl.comparator();
+        PersistentTreeMap.TransientTreeMap<E,Object> m =
+                PersistentTreeMap.<E,Object>empty((comp == null) ? Equator.defaultComparator()
+                                                                 : comp).asTransient();
+        for (E item : this) {
+            m.assoc(item, null);
+        }
+        return new TransientTreeSet<>(m);
+    }
+
+    /**
+     A mutable version of PersistentTreeSet for adding or removing many items at once.  It's a
+     wrapper for a {@link PersistentTreeMap.TransientTreeMap} and has the same restrictions: only the
+     thread that created it can use it, and not after persistent() has been called.
+     */
+    public static final class TransientTreeSet<E> {
+        private final PersistentTreeMap.TransientTreeMap<E,Object> impl;
+
+        private TransientTreeSet(PersistentTreeMap.TransientTreeMap<E,Object> i) { impl = i; }
+
+        /** Returns true if the set contains the given item. */
+        public boolean contains(E item) { return impl.containsKey(item); }
+
+        /** Returns the number of items in this set. */
+        public int size() { return impl.size(); }
+
+        /**
+         Adds the given item to this set.  Like {@link PersistentTreeSet#put(Object)}, if an equal
+         item is already here, this set is left alone.
+         @return this set (after it has been modified).
+         */
+        public TransientTreeSet<E> put(E item) {
+            impl.assocIfAbsent(item, null);
+            return this;
+        }
+
+        /**
+         Removes the given item from this set.
+         @return this set (after it has been modified).
+         */
+        public TransientTreeSet<E> without(E item) {
+            impl.without(item);
+            return this;
+        }
+
+        /**
+         Returns a PersistentTreeSet with the contents of this transient and makes this transient
+         unusable.
+         */
+        public PersistentTreeSet<E> persistent() { return new PersistentTreeSet<>(impl.persistent()); }
+    }
+
     /** {@inheritDoc} */
     @Override public ImSortedSet<E> subSet(E fromElement, E toElement) {
         return PersistentTreeSet.ofMap(impl.subMap(fromElement, toElement));
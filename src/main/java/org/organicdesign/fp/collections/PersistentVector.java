@@ -16,7 +16,10 @@ import org.organicdesign.fp.xform.Transformable;
 import java.io.Serializable;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 // TODO: http://functionaljava.googlecode.com/svn/artifacts/2.21/javadoc/fj/data/Seq.html
 // TODO: https://sourcegraph.com/github.com/functionaljava/functionaljava@627d9dfa6725bcb301361477fcbc50c6efe77f61/.tree/core/src/main/java/fj/data/Seq.java
@@ -46,12 +49,12 @@ public class PersistentVector<E> implements ImList<E> {
      This allows us to perform a mutable transform without making the mutable vector visible.
      It's a performance optimization for Transformable.toImList() which made a roughly 5x
      performance improvement across the board!
-     @param trans the transformable to foldLeft internally using a MutableVector.
+     @param trans the transformable to foldLeft internally using a TransientVector.
      @return the collected ImList
      */
     public static <T> ImList<T> fromXform(Transformable<T> trans) {
-        return trans.foldLeft(emptyTransientVector(),
-                              MutableVector<T>::append).persistent();
+        return trans.foldLeft(emptyTransient(),
+                              TransientVector<T>::append).persistent();
     }
 
     // Java shift operator review:
@@ -101,10 +104,13 @@ public class PersistentVector<E> implements ImList<E> {
     @SuppressWarnings("unchecked")
     public static final <T> PersistentVector<T> empty() { return (PersistentVector<T>) EMPTY; }
 
-    // We could make this public someday.
+    /**
+     Returns a new, empty TransientVector for building a vector quickly with mutation on a single
+     thread.  Call persistent() on the result when you are done.
+     */
     @SuppressWarnings("unchecked")
-    private static final <T> MutableVector<T> emptyTransientVector() {
-        return (MutableVector<T>) EMPTY.asTransient();
+    public static <T> TransientVector<T> emptyTransient() {
+        return (TransientVector<T>) EMPTY.asTransient();
     }
 
     // The number of items in this Vector.
@@ -112,6 +118,8 @@ public class PersistentVector<E> implements ImList<E> {
     private final int shift;
     private final Node root;
     private final E[] tail;
+    // Lazily computed by hashCode(), 0 means "not computed yet."
+    private int hash;
 
     /** Constructor */
     private PersistentVector(int z, int shift, Node root, E[] tail) {
@@ -126,7 +134,7 @@ public class PersistentVector<E> implements ImList<E> {
      method is: {@link org.organicdesign.fp.StaticImports#vec(Object...)}.
      */
     static public <T> PersistentVector<T> ofIter(Iterable<T> items) {
-        MutableVector<T> ret = emptyTransientVector();
+        TransientVector<T> ret = emptyTransient();
         for (T item : items) {
             ret = ret.append(item);
         }
@@ -155,11 +163,12 @@ public class PersistentVector<E> implements ImList<E> {
 //        return ret;
 //    }
 
-    // IEditableCollection has this return ITransientCollection<E>,
-    // not TransientVector<E> as this originally returned.
-//    @Override
-    // We could make this public some day, maybe.
-    private MutableVector<E> asTransient() { return new MutableVector<>(this); }
+    /**
+     Returns a mutable copy of this vector for adding, replacing, or removing many items quickly.
+     Only the thread that called this method may use the returned TransientVector, and only until
+     it calls persistent() on it.  This vector is not affected.
+     */
+    public TransientVector<E> asTransient() { return new TransientVector<>(this); }
 
     // Returns the high (gt 5) bits of the index of the last item.
     // I think this is the index of the start of the last array in the tree.
@@ -260,11 +269,7 @@ public class PersistentVector<E> implements ImList<E> {
      * @return a new PersistentVector with the additional items at the end.
      */
     @Override public PersistentVector<E> concat(Iterable<? extends E> items) {
-        MutableVector<E> result = this.asTransient();
-        for (E e : items) {
-            result = result.append(e);
-        }
-        return result.persistent();
+        return this.asTransient().concat(items).persistent();
     }
 
     private Node pushTail(int level, Node parent, Node tailnode) {
@@ -371,96 +376,243 @@ public class PersistentVector<E> implements ImList<E> {
 //        return rangedIterator(0, size());
 //    }
 
-//    @SuppressWarnings("unchecked")
-//    public <U> U reduce(Function2<U, E, U> f, U init) {
-//        int step = 0;
-//        for (int i = 0; i < size; i += step) {
-//            E[] array = leafNodeArrayFor(i);
-//            for (int j = 0; j < array.length; ++j) {
-//                init = f.apply(init, array[j]);
-//
-//                if ( (init != null) && (init instanceof Reduced) ) {
-//                    return ((Reduced<U>) init).val;
-//                }
-//            }
-//            step = array.length;
-//        }
-//        return init;
-//    }
+    /**
+     Receives the items of a PersistentVector one leaf-array (up to 32 items) at a time from
+     {@link #forEachChunk(int, int, ChunkConsumer)}.
+     */
+    @FunctionalInterface
+    public interface ChunkConsumer {
+        /**
+         Process the items in chunk[from] through chunk[to - 1].  The chunk is the vector's own
+         internal array, so you must not modify it or keep a reference to it.  It is always an
+         Object[] (never an array of the vector's item type) so you have to cast each item.
+         @param chunk an array holding the items to process (and maybe others)
+         @param from the index (in the chunk) of the first item to process
+         @param to one more than the index (in the chunk) of the last item to process
+         @return true to continue with the next chunk, false to stop now.
+         */
+        boolean accept(Object[] chunk, int from, int to);
+    }
 
+    /**
+     Passes the internal arrays holding the given range of this vector to the consumer in order.
+     This visits each leaf of the tree only once and doesn't call any methods per item, so it's
+     the fastest way to scan a large vector.  It's what Xform uses when a PersistentVector is the
+     source of a transformation.
+     @param fromIdx the index of the first item to process (inclusive)
+     @param toIdx one more than the index of the last item to process (exclusive)
+     @param f the function to receive each chunk of items.
+     @return true if every chunk was processed, false if the consumer stopped early.
+     */
+    public boolean forEachChunk(int fromIdx, int toIdx, ChunkConsumer f) {
+        if ( (fromIdx < 0) || (toIdx > size) || (fromIdx > toIdx) ) {
+            throw new IndexOutOfBoundsException("fromIndex = " + fromIdx + " toIndex = " + toIdx +
+                                                " size = " + size);
+        }
+        int i = fromIdx;
+        while (i < toIdx) {
+            Object[] array = leafNodeArrayFor(i);
+            // Every leaf in the tree holds exactly 32 items.  The tail holds whatever is left.
+            int base = i - (i & LOW_BITS);
+            int end = Math.min(toIdx - base, array.length);
+            if (!f.accept(array, i - base, end)) {
+                return false;
+            }
+            i = base + end;
+        }
+        return true;
+    }
+
+    /**
+     Passes the internal arrays of this vector to the consumer in order.
+     See {@link #forEachChunk(int, int, ChunkConsumer)}
+     @return true if every chunk was processed, false if the consumer stopped early.
+     */
+    public boolean forEachChunk(ChunkConsumer f) { return forEachChunk(0, size, f); }
+
+    /**
+     Returns an ORDERED, SIZED, SUBSIZED, IMMUTABLE spliterator which only splits on leaf-node
+     (32-item) boundaries, so that each half of a split owns whole leaves of the tree and parallel
+     streams never share a leaf between threads.  forEachRemaining() goes through
+     {@link #forEachChunk(int, int, ChunkConsumer)}.
+     */
+    @Override public Spliterator<E> spliterator() { return new ChunkSpliterator(0, size); }
+
+    private final class ChunkSpliterator implements Spliterator<E> {
+        private int idx;
+        private final int end;
+        // The leaf holding idx, or null if we have to look it up.
+        private E[] leaf;
+
+        private ChunkSpliterator(int from, int to) { idx = from; end = to; }
+
+        @Override public boolean tryAdvance(Consumer<? super E> action) {
+            if (action == null) { throw new NullPointerException("action"); }
+            int i = idx;
+            if (i >= end) { return false; }
+            if ( (leaf == null) || ((i & LOW_BITS) == 0) ) {
+                leaf = leafNodeArrayFor(i);
+            }
+            idx = i + 1;
+            action.accept(leaf[i & LOW_BITS]);
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override public void forEachRemaining(Consumer<? super E> action) {
+            if (action == null) { throw new NullPointerException("action"); }
+            int i = idx;
+            idx = end;
+            leaf = null;
+            if (i < end) {
+                forEachChunk(i, end, (chunk, from, to) -> {
+                    for (int j = from; j < to; j++) {
+                        action.accept((E) chunk[j]);
+                    }
+                    return true;
+                });
+            }
+        }
+
+        @Override public Spliterator<E> trySplit() {
+            int lo = idx;
+            // Round the midpoint down to the start of a leaf.  If that's not past where we are,
+            // round up instead.
+            int mid = ((lo + end) >>> 1) & ~LOW_BITS;
+            if (mid <= lo) {
+                mid += MAX_NODE_LENGTH;
+                if (mid >= end) { return null; }
+            }
+            idx = mid;
+            leaf = null;
+            return new ChunkSpliterator(lo, mid);
+        }
+
+        @Override public long estimateSize() { return end - idx; }
+
+        @Override public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED |
+                   Spliterator.IMMUTABLE;
+        }
+    }
 
 //    @Override public IPersistentCollection<E> empty(){
 //    	return emptyPersistentCollection(meta());
 //    }
 
-//    @SuppressWarnings("unchecked")
-//    public ImVectorImpl<E> pop() {
-//        if (size == 0)
-//            throw new IllegalStateException("Can't pop empty vector");
-//        if (size == 1)
-//            return empty();
-//        //if(tail.length > 1)
-//        if (size - tailoff() > 1) {
-//            E[] newTail = (E[]) new Object[tail.length - 1];
-//            System.arraycopy(tail, 0, newTail, 0, newTail.length);
-//            return new ImVectorImpl<>(size - 1, shift, root, newTail);
-//        }
-//        E[] newtail = leafNodeArrayFor(size - 2);
-//
-//        Node newroot = popTail(shift, root);
-//        int newshift = shift;
-//        if (newroot == null) {
-//            newroot = EMPTY_NODE;
-//        }
-//        if (shift > NODE_LENGTH_POW_2 && newroot.array[1] == null) {
-//            newroot = (Node) newroot.array[0];
-//            newshift -= NODE_LENGTH_POW_2;
-//        }
-//        return new ImVectorImpl<>(size - 1, newshift, newroot, newtail);
-//    }
+    /**
+     Returns a new PersistentVector without the last item in O(log32 n) time.  It shares everything
+     else with this vector.
+     @throws IllegalStateException if this vector is empty.
+     */
+    @SuppressWarnings("unchecked")
+    @Override public PersistentVector<E> dropLast() {
+        if (size == 0)
+            throw new IllegalStateException("Can't pop empty vector");
+        if (size == 1)
+            return empty();
+        //if(tail.length > 1)
+        if (size - tailoff() > 1) {
+            E[] newTail = (E[]) new Object[tail.length - 1];
+            System.arraycopy(tail, 0, newTail, 0, newTail.length);
+            return new PersistentVector<>(size - 1, shift, root, newTail);
+        }
+        E[] newtail = leafNodeArrayFor(size - 2);
 
-//    private Node popTail(int level, Node node) {
-//        int subidx = ((size - 2) >>> level) & LOW_BITS;
-//        if (level > NODE_LENGTH_POW_2) {
-//            Node newchild = popTail(level - NODE_LENGTH_POW_2, (Node) node.array[subidx]);
-//            if (newchild == null && subidx == 0)
-//                return null;
-//            else {
-//                Node ret = new Node(root.edit, node.array.clone());
-//                ret.array[subidx] = newchild;
-//                return ret;
-//            }
-//        } else if (subidx == 0)
-//            return null;
-//        else {
-//            Node ret = new Node(root.edit, node.array.clone());
-//            ret.array[subidx] = null;
-//            return ret;
-//        }
-//    }
+        Node newroot = popTail(shift, root);
+        int newshift = shift;
+        if (newroot == null) {
+            newroot = EMPTY_NODE;
+        }
+        if (shift > NODE_LENGTH_POW_2 && newroot.array[1] == null) {
+            newroot = (Node) newroot.array[0];
+            newshift -= NODE_LENGTH_POW_2;
+        }
+        return new PersistentVector<>(size - 1, newshift, newroot, newtail);
+    }
 
-    /** This is correct, but O(n).  This implementation is compatible with java.util.AbstractList. */
+    private Node popTail(int level, Node node) {
+        int subidx = ((size - 2) >>> level) & LOW_BITS;
+        if (level > NODE_LENGTH_POW_2) {
+            Node newchild = popTail(level - NODE_LENGTH_POW_2, (Node) node.array[subidx]);
+            if (newchild == null && subidx == 0)
+                return null;
+            else {
+                Node ret = new Node(root.edit, node.array.clone());
+                ret.array[subidx] = newchild;
+                return ret;
+            }
+        } else if (subidx == 0)
+            return null;
+        else {
+            Node ret = new Node(root.edit, node.array.clone());
+            ret.array[subidx] = null;
+            return ret;
+        }
+    }
+
+    /**
+     This is O(n) the first time, then O(1) because it's cached.  This implementation is compatible
+     with java.util.AbstractList.
+     */
     @Override public int hashCode() {
-        int ret = 1;
-        for (E item : this) {
-            ret *= 31;
-            if (item != null) {
-                ret += item.hashCode();
+        int ret = hash;
+        if (ret == 0) {
+            ret = 1;
+            for (E item : this) {
+                ret *= 31;
+                if (item != null) {
+                    ret += item.hashCode();
+                }
             }
+            hash = ret;
         }
         return ret;
     }
 
     /**
      This is correct, but definitely O(n), same as java.util.ArrayList.
-     This implementation is compatible with java.util.AbstractList.
+     This implementation is compatible with java.util.AbstractList.  When comparing with another
+     PersistentVector, it compares cached hash codes (if both are computed), then skips any
+     sub-trees the two vectors share.
      */
     @Override public boolean equals(Object other) {
         if (this == other) { return true; }
         if ( !(other instanceof List) ) { return false; }
         List that = (List) other;
-        return (this.size() == that.size()) &&
-                UnmodSortedIterable.equals(this, UnmodSortedIterable.castFromList(that));
+        if (this.size() != that.size()) { return false; }
+        if (other instanceof PersistentVector) {
+            PersistentVector<?> pv = (PersistentVector<?>) other;
+            if ( (hash != 0) && (pv.hash != 0) && (hash != pv.hash) ) { return false; }
+            if ( (shift == pv.shift) && (tail.length == pv.tail.length) ) {
+                return nodesEqual(root, pv.root, shift, size - tail.length) &&
+                       arraysEqual(tail, pv.tail, tail.length);
+            }
+        }
+        return UnmodSortedIterable.equals(this, UnmodSortedIterable.castFromList(that));
+    }
+
+    /** Compares the first count items under two nodes at the given level. */
+    private static boolean nodesEqual(Node a, Node b, int level, int count) {
+        if (a == b) { return true; }
+        if (level == 0) { return arraysEqual(a.array, b.array, count); }
+        int childSize = 1 << level;
+        for (int i = 0; count > 0; i++) {
+            if ( !nodesEqual((Node) a.array[i], (Node) b.array[i], level - NODE_LENGTH_POW_2,
+                             Math.min(count, childSize)) ) {
+                return false;
+            }
+            count -= childSize;
+        }
+        return true;
+    }
+
+    private static boolean arraysEqual(Object[] a, Object[] b, int count) {
+        if (a == b) { return true; }
+        for (int i = 0; i < count; i++) {
+            if ( !Objects.equals(a[i], b[i]) ) { return false; }
+        }
+        return true;
     }
 
     @Override public String toString() {
@@ -487,19 +639,20 @@ public class PersistentVector<E> implements ImList<E> {
         return ret;
     }
 
-//    public static class Reduced<A> {
-//        public final A val;
-//        private Reduced(A a) { val = a; }
-//    }
-//
-//    /**
-//     * This is an early exit indicator for reduce operations.  Return one of these when you want the reduction to end.
-//     * It uses types, but not in a "traditional" way.
-//     */
-//    public static <A> Reduced<A> done(A a) { return new Reduced<>(a); }
-
-    // Implements Counted through ITransientVector<E> -> Indexed<E> -> Counted.
-    private static final class MutableVector<F> {
+    /**
+     A mutable version of PersistentVector for building (or rebuilding) a vector quickly.  Get one
+     from {@link PersistentVector#emptyTransient()} or {@link PersistentVector#asTransient()}, make
+     all your changes, then call {@link #persistent()} to get an immutable PersistentVector.  The
+     methods that change this vector return it (this) so that you can chain them, or use them as a
+     foldLeft() function.
+
+     A TransientVector is owned by the thread that created it.  It shares the edit token
+     (AtomicReference&lt;Thread&gt;) on every node it creates, so that nodes created by this
+     transient are modified in place instead of copied.  Using it from any other thread, or after
+     calling persistent(), throws an IllegalAccessError.  Nodes shared with the PersistentVector it
+     came from are copied before they are modified, so that vector is never affected.
+     */
+    public static final class TransientVector<F> {
         // The number of items in this Vector.
         private int size;
 
@@ -510,9 +663,9 @@ public class PersistentVector<E> implements ImList<E> {
 
         private F[] tail;
 
-        private MutableVector(int c, int s, Node r, F[] t) { size = c; shift = s; root = r; tail = t; }
+        private TransientVector(int c, int s, Node r, F[] t) { size = c; shift = s; root = r; tail = t; }
 
-        private MutableVector(PersistentVector<F> v) { this(v.size, v.shift, editableRoot(v.root), editableTail(v.tail)); }
+        private TransientVector(PersistentVector<F> v) { this(v.size, v.shift, editableRoot(v.root), editableTail(v.tail)); }
 
         private Node ensureEditable(Node node) {
             if (node.edit == root.edit)
@@ -521,34 +674,44 @@ public class PersistentVector<E> implements ImList<E> {
         }
 
         private void ensureEditable() {
-            if (root.edit.get() == null) {
+            Thread owner = root.edit.get();
+            if (owner == null) {
                 throw new IllegalAccessError("Transient used after persistent! call");
             }
+            if (owner != Thread.currentThread()) {
+                throw new IllegalAccessError("Transient used by non-owner thread");
+            }
             //		root = editableRoot(root);
             //		tail = editableTail(tail);
         }
 
+        /** Returns the number of items in this vector. */
         public int size() {
             ensureEditable();
             return size;
         }
 
+        /**
+         Returns a PersistentVector with the contents of this transient and makes this transient
+         unusable.  This does not copy the tree, which is what makes building a vector this way so
+         fast.
+         */
         @SuppressWarnings("unchecked")
         public PersistentVector<F> persistent() {
             ensureEditable();
-            //		Thread owner = root.edit.get();
-            //		if(owner != null && owner != Thread.currentThread())
-            //			{
-            //			throw new IllegalAccessError("Mutation release by non-owner thread");
-            //			}
             root.edit.set(null);
             F[] trimmedTail = (F[]) new Object[size - tailoff()];
             System.arraycopy(tail, 0, trimmedTail, 0, trimmedTail.length);
             return new PersistentVector<>(size, shift, root, trimmedTail);
         }
 
+        /**
+         Adds an item to the end of this vector.
+         @param val the value to add
+         @return this vector (after it has been modified).
+         */
         @SuppressWarnings("unchecked")
-        public MutableVector<F> append(F val) {
+        public TransientVector<F> append(F val) {
             ensureEditable();
             int i = size;
             //room in tail?
@@ -577,6 +740,18 @@ public class PersistentVector<E> implements ImList<E> {
             return this;
         }
 
+        /**
+         Adds all the given items to the end of this vector.
+         @param items the values to add
+         @return this vector (after it has been modified).
+         */
+        public TransientVector<F> concat(Iterable<? extends F> items) {
+            for (F item : items) {
+                append(item);
+            }
+            return this;
+        }
+
         // TODO: are these all node<F> or could this return a super-type of F?
         @SuppressWarnings("unchecked")
         private Node pushTail(int level, Node parent, Node tailnode) {
@@ -612,143 +787,130 @@ public class PersistentVector<E> implements ImList<E> {
             // Last line can be replaced with (size -1) & HIGH_BITS
         }
 
-//        @SuppressWarnings("unchecked")
-//        private F[] leafNodeArrayFor(int i) {
-//            if (i >= 0 && i < size) {
-//                if (i >= tailoff()) {
-//                    return tail;
-//                }
-//                Node node = root;
-//                for (int level = shift; level > 0; level -= NODE_LENGTH_POW_2) {
-//                    node = (Node) node.array[(i >>> level) & LOW_BITS];
-//                }
-//                return (F[]) node.array;
-//            }
-//            throw new IndexOutOfBoundsException();
-//        }
+        @SuppressWarnings("unchecked")
+        private F[] leafNodeArrayFor(int i) {
+            if (i >= 0 && i < size) {
+                if (i >= tailoff()) {
+                    return tail;
+                }
+                Node node = root;
+                for (int level = shift; level > 0; level -= NODE_LENGTH_POW_2) {
+                    node = (Node) node.array[(i >>> level) & LOW_BITS];
+                }
+                return (F[]) node.array;
+            }
+            throw new IndexOutOfBoundsException();
+        }
 
-//        @SuppressWarnings("unchecked")
-//        private F[] editableArrayFor(int i) {
-//            if (i >= 0 && i < size) {
-//                if (i >= tailoff())
-//                    return tail;
-//                Node node = root;
-//                for (int level = shift; level > 0; level -= NODE_LENGTH_POW_2)
-//                    node = ensureEditable((Node) node.array[(i >>> level) & LOW_BITS]);
-//                return (F[]) node.array;
-//            }
-//            throw new IndexOutOfBoundsException();
-//        }
+        @SuppressWarnings("unchecked")
+        private F[] editableArrayFor(int i) {
+            if (i >= 0 && i < size) {
+                if (i >= tailoff())
+                    return tail;
+                Node node = root;
+                for (int level = shift; level > 0; level -= NODE_LENGTH_POW_2)
+                    node = ensureEditable((Node) node.array[(i >>> level) & LOW_BITS]);
+                return (F[]) node.array;
+            }
+            throw new IndexOutOfBoundsException();
+        }
 
-//        public F nth(int i) {
-//            ensureEditable();
-//            F[] node = arrayFor(i);
-//            return node[i & LOW_BITS];
-//        }
-//
-//        public F nth(int i, F notFound) {
-//            if (i >= 0 && i < size())
-//                return nth(i);
-//            return notFound;
-//        }
-//
-//        /** Convenience method for using any class that implements Number as a key. */
-//        public F nth(Number key) { return nth(key.intValue(), null); }
-//
-//        /** Convenience method for using any class that implements Number as a key. */
-//        public F nth(Number key, F notFound) { return nth(key.intValue(), notFound); }
-
-//        public MutableVector<F> insertAt(int i, F val) {
-//            ensureEditable();
-//            if (i >= 0 && i < size) {
-//                if (i >= tailoff()) {
-//                    tail[i & LOW_BITS] = val;
-//                    return this;
-//                }
-//
-//                root = doAssoc(shift, root, i, val);
-//                return this;
-//            } else if (i == size) {
-//                return concat(val);
-//            }
-//            throw new IndexOutOfBoundsException();
-//        }
+        /** Returns the item at the given index. */
+        public F get(int i) {
+            ensureEditable();
+            F[] node = leafNodeArrayFor(i);
+            return node[i & LOW_BITS];
+        }
 
-//        public MutableVector<F> assoc(int key, F val) {
-//            //note - relies on ensureEditable in insertAt
-//            return insertAt(key, val);
-//        }
-//
-//        public MutableVector<F> assoc(Number key, F val) {
-//            return insertAt(key.intValue(), val);
-//        }
+        /**
+         Replaces the item at the given index.  To match PersistentVector.replace(),
+         replace(size(), val) is the same as append(val).
+         @param i the index where the value should be stored.
+         @param val the value to store
+         @return this vector (after it has been modified).
+         */
+        public TransientVector<F> replace(int i, F val) {
+            ensureEditable();
+            if (i >= 0 && i < size) {
+                if (i >= tailoff()) {
+                    tail[i & LOW_BITS] = val;
+                    return this;
+                }
 
-//        @SuppressWarnings("unchecked")
-//        private Node doAssoc(int level, Node node, int i, Object val) {
-//            node = ensureEditable(node);
-//            Node ret = node;
-//            if (level == 0) {
-//                ret.array[i & LOW_BITS] = val;
-//            } else {
-//                int subidx = (i >>> level) & LOW_BITS;
-//                ret.array[subidx] = doAssoc(level - NODE_LENGTH_POW_2, (Node) node.array[subidx], i, val);
-//            }
-//            return ret;
-//        }
+                root = doAssoc(shift, root, i, val);
+                return this;
+            } else if (i == size) {
+                return append(val);
+            }
+            throw new IndexOutOfBoundsException();
+        }
 
-//        @SuppressWarnings("unchecked")
-//        public MutableVector<F> pop() {
-//            ensureEditable();
-//            if (size == 0)
-//                throw new IllegalStateException("Can't pop empty vector");
-//            if (size == 1) {
-//                size = 0;
-//                return this;
-//            }
-//            int i = size - 1;
-//            //pop in tail?
-//            if ((i & LOW_BITS) > 0) {
-//                --size;
-//                return this;
-//            }
-//
-//            F[] newtail = editableArrayFor(size - 2);
-//
-//            Node newroot = popTail(shift, root);
-//            int newshift = shift;
-//            if (newroot == null) {
-//                newroot = new Node(root.edit);
-//            }
-//            if (shift > NODE_LENGTH_POW_2 && newroot.array[1] == null) {
-//                newroot = ensureEditable((Node) newroot.array[0]);
-//                newshift -= NODE_LENGTH_POW_2;
-//            }
-//            root = newroot;
-//            shift = newshift;
-//            --size;
-//            tail = newtail;
-//            return this;
-//        }
+        private Node doAssoc(int level, Node node, int i, Object val) {
+            node = ensureEditable(node);
+            Node ret = node;
+            if (level == 0) {
+                ret.array[i & LOW_BITS] = val;
+            } else {
+                int subidx = (i >>> level) & LOW_BITS;
+                ret.array[subidx] = doAssoc(level - NODE_LENGTH_POW_2, (Node) node.array[subidx], i, val);
+            }
+            return ret;
+        }
 
-//        @SuppressWarnings("unchecked")
-//        private Node popTail(int level, Node node) {
-//            node = ensureEditable(node);
-//            int subidx = ((size - 2) >>> level) & LOW_BITS;
-//            if (level > NODE_LENGTH_POW_2) {
-//                Node newchild = popTail(level - NODE_LENGTH_POW_2, (Node) node.array[subidx]);
-//                if (newchild == null && subidx == 0)
-//                    return null;
-//                else {
-//                    node.array[subidx] = newchild;
-//                    return node;
-//                }
-//            } else if (subidx == 0)
-//                return null;
-//            else {
-//                node.array[subidx] = null;
-//                return node;
-//            }
-//        }
+        /**
+         Removes the last item from this vector.
+         @return this vector (after it has been modified).
+         @throws IllegalStateException if this vector is empty.
+         */
+        public TransientVector<F> pop() {
+            ensureEditable();
+            if (size == 0)
+                throw new IllegalStateException("Can't pop empty vector");
+            int i = size - 1;
+            //pop in tail?
+            if ((size == 1) || ((i & LOW_BITS) > 0)) {
+                // Don't hold on to the popped item.
+                tail[i & LOW_BITS] = null;
+                --size;
+                return this;
+            }
+
+            F[] newtail = editableArrayFor(size - 2);
+
+            Node newroot = popTail(shift, root);
+            int newshift = shift;
+            if (newroot == null) {
+                newroot = new Node(root.edit);
+            }
+            if (shift > NODE_LENGTH_POW_2 && newroot.array[1] == null) {
+                newroot = ensureEditable((Node) newroot.array[0]);
+                newshift -= NODE_LENGTH_POW_2;
+            }
+            root = newroot;
+            shift = newshift;
+            --size;
+            tail = newtail;
+            return this;
+        }
+
+        private Node popTail(int level, Node node) {
+            node = ensureEditable(node);
+            int subidx = ((size - 2) >>> level) & LOW_BITS;
+            if (level > NODE_LENGTH_POW_2) {
+                Node newchild = popTail(level - NODE_LENGTH_POW_2, (Node) node.array[subidx]);
+                if (newchild == null && subidx == 0)
+                    return null;
+                else {
+                    node.array[subidx] = newchild;
+                    return node;
+                }
+            } else if (subidx == 0)
+                return null;
+            else {
+                node.array[subidx] = null;
+                return node;
+            }
+        }
 
         static Node editableRoot(Node node) {
             return new Node(new AtomicReference<>(Thread.currentThread()), node.array.clone());
@@ -0,0 +1,132 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.collections;
+
+/**
+ The branches shared by {@link PersistentIntVector} and {@link PersistentLongVector}.  Both have
+ the shape of a {@link PersistentVector}: Object[] branches of up to 32 children, with int[] or
+ long[] leaves at the bottom and a separate tail.  None of this code looks inside a leaf, so a leaf
+ is just an Object here.  Each vector keeps the code that reads or copies its own leaves.
+ */
+final class PrimitiveVectorTrie {
+    private PrimitiveVectorTrie() { throw new UnsupportedOperationException("No instantiation"); }
+
+    // Shifting by 5 is multiplying or dividing by 32.
+    static final int NODE_LENGTH_POW_2 = 5;
+    static final int MAX_NODE_LENGTH = 1 << NODE_LENGTH_POW_2;
+    static final int LOW_BITS = MAX_NODE_LENGTH - 1;
+
+    /** The index of the first item in the tail of a vector of the given size. */
+    static int tailoff(int size) {
+        return (size < MAX_NODE_LENGTH) ? 0
+                                        : ((size - 1) >>> NODE_LENGTH_POW_2) << NODE_LENGTH_POW_2;
+    }
+
+    /** Returns the leaf in the tree (not the tail) holding the given index. */
+    static Object leafFor(Object[] root, int shift, int i) {
+        Object[] node = root;
+        for (int level = shift; level > NODE_LENGTH_POW_2; level -= NODE_LENGTH_POW_2) {
+            node = (Object[]) node[(i >>> level) & LOW_BITS];
+        }
+        return node[(i >>> NODE_LENGTH_POW_2) & LOW_BITS];
+    }
+
+    /** The shift of the root over the given number of full leaves (see buildRoot()). */
+    static int rootShift(int leafCount) {
+        int shift = NODE_LENGTH_POW_2;
+        for (int n = leafCount; n > MAX_NODE_LENGTH; n = (n + LOW_BITS) >>> NODE_LENGTH_POW_2) {
+            shift += NODE_LENGTH_POW_2;
+        }
+        return shift;
+    }
+
+    /** Builds the branches over the given full leaves in O(n), with a shift of rootShift(). */
+    static Object[] buildRoot(Object[] leaves) {
+        Object[] level = leaves;
+        while (level.length > MAX_NODE_LENGTH) {
+            Object[] parents = new Object[(level.length + LOW_BITS) >>> NODE_LENGTH_POW_2];
+            for (int i = 0; i < parents.length; i++) {
+                Object[] branch = new Object[MAX_NODE_LENGTH];
+                int from = i << NODE_LENGTH_POW_2;
+                System.arraycopy(level, from, branch, 0,
+                                 Math.min(MAX_NODE_LENGTH, level.length - from));
+                parents[i] = branch;
+            }
+            level = parents;
+        }
+        Object[] root = new Object[MAX_NODE_LENGTH];
+        System.arraycopy(level, 0, root, 0, level.length);
+        return root;
+    }
+
+    /**
+     True if the tree of a vector of the given size (with a full tail) has no room for the tail,
+     so the root needs another level.
+     */
+    static boolean rootOverflows(int size, int shift) {
+        return (size >>> NODE_LENGTH_POW_2) > (1 << shift);
+    }
+
+    /** Returns a new root with the full tail of a vector of the given size added to the tree. */
+    static Object[] pushTail(int size, int level, Object[] parent, Object tailNode) {
+        int subidx = ((size - 1) >>> level) & LOW_BITS;
+        Object[] ret = parent.clone();
+        if (level == NODE_LENGTH_POW_2) {
+            ret[subidx] = tailNode;
+        } else {
+            Object[] child = (Object[]) parent[subidx];
+            int childLevel = level - NODE_LENGTH_POW_2;
+            ret[subidx] = (child == null) ? newPath(childLevel, tailNode)
+                                          : pushTail(size, childLevel, child, tailNode);
+        }
+        return ret;
+    }
+
+    // Returns the leaf, wrapped in enough single-child branches to reach the given level.
+    static Object newPath(int level, Object leaf) {
+        if (level == 0) { return leaf; }
+        Object[] ret = new Object[MAX_NODE_LENGTH];
+        ret[0] = newPath(level - NODE_LENGTH_POW_2, leaf);
+        return ret;
+    }
+
+    /** Returns a copy of the branches down to the given index, with the leaf there replaced. */
+    static Object replaceLeaf(int level, Object node, int i, Object leaf) {
+        if (level == 0) { return leaf; }
+        Object[] ret = ((Object[]) node).clone();
+        int subidx = (i >>> level) & LOW_BITS;
+        ret[subidx] = replaceLeaf(level - NODE_LENGTH_POW_2, ret[subidx], i, leaf);
+        return ret;
+    }
+
+    /**
+     Returns a new root without the last leaf of the tree of a vector of the given size (whose
+     tail has one item), or null if that leaves the tree empty.
+     */
+    static Object[] popTail(int size, int level, Object[] node) {
+        int subidx = ((size - 2) >>> level) & LOW_BITS;
+        if (level > NODE_LENGTH_POW_2) {
+            Object[] newChild = popTail(size, level - NODE_LENGTH_POW_2, (Object[]) node[subidx]);
+            if ( (newChild == null) && (subidx == 0) ) { return null; }
+            Object[] ret = node.clone();
+            ret[subidx] = newChild;
+            return ret;
+        }
+        if (subidx == 0) { return null; }
+        Object[] ret = node.clone();
+        ret[subidx] = null;
+        return ret;
+    }
+}
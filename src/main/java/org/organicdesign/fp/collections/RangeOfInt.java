@@ -158,13 +158,16 @@ public class RangeOfInt implements UnmodList<Integer> {
         }
     }
 
-    @Override public Integer get(int idx) {
+    /** Returns the int at the given index without boxing it. */
+    public int getInt(int idx) {
         if ( (idx >= 0) && (idx < size) ) { return start + idx; }
         throw new IndexOutOfBoundsException("Index " + idx +
                                             " was outside the size of this range: " + start +
                                             " to " + end);
     }
 
+    @Override public Integer get(int idx) { return getInt(idx); }
+
     /**
      Unlike most implementations of List, this method has excellent O(1) performance!
      {@inheritDoc}
@@ -0,0 +1,603 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.collections;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ An immutable list based on a Relaxed Radix Balanced tree (RRB-Tree) as described by Bagwell and
+ Rompf and implemented in Clojure's core.rrb-vector.  Like PersistentVector, this is a tree of
+ nodes with up to 32 children each, so get() and replace() are O(log32 n), but the nodes don't have
+ to be full.  Every branch node keeps a table of the cumulative sizes of its children, which lets
+ concat(), subList(), insert(), and without() share structure and run in O(log n) instead of O(n).
+
+ Use this instead of PersistentVector when you need to split or join large lists.  Appending one
+ item at a time is faster with PersistentVector (or its TransientVector).
+
+ This class is thread-safe (immutable).
+ */
+public final class RrbTree<E> implements ImList<E> {
+
+    // Same shape as PersistentVector: shifting by 5 is multiplying or dividing by 32.
+    private static final int NODE_LENGTH_POW_2 = 5;
+    private static final int MAX_NODE_LENGTH = 1 << NODE_LENGTH_POW_2;
+
+    // The tree is made of Leaf nodes holding 1-32 items, and Branch nodes holding 1-32 child nodes
+    // of the same height.  Only the root of the empty tree has no items.
+    private static abstract class Node {
+        abstract int size();
+    }
+
+    private static final class Leaf extends Node {
+        final Object[] items;
+        Leaf(Object[] is) { items = is; }
+        @Override int size() { return items.length; }
+    }
+
+    private static final class Branch extends Node {
+        final Node[] nodes;
+        // sizes[i] is the number of items in nodes[0] through nodes[i] inclusive.
+        final int[] sizes;
+
+        private Branch(Node[] ns, int[] ss) { nodes = ns; sizes = ss; }
+
+        static Branch of(Node[] ns) {
+            int[] ss = new int[ns.length];
+            int total = 0;
+            for (int i = 0; i < ns.length; i++) {
+                total += ns[i].size();
+                ss[i] = total;
+            }
+            return new Branch(ns, ss);
+        }
+
+        @Override int size() { return sizes[sizes.length - 1]; }
+
+        /**
+         Returns the index of the child containing the given index.  Each child of a branch at this
+         height holds at most 32^height items, so the child can't be to the left of
+         idx / 32^height.  For a full (perfectly balanced) node, that's the answer.
+         */
+        int childIndex(int idx, int height) {
+            int shift = height * NODE_LENGTH_POW_2;
+            int j = (shift < 31) ? (idx >>> shift) : 0;
+            while (sizes[j] <= idx) {
+                j++;
+            }
+            return j;
+        }
+
+        /** The number of items before the given child. */
+        int offset(int childIdx) { return (childIdx == 0) ? 0 : sizes[childIdx - 1]; }
+    }
+
+    private static final RrbTree<?> EMPTY = new RrbTree<>(new Leaf(new Object[0]), 0, 0);
+
+    /** Returns the empty RrbTree (there only needs to be one) */
+    @SuppressWarnings("unchecked")
+    public static <T> RrbTree<T> empty() { return (RrbTree<T>) EMPTY; }
+
+    /**
+     Public static factory method to create an RrbTree from an Iterable.  This fills every node
+     completely, so the result is as compact and as fast as a PersistentVector of the same items.
+     */
+    public static <T> RrbTree<T> ofIter(Iterable<T> items) {
+        // Pack the items into full leaves.
+        ArrayList<Node> level = new ArrayList<>();
+        Object[] buf = new Object[MAX_NODE_LENGTH];
+        int i = 0;
+        int size = 0;
+        for (T item : items) {
+            buf[i++] = item;
+            if (i == MAX_NODE_LENGTH) {
+                level.add(new Leaf(buf));
+                buf = new Object[MAX_NODE_LENGTH];
+                i = 0;
+            }
+            size++;
+        }
+        if (i > 0) {
+            Object[] last = new Object[i];
+            System.arraycopy(buf, 0, last, 0, i);
+            level.add(new Leaf(last));
+        }
+        if (size == 0) { return empty(); }
+
+        // Then pack each level into full branches until there's only one node left.
+        int height = 0;
+        while (level.size() > 1) {
+            ArrayList<Node> parents = new ArrayList<>();
+            for (int start = 0; start < level.size(); start += MAX_NODE_LENGTH) {
+                int end = Math.min(start + MAX_NODE_LENGTH, level.size());
+                parents.add(Branch.of(level.subList(start, end).toArray(new Node[end - start])));
+            }
+            level = parents;
+            height++;
+        }
+        return new RrbTree<>(level.get(0), height, size);
+    }
+
+    private final Node root;
+    // Height of the root node.  Leaves are height 0.
+    private final int height;
+    private final int size;
+
+    private RrbTree(Node r, int h, int s) { root = r; height = h; size = s; }
+
+    /** {@inheritDoc} */
+    @Override public int size() { return size; }
+
+    /** Returns the leaf holding the given index and puts the index of its first item in base[0] */
+    private Object[] leafArrayFor(int idx, int[] base) {
+        if ( (idx < 0) || (idx >= size) ) {
+            throw new IndexOutOfBoundsException("Index: " + idx + " Size: " + size);
+        }
+        Node node = root;
+        int start = 0;
+        for (int h = height; h > 0; h--) {
+            Branch b = (Branch) node;
+            int j = b.childIndex(idx - start, h);
+            start += b.offset(j);
+            node = b.nodes[j];
+        }
+        base[0] = start;
+        return ((Leaf) node).items;
+    }
+
+    /** Returns the item at the given index in O(log32 n) time. */
+    @SuppressWarnings("unchecked")
+    @Override public E get(int idx) {
+        if ( (idx < 0) || (idx >= size) ) {
+            throw new IndexOutOfBoundsException("Index: " + idx + " Size: " + size);
+        }
+        Node node = root;
+        for (int h = height; h > 0; h--) {
+            Branch b = (Branch) node;
+            int j = b.childIndex(idx, h);
+            idx -= b.offset(j);
+            node = b.nodes[j];
+        }
+        return (E) ((Leaf) node).items[idx];
+    }
+
+    // ========================================== append ==========================================
+
+    /** Adds one item to the end of the list in O(log32 n) time. */
+    @Override public RrbTree<E> append(E e) {
+        if (size == 0) {
+            return new RrbTree<>(new Leaf(new Object[] { e }), 0, 1);
+        }
+        Node newRoot = appendRec(root, height, e);
+        if (newRoot != null) {
+            return new RrbTree<>(newRoot, height, size + 1);
+        }
+        // Every node on the right edge is full.  Grow a new root.
+        return new RrbTree<>(Branch.of(new Node[] { root, newPath(height, e) }),
+                             height + 1, size + 1);
+    }
+
+    /** Returns a copy of the node with the item added on the right, or null if it's full. */
+    private static Node appendRec(Node node, int h, Object e) {
+        if (h == 0) {
+            Object[] items = ((Leaf) node).items;
+            if (items.length == MAX_NODE_LENGTH) { return null; }
+            Object[] newItems = new Object[items.length + 1];
+            System.arraycopy(items, 0, newItems, 0, items.length);
+            newItems[items.length] = e;
+            return new Leaf(newItems);
+        }
+        Branch b = (Branch) node;
+        int last = b.nodes.length - 1;
+        Node newChild = appendRec(b.nodes[last], h - 1, e);
+        if (newChild != null) {
+            Node[] ns = b.nodes.clone();
+            ns[last] = newChild;
+            int[] ss = b.sizes.clone();
+            ss[last]++;
+            return new Branch(ns, ss);
+        }
+        if (b.nodes.length == MAX_NODE_LENGTH) { return null; }
+        Node[] ns = new Node[b.nodes.length + 1];
+        System.arraycopy(b.nodes, 0, ns, 0, b.nodes.length);
+        ns[b.nodes.length] = newPath(h - 1, e);
+        int[] ss = new int[ns.length];
+        System.arraycopy(b.sizes, 0, ss, 0, b.sizes.length);
+        ss[b.sizes.length] = b.size() + 1;
+        return new Branch(ns, ss);
+    }
+
+    /** A chain of single-child branches of the given height ending in a leaf with one item. */
+    private static Node newPath(int h, Object e) {
+        Node n = new Leaf(new Object[] { e });
+        for (int i = 0; i < h; i++) {
+            n = new Branch(new Node[] { n }, new int[] { 1 });
+        }
+        return n;
+    }
+
+    // ========================================== replace =========================================
+
+    /**
+     Replace the item at the given index in O(log32 n) time.  To match PersistentVector,
+     replace(size(), e) is the same as append(e).
+     */
+    @Override public RrbTree<E> replace(int idx, E e) {
+        if (idx == size) { return append(e); }
+        if ( (idx < 0) || (idx > size) ) {
+            throw new IndexOutOfBoundsException("Index: " + idx + " Size: " + size);
+        }
+        return new RrbTree<>(replaceRec(root, height, idx, e), height, size);
+    }
+
+    private static Node replaceRec(Node node, int h, int idx, Object e) {
+        if (h == 0) {
+            Object[] items = ((Leaf) node).items.clone();
+            items[idx] = e;
+            return new Leaf(items);
+        }
+        Branch b = (Branch) node;
+        int j = b.childIndex(idx, h);
+        Node[] ns = b.nodes.clone();
+        ns[j] = replaceRec(b.nodes[j], h - 1, idx - b.offset(j), e);
+        return new Branch(ns, b.sizes);
+    }
+
+    // ========================================== concat ==========================================
+
+    /**
+     Adds items to the end of this list.  If the items are in another RrbTree, this joins the two
+     trees in O(log n) time, sharing all but the nodes along the seam.  Otherwise it appends them one
+     at a time.
+     */
+    @SuppressWarnings("unchecked")
+    @Override public RrbTree<E> concat(Iterable<? extends E> es) {
+        if (es instanceof RrbTree) {
+            return join((RrbTree<E>) es);
+        }
+        if ( (es instanceof List) && (((List<?>) es).size() > MAX_NODE_LENGTH) ) {
+            return join(ofIter((List<E>) es));
+        }
+        RrbTree<E> ret = this;
+        for (E e : es) {
+            ret = ret.append(e);
+        }
+        return ret;
+    }
+
+    private RrbTree<E> join(RrbTree<E> that) {
+        if (that.size == 0) { return this; }
+        if (this.size == 0) { return that; }
+        Node[] ns = join(root, height, that.root, that.height);
+        int h = Math.max(height, that.height);
+        if (ns.length == 1) {
+            return new RrbTree<>(ns[0], h, size + that.size);
+        }
+        return new RrbTree<>(Branch.of(ns), h + 1, size + that.size);
+    }
+
+    /**
+     Joins two non-empty nodes.  Returns one or two nodes of the height of the taller one.  This
+     walks down the inside edge of the taller node until the heights match, then merges the edge
+     nodes at each level on the way back up, only splitting them when they hold more than 32
+     children (or items).
+     */
+    private static Node[] join(Node a, int ha, Node b, int hb) {
+        if (ha > hb) {
+            Branch ba = (Branch) a;
+            Node[] mid = join(ba.nodes[ba.nodes.length - 1], ha - 1, b, hb);
+            return pack(concatArrays(ba.nodes, 0, ba.nodes.length - 1, mid, null, 0));
+        }
+        if (ha < hb) {
+            Branch bb = (Branch) b;
+            Node[] mid = join(a, ha, bb.nodes[0], hb - 1);
+            return pack(concatArrays(null, 0, 0, mid, bb.nodes, 1));
+        }
+        if (ha == 0) {
+            Object[] as = ((Leaf) a).items;
+            Object[] bs = ((Leaf) b).items;
+            Object[] all = new Object[as.length + bs.length];
+            System.arraycopy(as, 0, all, 0, as.length);
+            System.arraycopy(bs, 0, all, as.length, bs.length);
+            if (all.length <= MAX_NODE_LENGTH) {
+                return new Node[] { new Leaf(all) };
+            }
+            // Keep the left leaf full.
+            Object[] left = new Object[MAX_NODE_LENGTH];
+            Object[] right = new Object[all.length - MAX_NODE_LENGTH];
+            System.arraycopy(all, 0, left, 0, left.length);
+            System.arraycopy(all, left.length, right, 0, right.length);
+            return new Node[] { new Leaf(left), new Leaf(right) };
+        }
+        Branch ba = (Branch) a;
+        Branch bb = (Branch) b;
+        Node[] mid = join(ba.nodes[ba.nodes.length - 1], ha - 1, bb.nodes[0], hb - 1);
+        return pack(concatArrays(ba.nodes, 0, ba.nodes.length - 1, mid, bb.nodes, 1));
+    }
+
+    /** left[0, leftEnd) + mid + right[rightStart, right.length) where left or right can be null */
+    private static Node[] concatArrays(Node[] left, int leftStart, int leftEnd, Node[] mid,
+                                       Node[] right, int rightStart) {
+        int leftLen = (left == null) ? 0 : leftEnd - leftStart;
+        int rightLen = (right == null) ? 0 : right.length - rightStart;
+        Node[] ret = new Node[leftLen + mid.length + rightLen];
+        if (leftLen > 0) { System.arraycopy(left, leftStart, ret, 0, leftLen); }
+        System.arraycopy(mid, 0, ret, leftLen, mid.length);
+        if (rightLen > 0) { System.arraycopy(right, rightStart, ret, leftLen + mid.length, rightLen); }
+        return ret;
+    }
+
+    /**
+     Wraps up to 64 nodes (of the same height) in one branch, or two if there are more than 32 (left
+     one full).  If there are more than one more nodes than needed to hold all their children, it
+     re-packs them first.  That keeps repeated splitting and joining from filling the tree with
+     nearly-empty nodes, which would make it taller (and slower) than it needs to be.
+     */
+    private static Node[] pack(Node[] ns) {
+        ns = rebalance(ns);
+        if (ns.length <= MAX_NODE_LENGTH) {
+            return new Node[] { Branch.of(ns) };
+        }
+        Node[] left = new Node[MAX_NODE_LENGTH];
+        Node[] right = new Node[ns.length - MAX_NODE_LENGTH];
+        System.arraycopy(ns, 0, left, 0, left.length);
+        System.arraycopy(ns, left.length, right, 0, right.length);
+        return new Node[] { Branch.of(left), Branch.of(right) };
+    }
+
+    /** The number of items in a leaf, or child nodes in a branch. */
+    private static int width(Node n) {
+        return (n instanceof Leaf) ? ((Leaf) n).items.length : ((Branch) n).nodes.length;
+    }
+
+    private static Node[] rebalance(Node[] ns) {
+        int slots = 0;
+        for (Node n : ns) {
+            slots += width(n);
+        }
+        int needed = (slots + MAX_NODE_LENGTH - 1) >>> NODE_LENGTH_POW_2;
+        if (ns.length <= needed + 1) {
+            return ns;
+        }
+        Node[] ret = new Node[needed];
+        if (ns[0] instanceof Leaf) {
+            Object[] all = new Object[slots];
+            int i = 0;
+            for (Node n : ns) {
+                Object[] items = ((Leaf) n).items;
+                System.arraycopy(items, 0, all, i, items.length);
+                i += items.length;
+            }
+            for (int j = 0; j < needed; j++) {
+                Object[] items = new Object[Math.min(MAX_NODE_LENGTH, slots - (j << NODE_LENGTH_POW_2))];
+                System.arraycopy(all, j << NODE_LENGTH_POW_2, items, 0, items.length);
+                ret[j] = new Leaf(items);
+            }
+        } else {
+            Node[] all = new Node[slots];
+            int i = 0;
+            for (Node n : ns) {
+                Node[] children = ((Branch) n).nodes;
+                System.arraycopy(children, 0, all, i, children.length);
+                i += children.length;
+            }
+            for (int j = 0; j < needed; j++) {
+                Node[] children = new Node[Math.min(MAX_NODE_LENGTH, slots - (j << NODE_LENGTH_POW_2))];
+                System.arraycopy(all, j << NODE_LENGTH_POW_2, children, 0, children.length);
+                ret[j] = Branch.of(children);
+            }
+        }
+        return ret;
+    }
+
+    // ========================================== split ===========================================
+
+    /** Returns the first n items of the node (0 &lt; n &lt;= node.size()) */
+    private static Node takeRec(Node node, int h, int n) {
+        if (n == node.size()) { return node; }
+        if (h == 0) {
+            Object[] items = new Object[n];
+            System.arraycopy(((Leaf) node).items, 0, items, 0, n);
+            return new Leaf(items);
+        }
+        Branch b = (Branch) node;
+        int j = b.childIndex(n - 1, h);
+        Node[] ns = new Node[j + 1];
+        System.arraycopy(b.nodes, 0, ns, 0, j);
+        ns[j] = takeRec(b.nodes[j], h - 1, n - b.offset(j));
+        int[] ss = new int[j + 1];
+        System.arraycopy(b.sizes, 0, ss, 0, j);
+        ss[j] = n;
+        return new Branch(ns, ss);
+    }
+
+    /** Returns all but the first n items of the node (0 &lt;= n &lt; node.size()) */
+    private static Node dropRec(Node node, int h, int n) {
+        if (n == 0) { return node; }
+        if (h == 0) {
+            Object[] items = ((Leaf) node).items;
+            Object[] newItems = new Object[items.length - n];
+            System.arraycopy(items, n, newItems, 0, newItems.length);
+            return new Leaf(newItems);
+        }
+        Branch b = (Branch) node;
+        int j = b.childIndex(n, h);
+        Node[] ns = new Node[b.nodes.length - j];
+        ns[0] = dropRec(b.nodes[j], h - 1, n - b.offset(j));
+        System.arraycopy(b.nodes, j + 1, ns, 1, ns.length - 1);
+        int[] ss = new int[ns.length];
+        for (int i = 0; i < ss.length; i++) {
+            ss[i] = b.sizes[i + j] - n;
+        }
+        return new Branch(ns, ss);
+    }
+
+    /** Makes a tree from a node, removing any single-child branches from the top. */
+    private static <T> RrbTree<T> trimmed(Node node, int h) {
+        while ( (h > 0) && (((Branch) node).nodes.length == 1) ) {
+            node = ((Branch) node).nodes[0];
+            h--;
+        }
+        return new RrbTree<>(node, h, node.size());
+    }
+
+    /** Returns the first n items of this list (0 &lt;= n &lt;= size) in O(log n) time. */
+    private RrbTree<E> take(int n) {
+        if (n == 0) { return empty(); }
+        if (n == size) { return this; }
+        return trimmed(takeRec(root, height, n), height);
+    }
+
+    /** Returns all but the first n items of this list (0 &lt;= n &lt;= size) in O(log n) time. */
+    private RrbTree<E> drop(int n) {
+        if (n == size) { return empty(); }
+        if (n == 0) { return this; }
+        return trimmed(dropRec(root, height, n), height);
+    }
+
+    /**
+     Returns a new RrbTree holding the given range of this one.  Unlike a java.util.List.subList(),
+     this is not a view: it only shares the nodes it needs with this tree, so this tree can be
+     garbage collected while the result is still in use.  O(log n).
+     */
+    @Override public RrbTree<E> subList(int fromIndex, int toIndex) {
+        if ( (fromIndex == 0) && (toIndex == size) ) {
+            return this;
+        }
+        // Note that this is an IllegalArgumentException, not IndexOutOfBoundsException in order to
+        // match ArrayList.
+        if (fromIndex > toIndex) {
+            throw new IllegalArgumentException("fromIndex(" + fromIndex + ") > toIndex(" + toIndex +
+                                               ")");
+        }
+        // The text of this matches ArrayList
+        if (fromIndex < 0) { throw new IndexOutOfBoundsException("fromIndex = " + fromIndex); }
+        if (toIndex > size) { throw new IndexOutOfBoundsException("toIndex = " + toIndex); }
+
+        return take(toIndex).drop(fromIndex);
+    }
+
+    /**
+     Returns a new RrbTree without the last item in O(log32 n) time.
+     @throws IllegalStateException if this list is empty.
+     */
+    @Override public RrbTree<E> dropLast() {
+        if (size == 0) {
+            throw new IllegalStateException("Can't pop empty vector");
+        }
+        return take(size - 1);
+    }
+
+    /**
+     Inserts an item at the given index, shifting that item and all subsequent items up/right, in
+     O(log n) time.
+     @param idx the zero-based index to insert at
+     @param e the value to insert
+     @return a new RrbTree with the additional item.
+     */
+    @Override public RrbTree<E> insert(int idx, E e) {
+        if (idx == size) { return append(e); }
+        if ( (idx > size) || (idx < 0) ) {
+            throw new IllegalArgumentException("Can't insert outside the possible bounds");
+        }
+        return take(idx).append(e).join(drop(idx));
+    }
+
+    /**
+     Removes the item at the given index, shifting all subsequent items down/left, in O(log n) time.
+     This is not called remove() because java.util.List.remove(int) returns the removed item.
+     @param idx the zero-based index of the item to remove
+     @return a new RrbTree without the item at that index.
+     */
+    @Override public RrbTree<E> without(int idx) {
+        if ( (idx < 0) || (idx >= size) ) {
+            throw new IndexOutOfBoundsException("Index: " + idx + " Size: " + size);
+        }
+        return take(idx).join(drop(idx + 1));
+    }
+
+    // ======================================= Object methods =====================================
+
+    /** {@inheritDoc} */
+    @Override public UnmodListIterator<E> listIterator(int index) {
+        if( (index < 0) || (index > size) ) {
+            // To match ArrayList and other java.util.List expectations
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        return new UnmodListIterator<E>() {
+            private int i = index;
+            // The leaf we're in covers indices [base, base + array.length)
+            private final int[] base = new int[] { 0 };
+            private Object[] array = new Object[0];
+
+            @Override public boolean hasNext() { return i < size; }
+            @Override public boolean hasPrevious() { return i > 0; }
+
+            @SuppressWarnings("unchecked")
+            @Override public E next() {
+                if (i >= size) {
+                    // To match ArrayList and other java.util.List expectations
+                    throw new NoSuchElementException();
+                }
+                if ( (i < base[0]) || (i >= base[0] + array.length) ) {
+                    array = leafArrayFor(i, base);
+                }
+                return (E) array[i++ - base[0]];
+            }
+
+            @Override public int nextIndex() { return i; }
+
+            @SuppressWarnings("unchecked")
+            @Override public E previous() {
+                if (i < 1) {
+                    // To match ArrayList and other java.util.List expectations.
+                    throw new NoSuchElementException();
+                }
+                i--;
+                if ( (i < base[0]) || (i >= base[0] + array.length) ) {
+                    array = leafArrayFor(i, base);
+                }
+                return (E) array[i - base[0]];
+            }
+        };
+    }
+
+    /** This is correct, but O(n).  This implementation is compatible with java.util.AbstractList. */
+    @Override public int hashCode() {
+        int ret = 1;
+        for (E item : this) {
+            ret *= 31;
+            if (item != null) {
+                ret += item.hashCode();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     This is correct, but definitely O(n), same as java.util.ArrayList.
+     This implementation is compatible with java.util.AbstractList.
+     */
+    @Override public boolean equals(Object other) {
+        if (this == other) { return true; }
+        if ( !(other instanceof List) ) { return false; }
+        List<?> that = (List<?>) other;
+        return (this.size() == that.size()) &&
+               UnmodSortedIterable.equals(this, UnmodSortedIterable.castFromList(that));
+    }
+
+    @Override public String toString() { return UnmodIterable.toString("RrbTree", this); }
+}
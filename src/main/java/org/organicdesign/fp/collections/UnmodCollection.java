@@ -17,6 +17,8 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.function.Predicate;
 
 /**
@@ -172,7 +174,14 @@ public interface UnmodCollection<E> extends Collection<E>, UnmodIterable<E> {
     }
 
 //int	size()
-//default Spliterator<E> spliterator()
+
+    /**
+     The same iterator-based, SIZED spliterator that {@link Collection} provides.  Sub-interfaces
+     and implementations backed by a tree or an array should override this to split along their
+     internal structure so that parallel streams divide the work evenly.
+     */
+    @Override default Spliterator<E> spliterator() { return Spliterators.spliterator(this, 0); }
+
 //default Stream<E>	stream()
 
     /**
@@ -3,6 +3,10 @@ package org.organicdesign.fp.collections;
 import org.organicdesign.fp.Option;
 import org.organicdesign.fp.function.Function1;
 import org.organicdesign.fp.function.Function2;
+import org.organicdesign.fp.function.ToIntFunction1;
+import org.organicdesign.fp.function.ToLongFunction1;
+import org.organicdesign.fp.xform.IntXform;
+import org.organicdesign.fp.xform.LongXform;
 import org.organicdesign.fp.xform.Transformable;
 import org.organicdesign.fp.xform.Xform;
 
@@ -173,6 +177,16 @@ public interface UnmodIterable<T> extends Iterable<T>, Transformable<T> {
         return Xform.of(this).map(f);
     }
 
+    /** {@inheritDoc} */
+    @Override default IntXform mapToInt(ToIntFunction1<? super T> f) {
+        return Xform.of(this).mapToInt(f);
+    }
+
+    /** {@inheritDoc} */
+    @Override default LongXform mapToLong(ToLongFunction1<? super T> f) {
+        return Xform.of(this).mapToLong(f);
+    }
+
     /** {@inheritDoc} */
     @Override default UnmodIterable<T> take(long numItems) {
         return Xform.of(this).take(numItems);
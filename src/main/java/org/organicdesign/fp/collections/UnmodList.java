@@ -20,6 +20,8 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.function.UnaryOperator;
 
@@ -222,7 +224,49 @@ public interface UnmodList<E> extends List<E>, UnmodSortedCollection<E> {
         throw new UnsupportedOperationException("Modification attempted");
     }
 
-//default Spliterator<E> spliterator()
+    /**
+     An ORDERED, SIZED, SUBSIZED spliterator which splits its index range in half and fetches items
+     with get(int), so it's only as fast as get() is.  Implementations with a tree structure should
+     override this to split along their branches.
+     */
+    @Override default Spliterator<E> spliterator() {
+        final class IndexSpliterator implements Spliterator<E> {
+            private int idx;
+            private final int end;
+            private IndexSpliterator(int from, int to) { idx = from; end = to; }
+
+            @Override public boolean tryAdvance(Consumer<? super E> action) {
+                if (action == null) { throw new NullPointerException("action"); }
+                if (idx >= end) { return false; }
+                action.accept(get(idx++));
+                return true;
+            }
+
+            @Override public void forEachRemaining(Consumer<? super E> action) {
+                if (action == null) { throw new NullPointerException("action"); }
+                int i = idx;
+                idx = end;
+                for (; i < end; i++) {
+                    action.accept(get(i));
+                }
+            }
+
+            @Override public Spliterator<E> trySplit() {
+                int lo = idx;
+                int mid = (lo + end) >>> 1;
+                if (mid <= lo) { return null; }
+                idx = mid;
+                return new IndexSpliterator(lo, mid);
+            }
+
+            @Override public long estimateSize() { return end - idx; }
+
+            @Override public int characteristics() {
+                return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED;
+            }
+        }
+        return new IndexSpliterator(0, size());
+    }
 
     /** {@inheritDoc} */
     @Override default UnmodList<E> subList(int fromIndex, int toIndex) {
@@ -15,6 +15,8 @@ package org.organicdesign.fp.collections;
 
 import java.util.Collection;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.function.Predicate;
 
 /** An unmodifiable set */
@@ -103,7 +105,11 @@ public interface UnmodSet<E> extends UnmodCollection<E>, Set<E> {
     }
 
 //  int size(); // This is limiting for sets, but not so much that it has to be deprecated.
-// default Spliterator<E>	spliterator()
+
+    /** An iterator-based, SIZED spliterator with the DISTINCT characteristic of a Set. */
+    @Override default Spliterator<E> spliterator() {
+        return Spliterators.spliterator(this, Spliterator.DISTINCT);
+    }
 
     /**
      This method goes against Josh Bloch's Item 25: "Prefer Lists to Arrays", but is provided for
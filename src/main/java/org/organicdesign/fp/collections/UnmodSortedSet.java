@@ -15,6 +15,7 @@ package org.organicdesign.fp.collections;
 
 import java.util.Comparator;
 import java.util.SortedSet;
+import java.util.Spliterator;
 
 /** An unmodifiable SortedSet. */
 public interface UnmodSortedSet<E> extends UnmodSet<E>, SortedSet<E>, UnmodSortedCollection<E> {
@@ -38,6 +39,12 @@ public interface UnmodSortedSet<E> extends UnmodSet<E>, SortedSet<E>, UnmodSorte
         return subSet(first(), toElement);
     }
 
+    /**
+     Uses the SortedSet version so that the spliterator reports the SORTED characteristic and this
+     set's comparator.
+     */
+    @Override default Spliterator<E> spliterator() { return SortedSet.super.spliterator(); }
+
     /**
      Iterates over contents in a guaranteed order.
      {@inheritDoc}
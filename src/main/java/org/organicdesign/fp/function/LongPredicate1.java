@@ -0,0 +1,38 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.function;
+
+import java.util.function.LongPredicate;
+
+/**
+ A predicate on a long that never boxes.  This is like Java 8's java.util.function.LongPredicate,
+ but retrofitted to turn checked exceptions into unchecked ones.
+ */
+@FunctionalInterface
+public interface LongPredicate1 extends LongPredicate {
+    /** Implement this one method and you don't have to worry about checked exceptions. */
+    boolean applyEx(long l) throws Exception;
+
+    /** Call this convenience method so that you don't have to worry about checked exceptions. */
+    @Override default boolean test(long l) {
+        try {
+            return applyEx(l);
+        } catch (RuntimeException re) {
+            throw re;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.xform;
+
+import org.organicdesign.fp.collections.PersistentIntVector;
+import org.organicdesign.fp.collections.RangeOfInt;
+import org.organicdesign.fp.function.IntFunction1;
+import org.organicdesign.fp.function.IntFunction2;
+import org.organicdesign.fp.function.IntPredicate1;
+import org.organicdesign.fp.function.ToIntFunction1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ An immutable description of a transformation on primitive ints.  This is the unboxed counterpart
+ of {@link Xform}: get one from {@link Transformable#mapToInt(ToIntFunction1)} or one of the of()
+ methods here, chain map() and filter() stages onto it, then realize it with foldLeftInt(), sum(),
+ toIntArray(), or toImList().  Like Xform, nothing happens until you realize it.  Then the stages
+ are "compiled" into an array of IntOps and every item is pushed from the source through them as an
+ int, so nothing is boxed after the source (and nothing at all if the source is an int[],
+ RangeOfInt, or PersistentIntVector).
+ */
+public abstract class IntXform {
+
+    /**
+     The mutable "op codes" that the int stages are compiled into.  Each one either filters or
+     maps.
+     */
+    private static final class IntOp {
+        final IntPredicate1 filter;
+        final IntFunction1 map;
+        IntOp(IntPredicate1 f, IntFunction1 m) { filter = f; map = m; }
+    }
+
+    /** Describes where the ints come from.  Every IntXform chain starts with one of these. */
+    private static abstract class SourceDesc extends IntXform {
+        SourceDesc() { super(null); }
+
+        /** Passes every int in the source to the sink, in order. */
+        abstract void run(IntConsumer sink);
+
+        @Override SourceDesc compile(List<IntOp> ops) { return this; }
+    }
+
+    /** Describes a map() operation, but does not perform it. */
+    private static final class MapDesc extends IntXform {
+        private final IntFunction1 f;
+        MapDesc(IntXform prev, IntFunction1 func) { super(prev); f = func; }
+
+        @Override SourceDesc compile(List<IntOp> ops) {
+            SourceDesc ret = prevOp.compile(ops);
+            ops.add(new IntOp(null, f));
+            return ret;
+        }
+    }
+
+    /** Describes a filter() operation, but does not perform it. */
+    private static final class FilterDesc extends IntXform {
+        private final IntPredicate1 f;
+        FilterDesc(IntXform prev, IntPredicate1 func) { super(prev); f = func; }
+
+        @Override SourceDesc compile(List<IntOp> ops) {
+            SourceDesc ret = prevOp.compile(ops);
+            ops.add(new IntOp(f, null));
+            return ret;
+        }
+    }
+
+    /** An IntXform of the given ints.  The array is not copied, so don't change it later. */
+    public static IntXform of(int... items) {
+        final int[] is = (items == null) ? new int[0] : items;
+        return new SourceDesc() {
+            @Override void run(IntConsumer sink) {
+                for (int i : is) {
+                    sink.accept(i);
+                }
+            }
+        };
+    }
+
+    /** An IntXform of the ints in the given range, which are never boxed. */
+    public static IntXform of(RangeOfInt range) {
+        if (range == null) { throw new IllegalArgumentException("Can't xform a null range"); }
+        return new SourceDesc() {
+            @Override void run(IntConsumer sink) {
+                int size = range.size();
+                for (int i = 0; i < size; i++) {
+                    sink.accept(range.getInt(i));
+                }
+            }
+        };
+    }
+
+    /** An IntXform of the ints in the given vector, read straight out of its int[] leaves. */
+    public static IntXform of(PersistentIntVector vec) {
+        if (vec == null) { return of(); }
+        return new SourceDesc() {
+            @Override void run(IntConsumer sink) {
+                vec.foldLeftInt(0, (u, i) -> {
+                    sink.accept(i);
+                    return u;
+                });
+            }
+        };
+    }
+
+    /**
+     Applies f to each item the given Xform produces.  The Xform runs as usual (with objects), then
+     everything after f runs on ints.
+     */
+    static <T> IntXform of(Xform<T> xform, ToIntFunction1<? super T> f) {
+        return new SourceDesc() {
+            @Override void run(IntConsumer sink) {
+                xform.foldLeft(sink, (s, t) -> {
+                    s.accept(f.applyAsInt(t));
+                    return s;
+                });
+            }
+        };
+    }
+
+    // ========================================= Instance =========================================
+
+    /** This is the previous operation or source. */
+    final IntXform prevOp;
+
+    IntXform(IntXform pre) { prevOp = pre; }
+
+    /** Adds the op for this stage (and all previous stages) to ops and returns the source. */
+    abstract SourceDesc compile(List<IntOp> ops);
+
+    /** Transform each int into exactly one new int using the given function. */
+    public IntXform map(IntFunction1 f) {
+        if (f == null) { throw new IllegalArgumentException("Can't map with a null function."); }
+        return new MapDesc(this, f);
+    }
+
+    /** Return only the ints for which the given predicate returns true. */
+    public IntXform filter(IntPredicate1 f) {
+        if (f == null) { throw new IllegalArgumentException("Can't filter with a null function."); }
+        return new FilterDesc(this, f);
+    }
+
+    /**
+     Compiles and runs this transformation, passing each int that makes it through every stage to
+     the sink.  This is the main method of this class.  Everything else lives to serve it.
+     */
+    private void runOps(IntConsumer sink) {
+        List<IntOp> list = new ArrayList<>();
+        SourceDesc source = compile(list);
+        IntOp[] ops = list.toArray(new IntOp[list.size()]);
+        if (ops.length == 0) {
+            source.run(sink);
+            return;
+        }
+        source.run(i -> {
+            for (IntOp op : ops) {
+                if (op.filter != null) {
+                    if (!op.filter.test(i)) { return; }
+                } else {
+                    i = op.map.applyAsInt(i);
+                }
+            }
+            sink.accept(i);
+        });
+    }
+
+    /**
+     Apply the function to each int, accumulating the result in u, without boxing either.
+     @param u the starting value (e.g. 0 for a sum).
+     @param fun combines the result so far with the next item.
+     */
+    public int foldLeftInt(int u, IntFunction2 fun) {
+        if (fun == null) {
+            throw new IllegalArgumentException("Can't foldLeft with a null reduction function.");
+        }
+        final int[] ret = new int[] { u };
+        runOps(i -> ret[0] = fun.applyAsInt(ret[0], i));
+        return ret[0];
+    }
+
+    /** The sum of the ints as a long, so that it doesn't overflow. */
+    public long sum() {
+        final long[] ret = new long[] { 0 };
+        runOps(i -> ret[0] += i);
+        return ret[0];
+    }
+
+    /** Realize an int[] of the results. */
+    public int[] toIntArray() {
+        // An ArrayList of ints, without the boxing.
+        final int[][] buf = new int[][] { new int[16] };
+        final int[] size = new int[] { 0 };
+        runOps(i -> {
+            if (size[0] == buf[0].length) {
+                buf[0] = Arrays.copyOf(buf[0], size[0] << 1);
+            }
+            buf[0][size[0]++] = i;
+        });
+        return Arrays.copyOf(buf[0], size[0]);
+    }
+
+    /** Realize an immutable list of the results that stores them as ints. */
+    public PersistentIntVector toImList() { return PersistentIntVector.of(toIntArray()); }
+
+    /** Go back to a (boxing) Xform, for stages that this class doesn't have. */
+    public Xform<Integer> boxed() { return Xform.of(() -> toImList().iterator()); }
+}
@@ -0,0 +1,205 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.xform;
+
+import org.organicdesign.fp.collections.PersistentLongVector;
+import org.organicdesign.fp.function.LongFunction1;
+import org.organicdesign.fp.function.LongFunction2;
+import org.organicdesign.fp.function.LongPredicate1;
+import org.organicdesign.fp.function.ToLongFunction1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ An immutable description of a transformation on primitive longs.  This is the unboxed counterpart
+ of {@link Xform}: get one from {@link Transformable#mapToLong(ToLongFunction1)} or one of the of()
+ methods here, chain map() and filter() stages onto it, then realize it with foldLeftLong(), sum(),
+ toLongArray(), or toImList().  Like Xform, nothing happens until you realize it.  Then the stages
+ are "compiled" into an array of LongOps and every item is pushed from the source through them as a
+ long, so nothing is boxed after the source (and nothing at all if the source is a long[] or
+ PersistentLongVector).
+ */
+public abstract class LongXform {
+
+    /**
+     The mutable "op codes" that the long stages are compiled into.  Each one either filters or
+     maps.
+     */
+    private static final class LongOp {
+        final LongPredicate1 filter;
+        final LongFunction1 map;
+        LongOp(LongPredicate1 f, LongFunction1 m) { filter = f; map = m; }
+    }
+
+    /** Describes where the longs come from.  Every LongXform chain starts with one of these. */
+    private static abstract class SourceDesc extends LongXform {
+        SourceDesc() { super(null); }
+
+        /** Passes every long in the source to the sink, in order. */
+        abstract void run(LongConsumer sink);
+
+        @Override SourceDesc compile(List<LongOp> ops) { return this; }
+    }
+
+    /** Describes a map() operation, but does not perform it. */
+    private static final class MapDesc extends LongXform {
+        private final LongFunction1 f;
+        MapDesc(LongXform prev, LongFunction1 func) { super(prev); f = func; }
+
+        @Override SourceDesc compile(List<LongOp> ops) {
+            SourceDesc ret = prevOp.compile(ops);
+            ops.add(new LongOp(null, f));
+            return ret;
+        }
+    }
+
+    /** Describes a filter() operation, but does not perform it. */
+    private static final class FilterDesc extends LongXform {
+        private final LongPredicate1 f;
+        FilterDesc(LongXform prev, LongPredicate1 func) { super(prev); f = func; }
+
+        @Override SourceDesc compile(List<LongOp> ops) {
+            SourceDesc ret = prevOp.compile(ops);
+            ops.add(new LongOp(f, null));
+            return ret;
+        }
+    }
+
+    /** An LongXform of the given ints.  The array is not copied, so don't change it later. */
+    public static LongXform of(long... items) {
+        final long[] is = (items == null) ? new long[0] : items;
+        return new SourceDesc() {
+            @Override void run(LongConsumer sink) {
+                for (long i : is) {
+                    sink.accept(i);
+                }
+            }
+        };
+    }
+
+    /** An LongXform of the longs in the given vector, read straight out of its long[] leaves. */
+    public static LongXform of(PersistentLongVector vec) {
+        if (vec == null) { return of(); }
+        return new SourceDesc() {
+            @Override void run(LongConsumer sink) {
+                vec.foldLeftLong(0, (u, i) -> {
+                    sink.accept(i);
+                    return u;
+                });
+            }
+        };
+    }
+
+    /**
+     Applies f to each item the given Xform produces.  The Xform runs as usual (with objects), then
+     everything after f runs on longs.
+     */
+    static <T> LongXform of(Xform<T> xform, ToLongFunction1<? super T> f) {
+        return new SourceDesc() {
+            @Override void run(LongConsumer sink) {
+                xform.foldLeft(sink, (s, t) -> {
+                    s.accept(f.applyAsLong(t));
+                    return s;
+                });
+            }
+        };
+    }
+
+    // ========================================= Instance =========================================
+
+    /** This is the previous operation or source. */
+    final LongXform prevOp;
+
+    LongXform(LongXform pre) { prevOp = pre; }
+
+    /** Adds the op for this stage (and all previous stages) to ops and returns the source. */
+    abstract SourceDesc compile(List<LongOp> ops);
+
+    /** Transform each long into exactly one new int using the given function. */
+    public LongXform map(LongFunction1 f) {
+        if (f == null) { throw new IllegalArgumentException("Can't map with a null function."); }
+        return new MapDesc(this, f);
+    }
+
+    /** Return only the longs for which the given predicate returns true. */
+    public LongXform filter(LongPredicate1 f) {
+        if (f == null) { throw new IllegalArgumentException("Can't filter with a null function."); }
+        return new FilterDesc(this, f);
+    }
+
+    /**
+     Compiles and runs this transformation, passing each long that makes it through every stage to
+     the sink.  This is the main method of this class.  Everything else lives to serve it.
+     */
+    private void runOps(LongConsumer sink) {
+        List<LongOp> list = new ArrayList<>();
+        SourceDesc source = compile(list);
+        LongOp[] ops = list.toArray(new LongOp[list.size()]);
+        if (ops.length == 0) {
+            source.run(sink);
+            return;
+        }
+        source.run(i -> {
+            for (LongOp op : ops) {
+                if (op.filter != null) {
+                    if (!op.filter.test(i)) { return; }
+                } else {
+                    i = op.map.applyAsLong(i);
+                }
+            }
+            sink.accept(i);
+        });
+    }
+
+    /**
+     Apply the function to each long, accumulating the result in u, without boxing either.
+     @param u the starting value (e.g. 0 for a sum).
+     @param fun combines the result so far with the next item.
+     */
+    public long foldLeftLong(long u, LongFunction2 fun) {
+        if (fun == null) {
+            throw new IllegalArgumentException("Can't foldLeft with a null reduction function.");
+        }
+        final long[] ret = new long[] { u };
+        runOps(i -> ret[0] = fun.applyAsLong(ret[0], i));
+        return ret[0];
+    }
+
+    /** The sum of the longs (which can overflow). */
+    public long sum() { return foldLeftLong(0, (a, b) -> a + b); }
+
+    /** Realize an long[] of the results. */
+    public long[] toLongArray() {
+        // An ArrayList of longs, without the boxing.
+        final long[][] buf = new long[][] { new long[16] };
+        final int[] size = new int[] { 0 };
+        runOps(i -> {
+            if (size[0] == buf[0].length) {
+                buf[0] = Arrays.copyOf(buf[0], size[0] << 1);
+            }
+            buf[0][size[0]++] = i;
+        });
+        return Arrays.copyOf(buf[0], size[0]);
+    }
+
+    /** Realize an immutable list of the results that stores them as longs. */
+    public PersistentLongVector toImList() { return PersistentLongVector.of(toLongArray()); }
+
+    /** Go back to a (boxing) Xform, for stages that this class doesn't have. */
+    public Xform<Long> boxed() { return Xform.of(() -> toImList().iterator()); }
+}
@@ -16,6 +16,7 @@ package org.organicdesign.fp.xform;
 
 import org.organicdesign.fp.collections.ImList;
 import org.organicdesign.fp.collections.ImMap;
+import org.organicdesign.fp.collections.ImMapTrans;
 import org.organicdesign.fp.collections.ImSet;
 import org.organicdesign.fp.collections.ImSortedMap;
 import org.organicdesign.fp.collections.ImSortedSet;
@@ -24,8 +25,13 @@ import org.organicdesign.fp.collections.PersistentHashSet;
 import org.organicdesign.fp.collections.PersistentTreeMap;
 import org.organicdesign.fp.collections.PersistentTreeSet;
 import org.organicdesign.fp.collections.PersistentVector;
+import org.organicdesign.fp.collections.PersistentVector.TransientVector;
+import org.organicdesign.fp.collections.UnmodMap;
 import org.organicdesign.fp.function.Function1;
 import org.organicdesign.fp.function.Function2;
+import org.organicdesign.fp.function.ToIntFunction1;
+import org.organicdesign.fp.function.ToLongFunction1;
+import org.organicdesign.fp.tuple.Tuple2;
 
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -132,6 +138,22 @@ public interface Transformable<T> {
      */
     <U> Transformable<U> map(Function1<? super T,? extends U> func);
 
+    /**
+     Transform each item into a primitive int using the given function.  The returned IntXform
+     runs all of its own stages (map, filter, foldLeftInt, sum...) on ints, without boxing.
+     @param func a function that returns an int for any value in the input
+     @return an IntXform of the same size as the input
+     */
+    IntXform mapToInt(ToIntFunction1<? super T> func);
+
+    /**
+     Transform each item into a primitive long using the given function.  The returned LongXform
+     runs all of its own stages (map, filter, foldLeftLong, sum...) on longs, without boxing.
+     @param func a function that returns a long for any value in the input
+     @return a LongXform of the same size as the input
+     */
+    LongXform mapToLong(ToLongFunction1<? super T> func);
+
     /**
      Add items to the beginning of this Transformable ("precat" is a PREpending version of conCAT).
      @param list the items to add
@@ -155,6 +177,138 @@ public interface Transformable<T> {
      */
     Transformable<T> takeWhile(Function1<? super T,Boolean> predicate);
 
+    /**
+     Adds up the ints the given function returns for each item, without boxing any of them.
+     @return the sum as a long so that it doesn't overflow.
+     */
+    default long sumInt(ToIntFunction1<? super T> func) { return mapToInt(func).sum(); }
+
+    /**
+     Adds up the longs the given function returns for each item, without boxing any of them.
+     @return the sum (which can overflow).
+     */
+    default long sumLong(ToLongFunction1<? super T> func) { return mapToLong(func).sum(); }
+
+    /**
+     Counts the items that have each key.  The counts are kept in mutable cells in a transient hash
+     map, so counting an item just increments a long, and the map is made persistent once at the
+     end.
+
+     @param keyFn returns the key for each item.  A null key is fine.
+     @return an unordered immutable map of each key to the number of items that had it.
+     */
+    default <K> ImMap<K,Long> countBy(Function1<? super T,? extends K> keyFn) {
+        if (keyFn == null) {
+            throw new IllegalArgumentException("Can't countBy with a null key function.");
+        }
+        ImMapTrans<K,long[]> empty = PersistentHashMap.<K,long[]>empty().asTransient();
+        ImMapTrans<K,long[]> counts = foldLeft(empty, (m, t) -> {
+            K key = keyFn.apply(t);
+            long[] count = m.getOrElse(key, null);
+            if (count == null) {
+                return m.assoc(key, new long[] { 1 });
+            }
+            count[0]++;
+            return m;
+        });
+        ImMapTrans<K,Long> ret = PersistentHashMap.<K,Long>empty().asTransient();
+        for (UnmodMap.UnEntry<K,long[]> entry : counts) {
+            ret = ret.assoc(entry.getKey(), entry.getValue()[0]);
+        }
+        return ret.persistent();
+    }
+
+    /**
+     Groups the items by key.  Each group is built in a TransientVector in a transient hash map and
+     everything is made persistent once at the end, so an item is added without copying anything.
+
+     @param keyFn returns the key for each item.  A null key is fine.
+     @return an unordered immutable map of each key to a list of the items that had it, in the
+     order they came.
+     */
+    default <K> ImMap<K,ImList<T>> groupBy(Function1<? super T,? extends K> keyFn) {
+        if (keyFn == null) {
+            throw new IllegalArgumentException("Can't groupBy with a null key function.");
+        }
+        ImMapTrans<K,TransientVector<T>> empty =
+                PersistentHashMap.<K,TransientVector<T>>empty().asTransient();
+        ImMapTrans<K,TransientVector<T>> groups = foldLeft(empty, (m, t) -> {
+            K key = keyFn.apply(t);
+            TransientVector<T> group = m.getOrElse(key, null);
+            if (group == null) {
+                return m.assoc(key, PersistentVector.<T>emptyTransient().append(t));
+            }
+            group.append(t);
+            return m;
+        });
+        ImMapTrans<K,ImList<T>> ret = PersistentHashMap.<K,ImList<T>>empty().asTransient();
+        for (UnmodMap.UnEntry<K,TransientVector<T>> entry : groups) {
+            ret = ret.assoc(entry.getKey(), entry.getValue().persistent());
+        }
+        return ret.persistent();
+    }
+
+    /**
+     Groups the items by key and folds each group separately, like a foldLeft() for each key.  The
+     result so far for each key is kept in a mutable cell in a transient hash map, so each item
+     costs one lookup, and the map is made persistent once at the end.
+
+     @param keyFn returns the key for each item.  A null key is fine.
+     @param ident the starting value for each group (e.g. 0 for a sum).
+     @param reducer combines the result so far for a group with the next item that has its key.
+     @return an unordered immutable map of each key to the result of folding its items.
+     */
+    @SuppressWarnings("unchecked")
+    default <K,V> ImMap<K,V> groupBy(Function1<? super T,? extends K> keyFn, V ident,
+                                     Function2<V,? super T,V> reducer) {
+        if (keyFn == null) {
+            throw new IllegalArgumentException("Can't groupBy with a null key function.");
+        }
+        if (reducer == null) {
+            throw new IllegalArgumentException("Can't groupBy with a null reduction function.");
+        }
+        ImMapTrans<K,Object[]> empty = PersistentHashMap.<K,Object[]>empty().asTransient();
+        ImMapTrans<K,Object[]> groups = foldLeft(empty, (m, t) -> {
+            K key = keyFn.apply(t);
+            Object[] cell = m.getOrElse(key, null);
+            if (cell == null) {
+                return m.assoc(key, new Object[] { reducer.apply(ident, t) });
+            }
+            cell[0] = reducer.apply((V) cell[0], t);
+            return m;
+        });
+        ImMapTrans<K,V> ret = PersistentHashMap.<K,V>empty().asTransient();
+        for (UnmodMap.UnEntry<K,Object[]> entry : groups) {
+            ret = ret.assoc(entry.getKey(), (V) entry.getValue()[0]);
+        }
+        return ret.persistent();
+    }
+
+    /**
+     Splits the items in two, keeping their order.  Both lists are built in TransientVectors and
+     made persistent at the end.
+
+     @param predicate returns true for items that go in the first list.
+     @return the items for which the predicate returned true, and those for which it didn't.
+     */
+    default Tuple2<ImList<T>,ImList<T>> partition(Function1<? super T,Boolean> predicate) {
+        if (predicate == null) {
+            throw new IllegalArgumentException("Can't partition with a null predicate.");
+        }
+        Tuple2<TransientVector<T>,TransientVector<T>> parts =
+                foldLeft(Tuple2.of(PersistentVector.<T>emptyTransient(),
+                                   PersistentVector.<T>emptyTransient()),
+                         (tup, t) -> {
+                             if (predicate.apply(t)) {
+                                 tup._1().append(t);
+                             } else {
+                                 tup._2().append(t);
+                             }
+                             return tup;
+                         });
+        return Tuple2.of(parts._1().persistent(), parts._2().persistent());
+    }
+
 //    /**
 //     Returns an Object[] for backward compatibility
 //     */
@@ -184,19 +338,25 @@ public interface Transformable<T> {
      @return An immutable map
      */
     default <K,V> ImMap<K,V> toImMap(Function1<? super T,Map.Entry<K,V>> f1) {
-        return foldLeft((ImMap<K, V>) PersistentHashMap.<K, V>empty(),
-                        (ts, t) -> ts.assoc(f1.apply(t)));
+        // Builds in place in a transient map, then makes it persistent once at the end.
+        ImMapTrans<K,V> empty = PersistentHashMap.<K,V>empty().asTransient();
+        return foldLeft(empty, (ts, t) -> {
+            Map.Entry<K,V> entry = f1.apply(t);
+            return ts.assoc(entry.getKey(), entry.getValue());
+        }).persistent();
     }
 
     /**
      Realize an unordered immutable hash set to remove duplicates or very quickly O(1) tell whether
      the set contains various items, but don't care about ordering.  If the input contains duplicate
-     elements, later values overwrite earlier ones.
+     elements, the first one is kept.
 
      @return An immutable set (with duplicates removed)
      */
     default ImSet<T> toImSet() {
-        return foldLeft(PersistentHashSet.empty(), PersistentHashSet::put);
+        // A PersistentHashSet is a map of each item to itself, so build that map in a transient.
+        ImMapTrans<T,T> empty = PersistentHashMap.<T,T>empty().asTransient();
+        return PersistentHashSet.ofMap(foldLeft(empty, (ts, t) -> ts.assoc(t, t)).persistent());
     }
 
     /**
@@ -218,8 +378,8 @@ public interface Transformable<T> {
      */
     default <K,V> ImSortedMap<K,V> toImSortedMap(Comparator<? super K> comp,
                                                  Function1<? super T,Map.Entry<K,V>> f1) {
-        return foldLeft((ImSortedMap<K, V>) PersistentTreeMap.<K, V>empty(comp),
-                        (ts, t) -> ts.assoc(f1.apply(t)));
+        return foldLeft(PersistentTreeMap.<K,V>empty(comp).asTransient(),
+                        (ts, t) -> ts.assoc(f1.apply(t))).persistent();
     }
 
     /**
@@ -231,7 +391,8 @@ public interface Transformable<T> {
      @return An immutable set (with duplicates removed).  Null elements are not allowed.
      */
     default ImSortedSet<T> toImSortedSet(Comparator<? super T> comparator) {
-        return foldLeft(PersistentTreeSet.ofComp(comparator), PersistentTreeSet::put);
+        return foldLeft(PersistentTreeSet.<T>ofComp(comparator).asTransient(),
+                        PersistentTreeSet.TransientTreeSet::put).persistent();
     }
 
     /** Realize a mutable list.  Use toImList unless you need to modify the list in-place. */
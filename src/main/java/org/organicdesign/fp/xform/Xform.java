@@ -14,18 +14,30 @@
 
 package org.organicdesign.fp.xform;
 
-import org.organicdesign.fp.FunctionUtils;
 import org.organicdesign.fp.Or;
+import org.organicdesign.fp.collections.ImList;
+import org.organicdesign.fp.collections.PersistentHashMap;
+import org.organicdesign.fp.collections.PersistentVector;
+import org.organicdesign.fp.collections.RangeOfInt;
 import org.organicdesign.fp.collections.UnmodIterable;
 import org.organicdesign.fp.collections.UnmodIterator;
 import org.organicdesign.fp.function.Function1;
 import org.organicdesign.fp.function.Function2;
+import org.organicdesign.fp.function.ToIntFunction1;
+import org.organicdesign.fp.function.ToLongFunction1;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  An immutable description of operations to be performed (a transformation, transform, or x-form).
@@ -63,8 +75,8 @@ public abstract class Xform<A> implements UnmodIterable<A> {
         // Time using a linked list of ops instead of array, so that we can easily remove ops from
         // the list when they are used up.
         Function1<Object,Boolean> filter = null;
-        Function1 map = null;
-        Function1<Object,Iterable> flatMap = null;
+        Function1<Object,Object> map = null;
+        Function1<Object,Iterable<?>> flatMap = null;
 
         /**
          Drops as many items as the source can handle.
@@ -85,6 +97,12 @@ public abstract class Xform<A> implements UnmodIterable<A> {
          */
         public OpStrategy take(long num) { return OpStrategy.CANNOT_HANDLE; }
 
+        /**
+         This op, ready to be run.  Ops that count items as they go return a fresh copy so that a
+         compiled Plan can be run again.  The rest have no state and return themselves.
+         */
+        Operation forRun() { return this; }
+
         /**
          We need to model this as a separate op for when the previous op is CANNOT_HANDLE.  It is
          coded as a filter, but still needs to be modeled separately so that subsequent drops can be
@@ -107,27 +125,48 @@ public abstract class Xform<A> implements UnmodIterable<A> {
                 leftToDrop = leftToDrop + num;
                 return Or.good(num);
             }
+            @Override Operation forRun() { return new DropOp(leftToDrop); }
         }
 
         private static class FilterOp extends Operation {
             FilterOp(Function1<Object,Boolean> func) { filter = func; }
         }
 
+        /**
+         A filter followed by a map, fused into one op so that each item makes one trip through
+         the loop in _foldItem() instead of two.  Like a filter, it can't handle a drop or take.
+         */
+        private static class FilterMapOp extends Operation {
+            FilterMapOp(Function1<Object,Boolean> f, Function1<Object,Object> m) {
+                filter = f; map = m;
+            }
+        }
+
         private static class MapOp extends Operation {
-            MapOp(Function1 func) { map = func; }
+            MapOp(Function1<Object,Object> func) { map = func; }
             @Override public Or<Long,OpStrategy> drop(long num) {
                 return Or.bad(OpStrategy.ASK_SUPPLIER);
             }
             @Override public OpStrategy take(long num) { return OpStrategy.ASK_SUPPLIER; }
         }
 
+        /**
+         takeWhile() is coded as a map that returns TERMINATE, but unlike a map, a later drop can't
+         be combined with an earlier one across it: drop(1).takeWhile(p).drop(1) has to test p on
+         the second item, not the third.  A later take can still be combined with an earlier take.
+         */
+        private static class TakeWhileOp extends Operation {
+            TakeWhileOp(Function1<Object,Object> func) { map = func; }
+            @Override public OpStrategy take(long num) { return OpStrategy.ASK_SUPPLIER; }
+        }
+
         // TODO: FlatMap should drop and take internally using addition/subtraction on each output
         // TODO: list instead of testing each list item individually.
         private static class FlatMapOp extends Operation {
 //            ListSourceDesc<U> cache = null;
 //            int numToDrop = 0;
 
-            FlatMapOp(Function1<Object,Iterable> func) { flatMap = func; }
+            FlatMapOp(Function1<Object,Iterable<?>> func) { flatMap = func; }
         }
 
         /**
@@ -159,6 +198,7 @@ public abstract class Xform<A> implements UnmodIterable<A> {
                 }
                 return OpStrategy.HANDLE_INTERNALLY;
             }
+            @Override Operation forRun() { return new TakeOp(numToTake); }
         }
     } // end class Operation
 
@@ -174,50 +214,151 @@ public abstract class Xform<A> implements UnmodIterable<A> {
      For speed, we ignore all that in the "compiled" version and just use Objects and avoid any
      wrapping or casting.
      */
-    protected static class RunList implements Iterable {
-        Iterable source;
+    protected static class RunList implements Iterable<Object> {
+        Iterable<?> source;
         List<Operation> list = new ArrayList<>();
         RunList next = null;
         RunList prev = null;
+        // A drop or take at the start of the transformation (with nothing but maps before it)
+        // doesn't become an op.  Instead, srcDrop items of the source are skipped, then at most
+        // srcTake are read.  When the source is indexed (see indexedSize()), that's done with
+        // index arithmetic.  Otherwise a DropOp and TakeOp go in front of the other ops.
+        long srcDrop = 0;
+        long srcTake = Long.MAX_VALUE;
+
+        private RunList(RunList prv, Iterable<?> src) {
+            prev = prv;
+            source = src;
+        }
 
-        private RunList(RunList prv, Iterable src) { prev = prv; source = src; }
-
-        public static RunList of(RunList prv, Iterable src) {
+        public static RunList of(RunList prv, Iterable<?> src) {
             RunList ret = new RunList(prv, src);
             if (prv != null) { prv.next = ret; }
             return ret;
         }
 
-        Operation[] opArray() {
-            return list.toArray(new Operation[list.size()]);
+        /** The ops to run on sourceForFold(), in order. */
+        Operation[] opArray() { return opArray(sourceIndexed()); }
+
+        /**
+         The ops to run, with a DropOp and TakeOp in front for srcDrop and srcTake unless the
+         source is indexed (and sourceForFold() does them instead).
+         */
+        Operation[] opArray(boolean indexed) {
+            if ( indexed || ((srcDrop == 0) && (srcTake == Long.MAX_VALUE)) ) {
+                return list.toArray(new Operation[list.size()]);
+            }
+            List<Operation> ops = new ArrayList<>(list.size() + 2);
+            if (srcDrop > 0) { ops.add(new Operation.DropOp(srcDrop)); }
+            if (srcTake < Long.MAX_VALUE) { ops.add(new Operation.TakeOp(srcTake)); }
+            ops.addAll(list);
+            return ops.toArray(new Operation[ops.size()]);
+        }
+
+        /** The last operation in this RunList, or null if there isn't one yet. */
+        Operation lastOp() { return list.isEmpty() ? null : list.get(list.size() - 1); }
+
+        void replaceLastOp(Operation op) { list.set(list.size() - 1, op); }
+
+        @SuppressWarnings("unchecked")
+        @Override public Iterator<Object> iterator() {
+            return (Iterator<Object>) sourceForFold().iterator();
+        }
+
+        /** Drops the first num items of the source, before any op sees them. */
+        void dropFromSource(long num) {
+            srcDrop = (num >= Long.MAX_VALUE - srcDrop) ? Long.MAX_VALUE : srcDrop + num;
+            if (srcTake < Long.MAX_VALUE) {
+                srcTake = Math.max(0, srcTake - num);
+            }
+        }
+
+        /** Reads at most num (more) items of the source. */
+        void takeFromSource(long num) {
+            if (num < srcTake) { srcTake = num; }
+        }
+
+        /** True if sourceForFold() narrows the source to srcDrop and srcTake by index. */
+        boolean sourceIndexed() { return indexedSize(source) >= 0; }
+
+        /**
+         The Iterable to fold over when running this RunList: the source itself (or the range of it
+         left after any drops or takes), so that _foldLeft can see what kind of collection it is.
+         */
+        Iterable<?> sourceForFold() {
+            return sourceIndexed() ? IndexRange.of((List<?>) source, srcDrop, srcTake) : source;
+        }
+
+        /**
+         A copy with new DropOps and TakeOps (which count as they go) so that it can be run without
+         changing this one.  If newSource isn't null, the copy reads from it instead of the
+         source this RunList was compiled with.
+         */
+        RunList copyForRun(Iterable<?> newSource) {
+            return copyInto(new RunList(null, (newSource == null) ? source : newSource));
+        }
+
+        RunList copyInto(RunList ret) {
+            ret.srcDrop = srcDrop;
+            ret.srcTake = srcTake;
+            for (Operation op : list) {
+                ret.list.add(op.forRun());
+            }
+            return ret;
+        }
+    }
+
+    /**
+     The items of an indexed source (see indexedSize()) from lo (inclusive) to hi (exclusive).
+     _fold() reads them straight from the source by index.
+     */
+    private static final class IndexRange implements Iterable<Object> {
+        private final List<?> list;
+        private final int lo;
+        private final int hi;
+
+        private IndexRange(List<?> l, int from, int to) { list = l; lo = from; hi = to; }
+
+        /** The items of the list left after dropping drop of them, then taking take. */
+        static IndexRange of(List<?> l, long drop, long take) {
+            int size = l.size();
+            int from = (int) Math.min(drop, size);
+            return new IndexRange(l, from, (int) Math.min(size, from + Math.min(take, size)));
+        }
+
+        @Override public Iterator<Object> iterator() {
+            return new Iterator<Object>() {
+                private int idx = lo;
+                @Override public boolean hasNext() { return idx < hi; }
+                @Override public Object next() {
+                    if (idx >= hi) { throw new NoSuchElementException(); }
+                    return list.get(idx++);
+                }
+            };
         }
-        @Override public Iterator iterator() { return source.iterator(); }
     }
 
     /**
-     When iterator() is called, the AppendOp processes the previous source and operation into
-     an ArrayList.  Then yields an iterator that yield the result of that operation until it runs
-     out.  Then continues to yield the appended items until they run out, at which point hasNext()
-     returns false;
+     Yields the result of the previous RunList (pulled one item at a time) until it runs out, then
+     the appended items until they run out, at which point hasNext() returns false.  Nothing is
+     buffered.
      */
     private static class AppendOp extends RunList {
-        private AppendOp(RunList prv, Iterable src) { super(prv, src); }
-
-        @Override public Iterator iterator() {
-            ArrayList prevSrc = _foldLeft(prev, prev.opArray(), 0, new ArrayList(),
-                                          new Function2<ArrayList,Object,ArrayList>() {
-                                              @SuppressWarnings("unchecked")
-                                              @Override
-                                              public ArrayList applyEx(ArrayList res, Object item) throws Exception {
-                                                  res.add(item);
-                                                  return res;
-                                              }
-                                          }
-
-            );
-            //noinspection unchecked
-            return new Iterator() {
-                Iterator innerIter = prevSrc.iterator();
+        private AppendOp(RunList prv, Iterable<?> src) { super(prv, src); }
+
+        /** Both the previous RunList and the appended source, through our own iterator. */
+        @Override Iterable<?> sourceForFold() { return this; }
+
+        @Override boolean sourceIndexed() { return false; }
+
+        /** The new source replaces the one at the start of the previous RunList. */
+        @Override RunList copyForRun(Iterable<?> newSource) {
+            return copyInto(new AppendOp(prev.copyForRun(newSource), source));
+        }
+
+        @Override public Iterator<Object> iterator() {
+            return new Iterator<Object>() {
+                Iterator<?> innerIter = new PullIterator<>(prev.sourceForFold(), prev.opArray());
                 boolean usingPrevSrc = true;
                 /** {@inheritDoc} */
                 @Override public boolean hasNext() {
@@ -231,12 +372,84 @@ public abstract class Xform<A> implements UnmodIterable<A> {
                 }
 
                 @Override public Object next() {
+                    if (!hasNext()) { throw new NoSuchElementException(); }
                     return innerIter.next();
                 }
             };
         } // end iterator()
     }
 
+    /**
+     The lazy counterpart of _fold(): runs the operations on one source item at a time, only when
+     hasNext() needs another result.  Each flatMap() pushes the iterator of its result (and the
+     index of the next operation) onto a stack, so the stack is never deeper than the number of
+     flatMaps plus one for the source.  A TERMINATE ends the whole iteration, just as it ends a
+     fold.
+     */
+    private static final class PullIterator<T> implements UnmodIterator<T> {
+        private final Operation[] ops;
+        private final Iterator<?>[] iters;
+        private final int[] opIdxs;
+        private int depth;
+        private Object nextItem;
+        private boolean hasNextItem = false;
+
+        private PullIterator(Iterable<?> source, Operation[] os) {
+            ops = os;
+            iters = new Iterator<?>[os.length + 1];
+            opIdxs = new int[os.length + 1];
+            iters[0] = source.iterator();
+            depth = 1;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override public boolean hasNext() {
+            // Each pass takes the next item from the innermost iterator, then either skips it,
+            // descends into a flatMap result, or finds the next result.
+            outer:
+            while (!hasNextItem && (depth > 0)) {
+                Iterator<?> iter = iters[depth - 1];
+                if (!iter.hasNext()) {
+                    iters[--depth] = null;
+                    continue;
+                }
+                Object o = iter.next();
+                for (int j = opIdxs[depth - 1]; j < ops.length; j++) {
+                    Operation op = ops[j];
+                    if ( (op.filter != null) && !op.filter.apply(o) ) {
+                        continue outer;
+                    }
+                    if (op.map != null) {
+                        o = op.map.apply(o);
+                        if (o == TERMINATE) {
+                            while (depth > 0) {
+                                iters[--depth] = null;
+                            }
+                            return false;
+                        }
+                    } else if (op.flatMap != null) {
+                        iters[depth] = op.flatMap.apply(o).iterator();
+                        opIdxs[depth] = j + 1;
+                        depth++;
+                        continue outer;
+                    }
+                }
+                nextItem = o;
+                hasNextItem = true;
+            }
+            return hasNextItem;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override public T next() {
+            if (!hasNext()) { throw new NoSuchElementException(); }
+            Object ret = nextItem;
+            nextItem = null;
+            hasNextItem = false;
+            return (T) ret;
+        }
+    }
+
     /** Describes an concat() operation, but does not perform it. */
     private static class AppendIterDesc<T> extends Xform<T> {
         final Xform<T> src;
@@ -251,11 +464,10 @@ public abstract class Xform<A> implements UnmodIterable<A> {
 
     /**
      Describes a "drop" operation.  Drops will be pushed as early in the operation-list as possible,
-     ideally being done using one-time pointer addition on the source.
-
-     I have working source-pointer-addition code, but it added a fair amount of complexity to
-     implement it for Lists and arrays, but not for Iterables in general, so it is not currently
-     (2015-08-21) part of this implementation.
+     ideally being done using one-time pointer addition on the source.  That works when only maps
+     come before the drop and the source is indexed (an ImList, RangeOfInt, or RandomAccess List),
+     so drop(5000000) on such a source costs the same as drop(1).  On any other source, such a drop
+     becomes a Drop op-code in front of all the others, so the maps still never see dropped items.
 
      When source-pointer-addition is not possible, a Drop op-code is created (implemented as a
      filter function).  Subsequent drop ops will be combined into the earliest drop (for speed).
@@ -283,18 +495,11 @@ public abstract class Xform<A> implements UnmodIterable<A> {
                     return ret;
                 }
             }
-//            if ( !Or.bad(OpStrategy.CANNOT_HANDLE).equals(earlierDs) && (i <= 0) ) {
-//                Or<Long,OpStrategy> srcDs = ret.source.drop(dropAmt);
-//                if (srcDs.isGood()) {
-//                    if (srcDs.good() == dropAmt) {
-////                        System.out.println("\tHandled internally by source: " + ret.source);
-//                        return ret;
-//                    } else {
-//                        // TODO: Think about this and implement!
-//                        throw new UnsupportedOperationException("Not implemented yet!");
-//                    }
-//                }
-//            }
+            // Every earlier op (if any) asked the supplier, so the source is next in line.
+            if (i < 0) {
+                ret.dropFromSource(dropAmt);
+                return ret;
+            }
 //                System.out.println("\tSource could not handle drop.");
 //                System.out.println("\tMake a drop for " + dropAmt + " items.");
             ret.list.add(new Operation.DropOp(dropAmt));
@@ -311,7 +516,18 @@ public abstract class Xform<A> implements UnmodIterable<A> {
         @SuppressWarnings("unchecked")
         @Override protected RunList toRunList() {
             RunList ret = prevOp.toRunList();
-            ret.list.add(new Operation.FilterOp((Function1<Object,Boolean>) f));
+            Function1<Object,Boolean> func = (Function1<Object,Boolean>) f;
+            if (func == Function1.accept()) {
+                // Keeps everything, so it does nothing.
+                return ret;
+            }
+            Operation last = ret.lastOp();
+            if ( (last != null) && (last.getClass() == Operation.FilterOp.class) ) {
+                // Two filters in a row become one.
+                ret.replaceLastOp(new Operation.FilterOp(Function1.and(last.filter, func)));
+                return ret;
+            }
+            ret.list.add(new Operation.FilterOp(func));
             return ret;
         }
     }
@@ -325,7 +541,44 @@ public abstract class Xform<A> implements UnmodIterable<A> {
         @SuppressWarnings("unchecked")
         @Override protected RunList toRunList() {
             RunList ret = prevOp.toRunList();
-            ret.list.add(new Operation.MapOp(f));
+            Function1<Object,Object> func = (Function1<Object,Object>) f;
+            if (func == Function1.identity()) {
+                return ret;
+            }
+            // A map right after a map or a filter joins it in the same op.  The ops compared here
+            // are exact classes because DropOp, TakeOp, and TakeWhileOp hold state or have to
+            // stay separate for later drops and takes to find.
+            Operation last = ret.lastOp();
+            if (last != null) {
+                if (last.getClass() == Operation.MapOp.class) {
+                    ret.replaceLastOp(new Operation.MapOp(func.compose(last.map)));
+                    return ret;
+                } else if (last.getClass() == Operation.FilterOp.class) {
+                    ret.replaceLastOp(new Operation.FilterMapOp(last.filter, func));
+                    return ret;
+                } else if (last.getClass() == Operation.FilterMapOp.class) {
+                    ret.replaceLastOp(new Operation.FilterMapOp(last.filter,
+                                                                func.compose(last.map)));
+                    return ret;
+                }
+            }
+            ret.list.add(new Operation.MapOp(func));
+            return ret;
+        }
+    }
+
+    /** Describes a takeWhile() operation, but does not perform it. */
+    private static class TakeWhileDesc<T> extends Xform<T> {
+        final Function1<? super T,? extends T> f;
+
+        TakeWhileDesc(Xform<T> prev, Function1<? super T,? extends T> func) {
+            super(prev); f = func;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override protected RunList toRunList() {
+            RunList ret = prevOp.toRunList();
+            ret.list.add(new Operation.TakeWhileOp((Function1<Object,Object>) f));
             return ret;
         }
     }
@@ -340,7 +593,8 @@ public abstract class Xform<A> implements UnmodIterable<A> {
         @SuppressWarnings("unchecked")
         @Override protected RunList toRunList() {
             RunList ret = prevOp.toRunList();
-            ret.list.add(new Operation.FlatMapOp((Function1) f));
+            Function1<Object,Iterable<?>> func = (Function1<Object,Iterable<?>>) (Function1<?,?>) f;
+            ret.list.add(new Operation.FlatMapOp(func));
             return ret;
         }
     }
@@ -348,6 +602,8 @@ public abstract class Xform<A> implements UnmodIterable<A> {
     /**
      Describes a "take" operation, but does not perform it.  Takes will be pushed as early in the
      operation-list as possible, ideally being done using one-time pointer addition on the source.
+     That works when only maps (or takeWhiles) come before the take and the source is indexed.  Then
+     the fold just stops at the right index without a TERMINATE sentinel.
      When source pointer addition is not possible, a Take op-code is created (implemented as a
      filter function).  Subsequent take ops will be combined into the earliest take (for speed).
      @param <T> the expected input type to take.
@@ -374,13 +630,11 @@ public abstract class Xform<A> implements UnmodIterable<A> {
                     return ret;
                 }
             }
-//            if ( (earlierTs != OpStrategy.CANNOT_HANDLE) && (i <= 0) ) {
-//                OpStrategy srcDs = ret.source.take(take);
-//                if (srcDs == OpStrategy.HANDLE_INTERNALLY) {
-////                        System.out.println("\tHandled internally by source: " + ret.source);
-//                    return ret;
-//                }
-//            }
+            // Every earlier op (if any) asked the supplier, so the source is next in line.
+            if (i < 0) {
+                ret.takeFromSource(take);
+                return ret;
+            }
 //                System.out.println("\tSource could not handle take.");
 //                System.out.println("\tMake a take for " + take + " items.");
             ret.list.add(new Operation.TakeOp(take));
@@ -429,6 +683,17 @@ public abstract class Xform<A> implements UnmodIterable<A> {
     // Constructor
     Xform(Xform pre) { prevOp = pre; }
 
+    /**
+     Wraps the result of a fold when a TERMINATE sentinel is reached (or the terminateWhen function
+     passed to foldLeft() returns true) so that every level of flatMap recursion (and the loop over
+     the source) stops right away instead of running the remaining source items through a take()
+     that will only ever return TERMINATE.
+     */
+    private static final class Reduced {
+        final Object val;
+        Reduced(Object v) { val = v; }
+    }
+
     // This is the main method of this whole file.  Everything else lives to serve this.
     // We used a linked-list to build the type-safe operations so if that code compiles, the types
     // should work out here too.  However, for performance, we don't want to be stuck creating and
@@ -438,47 +703,416 @@ public abstract class Xform<A> implements UnmodIterable<A> {
     // is 2.6 times faster than wrapping items type-safely in Options and 10 to 100 times faster
     // than lazily evaluated and cached linked-list, Sequence model.
     @SuppressWarnings("unchecked")
-    private static <H> H _foldLeft(Iterable source, Operation[] ops, int opIdx, H ident, Function2 reducer) {
-        Object ret = ident;
+    private static <H> H _foldLeft(Iterable<?> source, Operation[] ops, H ident,
+                                   Function2<?,?,?> f) {
+        Function2<Object,Object,Object> reducer = (Function2<Object,Object,Object>) f;
+        // Without a flatMap, every op can be folded into the reducer (see fuse()).
+        Object ret = hasFlatMap(ops) ? _fold(source, ops, 0, ident, reducer)
+                                     : _fold(source, NO_OPS, 0, ident, fuse(ops, reducer));
+        return (ret instanceof Reduced) ? (H) ((Reduced) ret).val
+                                        : (H) ret;
+    }
+
+    private static final Operation[] NO_OPS = new Operation[0];
+
+    private static boolean hasFlatMap(Operation[] ops) {
+        for (Operation op : ops) {
+            if (op.flatMap != null) { return true; }
+        }
+        return false;
+    }
 
-        // This is a label - the first one I have used in Java in years, or maybe ever.
-        // I'm assuming this is fast, but will have to test to confirm it.
-        sourceLoop:
+    /**
+     Folds the operations (none of which may be a flatMap) into the reducer, last one first.  Each
+     item then goes through a chain of function calls, one per op, instead of the loop in
+     _foldItem() checking the fields of every op.
+     */
+    private static Function2<Object,Object,Object> fuse(Operation[] ops,
+                                                        Function2<Object,Object,Object> reducer) {
+        Function2<Object,Object,Object> ret = reducer;
+        for (int j = ops.length - 1; j >= 0; j--) {
+            final Function2<Object,Object,Object> next = ret;
+            final Function1<Object,Boolean> filter = ops[j].filter;
+            final Function1<Object,Object> map = ops[j].map;
+            if (map == null) {
+                ret = (r, o) -> filter.apply(o) ? next.apply(r, o) : r;
+            } else if (filter == null) {
+                ret = (r, o) -> {
+                    Object m = map.apply(o);
+                    return (m == TERMINATE) ? new Reduced(r) : next.apply(r, m);
+                };
+            } else {
+                ret = (r, o) -> {
+                    if ( !filter.apply(o) ) { return r; }
+                    Object m = map.apply(o);
+                    return (m == TERMINATE) ? new Reduced(r) : next.apply(r, m);
+                };
+            }
+        }
+        return ret;
+    }
+
+    /**
+     Runs every item in the source through the operations and returns the result, or a Reduced
+     wrapping the result if an operation terminated the transformation.  When the source is a
+     PersistentVector, this walks its leaf arrays directly instead of using an iterator.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object _fold(Iterable<?> source, Operation[] ops, int opIdx, Object ident,
+                                Function2<Object,Object,Object> reducer) {
+        if (source instanceof IndexRange) {
+            IndexRange range = (IndexRange) source;
+            return _foldRange(range.list, range.lo, range.hi, ops, opIdx, ident, reducer);
+        }
+        if (source instanceof PersistentVector) {
+            PersistentVector<?> vec = (PersistentVector<?>) source;
+            return _foldRange(vec, 0, vec.size(), ops, opIdx, ident, reducer);
+        }
+
+        Object ret = ident;
         for (Object o : source) {
-            for (int j = opIdx; j < ops.length; j++) {
-                Operation op = ops[j];
-                if ( (op.filter != null) && !op.filter.apply(o) ) {
-                    // stop processing this source item and go to the next one.
-                    continue sourceLoop;
-                }
-                if (op.map != null) {
-                    o = op.map.apply(o);
-                    // This is how map can handle takeWhile, take, and other termination marker
-                    // roles.  Remember, the fewer functions we have to check for, the faster this
-                    // will execute.
-                    if (o == TERMINATE) {
-                        return (H) ret;
+            ret = _foldItem(o, ops, opIdx, ret, reducer);
+            if (ret instanceof Reduced) {
+                return ret;
+            }
+        }
+        return ret;
+    } // end _fold();
+
+    /**
+     Like _fold(), but only for the items from index lo (inclusive) to hi (exclusive) of an indexed
+     source (see indexedSize()).  A PersistentVector is read a leaf-array at a time.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object _foldRange(List<?> source, int lo, int hi, Operation[] ops, int opIdx,
+                                     Object ident, Function2<Object,Object,Object> reducer) {
+        if (source instanceof PersistentVector) {
+            final Object[] ret = new Object[] { ident };
+            ((PersistentVector<?>) source).forEachChunk(lo, hi, (chunk, from, to) -> {
+                Object r = ret[0];
+                for (int i = from; i < to; i++) {
+                    r = _foldItem(chunk[i], ops, opIdx, r, reducer);
+                    if (r instanceof Reduced) {
+                        break;
                     }
-                } else if (op.flatMap != null) {
-                    ret = _foldLeft(op.flatMap.apply(o), ops, j + 1, (H) ret, reducer);
-                    // stop processing this source item and go to the next one.
-                    continue sourceLoop;
                 }
-//                    if ( (op.terminate != null) && op.terminate.apply(o) ) {
-//                        return (G) ret;
-//                    }
+                ret[0] = r;
+                return !(r instanceof Reduced);
+            });
+            return ret[0];
+        }
+
+        Object ret = ident;
+        for (int i = lo; i < hi; i++) {
+            ret = _foldItem(source.get(i), ops, opIdx, ret, reducer);
+            if (ret instanceof Reduced) {
+                return ret;
             }
-            // Here, the item made it through all the operations.  Combine it with the result.
-            ret = reducer.apply(ret, o);
         }
-        return (H) ret;
-    } // end _foldLeft();
+        return ret;
+    }
+
+    /**
+     Runs a single source item through the operations and, if it makes it through all of them,
+     combines it with the result so far.
+     @return the new result, or a Reduced wrapping the result if an operation terminated the
+     transformation.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object _foldItem(Object o, Operation[] ops, int opIdx, Object ret,
+                                    Function2<Object,Object,Object> reducer) {
+        for (int j = opIdx; j < ops.length; j++) {
+            Operation op = ops[j];
+            if ( (op.filter != null) && !op.filter.apply(o) ) {
+                // stop processing this source item and go to the next one.
+                return ret;
+            }
+            if (op.map != null) {
+                o = op.map.apply(o);
+                // This is how map can handle takeWhile, take, and other termination marker
+                // roles.  Remember, the fewer functions we have to check for, the faster this
+                // will execute.
+                if (o == TERMINATE) {
+                    return new Reduced(ret);
+                }
+            } else if (op.flatMap != null) {
+                // The result may be Reduced, which stops the outer loop too.
+                return _fold(op.flatMap.apply(o), ops, j + 1, ret, reducer);
+            }
+        }
+        // Here, the item made it through all the operations.  Combine it with the result.
+        return reducer.apply(ret, o);
+    } // end _foldItem();
+
+    /**
+     Below this many source items, foldLeftParallel() doesn't split a chunk any further: the
+     overhead of a task would outweigh the gain.
+     */
+    private static final int MIN_CHUNK = 1024;
+
+    /**
+     Returns the number of items in the source if it can be read quickly by index (with get()),
+     or -1 if it can't.
+     */
+    private static int indexedSize(Iterable<?> source) {
+        if ( (source instanceof ImList) || (source instanceof RangeOfInt) ||
+             ((source instanceof List) && (source instanceof RandomAccess)) ) {
+            return ((List<?>) source).size();
+        }
+        return -1;
+    }
+
+    /**
+     A RunList that foldLeftParallel() can split: the source, the range of it to fold, and the
+     operations, which must all be safe to run on several chunks at once.
+     */
+    private static final class ParallelPlan {
+        private final Iterable<?> source;
+        private final int lo;
+        private final int hi;
+        private final Operation[] ops;
+
+        private ParallelPlan(Iterable<?> src, int l, int h, Operation[] os) {
+            source = src; lo = l; hi = h; ops = os;
+        }
+
+        /** Returns a plan for the given RunList, or null if it has to be folded sequentially. */
+        static ParallelPlan of(RunList runList) {
+            Iterable<?> source = runList.source;
+            boolean indexed = runList.sourceIndexed();
+            if ( !indexed && !(source instanceof PersistentHashMap) ) {
+                return null;
+            }
+            // Any drop or take that could be done on an indexed source already was.  The rest
+            // count items as they go by, so can't be split.
+            Operation[] ops = runList.opArray(indexed);
+            for (Operation op : ops) {
+                if ( (op instanceof Operation.DropOp) || (op instanceof Operation.TakeOp) ) {
+                    return null;
+                }
+            }
+            if (!indexed) {
+                return new ParallelPlan(source, 0, 0, ops);
+            }
+            IndexRange range = (IndexRange) runList.sourceForFold();
+            return new ParallelPlan(source, range.lo, range.hi, ops);
+        }
+
+        ForkJoinTask<Object> task(Object identity, Function2<Object,Object,Object> reducer,
+                                  Function2<Object,Object,Object> combiner) {
+            int parallelism = ForkJoinPool.getCommonPoolParallelism();
+            if (indexedSize(source) < 0) {
+                Spliterator<?> spliterator = source.spliterator();
+                long minChunk = Math.max(MIN_CHUNK, spliterator.estimateSize() / (parallelism * 4));
+                return new SplitTask(spliterator, minChunk, ops, identity, reducer, combiner);
+            }
+            int minChunk = Math.max(MIN_CHUNK, (hi - lo) / (parallelism * 4));
+            return new RangeTask((List<?>) source, lo, hi, minChunk, ops, identity, reducer,
+                                 combiner, new AtomicLong(Long.MAX_VALUE));
+        }
+    }
+
+    /**
+     Combines the results of two adjacent chunks.  If the earlier one was stopped by a takeWhile(),
+     the later one is ignored.
+     */
+    private static Object combineInOrder(Object left, Object right,
+                                         Function2<Object,Object,Object> combiner) {
+        if (left instanceof Reduced) {
+            return left;
+        }
+        return (right instanceof Reduced) ? new Reduced(combiner.apply(left, ((Reduced) right).val))
+                                          : combiner.apply(left, right);
+    }
+
+    /** Folds a range of an indexed source, splitting it in half until the pieces are small. */
+    // Only ever run in the ForkJoinPool, never serialized.
+    @SuppressWarnings("serial")
+    private static final class RangeTask extends RecursiveTask<Object> {
+        private final List<?> source;
+        private final int lo;
+        private final int hi;
+        private final int minChunk;
+        private final Operation[] ops;
+        private final Object identity;
+        private final Function2<Object,Object,Object> reducer;
+        private final Function2<Object,Object,Object> combiner;
+        // The lowest index of a chunk that a takeWhile() stopped.  Chunks after it are skipped.
+        private final AtomicLong stoppedAt;
+
+        private RangeTask(List<?> src, int l, int h, int min, Operation[] os, Object ident,
+                          Function2<Object,Object,Object> r, Function2<Object,Object,Object> c,
+                          AtomicLong stopped) {
+            source = src; lo = l; hi = h; minChunk = min; ops = os; identity = ident; reducer = r;
+            combiner = c; stoppedAt = stopped;
+        }
+
+        @Override protected Object compute() {
+            if (hi - lo <= minChunk) {
+                if (lo > stoppedAt.get()) {
+                    return identity;
+                }
+                Object ret = _foldRange(source, lo, hi, ops, 0, identity, reducer);
+                if (ret instanceof Reduced) {
+                    stoppedAt.accumulateAndGet(lo, Math::min);
+                }
+                return ret;
+            }
+            int mid = (lo + hi) >>> 1;
+            RangeTask left = new RangeTask(source, lo, mid, minChunk, ops, identity, reducer,
+                                           combiner, stoppedAt);
+            RangeTask right = new RangeTask(source, mid, hi, minChunk, ops, identity, reducer,
+                                            combiner, stoppedAt);
+            right.fork();
+            Object leftResult = left.compute();
+            return combineInOrder(leftResult, right.join(), combiner);
+        }
+    }
+
+    /** Folds whatever a Spliterator holds, splitting it until the pieces are small. */
+    // Only ever run in the ForkJoinPool, never serialized.
+    @SuppressWarnings("serial")
+    private static final class SplitTask extends RecursiveTask<Object> {
+        private final Spliterator<?> spliterator;
+        private final long minChunk;
+        private final Operation[] ops;
+        private final Object identity;
+        private final Function2<Object,Object,Object> reducer;
+        private final Function2<Object,Object,Object> combiner;
+
+        private SplitTask(Spliterator<?> s, long min, Operation[] os, Object ident,
+                          Function2<Object,Object,Object> r, Function2<Object,Object,Object> c) {
+            spliterator = s; minChunk = min; ops = os; identity = ident; reducer = r; combiner = c;
+        }
+
+        @Override protected Object compute() {
+            Spliterator<?> prefix = (spliterator.estimateSize() > minChunk) ? spliterator.trySplit()
+                                                                         : null;
+            if (prefix == null) {
+                final Object[] ret = new Object[] { identity };
+                //noinspection StatementWithEmptyBody
+                while ( !(ret[0] instanceof Reduced) &&
+                        spliterator.tryAdvance(o -> ret[0] = _foldItem(o, ops, 0, ret[0],
+                                                                       reducer)) ) {
+                }
+                return ret[0];
+            }
+            // A Spliterator splits off the items that come first.
+            SplitTask left = new SplitTask(prefix, minChunk, ops, identity, reducer, combiner);
+            SplitTask right = new SplitTask(spliterator, minChunk, ops, identity, reducer,
+                                            combiner);
+            right.fork();
+            Object leftResult = left.compute();
+            return combineInOrder(leftResult, right.join(), combiner);
+        }
+    }
 
+    /**
+     A lazy iterator over the results of this transformation.  Each call to hasNext() pulls only as
+     many source items through the operations as it takes to find the next result, so the first
+     item is available without running the whole transformation, and nothing is buffered.
+     */
+    @SuppressWarnings("unchecked")
     @Override public UnmodIterator<A> iterator() {
-        // TODO: I had a really fast array-list implementation that I could probably hack into this for performance (assuming it actually works).
-        return FunctionUtils.unmodIterable(toMutableList()).iterator();
+        RunList runList = toRunList();
+        return new PullIterator<>(runList.sourceForFold(), runList.opArray());
     }
 
+    /**
+     An Xform compiled once so that it can be run many times, on the source it was made from or on
+     other sources.  An Xform is compiled again (its whole chain of descriptions walked, its
+     operations allocated, and its drops and takes worked out) every time it's folded.  A Plan
+     keeps the result of that, and each run only copies the drop and take counters, so applying
+     the same transformation to many small collections costs little more than the work itself.
+
+     A Plan is immutable and may be run from several threads at once (as long as the functions
+     given to the Xform may be).
+     */
+    public static final class Plan<A> {
+        private final RunList runList;
+        // Compiled ops for an indexed source (drops and takes at the start are index arithmetic)
+        // and for any other source (they're a DropOp and TakeOp at the front).  Null for an
+        // AppendOp, which is copied whole for each run.
+        private final Operation[] indexedOps;
+        private final Operation[] otherOps;
+        private final boolean copyIndexedOps;
+        private final boolean copyOtherOps;
+
+        private Plan(RunList rl) {
+            runList = rl;
+            if (rl instanceof AppendOp) {
+                indexedOps = otherOps = null;
+                copyIndexedOps = copyOtherOps = true;
+            } else {
+                indexedOps = rl.opArray(true);
+                otherOps = rl.opArray(false);
+                copyIndexedOps = hasCounter(indexedOps);
+                copyOtherOps = hasCounter(otherOps);
+            }
+        }
+
+        private static boolean hasCounter(Operation[] ops) {
+            for (Operation op : ops) {
+                if (op.forRun() != op) { return true; }
+            }
+            return false;
+        }
+
+        private static Operation[] forRun(Operation[] ops, boolean copy) {
+            if (!copy) { return ops; }
+            Operation[] ret = new Operation[ops.length];
+            for (int i = 0; i < ops.length; i++) {
+                ret[i] = ops[i].forRun();
+            }
+            return ret;
+        }
+
+        /** Runs the transformation on the source the Xform was made from. */
+        public <B> B run(B ident, Function2<B,? super A,B> reducer) {
+            return run(null, ident, reducer);
+        }
+
+        /**
+         Runs the transformation on the given source, in place of the source at the start of the
+         Xform that was compiled (for precat(), that's the precatted items).  Anything concatenated
+         later stays as it was.
+         @param source the items to transform.  If null, uses the Xform's own source.
+         @param ident the starting value (e.g. 0 for a sum).
+         @param reducer combines the result so far with the next item.
+         @return the same result as foldLeft() on an Xform made from the given source.
+         */
+        @SuppressWarnings("unchecked")
+        public <B> B run(Iterable<?> source, B ident, Function2<B,? super A,B> reducer) {
+            if (reducer == null) {
+                throw new IllegalArgumentException("Can't foldLeft with a null reduction function.");
+            }
+            if (indexedOps == null) {
+                RunList rl = runList.copyForRun(source);
+                return _foldLeft(rl.sourceForFold(), rl.opArray(), ident, reducer);
+            }
+            Iterable<?> src = (source == null) ? runList.source : source;
+            if (indexedSize(src) >= 0) {
+                return _foldLeft(IndexRange.of((List<?>) src, runList.srcDrop, runList.srcTake),
+                                 forRun(indexedOps, copyIndexedOps), ident, reducer);
+            }
+            return _foldLeft(src, forRun(otherOps, copyOtherOps), ident, reducer);
+        }
+
+        /** Runs the transformation on the given source and returns the results in a new List. */
+        public List<A> toMutableList(Iterable<?> source) {
+            return run(source, new ArrayList<>(), (list, a) -> {
+                list.add(a);
+                return list;
+            });
+        }
+    }
+
+    /**
+     Compiles this transformation into a Plan that can be run many times (see Plan) without
+     compiling it again.
+     */
+    public Plan<A> compile() { return new Plan<>(toRunList()); }
+
     // =============================================================================================
     // These will come from Transformable, but (will be) overridden to have a different return type.
 
@@ -530,19 +1164,61 @@ public abstract class Xform<A> implements UnmodIterable<A> {
 
         // Construct an optimized array of OpRuns (mutable operations for this run)
         RunList runList = toRunList();
-        return _foldLeft(runList, runList.opArray(), 0, ident, reducer);
+        return _foldLeft(runList.sourceForFold(), runList.opArray(), ident, reducer);
+    }
+
+    /**
+     Like foldLeft(), but splits the source into chunks and folds each one in the common
+     ForkJoinPool.  Each chunk starts from identity and is folded with the reducer, then the
+     combiner merges the partial results <i>in order</i> (the partial result for earlier items is
+     always the first argument).  So identity must be an identity for the combiner, and neither
+     function, nor any function passed to this Xform, may modify its arguments or have side
+     effects, because they will be called from several threads at once.
+
+     The source is split when it is a PersistentVector (along its 32-item leaves), a RangeOfInt, a
+     RandomAccess List such as ArrayList, or a PersistentHashMap (along the nodes of its trie).
+     take() and drop() are done by index arithmetic on the source when nothing but map() comes
+     before them, which gives the same answer as foldLeft().  takeWhile() works anywhere: the
+     first chunk to stop ends the whole fold, and later chunks are ignored.  Anything else
+     (concat() or precat(), a take() or drop() after a filter() or flatMap(), any other source)
+     is folded sequentially by foldLeft() and the combiner is never called.
+
+     @param identity the starting value for each chunk (e.g. 0 for a sum).
+     @param reducer combines the result so far with the next item.
+     @param combiner combines the results of two adjacent chunks, earlier one first.
+     @return the same result as foldLeft(), if the above rules are followed.
+     */
+    public <B> B foldLeftParallel(B identity, Function2<B,? super A,B> reducer,
+                                  Function2<B,B,B> combiner) {
+        if (reducer == null) {
+            throw new IllegalArgumentException("Can't foldLeft with a null reduction function.");
+        }
+        if (combiner == null) {
+            throw new IllegalArgumentException("Can't foldLeftParallel with a null combiner.");
+        }
+
+        RunList runList = toRunList();
+        ParallelPlan plan = (runList instanceof AppendOp) ? null : ParallelPlan.of(runList);
+        if (plan == null) {
+            return _foldLeft(runList.sourceForFold(), runList.opArray(), identity, reducer);
+        }
+        @SuppressWarnings("unchecked")
+        Function2<Object,Object,Object> r = (Function2<Object,Object,Object>) reducer;
+        @SuppressWarnings("unchecked")
+        Function2<Object,Object,Object> c = (Function2<Object,Object,Object>) combiner;
+        Object ret = ForkJoinPool.commonPool().invoke(plan.task(identity, r, c));
+        @SuppressWarnings("unchecked")
+        B result = (ret instanceof Reduced) ? (B) ((Reduced) ret).val
+                                            : (B) ret;
+        return result;
     }
 
-    // TODO: Is this worth keeping over takeWhile(f).foldLeft(...)?
     /**
-     Thit implementation should be correct, but could be slow in the case where previous operations
-     are slow and the terminateWhen operation is fast and terminates early.  It actually renders
-     items to a mutable List, then runs through the list performing the requested reduction,
-     checking for early termination on the result.  If you can to a takeWhile() or take() earlier
-     in the transform chain instead of doing it here, always do that.  If you really need early
-     termination based on the *result* of a fold, and the operations are expensive or the input
-     is huge, try using a View instead.  If you don't care about those things, then this method is
-     perfect for you.
+     Checks terminateWhen against the result after each item is combined with it, and stops
+     pulling items from the source the first time it returns true.  The check happens inside the
+     fold, so a flatMap() stops in the middle of the items for one source item, no earlier
+     operation sees another item, and nothing is buffered.  If you can do a takeWhile() or take()
+     earlier in the transform chain instead, that's still simpler.
 
      {@inheritDoc}
      */
@@ -556,22 +1232,17 @@ public abstract class Xform<A> implements UnmodIterable<A> {
             return foldLeft(ident, reducer);
         }
 
-        // Yes, this is a cheap plastic imitation of what you'd hope for if you really need this
-        // method.  The trouble is that when I implemented it correctly in _foldLeft, I found
-        // it was going to be incredibly difficult, or more likely impossible to implement
-        // when the previous operation was flatMap, since you don't have the right result type to
-        // check against when you recurse in to the flat mapping function, and if you check the
-        // return from the recursion, it may have too many elements already.
-        // In XformTest.java, there's something marked "Early termination test" that illustrates
-        // this exact problem.
-        List<A> as = this.toMutableList();
-        for (A a : as) {
-            ident = reducer.apply(ident, a);
-            if (terminateWhen.apply(ident)) {
-                return ident;
-            }
-        }
-        return ident;
+        // Wrapping the result in Reduced stops _fold() (and each level of flatMap recursion) just
+        // as a takeWhile() does.
+        RunList runList = toRunList();
+        return _foldLeft(runList.sourceForFold(), runList.opArray(), ident,
+                         new Function2<Object,Object,Object>() {
+                             @SuppressWarnings("unchecked")
+                             @Override public Object applyEx(Object res, Object item) {
+                                 B ret = reducer.apply((B) res, (A) item);
+                                 return terminateWhen.apply(ret) ? new Reduced(ret) : ret;
+                             }
+                         });
     }
 
     @Override public Xform<A> filter(Function1<? super A,Boolean> f) {
@@ -589,6 +1260,25 @@ public abstract class Xform<A> implements UnmodIterable<A> {
         return new MapDesc<>(this, f);
     }
 
+    /**
+     {@inheritDoc}
+     This Xform's own operations still run on objects, then f and everything after it runs on ints.
+     */
+    @Override public IntXform mapToInt(ToIntFunction1<? super A> f) {
+        if (f == null) { throw new IllegalArgumentException("Can't map with a null function."); }
+        return IntXform.of(this, f);
+    }
+
+    /**
+     {@inheritDoc}
+     This Xform's own operations still run on objects, then f and everything after it runs on
+     longs.
+     */
+    @Override public LongXform mapToLong(ToLongFunction1<? super A> f) {
+        if (f == null) { throw new IllegalArgumentException("Can't map with a null function."); }
+        return LongXform.of(this, f);
+    }
+
     protected abstract RunList toRunList();
 
     @Override public Xform<A> take(long numItems) {
@@ -602,6 +1292,6 @@ public abstract class Xform<A> implements UnmodIterable<A> {
         }
         // I'm coding this as a map operation that either returns the source, or a TERMINATE
         // sentinel value.
-        return new MapDesc<>(this, a -> f.apply(a) ? a : terminate());
+        return new TakeWhileDesc<>(this, a -> f.apply(a) ? a : terminate());
     }
 }
@@ -23,31 +23,32 @@ import java.util.List;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.organicdesign.fp.StaticImports.vec;
 
 public class ImListTest {
-//    @Test public void insert() {
-//        // Computer science is no more about computers than astronomy is about telescopes. - Dijkstra
-//        ImList<String> p = vec("computers ").insert(0, "is ");
-//
-//        p = p.insert(1, "more ")
-//             .insert(0, "Computer ")
-//             .insert(1, "science ");
-//        p = p.insert(3, "no ")
-//             .insert(5, "about ")
-//             .insert(7, "about ")
-//             .insert(7, "is ")
-//             .insert(7, "astronomy ")
-//             .insert(7, "than ");
-//        p = p.insert(p.size(), "telescopes.");
-//
-//        StringBuilder sB = new StringBuilder();
-//        for (String s : p) { sB.append(s); }
-//        assertEquals("Computer science is no more about computers than astronomy is about telescopes.",
-//                     sB.toString());
-//
-//        assertEquals("PersistentVector(Computer ,science ,is ,no ,more ,...)",
-//                     p.toString());
-//    }
+    @Test public void insert() {
+        // Computer science is no more about computers than astronomy is about telescopes. - Dijkstra
+        ImList<String> p = vec("computers ").insert(0, "is ");
+
+        p = p.insert(1, "more ")
+             .insert(0, "Computer ")
+             .insert(1, "science ");
+        p = p.insert(3, "no ")
+             .insert(5, "about ")
+             .insert(7, "about ")
+             .insert(7, "is ")
+             .insert(7, "astronomy ")
+             .insert(7, "than ");
+        p = p.insert(p.size(), "telescopes.");
+
+        StringBuilder sB = new StringBuilder();
+        for (String s : p) { sB.append(s); }
+        assertEquals("Computer science is no more about computers than astronomy is about telescopes.",
+                     sB.toString());
+
+        assertEquals("PersistentVector(Computer ,science ,is ,no ,more ,...)",
+                     p.toString());
+    }
 
     static class TestList<T> implements ImList<T> {
         static <T> List<T> dup(Collection<T> in) {
@@ -105,4 +106,27 @@ public class ImListTest {
         UnmodListTest.listIteratorTest(Arrays.asList(fourScore),
                                        new TestList<>(Arrays.asList(fourScore)));
     }
+
+    @Test public void defaultInsertDropLastWithout() {
+        ImList<String> abc = new TestList<>(Arrays.asList("a", "b", "c"));
+        assertEquals(Arrays.asList("z", "a", "y", "b", "c", "x"),
+                     abc.insert(0, "z").insert(2, "y").insert(5, "x"));
+        assertEquals(Arrays.asList("a", "b"), abc.dropLast());
+        assertEquals(Arrays.asList("a"), abc.dropLast().dropLast());
+        assertEquals(Arrays.asList(), abc.dropLast().dropLast().dropLast());
+        assertEquals(Arrays.asList("b", "c"), abc.without(0));
+        assertEquals(Arrays.asList("a", "c"), abc.without(1));
+        assertEquals(Arrays.asList("a", "b"), abc.without(2));
+        // Unchanged
+        assertEquals(Arrays.asList("a", "b", "c"), abc);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void defaultInsertEx() { new TestList<>(Arrays.asList("a")).insert(2, "b"); }
+
+    @Test(expected = IllegalStateException.class)
+    public void defaultDropLastEx() { new TestList<>(Arrays.<String>asList()).dropLast(); }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void defaultWithoutEx() { new TestList<>(Arrays.asList("a")).without(1); }
 }
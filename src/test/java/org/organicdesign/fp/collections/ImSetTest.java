@@ -72,4 +72,16 @@ public class ImSetTest {
 
         assertTrue(imSet == imSet.union(null));
     }
-}
\ No newline at end of file
+
+    @Test public void intersectAndDifference() {
+        ImSet<String> s = new TestSet<>(Arrays.asList("a", "b", "c", "d"));
+        assertEquals(new HashSet<>(Arrays.asList("b", "d")),
+                     s.intersect(Arrays.asList("b", "d", "e")));
+        assertEquals(new HashSet<>(Arrays.asList("a", "c")),
+                     s.difference(Arrays.asList("b", "d", "e")));
+        assertEquals(0, s.intersect(null).size());
+        assertEquals(s, s.difference(null));
+        assertEquals(0, s.intersect(Arrays.asList("x")).size());
+        assertEquals(s, s.difference(Arrays.asList("x")));
+    }
+}
@@ -1,10 +1,73 @@
 package org.organicdesign.fp.collections;
 
 import org.junit.Test;
+import org.organicdesign.fp.Option;
+
+import java.util.Comparator;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class ImSortedMapTest {
+    /** Only implements the abstract methods, so everything else uses the defaults. */
+    static class TestSortMap<K,V> implements ImSortedMap<K,V> {
+        private final ImSortedMap<K,V> inner;
+
+        TestSortMap(ImSortedMap<K,V> m) { inner = m; }
+
+        @Override public Option<UnEntry<K,V>> entry(K key) { return inner.entry(key); }
+        @Override public UnmodSortedIterator<UnEntry<K,V>> iterator() { return inner.iterator(); }
+        @Override public ImSortedMap<K,V> subMap(K fromKey, K toKey) {
+            return new TestSortMap<>(inner.subMap(fromKey, toKey));
+        }
+        @Override public ImSortedMap<K,V> tailMap(K fromKey) {
+            return new TestSortMap<>(inner.tailMap(fromKey));
+        }
+        @Override public ImSortedMap<K,V> assoc(K key, V val) {
+            return new TestSortMap<>(inner.assoc(key, val));
+        }
+        @Override public ImSortedMap<K,V> without(K key) {
+            return new TestSortMap<>(inner.without(key));
+        }
+        @Override public Comparator<? super K> comparator() { return inner.comparator(); }
+        @Override public int size() { return inner.size(); }
+        @Override public K firstKey() { return inner.firstKey(); }
+        @Override public K lastKey() { return inner.lastKey(); }
+    }
+
+    @Test public void defaultDescendingMap() {
+        ImSortedMap<Integer,String> m = new TestSortMap<>(PersistentTreeMap.<Integer,String>empty());
+        ImSortedMap<Integer,String> empty = m.descendingMap();
+        assertEquals(0, empty.size());
+        for (int i = 1; i <= 5; i++) {
+            m = m.assoc(i, "v" + i);
+        }
+        ImSortedMap<Integer,String> desc = m.descendingMap();
+        assertEquals(5, desc.size());
+        assertEquals(Integer.valueOf(5), desc.firstKey());
+        assertEquals(Integer.valueOf(1), desc.lastKey());
+        assertEquals("v4", desc.get(4));
+        assertNull(desc.get(7));
+        assertEquals(PersistentTreeMap.<Integer,String>empty().assoc(1, "v1").assoc(2, "v2")
+                                      .assoc(3, "v3").assoc(4, "v4").assoc(5, "v5")
+                                      .descendingMap(),
+                     desc);
+        assertEquals(3, desc.subMap(4, 1).size());
+        assertEquals(2, desc.tailMap(2).size());
+        assertEquals(1, desc.comparator().compare(1, 2));
+
+        UnmodSortedIterator<UnmodMap.UnEntry<Integer,String>> iter = m.descendingIterator();
+        for (int i = 5; i >= 1; i--) {
+            assertEquals(Integer.valueOf(i), iter.next().getKey());
+        }
+
+        ImSortedMap<String,Integer> comp =
+                new TestSortMap<>(PersistentTreeMap.<String,Integer>empty(String.CASE_INSENSITIVE_ORDER)
+                                                   .assoc("b", 2).assoc("A", 1).assoc("c", 3));
+        assertEquals("c", comp.descendingMap().firstKey());
+        assertEquals(Integer.valueOf(1), comp.descendingMap().get("a"));
+    }
+
     @Test public void testCov() {
         ImSortedMap<String,Integer> m = PersistentTreeMap.empty();
         m = m.assoc("Hello", 73);
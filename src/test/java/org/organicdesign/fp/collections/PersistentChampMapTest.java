@@ -0,0 +1,210 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.collections;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.organicdesign.fp.FunctionUtils.ordinal;
+import static org.organicdesign.fp.StaticImports.tup;
+import static org.organicdesign.fp.StaticImports.vec;
+
+@RunWith(JUnit4.class)
+public class PersistentChampMapTest {
+
+    /** Every key lands in one of 37 hash buckets, so there are lots of CollisionNodes. */
+    private static final Equator<Integer> COLLIDING = new Equator<Integer>() {
+        @Override public int hash(Integer i) { return (i == null) ? 0 : (i % 37) * 0x9E3779B1; }
+        @Override public boolean eq(Integer a, Integer b) { return Objects.equals(a, b); }
+    };
+
+    /** Hash codes that share their low bits, so the trie gets deep before it branches. */
+    private static final Equator<Integer> DEEP = new Equator<Integer>() {
+        @Override public int hash(Integer i) { return (i == null) ? 0 : i << 25; }
+        @Override public boolean eq(Integer a, Integer b) { return Objects.equals(a, b); }
+    };
+
+    private static void assertSameMap(Map<Integer,Integer> expected,
+                                      ImMap<Integer,Integer> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.size(), actual.toMutableList().size());
+        assertEquals(expected, actual.toMutableMap(e -> e));
+        for (Map.Entry<Integer,Integer> entry : expected.entrySet()) {
+            assertTrue(actual.containsKey(entry.getKey()));
+            assertEquals(entry.getValue(), actual.get(entry.getKey()));
+            assertEquals(entry.getKey(), actual.entry(entry.getKey()).get().getKey());
+        }
+        assertEquals(expected.hashCode(), actual.hashCode());
+    }
+
+    @Test public void randomOps() {
+        Random rnd = new Random(23);
+        for (int round = 0; round < 60; round++) {
+            Equator<Integer> eq = (round % 3 == 0) ? Equator.defaultEquator() :
+                                  (round % 3 == 1) ? COLLIDING : DEEP;
+            int range = 1 + rnd.nextInt(3000);
+            PersistentChampMap<Integer,Integer> m = PersistentChampMap.empty(eq);
+            ImMapTrans<Integer,Integer> t = PersistentChampMap.<Integer,Integer>empty(eq)
+                                                              .asTransient();
+            Map<Integer,Integer> control = new HashMap<>();
+            for (int i = 0; i < 4000; i++) {
+                Integer key = (rnd.nextInt(50) == 0) ? null : rnd.nextInt(range);
+                if (rnd.nextInt(3) == 0) {
+                    m = m.without(key);
+                    t = t.without(key);
+                    control.remove(key);
+                } else {
+                    Integer val = rnd.nextInt(5);
+                    m = m.assoc(key, val);
+                    t = t.assoc(key, val);
+                    control.put(key, val);
+                }
+                assertEquals(control.size(), m.size());
+                assertEquals(control.size(), t.size());
+            }
+            assertSameMap(control, m);
+            PersistentChampMap<Integer,Integer> p = (PersistentChampMap<Integer,Integer>) t.persistent();
+            assertSameMap(control, p);
+            assertEquals(m, p);
+            assertEquals(p, m);
+            assertEquals(control, m);
+            assertEquals(m, control);
+            assertEquals(m, PersistentHashMap.ofEq(eq, m.map(e -> (Map.Entry<Integer,Integer>) e)));
+
+            // Removing everything gets back to an empty map.
+            for (Integer key : control.keySet()) {
+                m = m.without(key);
+            }
+            assertEquals(0, m.size());
+            assertFalse(m.iterator().hasNext());
+            assertEquals(PersistentChampMap.empty(eq), m);
+        }
+    }
+
+    @Test public void canonicalShape() {
+        for (Equator<Integer> eq : vec(Equator.<Integer>defaultEquator(), COLLIDING, DEEP)) {
+            PersistentChampMap<Integer,Integer> a = PersistentChampMap.empty(eq);
+            PersistentChampMap<Integer,Integer> b = PersistentChampMap.empty(eq);
+            for (int i = 0; i < 2000; i++) {
+                a = a.assoc(i, i);
+                b = b.assoc(1999 - i, 1999 - i);
+            }
+            // Remove from one and add-then-remove extras in the other: still equal.
+            for (int i = 0; i < 2000; i += 3) {
+                a = a.without(i);
+                b = b.assoc(i + 5000, 0).without(i).without(i + 5000);
+            }
+            assertEquals(a, b);
+            assertEquals(b, a);
+            assertEquals(a.hashCode(), b.hashCode());
+            assertNotEquals(a, b.assoc(1, -1));
+            assertNotEquals(a, b.without(1).assoc(3, 3));
+            assertNotEquals(a, a.assoc(null, null));
+            assertEquals(a.assoc(null, 3), b.assoc(null, 3));
+            assertNotEquals(a.assoc(null, 3), b.assoc(null, 4));
+        }
+    }
+
+    @Test public void basics() {
+        PersistentChampMap<String,Integer> m = PersistentChampMap.of(vec(tup("one", 1),
+                                                                         tup("two", 2),
+                                                                         null,
+                                                                         tup("three", 3)));
+        assertEquals(3, m.size());
+        assertEquals(Integer.valueOf(2), m.get("two"));
+        assertNull(m.get("four"));
+        assertTrue(m == m.assoc("one", 1));
+        assertTrue(m == m.without("four"));
+        assertFalse(m.entry("four").isSome());
+        assertEquals(Integer.valueOf(9), m.getOrElse("four", 9));
+        assertTrue(m.assoc("four", null).containsKey("four"));
+        assertFalse(m.containsKey(null));
+        assertEquals(Integer.valueOf(0), m.assoc(null, 0).get(null));
+        assertEquals(PersistentHashSet.of(vec("one", "two", "three")), m.keySet());
+        assertEquals("PersistentChampMap(Tuple2(one,1))",
+                     PersistentChampMap.of(vec(tup("one", 1))).toString());
+        assertEquals(PersistentChampMap.empty(), PersistentHashMap.emptyChamp());
+        assertEquals(PersistentHashMap.of(vec(tup("one", 1), tup("two", 2), tup("three", 3))), m);
+
+        Map<String,Integer> control = new HashMap<>();
+        PersistentChampMap<String,Integer> big = PersistentHashMap.emptyChamp();
+        for (int i = 0; i < 1000; i++) {
+            big = big.assoc(ordinal(i), i);
+            control.put(ordinal(i), i);
+        }
+        assertEquals(control, big);
+        assertEquals(control.hashCode(), big.hashCode());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void iterEx() {
+        UnmodIterator<UnmodMap.UnEntry<Integer,Integer>> iter =
+                PersistentChampMap.<Integer,Integer>empty().assoc(null, 1).iterator();
+        iter.next();
+        iter.next();
+    }
+
+    @Test(expected = IllegalAccessError.class)
+    public void transientAfterPersistent() {
+        PersistentChampMap.TransientChampMap<Integer,Integer> t =
+                PersistentChampMap.<Integer,Integer>empty().asTransient();
+        t.assoc(1, 1);
+        t.persistent();
+        t.assoc(2, 2);
+    }
+
+    @Test public void transientDoesNotChangeOriginal() {
+        PersistentChampMap<Integer,Integer> m = PersistentChampMap.empty();
+        for (int i = 0; i < 500; i++) {
+            m = m.assoc(i, i);
+        }
+        PersistentChampMap.TransientChampMap<Integer,Integer> t = m.asTransient();
+        for (int i = 0; i < 500; i += 2) {
+            t.assoc(i, -i);
+            t.without(i + 1);
+        }
+        assertEquals(500, m.size());
+        for (int i = 0; i < 500; i++) {
+            assertEquals(Integer.valueOf(i), m.get(i));
+        }
+        assertEquals(250, t.persistent().size());
+    }
+
+    @Test public void champSet() {
+        PersistentHashSet<Integer> s = PersistentHashSet.emptyChamp(COLLIDING);
+        Set<Integer> control = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            s = s.put(i);
+            control.add(i);
+        }
+        s = s.without(7);
+        control.remove(7);
+        assertEquals(control, s);
+        assertEquals(s, control);
+        assertEquals(control.hashCode(), s.hashCode());
+        assertEquals(PersistentHashSet.of(control), s);
+        assertEquals(PersistentHashSet.ofEq(COLLIDING, control), s.union(vec(7)).without(7));
+    }
+}
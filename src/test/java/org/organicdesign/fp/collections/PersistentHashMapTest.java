@@ -24,6 +24,7 @@ import org.organicdesign.fp.function.Function1;
 import org.organicdesign.fp.tuple.Tuple2;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -34,6 +35,9 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.stream.StreamSupport;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 import static org.organicdesign.fp.FunctionUtils.ordinal;
@@ -1231,4 +1235,388 @@ public class PersistentHashMapTest {
         assertNotEquals(h2, h2.assoc(null, "nada"));
         assertEquals(h2.size() + 1, h2.assoc(null, "nada").size());
     }
+
+    @Test public void spliterator() {
+        // A poor hash function forces some HashCollisionNodes.
+        Equator<Integer> badHash = new Equator<Integer>() {
+            @Override public int hash(Integer i) { return (i == null) ? 0 : i % 5000; }
+            @Override public boolean eq(Integer a, Integer b) { return Objects.equals(a, b); }
+        };
+        for (Equator<Integer> eq : Arrays.asList(Equator.<Integer>defaultEquator(), badHash)) {
+            ImMapTrans<Integer,String> t = PersistentHashMap.<Integer,String>empty(eq).asTransient();
+            for (int i = 0; i < 10000; i++) {
+                t = t.assoc(i, String.valueOf(i));
+            }
+            PersistentHashMap<Integer,String> m = (PersistentHashMap<Integer,String>)
+                    t.assoc(null, "nada").persistent();
+
+            Spliterator<UnmodMap.UnEntry<Integer,String>> s = m.spliterator();
+            assertEquals(10001, s.getExactSizeIfKnown());
+            assertTrue(s.hasCharacteristics(Spliterator.DISTINCT | Spliterator.IMMUTABLE));
+
+            // Split all the way down, then make sure each entry shows up exactly once.
+            List<Spliterator<UnmodMap.UnEntry<Integer,String>>> pieces = new ArrayList<>();
+            pieces.add(s);
+            for (int i = 0; i < pieces.size(); i++) {
+                Spliterator<UnmodMap.UnEntry<Integer,String>> prefix = pieces.get(i).trySplit();
+                if (prefix != null) {
+                    pieces.add(prefix);
+                    i--;
+                }
+            }
+            assertTrue(pieces.size() > 32);
+            Map<Integer,String> seen = new HashMap<>();
+            for (Spliterator<UnmodMap.UnEntry<Integer,String>> piece : pieces) {
+                piece.tryAdvance(e -> assertNull(seen.put(e.getKey(), e.getValue())));
+                piece.forEachRemaining(e -> assertNull(seen.put(e.getKey(), e.getValue())));
+                assertFalse(piece.tryAdvance(e -> fail("Nothing left")));
+            }
+            assertEquals(m, seen);
+
+            assertEquals(10001, StreamSupport.stream(m.spliterator(), true).count());
+            assertEquals(((long) 10000 * 9999) / 2,
+                         StreamSupport.stream(m.spliterator(), true)
+                                      .filter(e -> e.getKey() != null)
+                                      .mapToLong(e -> e.getKey().longValue())
+                                      .sum());
+        }
+        assertNull(PersistentHashMap.empty().spliterator().trySplit());
+        assertEquals(0, PersistentHashMap.empty().spliterator().estimateSize());
+    }
+
+    @Test public void parallelFold() {
+        assertEquals(Long.valueOf(0),
+                     PersistentHashMap.<Integer,Integer>empty()
+                             .parallelFold(0L, (sum, e) -> sum + e.getValue(), Long::sum));
+
+        Equator<Integer> badHash = new Equator<Integer>() {
+            @Override public int hash(Integer i) { return (i == null) ? 0 : i % 5000; }
+            @Override public boolean eq(Integer a, Integer b) { return Objects.equals(a, b); }
+        };
+        for (Equator<Integer> eq : Arrays.asList(Equator.<Integer>defaultEquator(), badHash)) {
+            ImMapTrans<Integer,Integer> t = PersistentHashMap.<Integer,Integer>empty(eq).asTransient();
+            for (int i = 0; i < 100000; i++) {
+                t = t.assoc(i, i);
+            }
+            // The transient uses the sequential default.
+            assertEquals(Long.valueOf(4999950000L),
+                         t.parallelFold(0L, (sum, e) -> sum + e.getValue(), Long::sum));
+
+            PersistentHashMap<Integer,Integer> m =
+                    (PersistentHashMap<Integer,Integer>) t.assoc(null, -7).persistent();
+
+            assertEquals(Long.valueOf(4999950000L - 7),
+                         m.parallelFold(0L, (sum, e) -> sum + e.getValue(), Long::sum));
+
+            // Every entry is reduced exactly once.
+            ImList<Integer> keys = m.parallelFold(PersistentVector.<Integer>empty(),
+                                                  (v, e) -> v.append(e.getKey()),
+                                                  (v1, v2) -> v1.concat(v2));
+            assertEquals(m.size(), keys.size());
+            assertEquals(m.keySet(), new HashSet<>(keys));
+        }
+    }
+
+    @Test public void getOrElse() {
+        PersistentHashMap<String,Integer> m = PersistentHashMap.empty();
+        assertEquals(Integer.valueOf(-1), m.getOrElse("a", -1));
+        assertNull(m.get("a"));
+        assertFalse(m.containsKey("a"));
+        assertFalse(m.containsKey(null));
+
+        m = m.assoc("a", 1).assoc("b", null).assoc(null, 3);
+        for (int i = 0; i < 100; i++) {
+            m = m.assoc("k" + i, i);
+        }
+        assertEquals(Integer.valueOf(1), m.getOrElse("a", -1));
+        assertNull(m.getOrElse("b", -1));
+        assertEquals(Integer.valueOf(3), m.getOrElse(null, -1));
+        assertEquals(Integer.valueOf(-1), m.getOrElse("c", -1));
+        assertEquals(Integer.valueOf(57), m.get("k57"));
+        assertTrue(m.containsKey("b"));
+        assertTrue(m.containsKey(null));
+        assertFalse(m.containsKey("c"));
+        assertNull(m.get("b"));
+        assertNull(m.get("c"));
+
+        ImMapTrans<String,Integer> t = m.asTransient();
+        assertEquals(Integer.valueOf(1), t.getOrElse("a", -1));
+        assertNull(t.getOrElse("b", -1));
+        assertTrue(t.containsKey("b"));
+        assertEquals(Integer.valueOf(3), t.get(null));
+        t = t.without(null);
+        assertFalse(t.containsKey(null));
+        assertEquals(Integer.valueOf(-1), t.getOrElse(null, -1));
+
+        // Hash collisions
+        PersistentHashMap<HashCollision,String> hc = PersistentHashMap.empty();
+        hc = hc.assoc(new HashCollision("one"), null).assoc(new HashCollision("two"), "2");
+        assertTrue(hc.containsKey(new HashCollision("one")));
+        assertNull(hc.getOrElse(new HashCollision("one"), "x"));
+        assertEquals("2", hc.getOrElse(new HashCollision("two"), "x"));
+        assertEquals("x", hc.getOrElse(new HashCollision("three"), "x"));
+        assertFalse(hc.containsKey(new HashCollision("three")));
+    }
+
+    /** Every key lands in one of 37 hash buckets, so there are lots of HashCollisionNodes. */
+    private static final Equator<Integer> COLLIDING = new Equator<Integer>() {
+        @Override public int hash(Integer i) { return (i == null) ? 0 : (i % 37) * 0x9E3779B1; }
+        @Override public boolean eq(Integer a, Integer b) { return Objects.equals(a, b); }
+    };
+
+    private static void assertSameMap(Map<Integer,Integer> expected,
+                                      PersistentHashMap<Integer,Integer> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.size(), actual.toMutableList().size());
+        for (Map.Entry<Integer,Integer> entry : expected.entrySet()) {
+            assertTrue(actual.containsKey(entry.getKey()));
+            assertEquals(entry.getValue(), actual.get(entry.getKey()));
+        }
+        // The merged trie still works.
+        for (Integer key : expected.keySet()) {
+            actual = actual.without(key);
+        }
+        assertEquals(0, actual.size());
+    }
+
+    @Test public void setAlgebra() {
+        Random rnd = new Random(19);
+        for (int round = 0; round < 400; round++) {
+            Equator<Integer> eq = (round % 2 == 0) ? Equator.defaultEquator() : COLLIDING;
+            int range = 1 + rnd.nextInt((round % 3 == 0) ? 50 : 5000);
+            PersistentHashMap<Integer,Integer> a = PersistentHashMap.empty(eq);
+            Map<Integer,Integer> ja = new HashMap<>();
+            int n = rnd.nextInt((round % 5 == 0) ? 2000 : 200);
+            for (int i = 0; i < n; i++) {
+                Integer key = (rnd.nextInt(20) == 0) ? null : rnd.nextInt(range);
+                a = a.assoc(key, i);
+                ja.put(key, i);
+            }
+            // Half the time, b is derived from a so that they share sub-tries.
+            PersistentHashMap<Integer,Integer> b = PersistentHashMap.empty(eq);
+            Map<Integer,Integer> jb = new HashMap<>();
+            if (rnd.nextBoolean()) {
+                b = a;
+                jb.putAll(ja);
+            }
+            n = rnd.nextInt(200);
+            for (int i = 0; i < n; i++) {
+                Integer key = (rnd.nextInt(20) == 0) ? null : rnd.nextInt(range);
+                if (rnd.nextInt(3) == 0) {
+                    b = b.without(key);
+                    jb.remove(key);
+                } else {
+                    b = b.assoc(key, -i);
+                    jb.put(key, -i);
+                }
+            }
+
+            Map<Integer,Integer> union = new HashMap<>(ja);
+            union.putAll(jb);
+            assertSameMap(union, a.union(b));
+
+            Map<Integer,Integer> merged = new HashMap<>(ja);
+            for (Map.Entry<Integer,Integer> entry : jb.entrySet()) {
+                merged.merge(entry.getKey(), entry.getValue(), (x, y) -> x * 1000 + y);
+            }
+            assertSameMap(merged, a.merge(b, (x, y) -> x * 1000 + y));
+
+            Map<Integer,Integer> intersection = new HashMap<>(ja);
+            intersection.keySet().retainAll(jb.keySet());
+            assertSameMap(intersection, a.intersect(b));
+
+            Map<Integer,Integer> difference = new HashMap<>(ja);
+            difference.keySet().removeAll(jb.keySet());
+            assertSameMap(difference, a.difference(b));
+
+            // Not a PersistentHashMap, so it goes one entry at a time.
+            ImSortedMap<Integer,Integer> tree = PersistentTreeMap.empty(
+                    (x, y) -> Integer.compare((x == null) ? -1 : x, (y == null) ? -1 : y));
+            for (Map.Entry<Integer,Integer> entry : jb.entrySet()) {
+                tree = tree.assoc(entry.getKey(), entry.getValue());
+            }
+            assertSameMap(union, a.union(tree));
+            assertSameMap(merged, a.merge(tree, (x, y) -> x * 1000 + y));
+            assertSameMap(intersection, a.intersect(tree));
+            assertSameMap(difference, a.difference(tree));
+        }
+    }
+
+    @Test public void setAlgebraSharing() {
+        PersistentHashMap<Integer,Integer> a = PersistentHashMap.empty();
+        for (int i = 0; i < 10000; i++) {
+            a = a.assoc(i, i);
+        }
+        PersistentHashMap<Integer,Integer> b = a.assoc(5, -5);
+        assertTrue(a == a.union(a));
+        assertTrue(a == a.intersect(a));
+        assertTrue(b == a.union(b));
+        assertTrue(a == b.union(a).assoc(5, 5));
+        assertEquals(0, a.difference(a).size());
+        assertEquals(0, a.difference(b).size());
+        assertTrue(a == a.difference(PersistentHashMap.empty()));
+        assertTrue(a == a.union(PersistentHashMap.empty()));
+        assertEquals(0, a.intersect(PersistentHashMap.empty()).size());
+        // Null acts like an empty map, as it does for ImSet.
+        assertTrue(a == a.union(null));
+        assertTrue(a == a.merge(null, (x, y) -> x + y));
+        assertTrue(a == a.difference(null));
+        assertEquals(0, a.intersect(null).size());
+        assertEquals(PersistentHashSet.empty(), PersistentHashSet.of(a.keySet()).intersect(null));
+        assertEquals(Integer.valueOf(10), a.merge(a, (x, y) -> x + y).get(5));
+        assertEquals(10000, a.merge(a, (x, y) -> x + y).size());
+    }
+
+    /**
+     The sizes of merged maps are tallied only from the parts of the tries that differ, so check
+     them where most of the trie is shared and a few entries were added, changed, or removed deep
+     down on either side.
+     */
+    @Test public void setAlgebraSharedSizes() {
+        for (int round = 0; round < 4; round++) {
+            Equator<Integer> eq = (round % 2 == 0) ? Equator.defaultEquator() : COLLIDING;
+            PersistentHashMap<Integer,Integer> base = PersistentHashMap.empty(eq);
+            Map<Integer,Integer> jBase = new HashMap<>();
+            for (int i = 0; i < 5000; i++) {
+                base = base.assoc(i, i);
+                jBase.put(i, i);
+            }
+            if (round > 1) {
+                base = base.assoc(null, -1);
+                jBase.put(null, -1);
+            }
+            PersistentHashMap<Integer,Integer> a = base;
+            PersistentHashMap<Integer,Integer> b = base;
+            Map<Integer,Integer> ja = new HashMap<>(jBase);
+            Map<Integer,Integer> jb = new HashMap<>(jBase);
+            for (int i = 0; i < 5000; i += 97) {
+                a = a.without(i).assoc(i + 10000, i);
+                ja.remove(i);
+                ja.put(i + 10000, i);
+                b = b.without(i + 31).assoc(i + 20000, i).assoc(i + 50, -i);
+                jb.remove(i + 31);
+                jb.put(i + 20000, i);
+                jb.put(i + 50, -i);
+            }
+
+            for (int flip = 0; flip < 2; flip++) {
+                Map<Integer,Integer> union = new HashMap<>(ja);
+                union.putAll(jb);
+                assertSameMap(union, a.union(b));
+                assertEquals(union.size(), a.merge(b, (x, y) -> y).size());
+
+                Map<Integer,Integer> intersection = new HashMap<>(ja);
+                intersection.keySet().retainAll(jb.keySet());
+                assertSameMap(intersection, a.intersect(b));
+
+                Map<Integer,Integer> difference = new HashMap<>(ja);
+                difference.keySet().removeAll(jb.keySet());
+                assertSameMap(difference, a.difference(b));
+
+                PersistentHashMap<Integer,Integer> t = a;
+                a = b;
+                b = t;
+                Map<Integer,Integer> jt = ja;
+                ja = jb;
+                jb = jt;
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mergeEx() { PersistentHashMap.empty().merge(PersistentHashMap.empty(), null); }
+
+    /** Maps with the same contents are equal no matter what was added and removed on the way. */
+    @Test public void equalsAfterWithout() {
+        assertEquals(PersistentHashMap.empty(),
+                     PersistentHashMap.empty().assoc("x", 1).without("x"));
+        assertEquals(PersistentHashMap.empty().assoc("x", 1).without("x"),
+                     PersistentHashMap.empty());
+        assertEquals(0, PersistentHashMap.empty().assoc("x", 1).without("x").size());
+
+        PersistentHashMap<Integer,Integer> p = PersistentHashMap.<Integer,Integer>empty().assoc(0, 0);
+        PersistentHashMap<Integer,Integer> q = p.assoc(1, 1).assoc(100001, 1).without(1)
+                                                .without(100001);
+        assertEquals(p, q);
+        assertEquals(q, p);
+        assertEquals(p.hashCode(), q.hashCode());
+
+        // The same through a transient.
+        PersistentHashMap<Integer,Integer> t = p.asTransient().assoc(1, 1).assoc(100001, 1)
+                                                .without(1).without(100001).persistent();
+        assertEquals(p, t);
+        assertEquals(PersistentHashMap.empty(),
+                     p.asTransient().without(0).persistent());
+
+        Random rnd = new Random(14);
+        for (int round = 0; round < 50; round++) {
+            Equator<Integer> eq = (round % 2 == 0) ? Equator.defaultEquator() : COLLIDING;
+            PersistentHashMap<Integer,Integer> a = PersistentHashMap.empty(eq);
+            PersistentHashMap<Integer,Integer> b = PersistentHashMap.empty(eq);
+            int n = rnd.nextInt(300);
+            for (int i = 0; i < n; i++) {
+                a = a.assoc(i, i);
+            }
+            // b gets the same entries plus some extras which are then removed, in another order.
+            for (int i = n - 1; i >= 0; i--) {
+                int extra = rnd.nextInt(1000000) + 1000;
+                b = b.assoc(extra, -1).assoc(i, i).without(extra);
+            }
+            assertEquals(a, b);
+            assertEquals(b, a);
+            for (int i = 0; i < n; i++) {
+                a = a.without(i);
+            }
+            assertEquals(PersistentHashMap.empty(eq), a);
+            assertEquals(a, PersistentHashMap.empty(eq));
+        }
+    }
+
+    @Test public void structuralEquals() {
+        for (int round = 0; round < 4; round++) {
+            Equator<Integer> eq = (round % 2 == 0) ? Equator.defaultEquator() : COLLIDING;
+            PersistentHashMap<Integer,Integer> a = PersistentHashMap.empty(eq);
+            PersistentHashMap<Integer,Integer> b = PersistentHashMap.empty(eq);
+            Map<Integer,Integer> control = new HashMap<>();
+            for (int i = 0; i < 3000; i++) {
+                a = a.assoc(i, i);
+                control.put(i, i);
+            }
+            // Built in the opposite order so that no nodes are shared.
+            for (int i = 2999; i >= 0; i--) {
+                b = b.assoc(i, i);
+            }
+            if (round > 1) {
+                a = a.assoc(null, 7);
+                b = b.assoc(null, 7);
+                control.put(null, 7);
+            }
+            assertEquals(control.hashCode(), a.hashCode());
+            assertEquals(a, b);
+            assertEquals(b, a);
+            assertEquals(a.hashCode(), b.hashCode());
+            assertEquals(control, a);
+
+            // Shares everything except the path to the changed entry.
+            PersistentHashMap<Integer,Integer> c = a.assoc(1234, -1);
+            assertNotEquals(a, c);
+            assertNotEquals(c, a);
+            assertNotEquals(b, c);
+            assertEquals(a, c.assoc(1234, 1234));
+            assertEquals(a, a.assoc(5000, 5).without(5000));
+            assertNotEquals(a, a.without(17).assoc(3000, 17));
+
+            // Differ only in the null key.
+            if (round > 1) {
+                assertNotEquals(a, a.assoc(null, 8));
+                assertNotEquals(a, a.without(null).assoc(3000, 7));
+            }
+
+            // Cached hashCodes that differ prove inequality without looking at the entries.
+            PersistentHashMap<Integer,Integer> d = a.assoc(1, 2);
+            d.hashCode();
+            a.hashCode();
+            assertNotEquals(a, d);
+        }
+    }
 }
@@ -7,6 +7,8 @@ import org.organicdesign.fp.Option;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
 import static org.organicdesign.fp.StaticImports.vec;
@@ -289,6 +291,40 @@ public class PersistentHashSetTest {
                                PersistentHashSet.of(vec("hello", "an", "work", "the")));
     }
 
+    /** Sets with the same items are equal no matter what was added and removed on the way. */
+    @Test public void equalityAfterWithout() {
+        assertEquals(PersistentHashSet.empty(), PersistentHashSet.empty().put("a").without("a"));
+        assertEquals(PersistentHashSet.empty().put("a").without("a"), PersistentHashSet.empty());
+
+        PersistentHashSet<Integer> p = PersistentHashSet.of(vec(0));
+        PersistentHashSet<Integer> q = p.put(1).put(100001).without(1).without(100001);
+        assertEquals(p, q);
+        assertEquals(q, p);
+        assertEquals(p.hashCode(), q.hashCode());
+
+        PersistentHashSet<Integer> a = PersistentHashSet.empty();
+        PersistentHashSet<Integer> b = PersistentHashSet.empty();
+        for (int i = 0; i < 2000; i++) {
+            a = a.put(i);
+            b = b.put(i + 5000).put(i).without(i + 5000);
+        }
+        assertEquals(a, b);
+        assertEquals(b, a);
+    }
+
+    @Test public void spliterator() {
+        PersistentHashSet<Integer> s = PersistentHashSet.empty();
+        for (int i = 0; i < 1000; i++) {
+            s = s.put(i);
+        }
+        Spliterator<Integer> sp = s.spliterator();
+        assertEquals(1000, sp.getExactSizeIfKnown());
+        assertTrue(sp.hasCharacteristics(Spliterator.DISTINCT | Spliterator.IMMUTABLE));
+        assertNotNull(sp.trySplit());
+        assertEquals(499500, s.stream().parallel().mapToInt(Integer::intValue).sum());
+        assertEquals(s, s.stream().parallel().collect(Collectors.toSet()));
+    }
+
 //    // TODO: Finish this!
 //    @Test public void testToString() {
 //        PersistentHashSet<String> s2 = PersistentHashSet.ofComp(STR_LEN_COMP);
@@ -297,4 +333,58 @@ public class PersistentHashSetTest {
 //                     s2.put("hello").put("an").put("work").put("b").put("the").toString());
 //    }
 
+
+    @Test public void setAlgebra() {
+        PersistentHashSet<Integer> evens = PersistentHashSet.of(
+                RangeOfInt.of(0, 10000).filter(i -> i % 2 == 0).toImList());
+        PersistentHashSet<Integer> threes = PersistentHashSet.of(
+                RangeOfInt.of(0, 10000).filter(i -> i % 3 == 0).toImList());
+        Set<Integer> expected = new HashSet<>(evens);
+        expected.addAll(threes);
+        assertEquals(expected, evens.union(threes));
+        expected = new HashSet<>(evens);
+        expected.retainAll(threes);
+        assertEquals(expected, evens.intersect(threes));
+        expected = new HashSet<>(evens);
+        expected.removeAll(threes);
+        assertEquals(expected, evens.difference(threes));
+
+        // Other iterables work one item at a time.
+        assertEquals(PersistentHashSet.of(vec(2, 4, 5)), PersistentHashSet.of(vec(2, 4))
+                                                                         .union(vec(5, 2)));
+        assertEquals(PersistentHashSet.of(vec(4)), evens.intersect(vec(3, 4, 5)));
+        assertEquals(PersistentHashSet.of(vec(2)), PersistentHashSet.of(vec(2, 4, 5))
+                                                                     .difference(vec(4, 5, 6)));
+
+        assertTrue(evens == evens.union(evens));
+        assertTrue(evens == evens.intersect(evens));
+        assertTrue(evens == evens.union(null));
+        assertTrue(evens == evens.difference(null));
+        assertEquals(0, evens.intersect(null).size());
+        assertEquals(0, evens.difference(evens).size());
+        PersistentHashSet<Integer> more = evens.put(-1);
+        assertTrue(more == evens.union(more));
+    }
+
+    @Test public void structuralEquals() {
+        PersistentHashSet<Integer> a = PersistentHashSet.empty();
+        PersistentHashSet<Integer> b = PersistentHashSet.empty();
+        Set<Integer> control = new HashSet<>();
+        for (int i = 0; i < 2000; i++) {
+            a = a.put(i);
+            b = b.put(1999 - i);
+            control.add(i);
+        }
+        assertEquals(control.hashCode(), a.hashCode());
+        assertEquals(a, b);
+        assertEquals(b, a);
+        assertEquals(control, a);
+        assertEquals(a, control);
+        assertNotEquals(a, a.without(5).put(2000));
+        assertEquals(a, a.put(2000).without(2000));
+        assertNotEquals(a, a.put(null).without(7));
+        PersistentHashSet<Integer> c = a.without(3).put(-3);
+        c.hashCode();
+        assertNotEquals(a, c);
+    }
 }
@@ -0,0 +1,140 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.collections;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.organicdesign.fp.StaticImports.vec;
+
+@RunWith(JUnit4.class)
+public class PersistentIntHashSetTest {
+
+    @Test public void randomOps() {
+        Random rnd = new Random(16);
+        for (int round = 0; round < 30; round++) {
+            boolean small = (round % 2 == 0);
+            int range = 1 + rnd.nextInt(3000);
+            PersistentIntHashSet s = PersistentIntHashSet.empty();
+            Set<Integer> control = new HashSet<>();
+            for (int i = 0; i < 4000; i++) {
+                int item = small ? rnd.nextInt(range) : rnd.nextInt();
+                if (rnd.nextInt(3) == 0) {
+                    s = s.withoutInt(item);
+                    control.remove(item);
+                } else {
+                    s = s.putInt(item);
+                    control.add(item);
+                }
+                assertEquals(control.size(), s.size());
+            }
+            for (Integer item : control) {
+                assertTrue(s.containsInt(item));
+                assertTrue(s.contains(item));
+            }
+            assertEquals(control, s);
+            assertEquals(s, control);
+            assertEquals(control, s.toMutableSet());
+            assertEquals(control.hashCode(), s.hashCode());
+            assertEquals(PersistentHashSet.of(control), s);
+            assertEquals(s, PersistentIntHashSet.ofIter(control));
+            // Both sums overflow the same way.
+            assertEquals(control.stream().mapToInt(Integer::intValue).sum(),
+                         s.foldLeftInt(0, (a, b) -> a + b));
+
+            for (Integer item : control) {
+                s = s.without(item);
+            }
+            assertEquals(0, s.size());
+            assertFalse(s.iterator().hasNext());
+            assertEquals(PersistentIntHashSet.empty(), s);
+        }
+    }
+
+    @Test public void canonicalShape() {
+        PersistentIntHashSet a = PersistentIntHashSet.empty();
+        PersistentIntHashSet b = PersistentIntHashSet.empty();
+        for (int i = 0; i < 2000; i++) {
+            a = a.putInt(i);
+            b = b.putInt(1999 - i);
+        }
+        for (int i = 0; i < 2000; i += 3) {
+            a = a.withoutInt(i);
+            b = b.putInt(i + 5000).withoutInt(i).withoutInt(i + 5000);
+        }
+        assertEquals(a, b);
+        assertEquals(b, a);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertNotEquals(a, b.putInt(0));
+        assertNotEquals(a, b.withoutInt(1).putInt(3));
+    }
+
+    @Test public void basics() {
+        PersistentIntHashSet s = PersistentIntHashSet.of(1, Integer.MIN_VALUE, -1, 1);
+        assertEquals(3, s.size());
+        assertTrue(s.containsInt(Integer.MIN_VALUE));
+        assertFalse(s.containsInt(0));
+        assertFalse(s.contains(1L));
+        assertFalse(s.contains(null));
+        assertTrue(s == s.putInt(1));
+        assertTrue(s == s.withoutInt(2));
+        assertTrue(s == s.without(null));
+        assertEquals(PersistentHashSet.of(vec(1, Integer.MIN_VALUE, -1)), s);
+        assertNotEquals(PersistentHashSet.of(vec(1L, -1L, (long) Integer.MIN_VALUE)), s);
+        assertEquals("PersistentIntHashSet(7)", PersistentIntHashSet.of(7).toString());
+        assertEquals(PersistentIntHashSet.empty(), PersistentIntHashSet.of());
+    }
+
+    /** Items that only differ in their high bits still spread out and round-trip. */
+    @Test public void alignedItems() {
+        for (int shift : new int[] { 19, 24, 28 }) {
+            PersistentIntHashSet s = PersistentIntHashSet.empty();
+            Set<Integer> control = new HashSet<>();
+            for (int i = -(1 << (31 - shift)); i < (1 << (31 - shift)); i++) {
+                s = s.putInt(i << shift);
+                control.add(i << shift);
+            }
+            assertEquals(control.size(), s.size());
+            assertEquals(control, s);
+            for (int item : control) {
+                assertTrue(s.containsInt(item));
+                assertFalse(s.containsInt(item + 1));
+            }
+            for (int item : control) {
+                s = s.withoutInt(item);
+            }
+            assertEquals(PersistentIntHashSet.empty(), s);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullItem() {
+        PersistentIntHashSet.empty().put(null);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void iterEx() {
+        UnmodIterator<Integer> iter = PersistentIntHashSet.of(1).iterator();
+        iter.next();
+        iter.next();
+    }
+}
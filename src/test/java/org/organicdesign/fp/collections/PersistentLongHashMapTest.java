@@ -0,0 +1,175 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.collections;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.organicdesign.fp.StaticImports.tup;
+import static org.organicdesign.fp.StaticImports.vec;
+
+@RunWith(JUnit4.class)
+public class PersistentLongHashMapTest {
+
+    private static void assertSameMap(Map<Long,String> expected, PersistentLongHashMap<String> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.size(), actual.toMutableList().size());
+        assertEquals(expected, actual.toMutableMap(e -> e));
+        for (Map.Entry<Long,String> entry : expected.entrySet()) {
+            assertTrue(actual.containsLong(entry.getKey()));
+            assertTrue(actual.containsKey(entry.getKey()));
+            assertEquals(entry.getValue(), actual.getLong(entry.getKey()));
+            assertEquals(entry.getValue(), actual.get(entry.getKey()));
+        }
+        assertEquals(expected, actual);
+        assertEquals(actual, expected);
+        assertEquals(expected.hashCode(), actual.hashCode());
+    }
+
+    @Test public void randomOps() {
+        Random rnd = new Random(16);
+        for (int round = 0; round < 30; round++) {
+            // Small ranges give lots of replacements and removals, big ones give deep tries.
+            long range = (round % 2 == 0) ? 1 + rnd.nextInt(3000) : Long.MAX_VALUE;
+            PersistentLongHashMap<String> m = PersistentLongHashMap.empty();
+            Map<Long,String> control = new HashMap<>();
+            for (int i = 0; i < 4000; i++) {
+                long key = (range == Long.MAX_VALUE) ? rnd.nextLong()
+                                                     : (long) rnd.nextInt((int) range);
+                if (rnd.nextInt(3) == 0) {
+                    m = m.withoutLong(key);
+                    control.remove(key);
+                } else {
+                    String val = (rnd.nextInt(20) == 0) ? null : String.valueOf(rnd.nextInt(5));
+                    m = m.assocLong(key, val);
+                    control.put(key, val);
+                }
+                assertEquals(control.size(), m.size());
+            }
+            assertSameMap(control, m);
+            assertEquals(PersistentHashMap.of(m.map(e -> (Map.Entry<Long,String>) e)), m);
+
+            for (Long key : control.keySet()) {
+                m = m.without(key);
+            }
+            assertEquals(0, m.size());
+            assertFalse(m.iterator().hasNext());
+            assertEquals(PersistentLongHashMap.empty(), m);
+        }
+    }
+
+    @Test public void canonicalShape() {
+        PersistentLongHashMap<String> a = PersistentLongHashMap.empty();
+        PersistentLongHashMap<String> b = PersistentLongHashMap.empty();
+        for (long i = 0; i < 2000; i++) {
+            a = a.assocLong(i, "" + i);
+            b = b.assocLong(1999 - i, "" + (1999 - i));
+        }
+        for (long i = 0; i < 2000; i += 3) {
+            a = a.withoutLong(i);
+            b = b.assocLong(i + 5000, "").withoutLong(i).withoutLong(i + 5000);
+        }
+        assertEquals(a, b);
+        assertEquals(b, a);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertNotEquals(a, b.assocLong(1, ""));
+        assertNotEquals(a, b.withoutLong(1).assocLong(3, "3"));
+    }
+
+    @Test public void basics() {
+        PersistentLongHashMap<String> m = PersistentLongHashMap.of(vec(tup(1L, "one"),
+                                                                       tup(Long.MIN_VALUE, "min"),
+                                                                       tup(-1L, null)));
+        assertEquals(3, m.size());
+        assertEquals("one", m.getLong(1));
+        assertEquals("min", m.get(Long.MIN_VALUE));
+        assertNull(m.getLong(-1));
+        assertTrue(m.containsLong(-1));
+        assertFalse(m.containsLong(2));
+        assertFalse(m.containsKey(1));
+        assertFalse(m.containsKey(null));
+        assertNull(m.get("1"));
+        assertEquals("x", m.getOrElseLong(2, "x"));
+        assertNull(m.getOrElseLong(-1, "x"));
+        assertEquals("x", m.getOrElse(2L, "x"));
+        assertTrue(m == m.assocLong(1, "one"));
+        assertTrue(m == m.assoc(1L, "one"));
+        assertTrue(m == m.withoutLong(2));
+        assertTrue(m == m.without((Long) null));
+        assertEquals("one", m.entry(1L).get().getValue());
+        assertFalse(m.entry(2L).isSome());
+        assertEquals(PersistentHashSet.of(vec(1L, Long.MIN_VALUE, -1L)), m.keySet());
+        assertEquals("PersistentLongHashMap(Tuple2(1,one))",
+                     PersistentLongHashMap.<String>empty().assocLong(1, "one").toString());
+    }
+
+    /** With a boxed value type, both the boxed and the unboxed methods can be called plainly. */
+    @Test public void boxedValues() {
+        PersistentLongHashMap<Integer> m = PersistentLongHashMap.empty();
+        m = m.assoc(1L, 2);
+        m = m.assocLong(3L, 4);
+        m = m.assoc(5L, null);
+        assertEquals(3, m.size());
+        assertEquals(Integer.valueOf(2), m.getOrElse(1L, 0));
+        assertEquals(Integer.valueOf(4), m.getOrElseLong(3L, 0));
+        assertEquals(Integer.valueOf(0), m.getOrElseLong(7L, 0));
+        assertNull(m.getOrElse(5L, 0));
+        assertEquals(Integer.valueOf(2), m.getLong(1L));
+        assertTrue(m.containsLong(5L));
+        assertEquals(2, m.without(1L).size());
+        assertEquals(2, m.withoutLong(3L).size());
+        assertTrue(m == m.withoutLong(9L));
+    }
+
+    /** Keys that only differ in their high bits still spread out and round-trip. */
+    @Test public void alignedKeys() {
+        for (int shift : new int[] { 20, 32, 52 }) {
+            PersistentLongHashMap<String> m = PersistentLongHashMap.empty();
+            Map<Long,String> control = new HashMap<>();
+            for (long i = -2048; i < 2048; i++) {
+                m = m.assocLong(i << shift, "" + i);
+                control.put(i << shift, "" + i);
+            }
+            assertSameMap(control, m);
+            for (long key : control.keySet()) {
+                assertFalse(m.containsLong(key + 1));
+            }
+            for (long key : control.keySet()) {
+                m = m.withoutLong(key);
+            }
+            assertEquals(PersistentLongHashMap.empty(), m);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullKey() {
+        PersistentLongHashMap.<String>empty().assoc((Long) null, "x");
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void iterEx() {
+        UnmodIterator<UnmodMap.UnEntry<Long,String>> iter =
+                PersistentLongHashMap.<String>empty().assocLong(1, "one").iterator();
+        iter.next();
+        iter.next();
+    }
+}
@@ -0,0 +1,144 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.collections;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class PersistentLongVectorTest {
+
+    // Sizes on either side of each place the trie changes shape.
+    private static final int[] SIZES = { 0, 1, 31, 32, 33, 64, 1055, 1056, 1057, 1088, 33823,
+                                         33824, 33825, 40000 };
+
+    private static void assertSameList(List<Long> expected, PersistentLongVector actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).longValue(), actual.getLong(i));
+            assertEquals(expected.get(i), actual.get(i));
+        }
+        assertEquals(expected, actual);
+        assertEquals(actual, expected);
+        assertEquals(expected.hashCode(), actual.hashCode());
+        assertEquals(expected, actual.toMutableList());
+    }
+
+    @Test public void appendAndBulkBuild() {
+        for (int size : SIZES) {
+            long[] items = new long[size];
+            List<Long> control = new ArrayList<>();
+            PersistentLongVector v = PersistentLongVector.empty();
+            for (int i = 0; i < size; i++) {
+                long item = i * 0x100000001L - 7;
+                items[i] = item;
+                control.add(item);
+                v = v.appendLong(item);
+            }
+            assertSameList(control, v);
+            PersistentLongVector bulk = PersistentLongVector.of(items);
+            assertSameList(control, bulk);
+            assertEquals(v, bulk);
+            assertArrayEquals(items, bulk.toLongArray());
+            assertEquals(PersistentVector.empty().concat(control), bulk);
+            assertEquals(bulk, PersistentLongVector.ofIter(control));
+            assertEquals(control.stream().mapToLong(Long::longValue).sum(),
+                         bulk.foldLeftLong(0, (a, b) -> a + b));
+        }
+    }
+
+    @Test public void dropLast() {
+        for (int size : SIZES) {
+            if (size == 0) { continue; }
+            long[] items = new long[size];
+            for (int i = 0; i < size; i++) {
+                items[i] = i;
+            }
+            PersistentLongVector v = PersistentLongVector.of(items);
+            // Check every size on the way down for the small ones, just the edges of the big ones.
+            for (int i = size; i > 0; i--) {
+                v = v.dropLast();
+                if ( (i < 2000) || (i % 1024 < 2) ) {
+                    assertArrayEquals(Arrays.copyOf(items, i - 1), v.toLongArray());
+                    assertEquals(PersistentLongVector.of(Arrays.copyOf(items, i - 1)), v);
+                }
+            }
+            assertEquals(0, v.size());
+            assertEquals(PersistentLongVector.empty(), v.appendLong(1).dropLast());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void dropLastEmpty() {
+        PersistentLongVector.empty().dropLast();
+    }
+
+    @Test public void randomOps() {
+        Random rnd = new Random(16);
+        List<Long> control = new ArrayList<>();
+        PersistentLongVector v = PersistentLongVector.empty();
+        for (int i = 0; i < 20000; i++) {
+            int op = rnd.nextInt(10);
+            if ( (op == 0) && !control.isEmpty() ) {
+                control.remove(control.size() - 1);
+                v = v.dropLast();
+            } else if ( (op < 3) && !control.isEmpty() ) {
+                int idx = rnd.nextInt(control.size());
+                long item = rnd.nextLong();
+                control.set(idx, item);
+                v = v.replaceLong(idx, item);
+            } else {
+                long item = rnd.nextInt(1000);
+                control.add(item);
+                v = v.appendLong(item);
+            }
+        }
+        assertSameList(control, v);
+        for (long item = -5; item < 1005; item += 10) {
+            assertEquals(control.indexOf(item), v.indexOfLong(item));
+            assertEquals(control.contains(item), v.containsLong(item));
+            assertEquals(control.indexOf(item), v.indexOf(item));
+        }
+    }
+
+    @Test public void replaceDoesNotChangeOriginal() {
+        PersistentLongVector v = PersistentLongVector.of(1, 2, 3);
+        PersistentLongVector v2 = v.replaceLong(1, 20).replace(3, 4L);
+        assertEquals(PersistentLongVector.of(1, 2, 3), v);
+        assertEquals(PersistentLongVector.of(1, 20, 3, 4), v2);
+        assertNotEquals(v, v2);
+        assertFalse(v.contains("2"));
+        assertEquals(-1, v.indexOf(2));
+        assertEquals("PersistentLongVector(1,2,3)", v.toString());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getEx() {
+        PersistentLongVector.of(1, 2, 3).getLong(3);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void replaceEx() {
+        PersistentLongVector.of(1, 2, 3).replaceLong(4, 1);
+    }
+}
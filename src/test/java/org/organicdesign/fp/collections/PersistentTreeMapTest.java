@@ -22,8 +22,15 @@ import org.organicdesign.fp.FunctionUtilsTest;
 import org.organicdesign.fp.function.Function1;
 import org.organicdesign.fp.tuple.Tuple2;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
@@ -604,4 +611,483 @@ public class PersistentTreeMapTest {
                                                                Function1.identity()),
                                         max);
     }
+
+    @Test public void getOrElse() {
+        PersistentTreeMap<String,Integer> m = PersistentTreeMap.empty();
+        assertEquals(Integer.valueOf(-1), m.getOrElse("a", -1));
+        assertFalse(m.containsKey("a"));
+        assertNull(m.get("a"));
+
+        m = m.assoc("c", 3).assoc("a", 1).assoc("b", null).assoc("d", 4);
+        assertEquals(Integer.valueOf(1), m.getOrElse("a", -1));
+        assertEquals(Integer.valueOf(4), m.getOrElse("d", -1));
+        assertNull(m.getOrElse("b", -1));
+        assertEquals(Integer.valueOf(-1), m.getOrElse("e", -1));
+        assertTrue(m.containsKey("b"));
+        assertFalse(m.containsKey("e"));
+        assertEquals(Integer.valueOf(3), m.get("c"));
+        assertNull(m.get("b"));
+        assertNull(m.get("e"));
+    }
+
+    @Test public void transientMatchesTreeMap() {
+        Random rnd = new Random(42);
+        // Small batches are applied one at a time, big ones by rebuilding.  Test both.
+        for (int batch : new int[] { 1, 3, 50, 2000 }) {
+            PersistentTreeMap<Integer,Integer> m = PersistentTreeMap.empty();
+            TreeMap<Integer,Integer> control = new TreeMap<>();
+            for (int round = 0; round < 20; round++) {
+                PersistentTreeMap<Integer,Integer> before = m;
+                Map<Integer,Integer> beforeControl = new TreeMap<>(control);
+                PersistentTreeMap.TransientTreeMap<Integer,Integer> t = m.asTransient();
+                for (int i = 0; i < batch; i++) {
+                    int key = rnd.nextInt(3000);
+                    if (rnd.nextInt(3) == 0) {
+                        t.without(key);
+                        control.remove(key);
+                    } else {
+                        Integer val = (i % 7 == 0) ? null : i;
+                        t.assoc(key, val);
+                        control.put(key, val);
+                    }
+                }
+                m = t.persistent();
+                assertEquals(control, m);
+                assertEquals(control.size(), m.size());
+                // The original is unchanged
+                assertEquals(beforeControl, before);
+            }
+        }
+    }
+
+    @Test public void transientLookups() {
+        PersistentTreeMap.TransientTreeMap<String,Integer> t =
+                PersistentTreeMap.<String,Integer>empty().asTransient();
+        t.assoc("c", 3).assoc("a", 1).assoc("b", 2).assoc("a", 11);
+        assertEquals(3, t.size());
+        assertEquals(Integer.valueOf(11), t.get("a"));
+        t.without("b").assoc(tup("d", 4));
+        assertFalse(t.containsKey("b"));
+        assertTrue(t.containsKey("d"));
+        assertEquals(Integer.valueOf(-1), t.getOrElse("b", -1));
+        assertEquals(PersistentTreeMap.of(vec(tup("a", 11), tup("c", 3), tup("d", 4))),
+                     t.persistent());
+    }
+
+    /**
+     Lookups are answered from the buffered changes and the tree together, so checking after every
+     change stays fast and matches a TreeMap, including keys removed and put back, and null values.
+     */
+    @Test public void transientInterleavedLookups() {
+        Random rnd = new Random(9);
+        PersistentTreeMap<Integer,Integer> m = PersistentTreeMap.empty();
+        for (int i = 0; i < 500; i += 2) {
+            m = m.assoc(i, i);
+        }
+        TreeMap<Integer,Integer> control = new TreeMap<>(m);
+        PersistentTreeMap.TransientTreeMap<Integer,Integer> t = m.asTransient();
+        for (int i = 0; i < 20000; i++) {
+            int key = rnd.nextInt(1000);
+            int op = rnd.nextInt(4);
+            if (op == 0) {
+                t.without(key);
+                control.remove(key);
+            } else {
+                Integer val = (op == 1) ? null : i;
+                t.assoc(key, val);
+                control.put(key, val);
+            }
+            int probe = rnd.nextInt(1000);
+            assertEquals(control.size(), t.size());
+            assertEquals(control.containsKey(probe), t.containsKey(probe));
+            assertEquals(control.containsKey(probe) ? control.get(probe) : Integer.valueOf(-1),
+                         t.getOrElse(probe, -1));
+        }
+        PersistentTreeMap<Integer,Integer> result = t.persistent();
+        assertEquals(control, result);
+        assertEquals(control.size(), result.size());
+        // The original is unchanged
+        assertEquals(250, m.size());
+    }
+
+    // Keys which compare equal keep the first key object and the last value, like assoc() does.
+    @Test public void transientEqualKeys() {
+        Comparator<String> comp = String.CASE_INSENSITIVE_ORDER;
+        PersistentTreeMap<String,Integer> big = PersistentTreeMap.empty(comp);
+        for (int i = 0; i < 200; i++) {
+            big = big.assoc("k" + i, i);
+        }
+        // The empty map is rebuilt, the big one changed one key at a time.
+        for (PersistentTreeMap<String,Integer> base : vec(PersistentTreeMap.<String,Integer>empty(comp),
+                                                          big)) {
+            for (boolean indexed : new boolean[] { false, true }) {
+                String a = "a";
+                String b = "b";
+                PersistentTreeMap.TransientTreeMap<String,Integer> t = base.asTransient();
+                t.assoc(a, 1).assoc(b, 2);
+                if (indexed) {
+                    assertEquals(base.size() + 2, t.size());
+                }
+                t.assoc("A", 3).assoc("B", 4);
+                PersistentTreeMap<String,Integer> m = t.persistent();
+                assertEquals(base.size() + 2, m.size());
+                assertSame(a, m.entry("A").get().getKey());
+                assertSame(b, m.entry("B").get().getKey());
+                assertEquals(Integer.valueOf(3), m.get("a"));
+                assertEquals(Integer.valueOf(4), m.get("b"));
+
+                // The key already in the map stays...
+                t = m.asTransient().assoc("A", 5);
+                if (indexed) {
+                    assertTrue(t.containsKey("a"));
+                }
+                PersistentTreeMap<String,Integer> m2 = t.persistent();
+                assertSame(a, m2.entry("a").get().getKey());
+                assertEquals(Integer.valueOf(5), m2.get("a"));
+
+                // ...unless it's removed first.
+                String bigB = "B";
+                t = m.asTransient().without("b").assoc(bigB, 6);
+                if (indexed) {
+                    assertTrue(t.containsKey("b"));
+                }
+                m2 = t.persistent();
+                assertEquals(m.size(), m2.size());
+                assertSame(bigB, m2.entry("b").get().getKey());
+                assertEquals(Integer.valueOf(6), m2.get("b"));
+            }
+        }
+
+        String a = "a";
+        String b = "b";
+        ImSortedMap<String,Integer> m =
+                vec(a, b, "A", "B").toImSortedMap(comp, s -> tup(s, s.charAt(0) + 0));
+        assertEquals(2, m.size());
+        assertSame(a, m.firstKey());
+        assertSame(b, m.lastKey());
+        assertEquals(Integer.valueOf('A'), m.get("a"));
+        assertEquals(Integer.valueOf('B'), m.get("b"));
+    }
+
+    @Test(expected = IllegalAccessError.class)
+    public void transientAfterPersistent() {
+        PersistentTreeMap.TransientTreeMap<String,Integer> t =
+                PersistentTreeMap.<String,Integer>empty().asTransient();
+        t.assoc("a", 1).persistent();
+        t.assoc("b", 2);
+    }
+
+    @Test public void transientOtherThread() throws Exception {
+        PersistentTreeMap.TransientTreeMap<String,Integer> t =
+                PersistentTreeMap.<String,Integer>empty().asTransient();
+        t.assoc("a", 1);
+        Throwable[] thrown = new Throwable[1];
+        Thread other = new Thread(() -> {
+            try {
+                t.assoc("b", 2);
+            } catch (Throwable e) {
+                thrown[0] = e;
+            }
+        });
+        other.start();
+        other.join();
+        assertTrue(thrown[0] instanceof IllegalAccessError);
+        assertEquals(PersistentTreeMap.of(vec(tup("a", 1))), t.persistent());
+    }
+
+    @Test public void ofSorted() {
+        for (int n = 0; n < 200; n++) {
+            List<Map.Entry<Integer,String>> entries = new ArrayList<>();
+            TreeMap<Integer,String> control = new TreeMap<>();
+            for (int i = 0; i < n; i++) {
+                entries.add(tup(i * 2, String.valueOf(i)));
+                control.put(i * 2, String.valueOf(i));
+            }
+            PersistentTreeMap<Integer,String> m =
+                    PersistentTreeMap.ofSorted(Comparator.naturalOrder(), entries);
+            assertEquals(control, m);
+
+            // The tree must still be a valid red-black tree.
+            for (int i = 0; i < n; i++) {
+                m = m.assoc(i * 2 + 1, "odd").without(i * 2);
+                control.put(i * 2 + 1, "odd");
+                control.remove(i * 2);
+                assertEquals(control.size(), m.size());
+            }
+            assertEquals(control, m);
+        }
+
+        // Later duplicates overwrite earlier ones.  Nulls are skipped.
+        assertEquals(PersistentTreeMap.of(vec(tup(1, "b"), tup(2, "c"))),
+                     PersistentTreeMap.ofSorted(Comparator.<Integer>naturalOrder(),
+                                                Arrays.asList(tup(1, "a"), null, tup(1, "b"),
+                                                              tup(2, "c"))));
+        assertEquals(0, PersistentTreeMap.ofSorted(Comparator.<Integer>naturalOrder(), null)
+                                         .size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ofSortedEx() {
+        PersistentTreeMap.ofSorted(Comparator.<Integer>naturalOrder(),
+                                   Arrays.asList(tup(1, "a"), tup(3, "c"), tup(2, "b")));
+    }
+
+    @Test public void structuralSubMaps() {
+        Random rnd = new Random(7);
+        for (int round = 0; round < 500; round++) {
+            PersistentTreeMap<Integer,Integer> m = PersistentTreeMap.empty();
+            TreeMap<Integer,Integer> control = new TreeMap<>();
+            int n = rnd.nextInt(300);
+            for (int i = 0; i < n; i++) {
+                int key = rnd.nextInt(1000);
+                m = m.assoc(key, i);
+                control.put(key, i);
+            }
+            int from = rnd.nextInt(1100) - 50;
+            int to = from + rnd.nextInt(600);
+
+            PersistentTreeMap<Integer,Integer> sub = m.subMap(from, to);
+            assertEquals(control.subMap(from, to), sub);
+            assertEquals(control.subMap(from, to).size(), sub.size());
+            assertEquals(control.tailMap(from), m.tailMap(from));
+            assertEquals(control.tailMap(from).size(), m.tailMap(from).size());
+            assertEquals(control.headMap(to), m.headMap(to));
+            assertEquals(control.headMap(to).size(), m.headMap(to).size());
+
+            // The results are still valid red-black trees.
+            SortedMap<Integer,Integer> subControl = new TreeMap<>(control.subMap(from, to));
+            for (int i = 0; i < 30; i++) {
+                int key = rnd.nextInt(1000);
+                if (rnd.nextBoolean()) {
+                    sub = sub.assoc(key, -i);
+                    subControl.put(key, -i);
+                } else {
+                    sub = sub.without(key);
+                    subControl.remove(key);
+                }
+            }
+            assertEquals(subControl, sub);
+            assertEquals(subControl.size(), sub.size());
+        }
+
+        PersistentTreeMap<String,Integer> m = PersistentTreeMap.of(vec(tup("b", 2), tup("d", 4)));
+        assertTrue(m == m.subMap("a", "e"));
+        assertTrue(m == m.tailMap("b"));
+        assertTrue(m == m.headMap("e"));
+        assertEquals(PersistentTreeMap.of(vec(tup("d", 4))), m.tailMap("c"));
+        assertEquals(PersistentTreeMap.of(vec(tup("b", 2))), m.headMap("d"));
+        assertEquals(0, m.subMap("b", "b").size());
+
+        // These used to throw NullPointerException or NoSuchElementException
+        PersistentTreeMap<String,Integer> empty = PersistentTreeMap.empty();
+        assertEquals(0, empty.subMap("a", "z").size());
+        assertEquals(0, empty.tailMap("a").size());
+        assertEquals(0, empty.headMap("a").size());
+    }
+
+    private static <K,V> List<Map.Entry<K,V>> entries(Iterator<? extends Map.Entry<K,V>> iter) {
+        List<Map.Entry<K,V>> ret = new ArrayList<>();
+        while (iter.hasNext()) {
+            Map.Entry<K,V> entry = iter.next();
+            ret.add(Tuple2.of(entry.getKey(), entry.getValue()));
+        }
+        return ret;
+    }
+
+    @Test public void descendingAndSeekIterators() {
+        Random rnd = new Random(11);
+        for (int round = 0; round < 300; round++) {
+            PersistentTreeMap<Integer,Integer> m = PersistentTreeMap.empty();
+            TreeMap<Integer,Integer> control = new TreeMap<>();
+            int n = rnd.nextInt(200);
+            for (int i = 0; i < n; i++) {
+                int key = rnd.nextInt(500);
+                m = m.assoc(key, i);
+                control.put(key, i);
+            }
+            assertEquals(entries(control.descendingMap().entrySet().iterator()),
+                         entries(m.descendingIterator()));
+
+            int key = rnd.nextInt(520) - 10;
+            assertEquals(entries(control.tailMap(key, true).entrySet().iterator()),
+                         entries(m.iteratorFrom(key, true)));
+            assertEquals(entries(control.headMap(key, true).descendingMap().entrySet().iterator()),
+                         entries(m.iteratorFrom(key, false)));
+        }
+
+        // A tall tree, to make sure the iterator's stack is big enough.
+        PersistentTreeMap.TransientTreeMap<Integer,Integer> trans =
+                PersistentTreeMap.<Integer,Integer>empty().asTransient();
+        for (int i = 0; i < 100000; i++) {
+            trans.assoc(i, i);
+        }
+        PersistentTreeMap<Integer,Integer> big = trans.persistent();
+        for (int i = 0; i < 100000; i += 1000) {
+            big = big.without(i);
+        }
+        int expected = 99999;
+        UnmodSortedIterator<UnmodMap.UnEntry<Integer,Integer>> iter = big.descendingIterator();
+        while (iter.hasNext()) {
+            if (expected % 1000 == 0) { expected--; }
+            assertEquals(Integer.valueOf(expected), iter.next().getKey());
+            expected--;
+        }
+        assertEquals(0, expected);
+
+        // Latest-N without scanning from the smallest key.
+        iter = big.iteratorFrom(51000, false);
+        assertEquals(Integer.valueOf(50999), iter.next().getKey());
+        assertEquals(Integer.valueOf(50998), iter.next().getKey());
+        iter = big.iteratorFrom(50500, true);
+        assertEquals(Integer.valueOf(50500), iter.next().getKey());
+        assertEquals(Integer.valueOf(50501), iter.next().getKey());
+
+        assertFalse(PersistentTreeMap.empty().descendingIterator().hasNext());
+        assertFalse(PersistentTreeMap.<Integer,String>empty().iteratorFrom(3, true).hasNext());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void iteratorEx() {
+        PersistentTreeMap.of(vec(tup(1, "one"))).descendingIterator().next();
+        PersistentTreeMap.empty().iterator().next();
+    }
+
+    @Test public void descendingMap() {
+        Random rnd = new Random(13);
+        for (int round = 0; round < 300; round++) {
+            PersistentTreeMap<Integer,Integer> m = PersistentTreeMap.empty();
+            TreeMap<Integer,Integer> tm = new TreeMap<>();
+            int n = rnd.nextInt(200);
+            for (int i = 0; i < n; i++) {
+                int key = rnd.nextInt(500);
+                m = m.assoc(key, i);
+                tm.put(key, i);
+            }
+            ImSortedMap<Integer,Integer> desc = m.descendingMap();
+            NavigableMap<Integer,Integer> control = tm.descendingMap();
+            assertEquals(control, desc);
+            assertEquals(entries(control.entrySet().iterator()), entries(desc.iterator()));
+            assertEquals(m.size(), desc.size());
+
+            int from = rnd.nextInt(520) - 10;
+            int to = from - rnd.nextInt(300);
+            assertEquals(entries(control.subMap(from, to).entrySet().iterator()),
+                         entries(desc.subMap(from, to).iterator()));
+            assertEquals(control.subMap(from, to).size(), desc.subMap(from, to).size());
+            assertEquals(entries(control.tailMap(from).entrySet().iterator()),
+                         entries(desc.tailMap(from).iterator()));
+            assertEquals(entries(control.headMap(to).entrySet().iterator()),
+                         entries(desc.headMap(to).iterator()));
+
+            if (n > 0) {
+                assertEquals(control.firstKey(), desc.firstKey());
+                assertEquals(control.lastKey(), desc.lastKey());
+            }
+            int key = rnd.nextInt(500);
+            assertEquals(control.get(key), desc.get(key));
+            assertEquals(control.containsKey(key), desc.containsKey(key));
+
+            tm.put(key, -1);
+            assertEquals(control, desc.assoc(key, -1));
+            tm.remove(key);
+            assertEquals(control, desc.assoc(key, -1).without(key));
+        }
+
+        PersistentTreeMap<String,Integer> m = PersistentTreeMap.of(vec(tup("a", 1), tup("b", 2),
+                                                                       tup("c", 3)));
+        ImSortedMap<String,Integer> desc = m.descendingMap();
+        assertTrue(m == desc.descendingMap());
+        assertEquals(Arrays.asList("c", "b", "a"), desc.keySet().toImList());
+        assertTrue(desc.comparator().compare("a", "b") > 0);
+        assertEquals(m.hashCode(), desc.hashCode());
+        // Like PersistentTreeMap.equals(), order matters when comparing sorted maps.
+        assertFalse(m.equals(desc));
+        assertEquals(desc, m.descendingMap());
+        assertTrue(desc == desc.tailMap("c"));
+        assertEquals(Arrays.asList("c", "b"), desc.headMap("a").keySet().toImList());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void descendingSubMapEx() {
+        PersistentTreeMap.of(vec(tup(1, "one"), tup(5, "five"))).descendingMap().subMap(1, 5);
+    }
+
+    @Test public void rankAndSelect() {
+        Random rnd = new Random(17);
+        for (int round = 0; round < 200; round++) {
+            PersistentTreeMap<Integer,Integer> m = PersistentTreeMap.empty();
+            TreeMap<Integer,Integer> control = new TreeMap<>();
+            int n = rnd.nextInt(300);
+            for (int i = 0; i < n; i++) {
+                int key = rnd.nextInt(600);
+                if (rnd.nextInt(4) == 0) {
+                    m = m.without(key);
+                    control.remove(key);
+                } else {
+                    m = m.assoc(key, i);
+                    control.put(key, i);
+                }
+            }
+            if (rnd.nextBoolean()) {
+                int from = rnd.nextInt(300);
+                m = m.subMap(from, from + 300);
+                control = new TreeMap<>(control.subMap(from, from + 300));
+            }
+            List<Integer> keys = new ArrayList<>(control.keySet());
+            for (int i = 0; i < keys.size(); i++) {
+                assertEquals(keys.get(i), m.select(i).getKey());
+                assertEquals(control.get(keys.get(i)), m.select(i).getValue());
+                assertEquals(i, m.indexOf(keys.get(i)));
+                assertEquals(i, m.rank(keys.get(i)));
+            }
+            for (int i = 0; i < 20; i++) {
+                int key = rnd.nextInt(620) - 10;
+                assertEquals(control.headMap(key).size(), m.rank(key));
+                assertEquals(control.containsKey(key) ? control.headMap(key).size() : -1,
+                             m.indexOf(key));
+            }
+
+            ImSortedMap<Integer,Integer> desc = m.descendingMap();
+            List<Integer> descKeys = new ArrayList<>(control.descendingKeySet());
+            for (int i = 0; i < descKeys.size(); i++) {
+                assertEquals(descKeys.get(i), desc.select(i).getKey());
+                assertEquals(i, desc.indexOf(descKeys.get(i)));
+            }
+            for (int i = 0; i < 20; i++) {
+                int key = rnd.nextInt(620) - 10;
+                assertEquals(control.descendingMap().headMap(key).size(), desc.rank(key));
+            }
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void selectExLow() { PersistentTreeMap.of(vec(tup(1, "one"))).select(-1); }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void selectExHigh() { PersistentTreeMap.of(vec(tup(1, "one"))).select(1); }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void selectExEmpty() { PersistentTreeMap.empty().select(0); }
+
+    @Test public void cachedHashCode() {
+        PersistentTreeMap<Integer,String> a = PersistentTreeMap.empty();
+        Map<Integer,String> control = new TreeMap<>();
+        for (int i = 0; i < 500; i++) {
+            a = a.assoc(i, ordinal(i));
+            control.put(i, ordinal(i));
+        }
+        assertEquals(0, PersistentTreeMap.empty().hashCode());
+        assertEquals(control.hashCode(), a.hashCode());
+        assertEquals(control.hashCode(), a.hashCode());
+        PersistentTreeMap<Integer,String> b = a.assoc(7, "x");
+        assertEquals(b.hashCode(), b.hashCode());
+        assertNotEquals(a, b);
+        assertEquals(a, b.assoc(7, ordinal(7)));
+        assertEquals(a, a.without(1000));
+
+        PersistentTreeSet<Integer> s = PersistentTreeSet.of(control.keySet());
+        assertEquals(control.keySet().hashCode(), s.hashCode());
+        assertNotEquals(s, s.without(3).put(-3));
+        assertEquals(s, s.put(3));
+    }
 }
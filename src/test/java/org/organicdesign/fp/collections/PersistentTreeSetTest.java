@@ -19,8 +19,10 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import org.organicdesign.fp.FunctionUtils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -267,4 +269,104 @@ public class PersistentTreeSetTest {
                      s2.put("hello").put("an").put("work").put("b").put("the").toString());
     }
 
+
+    @Test public void transientSet() {
+        PersistentTreeSet<Integer> orig = PersistentTreeSet.of(vec(5, 3, 1));
+        PersistentTreeSet.TransientTreeSet<Integer> t = orig.asTransient();
+        TreeSet<Integer> control = new TreeSet<>(Arrays.asList(5, 3, 1));
+        for (int i = 0; i < 1000; i++) {
+            int item = (i * 37) % 501;
+            if (i % 4 == 0) {
+                t.without(item);
+                control.remove(item);
+            } else {
+                t.put(item);
+                control.add(item);
+            }
+        }
+        assertTrue(t.contains(control.first()));
+        assertEquals(control.size(), t.size());
+        assertEquals(control, t.persistent());
+        assertEquals(PersistentTreeSet.of(vec(1, 3, 5)), orig);
+    }
+
+    // Like put(), a transient keeps the first of several items which compare equal.
+    @Test public void transientEqualItems() {
+        String a = "a";
+        String b = "b";
+        List<String> items = Arrays.asList(a, b, "A", "B");
+        for (ImSortedSet<String> s : vec(PersistentTreeSet.ofComp(String.CASE_INSENSITIVE_ORDER, items),
+                                         vec(a, b, "A", "B")
+                                                 .toImSortedSet(String.CASE_INSENSITIVE_ORDER))) {
+            assertEquals(2, s.size());
+            assertSame(a, s.first());
+            assertSame(b, s.last());
+        }
+
+        PersistentTreeSet.TransientTreeSet<String> t =
+                PersistentTreeSet.<String>ofComp(String.CASE_INSENSITIVE_ORDER).asTransient();
+        t.put(a);
+        assertEquals(1, t.size());
+        t.put("A").put(b).put("B");
+        PersistentTreeSet<String> s = t.persistent();
+        assertSame(a, s.first());
+        assertSame(b, s.last());
+    }
+
+    @Test public void descendingSet() {
+        PersistentTreeSet<String> s = PersistentTreeSet.of(vec("c", "a", "d", "b"));
+        ImSortedSet<String> desc = s.descendingSet();
+        assertEquals(Arrays.asList("d", "c", "b", "a"), desc.toImList());
+        assertTrue(desc.contains("b"));
+        assertEquals("d", desc.first());
+        assertEquals("a", desc.last());
+        assertEquals(Arrays.asList("c", "b"), desc.subSet("c", "a").toImList());
+        assertEquals(Arrays.asList("b", "a"), desc.tailSet("b").toImList());
+        assertEquals(Arrays.asList("d", "c"), desc.headSet("b").toImList());
+        assertEquals(Arrays.asList("e", "d", "c", "b", "a"), desc.put("e").toImList());
+        assertEquals(Arrays.asList("d", "b", "a"), desc.without("c").toImList());
+        assertEquals(Arrays.asList("a", "b", "c", "d"), desc.descendingSet().toImList());
+
+        List<String> items = new ArrayList<>();
+        desc.descendingIterator().forEachRemaining(items::add);
+        assertEquals(Arrays.asList("a", "b", "c", "d"), items);
+        items.clear();
+        s.descendingIterator().forEachRemaining(items::add);
+        assertEquals(Arrays.asList("d", "c", "b", "a"), items);
+
+        // Transient of a descending set keeps the order
+        PersistentTreeSet.TransientTreeSet<String> trans = s.descendingSet().asTransient();
+        trans.put("e");
+        assertEquals(Arrays.asList("e", "d", "c", "b", "a"), trans.persistent().toImList());
+    }
+
+    @Test public void positionalAccess() {
+        PersistentTreeSet<String> s = PersistentTreeSet.of(vec("d", "b", "a", "e", "c"));
+        assertEquals("a", s.get(0));
+        assertEquals("c", s.get(2));
+        assertEquals("e", s.get(4));
+        assertEquals(3, s.indexOf("d"));
+        assertEquals(-1, s.indexOf("bb"));
+        assertEquals(2, s.rank("bb"));
+        assertEquals(5, s.rank("z"));
+        assertEquals(0, s.rank("A"));
+
+        UnmodList<String> list = s.asList();
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e"), list);
+        assertEquals(5, list.size());
+        assertEquals("b", list.get(1));
+        assertEquals(4, list.indexOf("e"));
+        assertEquals(-1, list.indexOf(7));
+        assertTrue(list.contains("c"));
+        assertEquals(Arrays.asList("b", "c"), list.subList(1, 3));
+
+        PersistentTreeSet<String> desc = s.descendingSet();
+        assertEquals("e", desc.get(0));
+        assertEquals("a", desc.get(4));
+        assertEquals(1, desc.indexOf("d"));
+        assertEquals(3, desc.rank("bb"));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getEx() { PersistentTreeSet.of(vec("a")).get(1); }
 }
@@ -27,6 +27,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
 import static org.organicdesign.fp.StaticImports.vec;
@@ -356,4 +358,238 @@ public class PersistentVectorTest {
                                                            "6th")),
                      pv);
     }
+
+    @Test public void transientAppendReplacePop() {
+        int len = 32 * 32 * 33 + 5; // Needs a three-level tree.
+        PersistentVector.TransientVector<Integer> tv = PersistentVector.emptyTransient();
+        List<Integer> control = new ArrayList<>();
+        for (int i = 0; i < len; i++) {
+            assertTrue(tv == tv.append(i));
+            control.add(i);
+        }
+        assertEquals(len, tv.size());
+        for (int i = 0; i < len; i += 7) {
+            tv.replace(i, -i);
+            control.set(i, -i);
+            assertEquals(Integer.valueOf(-i), tv.get(i));
+        }
+        // Pop our way down through every tail and tree boundary.
+        for (int i = len; i > len - (32 * 33) - 3; i--) {
+            tv.pop();
+            control.remove(control.size() - 1);
+            assertEquals(control.size(), tv.size());
+        }
+        // Still works after popping.
+        tv.append(999).replace(3, 333);
+        control.add(999);
+        control.set(3, 333);
+
+        PersistentVector<Integer> pv = tv.persistent();
+        assertEquals(control, pv);
+        assertEquals(PersistentVector.ofIter(control), pv);
+
+        // Popping everything
+        PersistentVector.TransientVector<Integer> tv2 = pv.asTransient();
+        for (int i = pv.size(); i > 0; i--) {
+            tv2.pop();
+        }
+        assertEquals(0, tv2.size());
+        assertEquals(PersistentVector.empty(), tv2.persistent());
+        // The original is unchanged
+        assertEquals(control, pv);
+    }
+
+    @Test public void transientDoesNotChangeOriginal() {
+        List<Integer> control = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) { control.add(i); }
+        PersistentVector<Integer> pv = PersistentVector.ofIter(control);
+        PersistentVector.TransientVector<Integer> tv = pv.asTransient();
+        for (int i = 0; i < 2000; i++) {
+            tv.replace(i, i * 2);
+        }
+        tv.pop().pop().append(-1).concat(Arrays.asList(-2, -3));
+        assertEquals(control, pv);
+        PersistentVector<Integer> pv2 = tv.persistent();
+        assertEquals(2001, pv2.size());
+        assertEquals(Integer.valueOf(3994), pv2.get(1997));
+        assertEquals(Integer.valueOf(-3), pv2.get(2000));
+        assertEquals(control, pv);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void transientPopEmpty() { PersistentVector.emptyTransient().pop(); }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void transientGetEx() { PersistentVector.emptyTransient().append(1).get(1); }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void transientReplaceEx() { PersistentVector.emptyTransient().append(1).replace(2, 1); }
+
+    @Test(expected = IllegalAccessError.class)
+    public void transientAfterPersistent() {
+        PersistentVector.TransientVector<Integer> tv = PersistentVector.emptyTransient();
+        tv.append(1).persistent();
+        tv.append(2);
+    }
+
+    @Test public void transientOtherThread() throws Exception {
+        PersistentVector.TransientVector<Integer> tv = PersistentVector.emptyTransient();
+        tv.append(1);
+        Throwable[] thrown = new Throwable[1];
+        Thread t = new Thread(() -> {
+            try {
+                tv.append(2);
+            } catch (Throwable e) {
+                thrown[0] = e;
+            }
+        });
+        t.start();
+        t.join();
+        assertTrue(thrown[0] instanceof IllegalAccessError);
+        assertEquals(vec(1), tv.persistent());
+    }
+
+    @Test public void dropLast() {
+        int len = 32 * 32 * 33 + 40; // Needs a three-level tree.
+        List<Integer> control = new ArrayList<>();
+        for (int i = 0; i < len; i++) { control.add(i); }
+        PersistentVector<Integer> pv = PersistentVector.ofIter(control);
+        PersistentVector<Integer> orig = pv;
+        while (pv.size() > 0) {
+            pv = pv.dropLast();
+            control.remove(control.size() - 1);
+            assertEquals(control.size(), pv.size());
+            // Check the boundaries where the tail comes out of the tree or the tree gets shorter.
+            if ( (pv.size() < 70) || ((pv.size() & 31) < 2) ) {
+                assertEquals(control, pv);
+                // Still works after dropping.
+                assertEquals(pv.size() + 1, pv.append(-1).size());
+                assertEquals(Integer.valueOf(-1), pv.append(-1).get(pv.size()));
+            }
+        }
+        assertEquals(PersistentVector.empty(), pv);
+        assertEquals(len, orig.size());
+        assertEquals(Integer.valueOf(len - 1), orig.get(len - 1));
+
+        // without(int) on the last index is the same as dropLast
+        assertEquals(vec(1, 2), vec(1, 2, 3).without(2));
+        assertEquals(vec(1, 3), vec(1, 2, 3).without(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void dropLastEmpty() { PersistentVector.empty().dropLast(); }
+
+    @Test public void forEachChunk() {
+        for (int len : new int[] { 0, 1, 31, 32, 33, 1024, 1056, 1057, 33 * 32 * 32 + 3 }) {
+            List<Integer> control = new ArrayList<>();
+            for (int i = 0; i < len; i++) { control.add(i); }
+            PersistentVector<Integer> pv = PersistentVector.ofIter(control);
+            for (int[] range : new int[][] { {0, len}, {0, len / 2}, {len / 3, len},
+                                             {len / 3, len / 3}, {len / 5, len - (len / 7)} }) {
+                List<Integer> test = new ArrayList<>();
+                assertTrue(pv.forEachChunk(range[0], range[1], (chunk, from, to) -> {
+                    assertTrue(to - from <= 32);
+                    for (int i = from; i < to; i++) {
+                        test.add((Integer) chunk[i]);
+                    }
+                    return true;
+                }));
+                assertEquals(control.subList(range[0], range[1]), test);
+            }
+        }
+
+        PersistentVector<Integer> pv = PersistentVector.ofIter(RangeOfInt.of(0, 100));
+        int[] chunks = new int[] { 0 };
+        assertFalse(pv.forEachChunk((chunk, from, to) -> ++chunks[0] < 2));
+        assertEquals(2, chunks[0]);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void forEachChunkEx() { PersistentVector.ofIter(vec(1, 2, 3)).forEachChunk(2, 4, (c, f, t) -> true); }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void forEachChunkEx2() { PersistentVector.ofIter(vec(1, 2, 3)).forEachChunk(2, 1, (c, f, t) -> true); }
+
+    private static <T> void splitAll(Spliterator<T> s, List<Spliterator<T>> leaves) {
+        Spliterator<T> prefix = s.trySplit();
+        if (prefix == null) {
+            leaves.add(s);
+            return;
+        }
+        splitAll(prefix, leaves);
+        splitAll(s, leaves);
+    }
+
+    @Test public void spliterator() {
+        int n = 10007;
+        PersistentVector.TransientVector<Integer> tv = PersistentVector.emptyTransient();
+        for (int i = 0; i < n; i++) {
+            tv.append(i);
+        }
+        PersistentVector<Integer> v = tv.persistent();
+
+        Spliterator<Integer> s = v.spliterator();
+        assertEquals(n, s.getExactSizeIfKnown());
+        assertTrue(s.hasCharacteristics(Spliterator.ORDERED | Spliterator.SIZED |
+                                        Spliterator.SUBSIZED | Spliterator.IMMUTABLE));
+
+        // Every piece should start at the beginning of a leaf and contain at most one leaf.
+        List<Spliterator<Integer>> leaves = new ArrayList<>();
+        splitAll(s, leaves);
+        List<Integer> items = new ArrayList<>();
+        for (Spliterator<Integer> leaf : leaves) {
+            assertTrue(leaf.estimateSize() <= 32);
+            assertTrue(leaf.tryAdvance(items::add));
+            assertEquals(0, items.get(items.size() - 1) % 32);
+            leaf.forEachRemaining(items::add);
+            assertEquals(0, leaf.estimateSize());
+            assertFalse(leaf.tryAdvance(items::add));
+        }
+        assertEquals(n, items.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(Integer.valueOf(i), items.get(i));
+        }
+
+        assertEquals(((long) n * (n - 1)) / 2,
+                     v.stream().parallel().mapToLong(Integer::longValue).sum());
+        assertEquals(v, v.stream().parallel().collect(Collectors.toList()));
+
+        assertNull(PersistentVector.ofIter(vec(1, 2, 3)).spliterator().trySplit());
+        assertNull(PersistentVector.empty().spliterator().trySplit());
+        assertEquals(0, PersistentVector.empty().stream().count());
+    }
+
+    @Test public void structuralEquals() {
+        for (int size : new int[] { 0, 1, 31, 32, 33, 1055, 1056, 1057, 40000 }) {
+            PersistentVector<Integer> a = PersistentVector.empty();
+            PersistentVector.TransientVector<Integer> tv = PersistentVector.emptyTransient();
+            List<Integer> control = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                a = a.append(i);
+                tv = tv.append(i);
+                control.add(i);
+            }
+            PersistentVector<Integer> b = tv.persistent();
+            assertEquals(control.hashCode(), a.hashCode());
+            assertEquals(control.hashCode(), a.hashCode());
+            assertEquals(a, b);
+            assertEquals(b, a);
+            assertEquals(control, a);
+            assertEquals(a, control);
+            if (size > 0) {
+                for (int idx : new int[] { 0, size / 2, size - 1 }) {
+                    PersistentVector<Integer> c = a.replace(idx, -1);
+                    assertNotEquals(a, c);
+                    assertNotEquals(c, b);
+                    assertEquals(a, c.replace(idx, idx));
+                }
+                PersistentVector<Integer> shorter = a.dropLast();
+                assertNotEquals(a, shorter);
+                assertEquals(a, shorter.append(size - 1));
+                assertEquals(shorter, b.dropLast());
+            }
+            assertNotEquals(a, a.append(null));
+            assertEquals(a.append(null), b.append(null));
+        }
+    }
 }
@@ -7,6 +7,8 @@ import java.math.BigInteger;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
 import static org.organicdesign.fp.collections.RangeOfInt.LIST_EQUATOR;
@@ -38,6 +40,17 @@ public class RangeOfIntTest {
         List<Integer> b = RangeOfInt.of(99, 100); // Is this correct?  It matches Scala, but...
         assertEquals(a.size(), b.size());
         assertEquals(a.get(0), b.get(0));
+
+        RangeOfInt r = RangeOfInt.of(-3, 4);
+        for (int i = 0; i < r.size(); i++) {
+            assertEquals(i - 3, r.getInt(i));
+            assertEquals(Integer.valueOf(i - 3), r.get(i));
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getIntEx() {
+        RangeOfInt.of(0, 3).getInt(3);
     }
 
     @SuppressWarnings("SuspiciousMethodCalls")
@@ -335,4 +348,21 @@ public class RangeOfIntTest {
         RangeOfInt r = RangeOfInt.of(-2, 5);
         r.subList(3,3).get(0);
     }
-}
\ No newline at end of file
+
+    @Test public void spliterator() {
+        RangeOfInt r = RangeOfInt.of(-2, 1000);
+        Spliterator<Integer> s = r.spliterator();
+        assertEquals(1002, s.getExactSizeIfKnown());
+        assertTrue(s.hasCharacteristics(Spliterator.ORDERED | Spliterator.SIZED |
+                                        Spliterator.SUBSIZED));
+        Spliterator<Integer> prefix = s.trySplit();
+        assertEquals(501, prefix.estimateSize());
+        assertEquals(501, s.estimateSize());
+        assertTrue(prefix.tryAdvance(i -> assertEquals(Integer.valueOf(-2), i)));
+        assertTrue(s.tryAdvance(i -> assertEquals(Integer.valueOf(499), i)));
+
+        assertEquals(499497, r.stream().parallel().mapToInt(Integer::intValue).sum());
+        assertEquals(r.stream().parallel().collect(Collectors.toList()), r);
+        assertNull(RangeOfInt.of(0, 1).spliterator().trySplit());
+    }
+}
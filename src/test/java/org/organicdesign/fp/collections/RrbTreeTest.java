@@ -0,0 +1,237 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.collections;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.organicdesign.fp.StaticImports.vec;
+import static org.organicdesign.testUtils.EqualsContract.equalsDistinctHashCode;
+
+@RunWith(JUnit4.class)
+public class RrbTreeTest {
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> ret = new ArrayList<>();
+        for (int i = from; i < to; i++) { ret.add(i); }
+        return ret;
+    }
+
+    private static void assertSame(List<Integer> control, RrbTree<Integer> test) {
+        assertEquals(control.size(), test.size());
+        for (int i = 0; i < control.size(); i++) {
+            assertEquals(control.get(i), test.get(i));
+        }
+        assertEquals(control, test);
+        assertEquals(control.hashCode(), test.hashCode());
+    }
+
+    @Test public void empty() {
+        RrbTree<Integer> empty = RrbTree.empty();
+        assertEquals(0, empty.size());
+        assertTrue(empty.isEmpty());
+        assertFalse(empty.iterator().hasNext());
+        assertTrue(empty == RrbTree.ofIter(Collections.<Integer>emptyList()));
+        equalsDistinctHashCode(empty, Collections.emptyList(), PersistentVector.empty(),
+                               RrbTree.empty().append(1));
+        UnmodListTest.listIteratorTest(Collections.emptyList(), empty);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void emptyEx() { RrbTree.empty().get(0); }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getEx() { RrbTree.ofIter(range(0, 100)).get(100); }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getNegEx() { RrbTree.ofIter(range(0, 100)).get(-1); }
+
+    @Test public void appendGetReplace() {
+        List<Integer> control = new ArrayList<>();
+        RrbTree<Integer> rrb = RrbTree.empty();
+        for (int i = 0; i < 40000; i++) {
+            rrb = rrb.append(i);
+            control.add(i);
+        }
+        assertSame(control, rrb);
+        assertEquals(rrb, RrbTree.ofIter(control));
+        assertEquals(PersistentVector.ofIter(control), rrb);
+
+        RrbTree<Integer> replaced = rrb;
+        for (int i = 0; i < control.size(); i += 13) {
+            replaced = replaced.replace(i, -i);
+            control.set(i, -i);
+        }
+        assertSame(control, replaced);
+        // Original unchanged.
+        assertEquals(range(0, 40000), rrb);
+
+        assertEquals(vec(1, 2, 3), RrbTree.ofIter(vec(1, 2)).replace(2, 3));
+    }
+
+    @Test public void concat() {
+        for (int aSize : new int[] { 0, 1, 5, 31, 32, 33, 1000, 1024, 1025, 40000 }) {
+            for (int bSize : new int[] { 0, 1, 7, 32, 33, 999, 1056, 40000 }) {
+                List<Integer> control = range(0, aSize + bSize);
+                RrbTree<Integer> a = RrbTree.ofIter(range(0, aSize));
+                RrbTree<Integer> b = RrbTree.ofIter(range(aSize, aSize + bSize));
+                assertSame(control, a.concat(b));
+            }
+        }
+        // Concatenating things that aren't RrbTrees
+        RrbTree<Integer> a = RrbTree.ofIter(range(0, 50));
+        assertEquals(range(0, 150), a.concat(range(50, 150)));
+        assertEquals(range(0, 53), a.concat(Arrays.asList(50, 51, 52)));
+        assertEquals(range(0, 150), a.concat(PersistentVector.ofIter(range(50, 150))));
+    }
+
+    @Test public void manySmallConcats() {
+        // Joining lots of little, unbalanced trees still produces a valid tree.
+        Random rnd = new Random(42);
+        List<Integer> control = new ArrayList<>();
+        RrbTree<Integer> rrb = RrbTree.empty();
+        int next = 0;
+        for (int i = 0; i < 500; i++) {
+            int len = rnd.nextInt(70);
+            RrbTree<Integer> piece = RrbTree.empty();
+            for (int j = 0; j < len; j++) {
+                piece = piece.append(next);
+                control.add(next++);
+            }
+            rrb = rnd.nextBoolean() ? rrb.concat(piece)
+                                    : RrbTree.ofIter(Collections.<Integer>emptyList())
+                                             .concat(rrb).concat(piece);
+        }
+        assertSame(control, rrb);
+        // And prepending
+        RrbTree<Integer> pre = RrbTree.empty();
+        List<Integer> preControl = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            List<Integer> items = range(i * 10, i * 10 + rnd.nextInt(40));
+            pre = RrbTree.ofIter(items).concat(pre);
+            preControl.addAll(0, items);
+        }
+        assertSame(preControl, pre);
+        // Appending after all that
+        for (int i = 0; i < 2000; i++) {
+            pre = pre.append(i);
+            preControl.add(i);
+        }
+        assertSame(preControl, pre);
+    }
+
+    @Test public void subList() {
+        List<Integer> control = range(0, 35000);
+        RrbTree<Integer> rrb = RrbTree.ofIter(control);
+        Random rnd = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            int from = rnd.nextInt(control.size() + 1);
+            int to = from + rnd.nextInt(control.size() - from + 1);
+            RrbTree<Integer> sub = rrb.subList(from, to);
+            assertSame(control.subList(from, to), sub);
+            // A sublist is a real tree, so we can keep working with it.
+            assertSame(control.subList(from, to), RrbTree.<Integer>empty().concat(sub));
+            if (to > from) {
+                int from2 = rnd.nextInt(sub.size());
+                assertSame(control.subList(from + from2, to), sub.subList(from2, sub.size()));
+            }
+        }
+        assertTrue(rrb == rrb.subList(0, rrb.size()));
+        assertEquals(0, rrb.subList(5, 5).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void subListEx() { RrbTree.ofIter(range(0, 10)).subList(5, 4); }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void subListEx2() { RrbTree.ofIter(range(0, 10)).subList(-1, 4); }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void subListEx3() { RrbTree.ofIter(range(0, 10)).subList(4, 11); }
+
+    @Test public void insertAndWithout() {
+        Random rnd = new Random(3);
+        List<Integer> control = new ArrayList<>();
+        RrbTree<Integer> rrb = RrbTree.empty();
+        for (int i = 0; i < 5000; i++) {
+            int idx = rnd.nextInt(control.size() + 1);
+            rrb = rrb.insert(idx, i);
+            control.add(idx, i);
+        }
+        assertSame(control, rrb);
+
+        for (int i = 0; i < 4000; i++) {
+            int idx = rnd.nextInt(control.size());
+            rrb = rrb.without(idx);
+            control.remove(idx);
+        }
+        assertSame(control, rrb);
+
+        // The O(n) default on ImList does the same thing.
+        ImList<Integer> pv = PersistentVector.ofIter(range(0, 100));
+        List<Integer> pvControl = range(0, 100);
+        pv = pv.insert(50, -1).insert(0, -2).insert(102, -3);
+        pvControl.add(50, -1);
+        pvControl.add(0, -2);
+        pvControl.add(102, -3);
+        assertEquals(pvControl, pv);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void insertEx() { RrbTree.ofIter(range(0, 10)).insert(11, 1); }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void withoutEx() { RrbTree.ofIter(range(0, 10)).without(10); }
+
+    @Test public void listIterator() {
+        RrbTree<Integer> rrb = RrbTree.ofIter(range(0, 500))
+                                      .concat(RrbTree.ofIter(range(500, 517)))
+                                      .concat(RrbTree.ofIter(range(517, 1100)));
+        UnmodListTest.listIteratorTest(range(0, 1100), rrb);
+    }
+
+    @Test public void equalsHashCode() {
+        equalsDistinctHashCode(RrbTree.ofIter(range(0, 100)),
+                               PersistentVector.ofIter(range(0, 100)),
+                               RrbTree.ofIter(range(0, 50)).concat(RrbTree.ofIter(range(50, 100))),
+                               RrbTree.ofIter(range(0, 101)));
+        assertEquals("RrbTree(1,2,3)", RrbTree.ofIter(vec(1, 2, 3)).toString());
+    }
+
+    @Test public void dropLast() {
+        List<Integer> control = range(0, 2000);
+        RrbTree<Integer> rrb = RrbTree.ofIter(range(0, 1000)).concat(RrbTree.ofIter(range(1000, 2000)));
+        while (rrb.size() > 0) {
+            rrb = rrb.dropLast();
+            control.remove(control.size() - 1);
+            assertEquals(control.size(), rrb.size());
+            if ((rrb.size() % 97) == 0) {
+                assertSame(control, rrb);
+            }
+        }
+        assertEquals(RrbTree.empty(), rrb);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void dropLastEmpty() { RrbTree.empty().dropLast(); }
+}
@@ -0,0 +1,76 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.function;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/** Tests IntFunction1, LongFunction1, IntFunction2, LongFunction2, and the other primitive ones. */
+@RunWith(JUnit4.class)
+public class PrimitiveFunctionTest {
+
+    @Test public void apply() {
+        IntFunction1 double1 = i -> i * 2;
+        assertEquals(6, double1.applyAsInt(3));
+        LongFunction1 negate = l -> -l;
+        assertEquals(-5000000000L, negate.applyAsLong(5000000000L));
+        IntFunction2 plus = (a, b) -> a + b;
+        assertEquals(7, plus.applyAsInt(3, 4));
+        LongFunction2 times = (a, b) -> a * b;
+        assertEquals(12L, times.applyAsLong(3, 4));
+        IntPredicate1 even = i -> (i & 1) == 0;
+        assertTrue(even.test(4));
+        assertFalse(even.test(3));
+        LongPredicate1 big = l -> l > Integer.MAX_VALUE;
+        assertTrue(big.test(1L << 40));
+        ToIntFunction1<String> length = String::length;
+        assertEquals(3, length.applyAsInt("abc"));
+        ToLongFunction1<String> parse = Long::parseLong;
+        assertEquals(1L << 40, parse.applyAsLong(String.valueOf(1L << 40)));
+
+        // They work anywhere the java.util.function versions do.
+        assertEquals(12, IntStream.of(1, 2, 3).map(double1).sum());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void applyIOException() {
+        IntFunction1 f = i -> { throw new IOException("test exception"); };
+        f.applyAsInt(1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void applyIllegalStateException() {
+        LongFunction2 f = (a, b) -> { throw new IllegalStateException("test exception"); };
+        f.applyAsLong(1, 2);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void predicateIOException() {
+        IntPredicate1 p = i -> { throw new IOException("test exception"); };
+        p.test(1);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void toLongIOException() {
+        ToLongFunction1<String> f = s -> { throw new IOException("test exception"); };
+        f.applyAsLong("hi");
+    }
+}
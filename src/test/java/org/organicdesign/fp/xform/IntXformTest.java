@@ -0,0 +1,109 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.xform;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.organicdesign.fp.collections.PersistentIntVector;
+import org.organicdesign.fp.collections.RangeOfInt;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+import static org.organicdesign.fp.StaticImports.vec;
+import static org.organicdesign.fp.StaticImports.xform;
+
+@RunWith(JUnit4.class)
+public class IntXformTest {
+
+    @Test public void sources() {
+        int[] expected = IntStream.range(-5, 2000).toArray();
+        assertArrayEquals(expected, IntXform.of(expected).toIntArray());
+        assertArrayEquals(expected, IntXform.of(RangeOfInt.of(-5, 2000)).toIntArray());
+        assertArrayEquals(expected, IntXform.of(PersistentIntVector.of(expected)).toIntArray());
+        assertArrayEquals(expected, RangeOfInt.of(-5, 2000).mapToInt(i -> i).toIntArray());
+        assertArrayEquals(new int[0], IntXform.of().toIntArray());
+        assertArrayEquals(new int[0], IntXform.of((int[]) null).toIntArray());
+        assertArrayEquals(new int[0], IntXform.of((PersistentIntVector) null).toIntArray());
+    }
+
+    @Test public void stages() {
+        int[] expected = IntStream.range(0, 1000)
+                                  .map(i -> i * 3)
+                                  .filter(i -> i % 2 == 0)
+                                  .map(i -> i + 1)
+                                  .toArray();
+        IntXform ix = IntXform.of(RangeOfInt.of(0, 1000))
+                              .map(i -> i * 3)
+                              .filter(i -> i % 2 == 0)
+                              .map(i -> i + 1);
+        assertArrayEquals(expected, ix.toIntArray());
+        // Realizing it twice gives the same answer.
+        assertArrayEquals(expected, ix.toIntArray());
+        assertEquals(IntStream.of(expected).asLongStream().sum(), ix.sum());
+        assertEquals(IntStream.of(expected).reduce(7, (a, b) -> a * 31 + b),
+                     ix.foldLeftInt(7, (a, b) -> a * 31 + b));
+        assertEquals(PersistentIntVector.of(expected), ix.toImList());
+        assertEquals(IntXform.of(expected).boxed().toImList(), ix.boxed().toImList());
+        assertEquals(vec(1, 3), IntXform.of(1, 2, 3).filter(i -> i != 2).boxed().toImList());
+    }
+
+    @Test public void fromXform() {
+        // Object stages first, then int stages.
+        IntXform ix = xform(vec("a", "bb", "ccc", "dddd", "eeeee"))
+                .filter(s -> !s.startsWith("b"))
+                .drop(1)
+                .mapToInt(String::length)
+                .map(i -> i * 10);
+        assertArrayEquals(new int[] { 30, 40, 50 }, ix.toIntArray());
+        assertEquals(120, ix.sum());
+        assertEquals(120, xform(vec("a", "bb", "ccc", "dddd", "eeeee")).filter(s -> !s.startsWith("b"))
+                                                                      .drop(1)
+                                                                      .sumInt(s -> s.length() * 10));
+        assertEquals(15, vec("a", "bb", "ccc", "dddd", "eeeee").sumInt(String::length));
+    }
+
+    @Test public void sumDoesNotOverflow() {
+        assertEquals(3L * Integer.MAX_VALUE,
+                     IntXform.of(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE).sum());
+        assertEquals(4999950000L, RangeOfInt.of(0, 100000).mapToInt(i -> i).sum());
+        assertEquals(4999950000L, RangeOfInt.of(0, 100000).sumInt(i -> i));
+    }
+
+    @Test public void lazy() {
+        AtomicInteger calls = new AtomicInteger(0);
+        IntXform ix = IntXform.of(1, 2, 3).map(i -> {
+            calls.incrementAndGet();
+            return i;
+        });
+        assertEquals(0, calls.get());
+        ix.sum();
+        assertEquals(3, calls.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullMap() { IntXform.of(1).map(null); }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullFilter() { IntXform.of(1).filter(null); }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullFold() { IntXform.of(1).foldLeftInt(0, null); }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullMapToInt() { xform(vec(1)).mapToInt(null); }
+}
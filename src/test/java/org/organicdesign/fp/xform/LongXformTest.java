@@ -0,0 +1,81 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.xform;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.organicdesign.fp.collections.PersistentLongVector;
+import org.organicdesign.fp.collections.RangeOfInt;
+
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.Assert.*;
+import static org.organicdesign.fp.StaticImports.vec;
+import static org.organicdesign.fp.StaticImports.xform;
+
+@RunWith(JUnit4.class)
+public class LongXformTest {
+
+    @Test public void sources() {
+        long[] expected = LongStream.range(0, 2000).map(l -> l << 33).toArray();
+        assertArrayEquals(expected, LongXform.of(expected).toLongArray());
+        assertArrayEquals(expected, LongXform.of(PersistentLongVector.of(expected)).toLongArray());
+        // Boxed items go through the Xform, then become longs.
+        assertArrayEquals(expected, xform(vec(0, 500, 1000, 1500)).flatMap(i -> RangeOfInt.of(i, i + 500))
+                                                                  .mapToLong(i -> ((long) i) << 33)
+                                                                  .toLongArray());
+        assertArrayEquals(new long[0], LongXform.of().toLongArray());
+        assertArrayEquals(new long[0], LongXform.of((long[]) null).toLongArray());
+        assertArrayEquals(new long[0], LongXform.of((PersistentLongVector) null).toLongArray());
+    }
+
+    @Test public void stages() {
+        long[] expected = LongStream.range(0, 1000)
+                                    .map(l -> l * 0x100000001L)
+                                    .filter(l -> l % 3 != 0)
+                                    .toArray();
+        LongXform lx = LongXform.of(LongStream.range(0, 1000).toArray())
+                                .map(l -> l * 0x100000001L)
+                                .filter(l -> l % 3 != 0);
+        assertArrayEquals(expected, lx.toLongArray());
+        assertEquals(LongStream.of(expected).sum(), lx.sum());
+        assertEquals(LongStream.of(expected).reduce(7, (a, b) -> a * 31 + b),
+                     lx.foldLeftLong(7, (a, b) -> a * 31 + b));
+        assertEquals(PersistentLongVector.of(expected), lx.toImList());
+        assertEquals(LongStream.of(expected).boxed().collect(Collectors.toList()),
+                     lx.boxed().toMutableList());
+    }
+
+    @Test public void fromTransformable() {
+        assertEquals(5000000000L + 7, vec("5000000000", "3", "4").sumLong(Long::parseLong));
+        assertEquals(5000000000L, vec("5000000000", "3", "4").mapToLong(Long::parseLong)
+                                                            .filter(l -> l > 4)
+                                                            .sum());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullMap() { LongXform.of(1).map(null); }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullFilter() { LongXform.of(1).filter(null); }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullFold() { LongXform.of(1).foldLeftLong(0, null); }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullMapToLong() { xform(vec(1)).mapToLong(null); }
+}
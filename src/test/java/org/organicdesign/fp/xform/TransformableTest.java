@@ -1,14 +1,21 @@
 package org.organicdesign.fp.xform;
 
 import org.junit.Test;
+import org.organicdesign.fp.collections.ImList;
 import org.organicdesign.fp.collections.ImMap;
+import org.organicdesign.fp.collections.ImSet;
 import org.organicdesign.fp.collections.ImSortedMap;
 import org.organicdesign.fp.collections.PersistentHashMap;
+import org.organicdesign.fp.collections.PersistentHashSet;
 import org.organicdesign.fp.collections.PersistentTreeMap;
+import org.organicdesign.fp.collections.PersistentVector;
+import org.organicdesign.fp.collections.RangeOfInt;
 import org.organicdesign.fp.collections.UnmodSortedIterable;
 import org.organicdesign.fp.tuple.Tuple2;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -109,4 +116,136 @@ public class TransformableTest {
         Transformable<Integer> trans = Xform.of(control);
         assertEquals(control, trans.toMutableSet());
     }
-}
\ No newline at end of file
+
+    @Test public void testGroupBy() throws Exception {
+        Transformable<String> trans = Xform.of(Arrays.asList("apple", "bob", "avocado", "cat",
+                                                             "banana", "", "axe"));
+        Map<Character,List<String>> control = new HashMap<>();
+        control.put('a', Arrays.asList("apple", "avocado", "axe"));
+        control.put('b', Arrays.asList("bob", "banana"));
+        control.put('c', Arrays.asList("cat"));
+        control.put(null, Arrays.asList(""));
+        ImMap<Character,ImList<String>> groups =
+                trans.groupBy(s -> s.isEmpty() ? null : s.charAt(0));
+        assertEquals(control, groups);
+        assertTrue(groups instanceof PersistentHashMap);
+
+        assertEquals(PersistentHashMap.empty(), Xform.<String>empty().groupBy(String::length));
+
+        // Enough items in enough groups to fill several TransientVector leaves and trie levels.
+        ImMap<Integer,ImList<Integer>> big = RangeOfInt.of(0, 100000).groupBy(i -> i % 1000);
+        assertEquals(1000, big.size());
+        for (int k = 0; k < 1000; k++) {
+            ImList<Integer> group = big.get(k);
+            assertEquals(100, group.size());
+            for (int j = 0; j < 100; j++) {
+                assertEquals(Integer.valueOf(k + j * 1000), group.get(j));
+            }
+        }
+    }
+
+    @Test public void testGroupByReduce() throws Exception {
+        Transformable<String> trans = Xform.of(Arrays.asList("apple", "bob", "avocado", "cat",
+                                                             "banana", "axe"));
+        Map<Character,Integer> control = new HashMap<>();
+        control.put('a', 5 + 7 + 3);
+        control.put('b', 3 + 6);
+        control.put('c', 3);
+        assertEquals(control, trans.groupBy(s -> s.charAt(0), 0, (sum, s) -> sum + s.length()));
+
+        // Each group starts from the identity and sees its items in order.
+        Map<Integer,String> firsts = new HashMap<>();
+        firsts.put(5, "apple");
+        firsts.put(3, "bob");
+        firsts.put(7, "avocado");
+        firsts.put(6, "banana");
+        assertEquals(firsts, trans.groupBy(String::length, null,
+                                           (first, s) -> (first == null) ? s : first));
+    }
+
+    @Test public void testCountBy() throws Exception {
+        Map<Boolean,Long> control = new HashMap<>();
+        control.put(true, 50000L);
+        control.put(false, 50001L);
+        assertEquals(control, RangeOfInt.of(0, 100001).countBy(i -> i % 2 == 1));
+
+        Map<String,Long> nulls = new HashMap<>();
+        nulls.put(null, 2L);
+        nulls.put("a", 1L);
+        assertEquals(nulls, Xform.of(Arrays.asList(null, "a", null)).countBy(s -> s));
+        assertEquals(PersistentHashMap.empty(), Xform.empty().countBy(o -> o));
+    }
+
+    @Test public void testPartition() throws Exception {
+        Tuple2<ImList<Integer>,ImList<Integer>> parts =
+                RangeOfInt.of(0, 10).partition(i -> i % 3 == 0);
+        assertEquals(Arrays.asList(0, 3, 6, 9), parts._1());
+        assertEquals(Arrays.asList(1, 2, 4, 5, 7, 8), parts._2());
+
+        parts = RangeOfInt.of(0, 100).partition(i -> i < 1000);
+        assertEquals(RangeOfInt.of(0, 100).toMutableList(), parts._1());
+        assertEquals(PersistentVector.empty(), parts._2());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGroupByNull() { Xform.of(Arrays.asList(1)).groupBy(null); }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGroupByNullReducer() {
+        Xform.of(Arrays.asList(1)).groupBy(i -> i, 0, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCountByNull() { Xform.of(Arrays.asList(1)).countBy(null); }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPartitionNull() { Xform.of(Arrays.asList(1)).partition(null); }
+
+    /** Enough items to fill several levels of the transient's trie, with duplicates and a null. */
+    @Test public void testToImMapAndSetTransient() throws Exception {
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 50000; i++) {
+            items.add(i * 7 % 20011);
+        }
+        items.add(null);
+        Map<Integer,Integer> controlMap = new HashMap<>();
+        for (Integer i : items) {
+            controlMap.put(i, (i == null) ? -1 : i + 1);
+        }
+        ImMap<Integer,Integer> map =
+                Xform.of(items).toImMap(i -> Tuple2.of(i, (i == null) ? -1 : i + 1));
+        assertEquals(controlMap, map);
+        assertEquals(controlMap.size(), map.size());
+        assertTrue(map instanceof PersistentHashMap);
+        // The result is persistent: changing it leaves it alone.
+        assertEquals(controlMap.size() + 1, map.assoc(-5, -5).size());
+        assertEquals(controlMap.size(), map.size());
+
+        // Later values overwrite earlier ones.
+        assertEquals(Collections.singletonMap(1, "b"),
+                     Xform.of(Arrays.asList("a", "b")).toImMap(s -> Tuple2.of(1, s)));
+
+        Set<Integer> controlSet = new HashSet<>(items);
+        ImSet<Integer> set = Xform.of(items).toImSet();
+        assertEquals(controlSet, set);
+        assertEquals(controlSet.size(), set.size());
+        assertTrue(set.contains(null));
+        assertEquals(controlSet.size(), set.put(-3).size() - 1);
+
+        // Of two equal items, the first one is kept (like PersistentHashSet.put()).
+        String first = new String("a");
+        String second = new String("a");
+        ImSet<String> strings = Xform.of(Arrays.asList(first, "b", second)).toImSet();
+        assertEquals(2, strings.size());
+        String kept = null;
+        for (String s : strings) {
+            if ("a".equals(s)) {
+                kept = s;
+            }
+        }
+        assertTrue(kept == first);
+
+        assertEquals(PersistentHashMap.empty(), Xform.empty().toImMap(o -> Tuple2.of(o, o)));
+        assertEquals(PersistentHashSet.empty(), Xform.empty().toImSet());
+    }
+}
@@ -18,13 +18,25 @@ import junit.framework.TestCase;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.organicdesign.fp.collections.ImList;
+import org.organicdesign.fp.collections.PersistentHashMap;
+import org.organicdesign.fp.collections.PersistentVector;
+import org.organicdesign.fp.collections.RangeOfInt;
 import org.organicdesign.fp.function.Function1;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -870,4 +882,527 @@ public class XformTest extends TestCase {
                           new Integer[]{4, 5, 6});
     }
     // Above here taken from SequenceTest.
-}
\ No newline at end of file
+
+    @Test public void persistentVectorSource() {
+        List<Integer> control = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) { control.add(i); }
+        PersistentVector<Integer> pv = PersistentVector.ofIter(control);
+
+        assertEquals(control, Xform.of(pv).toMutableList());
+        assertEquals(Xform.of(control).map(i -> i * 2).filter(i -> i % 3 == 0).toMutableList(),
+                     Xform.of(pv).map(i -> i * 2).filter(i -> i % 3 == 0).toMutableList());
+        assertEquals(control.subList(45, 1045), Xform.of(pv).drop(45).take(1000).toMutableList());
+        assertEquals(control.subList(0, 33), Xform.of(pv).takeWhile(i -> i < 33).toMutableList());
+        assertEquals(Arrays.asList(0, 0, 1, 1, 2),
+                     Xform.of(pv).flatMap(i -> vec(i, i)).take(5).toMutableList());
+        // flatMap whose results are PersistentVectors too.
+        assertEquals(Integer.valueOf(3000 * 2999),
+                     Xform.of(pv).flatMap(i -> vec(i, i)).foldLeft(0, (sum, i) -> sum + i));
+        assertEquals(Arrays.asList(2998, 2999, -1),
+                     Xform.of(pv).drop(2998).concat(vec(-1)).toMutableList());
+    }
+
+    @Test public void takeAfterFlatMapStopsEarly() {
+        AtomicInteger count = new AtomicInteger(0);
+        List<Integer> control = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) { control.add(i); }
+        for (Iterable<Integer> source : Arrays.<Iterable<Integer>>asList(control, PersistentVector.ofIter(control))) {
+            count.set(0);
+            assertEquals(Arrays.asList(0, 0, 1, 1),
+                         Xform.of(source)
+                              .flatMap(i -> {
+                                  count.incrementAndGet();
+                                  return Arrays.asList(i, i);
+                              })
+                              .take(4)
+                              .toMutableList());
+            // Previously this went through all 1000 items.
+            assertEquals(3, count.get());
+        }
+    }
+
+    @Test public void dropAfterTakeWhile() {
+        // The second drop must not be combined with the first one across the takeWhile.
+        assertEquals(Collections.emptyList(),
+                     xform(vec(5, 1, 5, 5)).drop(1).takeWhile(i -> i > 2).drop(1).toMutableList());
+        assertEquals(Arrays.asList(5, 5),
+                     xform(vec(1, 5, 5, 5)).drop(1).takeWhile(i -> i > 2).drop(1).toMutableList());
+        assertEquals(Arrays.asList(5, 5),
+                     xform(vec(1, 5, 5, 5, 5)).take(4).takeWhile(i -> i > 0).drop(1).take(2)
+                                              .toMutableList());
+    }
+
+    /** Every chain here is run with both foldLeft() and foldLeftParallel() on each source. */
+    @SuppressWarnings("unchecked")
+    private static final List<Function1<Xform<Integer>,Xform<Integer>>> PARALLEL_CHAINS =
+            Arrays.asList(x -> x,
+                          x -> x.map(i -> i * 3).filter(i -> (i & 1) == 0),
+                          x -> x.drop(1000).take(50000),
+                          x -> x.map(i -> i + 1).drop(7).map(i -> i * 2).take(12345).drop(3),
+                          x -> x.take(0),
+                          x -> x.drop(Long.MAX_VALUE),
+                          x -> x.flatMap(i -> vec(i, -i)).filter(i -> i % 3 != 0),
+                          x -> x.takeWhile(i -> i < 77777),
+                          x -> x.filter(i -> i % 5 != 0).takeWhile(i -> i < 50000),
+                          // These have to run sequentially.
+                          x -> x.filter(i -> i % 5 != 0).take(60000).drop(5),
+                          x -> x.takeWhile(i -> i < 70000).drop(3),
+                          x -> x.concat(vec(-1, -2)).precat(vec(-3)));
+
+    @Test public void foldLeftParallel() {
+        List<Integer> al = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            al.add(i);
+        }
+        List<Iterable<Integer>> sources = Arrays.asList(al, PersistentVector.ofIter(al),
+                                                        RangeOfInt.of(0, 100000),
+                                                        new LinkedList<>(al),
+                                                        al.subList(0, 500));
+        for (Iterable<Integer> source : sources) {
+            for (Function1<Xform<Integer>,Xform<Integer>> chain : PARALLEL_CHAINS) {
+                Xform<Integer> x = chain.apply(Xform.of(source));
+                List<Integer> expected = x.toMutableList();
+                // Building a list checks that the chunks are combined in order.
+                assertEquals(expected,
+                             x.<ImList<Integer>>foldLeftParallel(PersistentVector.empty(),
+                                                                 ImList::append,
+                                                                 ImList::concat));
+                assertEquals(x.foldLeft(0L, (sum, i) -> sum + i),
+                             x.foldLeftParallel(0L, (sum, i) -> sum + i, Long::sum));
+            }
+        }
+    }
+
+    @Test public void foldLeftParallelHashMap() {
+        PersistentHashMap<Integer,Integer> m = PersistentHashMap.empty();
+        for (int i = 0; i < 100000; i++) {
+            m = m.assoc(i, i * 2);
+        }
+        // The entries are combined in iteration order.
+        assertEquals(Xform.of(m).map(e -> e.getKey()).toMutableList(),
+                     Xform.of(m).map(e -> e.getKey())
+                                .<ImList<Integer>>foldLeftParallel(PersistentVector.empty(),
+                                                                   ImList::append,
+                                                                   ImList::concat));
+        long evens = Xform.of(m).filter(e -> e.getKey() % 2 == 0)
+                                .foldLeftParallel(0L, (sum, e) -> sum + e.getValue(), Long::sum);
+        long odds = Xform.of(m).filter(e -> e.getKey() % 2 != 0)
+                               .foldLeftParallel(0L, (sum, e) -> sum + e.getValue(), Long::sum);
+        assertEquals(99999L * 100000L, evens + odds);
+    }
+
+    @Test public void foldLeftParallelUsesThreads() {
+        Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        RangeOfInt range = RangeOfInt.of(0, 1000000);
+        assertEquals(Long.valueOf(999999L * 1000000L / 2),
+                     Xform.of(range).map(i -> {
+                         threads.add(Thread.currentThread());
+                         return i;
+                     }).foldLeftParallel(0L, (sum, i) -> sum + i, Long::sum));
+        if (ForkJoinPool.getCommonPoolParallelism() > 1) {
+            assertTrue(threads.size() > 1);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void foldLeftParallelNullReducer() {
+        Xform.of(vec(1)).foldLeftParallel(0, null, Integer::sum);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void foldLeftParallelNullCombiner() {
+        Xform.of(vec(1)).foldLeftParallel(0, Integer::sum, null);
+    }
+
+    @Test public void dropTakeOnIndexedSource() {
+        AtomicInteger count = new AtomicInteger(0);
+        assertEquals(RangeOfInt.of(5000000, 5000050).toMutableList(),
+                     Xform.of(RangeOfInt.of(0, 10000000))
+                          .map(i -> {
+                              count.incrementAndGet();
+                              return i;
+                          })
+                          .drop(5000000)
+                          .take(50)
+                          .toMutableList());
+        // Only the 50 items that were taken were ever mapped.
+        assertEquals(50, count.get());
+
+        // Counts how many items the fold reads from the source.
+        List<Integer> al = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            al.add(i);
+        }
+        count.set(0);
+        List<Integer> counting = new AbstractList<Integer>() {
+            @Override public Integer get(int index) {
+                count.incrementAndGet();
+                return al.get(index);
+            }
+            @Override public int size() { return al.size(); }
+        };
+        assertEquals(al.subList(99990, 100000),
+                     Xform.of(PersistentVector.ofIter(al)).drop(99990).toMutableList());
+        assertEquals(Collections.emptyList(),
+                     Xform.of(PersistentVector.ofIter(al)).drop(Long.MAX_VALUE).toMutableList());
+        assertEquals(al.subList(3, 8),
+                     Xform.of(PersistentVector.ofIter(al)).take(10).drop(3).take(5).toMutableList());
+        // Not RandomAccess, so the drop is a filter that sees every item.
+        assertEquals(al.subList(99990, 100000), Xform.of(counting).drop(99990).toMutableList());
+        assertEquals(100000, count.get());
+    }
+
+    /**
+     Runs random chains of operations over a RandomAccess source and a LinkedList holding the same
+     items.  The LinkedList can't do drops or takes by index, so it checks the index arithmetic.
+     */
+    @Test public void dropTakeIndexArithmetic() {
+        List<Integer> al = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            al.add(i);
+        }
+        List<Integer> ll = new LinkedList<>(al);
+        Random rnd = new Random(19);
+        for (int round = 0; round < 2000; round++) {
+            Xform<Integer> a = Xform.of(al);
+            Xform<Integer> b = Xform.of(ll);
+            Xform<Integer> c = Xform.of(PersistentVector.ofIter(al));
+            StringBuilder desc = new StringBuilder();
+            for (int j = rnd.nextInt(6); j >= 0; j--) {
+                int n = rnd.nextInt(120);
+                switch (rnd.nextInt(6)) {
+                    case 0: a = a.drop(n); b = b.drop(n); c = c.drop(n);
+                        desc.append(".drop(").append(n).append(")"); break;
+                    case 1: a = a.take(n); b = b.take(n); c = c.take(n);
+                        desc.append(".take(").append(n).append(")"); break;
+                    case 2: a = a.map(i -> i + 1); b = b.map(i -> i + 1); c = c.map(i -> i + 1);
+                        desc.append(".map()"); break;
+                    case 3: a = a.filter(i -> i % 3 != 0); b = b.filter(i -> i % 3 != 0);
+                        c = c.filter(i -> i % 3 != 0);
+                        desc.append(".filter()"); break;
+                    case 4: a = a.takeWhile(i -> i < 250); b = b.takeWhile(i -> i < 250);
+                        c = c.takeWhile(i -> i < 250);
+                        desc.append(".takeWhile()"); break;
+                    default: a = a.flatMap(i -> vec(i, i)); b = b.flatMap(i -> vec(i, i));
+                        c = c.flatMap(i -> vec(i, i));
+                        desc.append(".flatMap()");
+                }
+            }
+            List<Integer> expected = b.toMutableList();
+            assertEquals(desc.toString(), expected, a.toMutableList());
+            assertEquals(desc.toString(), expected, c.toMutableList());
+            assertEquals(desc.toString(), expected,
+                         c.<ImList<Integer>>foldLeftParallel(PersistentVector.empty(),
+                                                             ImList::append, ImList::concat));
+        }
+    }
+
+    @Test public void foldLeftTerminateStopsPulling() {
+        AtomicInteger count = new AtomicInteger(0);
+        // Existence check on a huge source.
+        assertEquals(Boolean.TRUE,
+                     Xform.of(RangeOfInt.of(0, Integer.MAX_VALUE))
+                          .map(i -> {
+                              count.incrementAndGet();
+                              return i;
+                          })
+                          .foldLeft(Boolean.FALSE, (found, i) -> i == 1000,
+                                    found -> found));
+        assertEquals(1001, count.get());
+
+        // First 3 matching, through flatMap, from a source that isn't a List.
+        count.set(0);
+        Iterable<Integer> counting = () -> new Iterator<Integer>() {
+            int i = 0;
+            @Override public boolean hasNext() { return true; }
+            @Override public Integer next() {
+                count.incrementAndGet();
+                return i++;
+            }
+        };
+        assertEquals(Arrays.asList(3, 30, 6),
+                     Xform.of(counting)
+                          .flatMap(i -> Arrays.asList(i, i * 10))
+                          .filter(i -> (i > 0) && (i % 3 == 0))
+                          .foldLeft(new ArrayList<Integer>(),
+                                    (alist, item) -> { alist.add(item); return alist; },
+                                    alist -> alist.size() == 3));
+        assertEquals(7, count.get());
+
+        // Through concat() and take().
+        assertEquals(Integer.valueOf(1 + 2 + 3 + 4 + 5 + 6 + 7),
+                     Xform.of(Arrays.asList(1, 2, 3))
+                          .concat(Arrays.asList(4, 5, 6, 7, 8, 9))
+                          .take(8)
+                          .foldLeft(0, (sum, i) -> sum + i, sum -> sum > 25));
+
+        // Never terminates.
+        assertEquals(Integer.valueOf(45),
+                     Xform.of(RangeOfInt.of(0, 10))
+                          .foldLeft(0, (sum, i) -> sum + i, sum -> sum > 100));
+    }
+
+    /** Counts how many items are read from an endless source of 0, 1, 2... */
+    private static Iterable<Integer> countingNaturals(AtomicInteger count) {
+        return () -> new Iterator<Integer>() {
+            int i = 0;
+            @Override public boolean hasNext() { return true; }
+            @Override public Integer next() {
+                count.incrementAndGet();
+                return i++;
+            }
+        };
+    }
+
+    @Test public void iteratorIsLazy() {
+        AtomicInteger count = new AtomicInteger(0);
+        Iterator<Integer> iter = Xform.of(countingNaturals(count))
+                                      .map(i -> i * 2)
+                                      .take(10)
+                                      .iterator();
+        assertEquals(0, count.get());
+        assertTrue(iter.hasNext());
+        assertEquals(1, count.get());
+        assertTrue(iter.hasNext());
+        assertEquals(1, count.get());
+        assertEquals(Integer.valueOf(0), iter.next());
+        assertEquals(Integer.valueOf(2), iter.next());
+        assertEquals(2, count.get());
+        for (int i = 2; i < 10; i++) {
+            assertEquals(Integer.valueOf(i * 2), iter.next());
+        }
+        assertFalse(iter.hasNext());
+        assertFalse(iter.hasNext());
+        try {
+            iter.next();
+            fail("Expected NoSuchElementException");
+        } catch (NoSuchElementException ignore) { }
+
+        // flatMap results are expanded one item at a time too.
+        count.set(0);
+        iter = Xform.of(countingNaturals(count))
+                    .flatMap(i -> (i % 2 == 0) ? Collections.emptyList() : vec(i, -i))
+                    .filter(i -> i != -3)
+                    .iterator();
+        assertEquals(Integer.valueOf(1), iter.next());
+        assertEquals(2, count.get());
+        assertEquals(Integer.valueOf(-1), iter.next());
+        assertEquals(Integer.valueOf(3), iter.next());
+        assertEquals(Integer.valueOf(5), iter.next());
+        assertEquals(6, count.get());
+
+        // takeWhile() after flatMap() ends the whole iteration.
+        assertEquals(Arrays.asList(1, 1, 2, 2),
+                     Xform.of(countingNaturals(new AtomicInteger(0)))
+                          .drop(1)
+                          .flatMap(i -> vec(i, i))
+                          .takeWhile(i -> i < 3)
+                          .toMutableList());
+        Iterator<Integer> tw = Xform.of(countingNaturals(new AtomicInteger(0)))
+                                    .drop(1)
+                                    .flatMap(i -> vec(i, i))
+                                    .takeWhile(i -> i < 3)
+                                    .iterator();
+        List<Integer> got = new ArrayList<>();
+        while (tw.hasNext()) {
+            got.add(tw.next());
+        }
+        assertEquals(Arrays.asList(1, 1, 2, 2), got);
+    }
+
+    @Test public void concatIsLazy() {
+        AtomicInteger count1 = new AtomicInteger(0);
+        AtomicInteger count2 = new AtomicInteger(0);
+        // Neither side ends, so anything that buffered either one would never return.
+        Iterator<Integer> iter = Xform.of(countingNaturals(count1))
+                                      .take(3)
+                                      .concat(countingNaturals(count2))
+                                      .precat(vec(-1))
+                                      .map(i -> i * 10)
+                                      .iterator();
+        assertEquals(Integer.valueOf(-10), iter.next());
+        assertEquals(0, count1.get());
+        assertEquals(Integer.valueOf(0), iter.next());
+        assertEquals(Integer.valueOf(10), iter.next());
+        assertEquals(Integer.valueOf(20), iter.next());
+        assertEquals(0, count2.get());
+        assertEquals(Integer.valueOf(0), iter.next());
+        assertEquals(Integer.valueOf(10), iter.next());
+        assertEquals(2, count2.get());
+
+        count1.set(0);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4),
+                     Xform.of(countingNaturals(count1))
+                          .concat(vec(99))
+                          .take(5)
+                          .toMutableList());
+        // take() reads one extra item to find out that it's done.
+        assertEquals(6, count1.get());
+    }
+
+    /** The iterator gives the same items as foldLeft() for random transformations. */
+    @Test public void iteratorMatchesFold() {
+        List<Integer> al = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            al.add(i);
+        }
+        Random rnd = new Random(21);
+        for (int round = 0; round < 2000; round++) {
+            Xform<Integer> x = Xform.of(rnd.nextBoolean() ? al : new LinkedList<>(al));
+            StringBuilder desc = new StringBuilder();
+            for (int j = rnd.nextInt(7); j >= 0; j--) {
+                int n = rnd.nextInt(40);
+                switch (rnd.nextInt(8)) {
+                    case 0: x = x.drop(n); desc.append(".drop(").append(n).append(")"); break;
+                    case 1: x = x.take(n); desc.append(".take(").append(n).append(")"); break;
+                    case 2: x = x.map(i -> i + 1); desc.append(".map()"); break;
+                    case 3: x = x.filter(i -> i % 3 != 0); desc.append(".filter()"); break;
+                    case 4: x = x.takeWhile(i -> i < 50); desc.append(".takeWhile()"); break;
+                    case 5: x = x.concat(al.subList(0, n)); desc.append(".concat(").append(n).append(")"); break;
+                    case 6: x = x.precat(al.subList(0, n)); desc.append(".precat(").append(n).append(")"); break;
+                    default: x = x.flatMap(i -> (i % 4 == 0) ? Collections.emptyList() : vec(i, i));
+                        desc.append(".flatMap()");
+                }
+            }
+            List<Integer> iterated = new ArrayList<>();
+            for (Integer i : x) {
+                iterated.add(i);
+            }
+            assertEquals(desc.toString(), x.toMutableList(), iterated);
+        }
+    }
+
+    /** Adjacent maps and filters are fused, but still run in order, once per item. */
+    @Test public void fusedStages() {
+        List<String> calls = new ArrayList<>();
+        Xform<Integer> x = Xform.of(Arrays.asList(1, 2, 3, 4))
+                                .filter(accept())
+                                .map(Function1.identity())
+                                .filter(i -> { calls.add("f1:" + i); return i > 1; })
+                                .filter(i -> { calls.add("f2:" + i); return i < 4; })
+                                .map(i -> { calls.add("m1:" + i); return i * 10; })
+                                .map(i -> { calls.add("m2:" + i); return i + 1; })
+                                .filter(i -> { calls.add("f3:" + i); return i != 21; })
+                                .map(i -> { calls.add("m3:" + i); return i * 2; });
+        List<String> expectedCalls = Arrays.asList("f1:1",
+                                                   "f1:2", "f2:2", "m1:2", "m2:20", "f3:21",
+                                                   "f1:3", "f2:3", "m1:3", "m2:30", "f3:31", "m3:31",
+                                                   "f1:4", "f2:4");
+        assertEquals(Collections.singletonList(62), x.toMutableList());
+        assertEquals(expectedCalls, calls);
+
+        calls.clear();
+        assertEquals(Collections.singletonList(62), x.flatMap(Collections::singletonList)
+                                                     .toMutableList());
+        assertEquals(expectedCalls, calls);
+
+        calls.clear();
+        List<Integer> iterated = new ArrayList<>();
+        for (Integer i : x) {
+            iterated.add(i);
+        }
+        assertEquals(Collections.singletonList(62), iterated);
+        assertEquals(expectedCalls, calls);
+
+        // A drop after fused maps still goes to the source.
+        AtomicInteger count = new AtomicInteger(0);
+        assertEquals(Arrays.asList(1003, 1004),
+                     Xform.of(RangeOfInt.of(0, 100000))
+                          .map(i -> { count.incrementAndGet(); return i + 1; })
+                          .map(i -> i + 2)
+                          .drop(1000)
+                          .take(2)
+                          .toMutableList());
+        assertEquals(2, count.get());
+
+        // A drop or take after a filter still sees only the items that the filter kept.
+        assertEquals(Arrays.asList(8, 10),
+                     Xform.of(RangeOfInt.of(0, 20))
+                          .filter(i -> i % 2 == 0)
+                          .map(i -> i + 0)
+                          .drop(4)
+                          .take(2)
+                          .toMutableList());
+    }
+
+    @Test public void compiledPlan() {
+        List<Integer> al = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            al.add(i);
+        }
+        List<Iterable<Integer>> sources = Arrays.asList(al, PersistentVector.ofIter(al),
+                                                        RangeOfInt.of(0, 100000),
+                                                        new LinkedList<>(al),
+                                                        al.subList(0, 500),
+                                                        Collections.emptyList());
+        // Compiled against one kind of source, run on all of them.
+        for (Iterable<Integer> compiledOn : Arrays.asList(al, new LinkedList<>(al.subList(0, 3)))) {
+            for (Function1<Xform<Integer>,Xform<Integer>> chain :
+                    PARALLEL_CHAINS.subList(0, PARALLEL_CHAINS.size() - 1)) {
+                Xform.Plan<Integer> plan = chain.apply(Xform.of(compiledOn)).compile();
+                assertEquals(chain.apply(Xform.of(compiledOn)).toMutableList(),
+                             plan.run(new ArrayList<>(), (list, i) -> {
+                                 list.add(i);
+                                 return list;
+                             }));
+                for (Iterable<Integer> source : sources) {
+                    List<Integer> expected = chain.apply(Xform.of(source)).toMutableList();
+                    // Twice, to show that the drop and take counters start over.
+                    assertEquals(expected, plan.toMutableList(source));
+                    assertEquals(expected, plan.toMutableList(source));
+                    assertEquals(chain.apply(Xform.of(source)).foldLeft(0L, (sum, i) -> sum + i),
+                                 plan.run(source, 0L, (sum, i) -> sum + i));
+                }
+            }
+        }
+
+        // The new source replaces the one at the start of the chain.
+        Xform.Plan<Integer> concat = Xform.of(vec(1, 2, 3)).map(i -> i * 10).drop(1)
+                                          .concat(vec(-1, -2)).take(3).compile();
+        assertEquals(Arrays.asList(20, 30, -1), concat.toMutableList(null));
+        assertEquals(Arrays.asList(50, 60, 70), concat.toMutableList(vec(4, 5, 6, 7)));
+        assertEquals(Arrays.asList(50, -1, -2), concat.toMutableList(vec(4, 5)));
+        assertEquals(Arrays.asList(-1, -2), concat.toMutableList(new LinkedList<>(vec(4))));
+        assertEquals(Arrays.asList(-1, -2), concat.toMutableList(Collections.emptyList()));
+
+        Xform.Plan<Integer> precat = Xform.of(vec(1, 2, 3)).precat(vec(0)).drop(1).compile();
+        assertEquals(Arrays.asList(1, 2, 3), precat.toMutableList(null));
+        assertEquals(Arrays.asList(8, 1, 2, 3), precat.toMutableList(vec(9, 8)));
+
+        // The plan is unaffected by later changes to the Xform it came from.
+        Xform<Integer> x = Xform.of(al).take(2);
+        Xform.Plan<Integer> plan = x.compile();
+        x.drop(1).toMutableList();
+        assertEquals(Arrays.asList(7, 8), plan.toMutableList(vec(7, 8, 9)));
+
+        try {
+            plan.run(al, 0, null);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException ignore) { }
+    }
+
+    @Test public void compiledPlanFromThreads() throws Exception {
+        Xform.Plan<Integer> plan = Xform.of(RangeOfInt.of(0, 1))
+                                        .map(i -> i + 1)
+                                        .drop(2)
+                                        .filter(i -> i % 2 == 0)
+                                        .take(5)
+                                        .compile();
+        List<Integer> source = new LinkedList<>(RangeOfInt.of(0, 100).toMutableList());
+        List<Integer> expected = Arrays.asList(4, 6, 8, 10, 12);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            results.add(pool.submit(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    if (!expected.equals(plan.toMutableList(source))) { return false; }
+                }
+                return true;
+            }));
+        }
+        for (Future<Boolean> result : results) {
+            assertTrue(result.get());
+        }
+        pool.shutdown();
+    }
+}